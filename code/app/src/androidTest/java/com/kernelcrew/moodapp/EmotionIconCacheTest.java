@@ -0,0 +1,100 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.maps.MapsInitializer;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.ui.EmotionIconUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+/**
+ * Check that map marker icons are drawn once per emotion, and compare the bitmaps allocated for
+ * a map full of markers with and without the cache. Must be an instrumented test because it
+ * relies on the android Bitmap class and the maps SDK.
+ */
+public class EmotionIconCacheTest {
+    private static final int MARKERS = 1000;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        MapsInitializer.initialize(context);
+        EmotionIconUtils.clearCache();
+    }
+
+    @Test
+    public void iconsAreSharedPerEmotion() {
+        BitmapDescriptor happy = EmotionIconUtils.getEmotionIcon(context, Emotion.HAPPINESS);
+        assertSame(happy, EmotionIconUtils.getEmotionIcon(context, "Happy"));
+
+        int before = EmotionIconUtils.getBitmapsCreated();
+        EmotionIconUtils.prewarm(context);
+        // Happy was already drawn
+        assertEquals(Emotion.values().length - 1, EmotionIconUtils.getBitmapsCreated() - before);
+    }
+
+    @Test
+    public void configurationChangeRedrawsIcons() {
+        BitmapDescriptor icon = EmotionIconUtils.getEmotionIcon(context, Emotion.SADNESS);
+
+        Configuration configuration = new Configuration(context.getResources().getConfiguration());
+        configuration.densityDpi *= 2;
+        Context denser = context.createConfigurationContext(configuration);
+        int before = EmotionIconUtils.getBitmapsCreated();
+        BitmapDescriptor redrawn = EmotionIconUtils.getEmotionIcon(denser, Emotion.SADNESS);
+        assertEquals(1, EmotionIconUtils.getBitmapsCreated() - before);
+        assertSame(redrawn, EmotionIconUtils.getEmotionIcon(denser, Emotion.SADNESS));
+
+        // And back again
+        before = EmotionIconUtils.getBitmapsCreated();
+        EmotionIconUtils.getEmotionIcon(context, Emotion.SADNESS);
+        assertEquals(1, EmotionIconUtils.getBitmapsCreated() - before);
+    }
+
+    @Test
+    public void allocationsForThousandMarkers() {
+        Emotion[] emotions = Emotion.values();
+        float density = context.getResources().getDisplayMetrics().density;
+        int side = Math.round(30 * density);
+        long bytesPerIcon = (long) side * side * 4;
+
+        // Previously every marker drew its own icon
+        int before = EmotionIconUtils.getBitmapsCreated();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < MARKERS; i++) {
+            EmotionIconUtils.createEmotionIcon(context, emotions[i % emotions.length].toString());
+        }
+        long uncachedNanos = SystemClock.elapsedRealtimeNanos() - start;
+        int uncached = EmotionIconUtils.getBitmapsCreated() - before;
+
+        before = EmotionIconUtils.getBitmapsCreated();
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < MARKERS; i++) {
+            EmotionIconUtils.getEmotionIcon(context, emotions[i % emotions.length]);
+        }
+        long cachedNanos = SystemClock.elapsedRealtimeNanos() - start;
+        int cached = EmotionIconUtils.getBitmapsCreated() - before;
+
+        Log.i("EmotionIconCacheTest", String.format(Locale.ROOT,
+                "%d markers: uncached %d bitmaps (%d KiB) in %.1f ms, cached %d bitmaps (%d KiB) in %.1f ms",
+                MARKERS, uncached, uncached * bytesPerIcon / 1024, uncachedNanos / 1e6,
+                cached, cached * bytesPerIcon / 1024, cachedNanos / 1e6));
+        assertEquals(MARKERS, uncached);
+        assertEquals(emotions.length, cached);
+    }
+}
@@ -0,0 +1,113 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Query;
+import com.kernelcrew.moodapp.data.CombinedListener;
+import com.kernelcrew.moodapp.data.CombinedListenerComposer;
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.data.MoodEventFilter;
+import com.kernelcrew.moodapp.data.MoodEventProvider;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the home feed listeners against the emulator: how many listeners are opened, how long
+ * until the first combined result, and how long the listener spends handling an update.
+ * <p>
+ * Skipped unless run with the instrumentation argument {@code benchmarks=true}.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedListenerBenchmarkTest extends FirebaseEmulatorMixin {
+    private static final int[] FOLLOWED_COUNTS = { 10, 100, 500 };
+    private static final int FOLLOWER_LIMIT = 3;
+
+    @BeforeClass
+    public static void seedUser() throws ExecutionException, InterruptedException {
+        assumeTrue(Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString("benchmarks", "false")));
+        staticCreateUser();
+        loginUser();
+    }
+
+    @Test
+    public void benchmarkFeedListeners() throws Exception {
+        MoodEventProvider provider = MoodEventProvider.getInstance();
+        String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+        Tasks.await(provider.insertMoodEvent(
+                new MoodEvent(uid, TEST_USERNAME, Emotion.HAPPINESS, "Alone", "seed", null, null)));
+
+        for (int followedCount : FOLLOWED_COUNTS) {
+            List<String> userIds = new ArrayList<>();
+            userIds.add(uid);
+            for (int i = 0; i < followedCount; i++) {
+                userIds.add("followed-" + i);
+            }
+
+            MoodEventFilter filter = new MoodEventFilter(provider)
+                    .setSortField("created", Query.Direction.DESCENDING);
+
+            CountDownLatch firstResult = new CountDownLatch(1);
+            CountDownLatch update = new CountDownLatch(2);
+            AtomicLong lastHandleNanos = new AtomicLong();
+            long start = SystemClock.elapsedRealtimeNanos();
+            AtomicLong firstResultNanos = new AtomicLong();
+
+            CombinedListenerComposer registration = (CombinedListenerComposer)
+                    provider.listenToMoodEventsForUsers(userIds, filter, FOLLOWER_LIMIT, new CombinedListener() {
+                        @Override
+                        public void onEvent(List<DocumentSnapshot> documents, FirebaseFirestoreException error) {
+                            long handleStart = SystemClock.elapsedRealtimeNanos();
+                            assertNull(error);
+                            if (firstResult.getCount() > 0) {
+                                firstResultNanos.set(handleStart - start);
+                            }
+                            firstResult.countDown();
+                            update.countDown();
+                            lastHandleNanos.set(SystemClock.elapsedRealtimeNanos() - handleStart);
+                        }
+                    });
+
+            assertTrue(firstResult.await(30, TimeUnit.SECONDS));
+
+            // One listener for the current user, plus one per whereIn batch of followed users
+            int expectedListeners = 1 + (followedCount + 29) / 30;
+            assertEquals(expectedListeners, registration.getListenerCount());
+
+            Tasks.await(provider.insertMoodEvent(
+                    new MoodEvent(uid, TEST_USERNAME, Emotion.SADNESS, "Alone", "update", null, null)));
+            update.await(30, TimeUnit.SECONDS);
+            registration.remove();
+
+            Log.i("FeedListenerBenchmark", String.format(
+                    "followed=%d listeners=%d first result=%d ms last update handled in %d us",
+                    followedCount,
+                    registration.getListenerCount(),
+                    firstResultNanos.get() / 1_000_000,
+                    lastHandleNanos.get() / 1_000));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
+import com.kernelcrew.moodapp.data.CombinedListener;
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.FeedFanoutWorker;
+import com.kernelcrew.moodapp.data.FeedMode;
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.data.MoodEventFilter;
+import com.kernelcrew.moodapp.data.MoodEventProvider;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the read-time merged feed with the materialized feed against the emulator: the time
+ * until the feed is first shown, and how many extra writes each mood event costs.
+ * <p>
+ * Skipped unless run with the instrumentation argument {@code benchmarks=true}.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedModeBenchmarkTest extends FirebaseEmulatorMixin {
+    private static final int FOLLOWERS = 50;
+    private static final int MOODS = 10;
+
+    @BeforeClass
+    public static void seedUser() throws ExecutionException, InterruptedException {
+        assumeTrue(Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString("benchmarks", "false")));
+        staticCreateUser();
+        loginUser();
+    }
+
+    @After
+    public void resetFeedMode() {
+        MoodEventProvider.getInstance().setFeedMode(FeedMode.READ_TIME_MERGE);
+    }
+
+    /**
+     * Time until a feed listener first reports at least MOODS mood events.
+     */
+    private long timeToFeed(ListenerFactory factory) throws InterruptedException {
+        CountDownLatch loaded = new CountDownLatch(1);
+        long start = SystemClock.elapsedRealtime();
+        ListenerRegistration registration = factory.listen(new CombinedListener() {
+            @Override
+            public void onEvent(List<DocumentSnapshot> documents, FirebaseFirestoreException error) {
+                if (error == null && documents.size() >= MOODS) {
+                    loaded.countDown();
+                }
+            }
+        });
+        assertTrue(loaded.await(30, TimeUnit.SECONDS));
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        registration.remove();
+        return elapsed;
+    }
+
+    private interface ListenerFactory {
+        ListenerRegistration listen(CombinedListener listener);
+    }
+
+    @Test
+    public void compareFeedModes() throws Exception {
+        MoodEventProvider provider = MoodEventProvider.getInstance();
+        FeedFanoutWorker worker = FeedFanoutWorker.getInstance();
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+
+        // Followers who will receive the fan-out, and whom we pretend to follow back
+        WriteBatch batch = db.batch();
+        List<String> userIds = new ArrayList<>();
+        userIds.add(uid);
+        for (int i = 0; i < FOLLOWERS; i++) {
+            batch.set(db.collection("users").document(uid).collection("followers").document("follower-" + i),
+                    Collections.emptyMap());
+            userIds.add("follower-" + i);
+        }
+        Tasks.await(batch.commit());
+
+        provider.setFeedMode(FeedMode.MATERIALIZED);
+        long writesBefore = worker.getWriteCount();
+        for (int i = 0; i < MOODS; i++) {
+            Tasks.await(provider.insertMoodEvent(
+                    new MoodEvent(uid, TEST_USERNAME, Emotion.HAPPINESS, "Alone", "mood " + i, null, null)));
+        }
+        Tasks.await(worker.idle());
+        long feedWrites = worker.getWriteCount() - writesBefore;
+
+        // One copy for the author plus one per follower
+        assertEquals((long) MOODS * (FOLLOWERS + 1), feedWrites);
+
+        MoodEventFilter filter = new MoodEventFilter(provider)
+                .setSortField("created", Query.Direction.DESCENDING);
+        long readTimeMergeMs = timeToFeed(listener ->
+                provider.listenToMoodEventsForUsers(userIds, filter, 3, listener));
+
+        MoodEventFilter feedFilter = new MoodEventFilter(provider)
+                .setSortField("created", Query.Direction.DESCENDING);
+        long materializedMs = timeToFeed(listener ->
+                provider.listenToMaterializedFeed(uid, feedFilter, 20, listener));
+
+        Log.i("FeedModeBenchmark", String.format(
+                "followers=%d moods=%d: read-time merge %d ms, materialized %d ms, "
+                        + "write amplification %.1f feed writes per mood",
+                FOLLOWERS, MOODS, readTimeMergeMs, materializedMs, (double) feedWrites / MOODS));
+    }
+}
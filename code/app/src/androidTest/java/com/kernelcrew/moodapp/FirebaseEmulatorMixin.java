@@ -7,6 +7,7 @@ import com.google.firebase.FirebaseApp;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.kernelcrew.moodapp.data.UserSearchIndex;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -47,7 +48,7 @@ public class FirebaseEmulatorMixin {
 
     @After
     public void teardown() throws IOException {
-        // Just clear the moodEvents
+        // Just clear the moodEvents (and their photos and heatmap counts)
 
         String projectId = FirebaseApp.getInstance().getOptions().getProjectId();
         URL url = new URL("http://10.0.2.2:8080/emulator/v1/projects/" + projectId +
@@ -57,6 +58,22 @@ public class FirebaseEmulatorMixin {
         int response = urlConnection.getResponseCode();
         Log.i("Response Code", "Response Code: " + response);
         urlConnection.disconnect();
+
+        url = new URL("http://10.0.2.2:8080/emulator/v1/projects/" + projectId +
+                "/databases/(default)/documents/moodEventPhotos");
+        urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("DELETE");
+        response = urlConnection.getResponseCode();
+        Log.i("Response Code", "Response Code: " + response);
+        urlConnection.disconnect();
+
+        url = new URL("http://10.0.2.2:8080/emulator/v1/projects/" + projectId +
+                "/databases/(default)/documents/moodHeatmap");
+        urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("DELETE");
+        response = urlConnection.getResponseCode();
+        Log.i("Response Code", "Response Code: " + response);
+        urlConnection.disconnect();
     }
 
     @AfterClass
@@ -122,6 +139,7 @@ public class FirebaseEmulatorMixin {
             // Add uid property required by the security rules.
             userData.put("uid", auth.getCurrentUser().getUid());
             userData.put("username", TEST_USERNAME);
+            userData.putAll(UserSearchIndex.fieldsFor(TEST_USERNAME));
             // Optionally, add email if your rules require it.
             userData.put("email", TEST_EMAIL);
             Tasks.await(db.collection("users").document(auth.getCurrentUser().getUid()).set(userData));
@@ -29,6 +29,7 @@ import com.kernelcrew.moodapp.data.Emotion;
 import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.data.MoodEventProvider;
 import com.kernelcrew.moodapp.data.MoodEventVisibility;
+import com.kernelcrew.moodapp.data.UserSearchIndex;
 import com.kernelcrew.moodapp.ui.MainActivity;
 
 import org.awaitility.Awaitility;
@@ -96,6 +97,7 @@ public class FollowRequestTest extends FirebaseEmulatorMixin {
         userBData.put("uid", uidB);
         userBData.put("email", USER_B_EMAIL);
         userBData.put("username", USER_B_USERNAME);
+        userBData.putAll(UserSearchIndex.fieldsFor(USER_B_USERNAME));
         Tasks.await(db.collection("users").document(uidB).set(userBData, SetOptions.merge()));
 
         // Seed the corresponding usernames document.
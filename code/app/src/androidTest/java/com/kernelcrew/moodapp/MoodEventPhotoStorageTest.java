@@ -0,0 +1,199 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.GeoPoint;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.data.MoodEventProvider;
+import com.kernelcrew.moodapp.utils.PhotoUtils;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Check that mood event photos are stored outside of the moodEvents collection, so that loading
+ * the feed does not download any photo bytes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MoodEventPhotoStorageTest extends FirebaseEmulatorMixin {
+    private static final int FEED_SIZE = 10;
+
+    @BeforeClass
+    public static void seedUser() throws ExecutionException, InterruptedException {
+        staticCreateUser();
+        loginUser();
+    }
+
+    /**
+     * Create a noisy photo so that it does not compress down to nothing.
+     */
+    private static Bitmap noisyPhoto() {
+        Random random = new Random(301);
+        Bitmap photo = Bitmap.createBitmap(128, 128, Bitmap.Config.ARGB_8888);
+        for (int x = 0; x < photo.getWidth(); x++) {
+            for (int y = 0; y < photo.getHeight(); y++) {
+                photo.setPixel(x, y, 0xFF000000 | random.nextInt(0xFFFFFF));
+            }
+        }
+        return photo;
+    }
+
+    /**
+     * Size of a document as Firestore counts it: its field names and values, plus 32 bytes.
+     */
+    private static long documentSize(DocumentSnapshot doc) {
+        return 32 + valueSize(doc.getData());
+    }
+
+    private static long valueSize(Object value) {
+        if (value instanceof String) {
+            return ((String) value).getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        if (value instanceof Blob) {
+            return ((Blob) value).toBytes().length;
+        }
+        if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<?, ?> field : ((Map<?, ?>) value).entrySet()) {
+                size += valueSize(field.getKey()) + valueSize(field.getValue());
+            }
+            return size;
+        }
+        if (value instanceof List) {
+            long size = 0;
+            for (Object item : (List<?>) value) {
+                size += valueSize(item);
+            }
+            return size;
+        }
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        }
+        if (value instanceof GeoPoint) {
+            return 16;
+        }
+        // Numbers and timestamps
+        return 8;
+    }
+
+    private static MoodEvent photoMood(Bitmap photo) {
+        MoodEvent moodEvent = new MoodEvent(null, null, Emotion.HAPPINESS, "Alone", "With a photo", null, null);
+        moodEvent.setPhoto(photo);
+        return moodEvent;
+    }
+
+    @Test
+    public void feedDoesNotDownloadPhotos() throws ExecutionException, InterruptedException {
+        MoodEventProvider provider = MoodEventProvider.getInstance();
+        Bitmap photo = noisyPhoto();
+
+        Blob photoBlob = null;
+        for (int i = 0; i < FEED_SIZE; i++) {
+            MoodEvent moodEvent = photoMood(photo);
+            photoBlob = moodEvent.getPhotoBlob();
+            Tasks.await(provider.insertMoodEvent(moodEvent));
+        }
+
+        QuerySnapshot feed = Tasks.await(FirebaseFirestore.getInstance()
+                .collection("moodEvents")
+                .get());
+        assertEquals(FEED_SIZE, feed.size());
+        for (DocumentSnapshot doc : feed.getDocuments()) {
+            assertFalse(doc.contains("photoBlob"));
+            assertFalse(doc.contains("photoBytes"));
+            assertEquals(Boolean.TRUE, doc.getBoolean("hasPhoto"));
+            assertNotNull(doc.getString("photoHash"));
+            // Rows can still show a preview, at a tiny fraction of the photo's size
+            assertNotNull(doc.getBlob("thumbnail"));
+            assertTrue(doc.getBlob("thumbnail").toBytes().length <= PhotoUtils.THUMBNAIL_MAX_BYTES);
+        }
+
+        // Previously the photo was stored inline, so every feed load paid for every photo up front
+        WriteBatch batch = FirebaseFirestore.getInstance().batch();
+        List<String> inlineIds = new ArrayList<>();
+        for (DocumentSnapshot doc : feed.getDocuments()) {
+            Map<String, Object> inline = new HashMap<>(doc.getData());
+            inline.put("photoBlob", photoBlob);
+            DocumentReference ref = FirebaseFirestore.getInstance().collection("moodEvents").document();
+            batch.set(ref, inline);
+            inlineIds.add(ref.getId());
+        }
+        Tasks.await(batch.commit());
+        QuerySnapshot inlineFeed = Tasks.await(FirebaseFirestore.getInstance()
+                .collection("moodEvents")
+                .whereIn(FieldPath.documentId(), inlineIds)
+                .get());
+        assertEquals(FEED_SIZE, inlineFeed.size());
+
+        long feedBytes = 0;
+        for (DocumentSnapshot doc : feed.getDocuments()) {
+            feedBytes += documentSize(doc);
+        }
+        long inlineBytes = 0;
+        for (DocumentSnapshot doc : inlineFeed.getDocuments()) {
+            inlineBytes += documentSize(doc);
+        }
+        Log.i("MoodEventPhotoStorageTest", String.format(Locale.ROOT,
+                "Feed of %d mood events: %d bytes, %d bytes with inline photos",
+                FEED_SIZE, feedBytes, inlineBytes));
+        assertTrue(inlineBytes - feedBytes >= (long) photoBlob.toBytes().length * FEED_SIZE);
+        assertTrue(feedBytes * 4 < inlineBytes);
+
+        // The photo is still available on demand
+        MoodEvent fetched = feed.getDocuments().get(0).toObject(MoodEvent.class);
+        assertNotNull(fetched);
+        assertTrue(fetched.hasPhoto());
+        assertFalse(fetched.isPhotoLoaded());
+        Bitmap loaded = Tasks.await(provider.loadPhoto(fetched));
+        assertNotNull(loaded);
+        assertEquals(photo.getWidth(), loaded.getWidth());
+    }
+
+    @Test
+    public void removingPhotoDeletesPhotoDocument() throws ExecutionException, InterruptedException {
+        MoodEventProvider provider = MoodEventProvider.getInstance();
+        MoodEvent moodEvent = photoMood(noisyPhoto());
+        Tasks.await(provider.insertMoodEvent(moodEvent));
+
+        moodEvent.setPhoto(null);
+        Tasks.await(provider.updateMoodEvent(moodEvent.getId(), moodEvent));
+
+        DocumentSnapshot photoDoc = Tasks.await(FirebaseFirestore.getInstance()
+                .collection("moodEventPhotos")
+                .document(moodEvent.getId())
+                .get());
+        assertFalse(photoDoc.exists());
+
+        MoodEvent fetched = Tasks.await(provider.getMoodEvent(moodEvent.getId()));
+        assertFalse(fetched.hasPhoto());
+        assertNull(Tasks.await(provider.loadPhoto(fetched)));
+    }
+}
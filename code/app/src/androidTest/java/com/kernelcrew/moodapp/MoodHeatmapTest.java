@@ -0,0 +1,164 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.GeoHash;
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.data.MoodEventProvider;
+import com.kernelcrew.moodapp.data.MoodEventVisibility;
+import com.kernelcrew.moodapp.data.MoodHeatmapCell;
+import com.kernelcrew.moodapp.data.MoodHeatmapWorker;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Checks that the mood heatmap follows mood event inserts, edits and deletes against the
+ * emulator, and compares the documents a zoomed-out map reads with and without it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MoodHeatmapTest extends FirebaseEmulatorMixin {
+    private static final double EDMONTON_LAT = 53.5461;
+    private static final double EDMONTON_LON = -113.4938;
+    private static final double CALGARY_LAT = 51.0447;
+    private static final double CALGARY_LON = -114.0719;
+
+    @BeforeClass
+    public static void seedUser() throws ExecutionException, InterruptedException {
+        staticCreateUser();
+        loginUser();
+    }
+
+    private static MoodEvent mood(Emotion emotion, Double latitude, Double longitude) {
+        String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+        return new MoodEvent(uid, TEST_USERNAME, emotion, "Alone", "heatmap", latitude, longitude);
+    }
+
+    private static MoodHeatmapCell cellAt(double latitude, double longitude, int precision)
+            throws ExecutionException, InterruptedException {
+        DocumentSnapshot doc = Tasks.await(FirebaseFirestore.getInstance().collection("moodHeatmap")
+                .document(GeoHash.encode(latitude, longitude, precision)).get());
+        MoodHeatmapCell cell = doc.toObject(MoodHeatmapCell.class);
+        return cell == null ? new MoodHeatmapCell(GeoHash.encode(latitude, longitude, precision)) : cell;
+    }
+
+    @Test
+    public void testCountsFollowWrites() throws Exception {
+        MoodEventProvider provider = MoodEventProvider.getInstance();
+
+        MoodEvent happy = mood(Emotion.HAPPINESS, EDMONTON_LAT, EDMONTON_LON);
+        MoodEvent sad = mood(Emotion.SADNESS, EDMONTON_LAT + 0.01, EDMONTON_LON);
+        MoodEvent hidden = mood(Emotion.SADNESS, EDMONTON_LAT, EDMONTON_LON);
+        hidden.setVisibility(MoodEventVisibility.PRIVATE);
+        Tasks.await(provider.insertMoodEvent(happy));
+        Tasks.await(provider.insertMoodEvent(sad));
+        Tasks.await(provider.insertMoodEvent(hidden));
+        Tasks.await(provider.insertMoodEvent(mood(Emotion.ANGER, CALGARY_LAT, CALGARY_LON)));
+        Tasks.await(provider.insertMoodEvent(mood(Emotion.ANGER, null, null)));
+
+        // Private mood events and those without a location are not counted
+        MoodHeatmapCell edmonton = cellAt(EDMONTON_LAT, EDMONTON_LON, MoodHeatmapWorker.MAX_PRECISION);
+        assertEquals(2, edmonton.getTotal());
+        assertEquals(1, edmonton.count(Emotion.HAPPINESS));
+        assertEquals(1, edmonton.count(Emotion.SADNESS));
+        assertEquals(3, cellAt(EDMONTON_LAT, EDMONTON_LON, MoodHeatmapWorker.MIN_PRECISION).getTotal());
+
+        // Changing the emotion moves the count
+        sad.setEmotion(Emotion.FEAR.name());
+        Tasks.await(provider.updateMoodEvent(sad.getId(), sad));
+        edmonton = cellAt(EDMONTON_LAT, EDMONTON_LON, MoodHeatmapWorker.MAX_PRECISION);
+        assertEquals(2, edmonton.getTotal());
+        assertEquals(0, edmonton.count(Emotion.SADNESS));
+        assertEquals(1, edmonton.count(Emotion.FEAR));
+
+        Tasks.await(provider.deleteMoodEvent(happy.getId()));
+        edmonton = cellAt(EDMONTON_LAT, EDMONTON_LON, MoodHeatmapWorker.MAX_PRECISION);
+        assertEquals(1, edmonton.getTotal());
+        assertEquals(0, edmonton.count(Emotion.HAPPINESS));
+    }
+
+    @Test
+    public void testBackfillCountsOlderMoodEventsOnce() throws Exception {
+        MoodEventProvider provider = MoodEventProvider.getInstance();
+        String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+
+        // Written as before the heatmap existed, so it is not counted yet
+        MoodEvent older = mood(Emotion.SHAME, CALGARY_LAT, CALGARY_LON);
+        Tasks.await(FirebaseFirestore.getInstance().collection("moodEvents").document(older.getId()).set(older));
+        Tasks.await(provider.insertMoodEvent(mood(Emotion.SHAME, CALGARY_LAT, CALGARY_LON)));
+        assertEquals(1, cellAt(CALGARY_LAT, CALGARY_LON, MoodHeatmapWorker.MAX_PRECISION).getTotal());
+
+        assertEquals(1, (int) Tasks.await(provider.backfillHeatmap(uid)));
+        assertEquals(2, cellAt(CALGARY_LAT, CALGARY_LON, MoodHeatmapWorker.MAX_PRECISION).count(Emotion.SHAME));
+
+        // Rerunning counts nothing twice
+        assertEquals(0, (int) Tasks.await(provider.backfillHeatmap(uid)));
+        Tasks.await(provider.deleteMoodEvent(older.getId()));
+        assertEquals(1, cellAt(CALGARY_LAT, CALGARY_LON, MoodHeatmapWorker.MAX_PRECISION).getTotal());
+    }
+
+    @Test
+    public void testUncountedMoodEventsAreNotCountedOut() throws Exception {
+        MoodEventProvider provider = MoodEventProvider.getInstance();
+        Tasks.await(provider.insertMoodEvent(mood(Emotion.HAPPINESS, CALGARY_LAT, CALGARY_LON)));
+
+        MoodEvent older = mood(Emotion.HAPPINESS, CALGARY_LAT, CALGARY_LON);
+        Tasks.await(FirebaseFirestore.getInstance().collection("moodEvents").document(older.getId()).set(older));
+        Tasks.await(provider.deleteMoodEvent(older.getId()));
+        assertEquals(1, cellAt(CALGARY_LAT, CALGARY_LON, MoodHeatmapWorker.MAX_PRECISION).getTotal());
+    }
+
+    @Test
+    public void benchmarkZoomedOutReads() throws Exception {
+        MoodEventProvider provider = MoodEventProvider.getInstance();
+        MoodHeatmapWorker worker = MoodHeatmapWorker.getInstance();
+        int moods = 300;
+        Random random = new Random(25);
+        Emotion[] emotions = Emotion.values();
+        for (int i = 0; i < moods; i++) {
+            // Around Alberta's two cities
+            boolean north = random.nextBoolean();
+            Tasks.await(provider.insertMoodEvent(mood(emotions[random.nextInt(emotions.length)],
+                    (north ? EDMONTON_LAT : CALGARY_LAT) + random.nextGaussian() * 0.3,
+                    (north ? EDMONTON_LON : CALGARY_LON) + random.nextGaussian() * 0.5)));
+        }
+
+        // A view of western Canada, as the map loads it
+        List<String> viewCells = GeoHash.cellsInBounds(45, -125, 60, -100, 12);
+        assertTrue(viewCells.get(0).length() < MoodHeatmapWorker.MAX_PRECISION);
+        int aggregateReads = 0;
+        long counted = 0;
+        for (String cell : viewCells) {
+            QuerySnapshot snapshot = Tasks.await(worker.cellsWithin(cell, cell.length() + 1).get());
+            aggregateReads += snapshot.size();
+            for (MoodHeatmapCell heat : snapshot.toObjects(MoodHeatmapCell.class)) {
+                counted += heat.getTotal();
+            }
+        }
+        int eventReads = Tasks.await(FirebaseFirestore.getInstance().collection("moodEvents").get()).size();
+
+        Log.i("MoodHeatmapTest", String.format(
+                "%d mood events: zoomed-out view reads %d heatmap documents instead of %d mood events",
+                moods, aggregateReads, eventReads));
+        assertEquals(moods, counted);
+        assertFalse(aggregateReads == 0);
+        assertTrue(aggregateReads < moods / 10);
+    }
+}
@@ -23,6 +23,7 @@ import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.kernelcrew.moodapp.data.UserSearchIndex;
 import com.kernelcrew.moodapp.ui.MainActivity;
 
 import org.junit.After;
@@ -68,6 +69,7 @@ public class MyProfileTest extends FirebaseEmulatorMixin {
         Map<String, Object> profileData = new HashMap<>();
         profileData.put("uid", uid);
         profileData.put("username", TEST_USERNAME);
+        profileData.putAll(UserSearchIndex.fieldsFor(TEST_USERNAME));
         profileData.put("bio", "This is a test bio");
 
         // Use uid as the document id.
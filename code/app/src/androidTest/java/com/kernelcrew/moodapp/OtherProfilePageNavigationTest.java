@@ -22,6 +22,7 @@ import com.google.firebase.firestore.SetOptions;
 import com.kernelcrew.moodapp.data.Emotion;
 import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.data.MoodEventProvider;
+import com.kernelcrew.moodapp.data.UserSearchIndex;
 import com.kernelcrew.moodapp.ui.MainActivity;
 
 import org.hamcrest.Matchers;
@@ -88,6 +89,7 @@ public class OtherProfilePageNavigationTest extends FirebaseEmulatorMixin {
         userData.put("uid", uid);
         userData.put("email", USER_EMAIL);
         userData.put("username", fixedUsername);
+        userData.putAll(UserSearchIndex.fieldsFor(fixedUsername));
         Tasks.await(db.collection("users").document(uid).set(userData, SetOptions.merge()));
 
         // Seed the corresponding username document in the "usernames" collection.
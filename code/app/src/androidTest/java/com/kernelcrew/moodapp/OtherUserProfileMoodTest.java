@@ -30,6 +30,7 @@ import com.kernelcrew.moodapp.data.Emotion;
 import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.data.MoodEventProvider;
 import com.kernelcrew.moodapp.data.MoodEventVisibility;
+import com.kernelcrew.moodapp.data.UserSearchIndex;
 import com.kernelcrew.moodapp.ui.MainActivity;
 
 import org.hamcrest.Matcher;
@@ -97,6 +98,7 @@ public class OtherUserProfileMoodTest extends FirebaseEmulatorMixin {
         user2Data.put("uid", uid2);
         user2Data.put("email", USER2_EMAIL);
         user2Data.put("username", USER2_USERNAME);
+        user2Data.putAll(UserSearchIndex.fieldsFor(USER2_USERNAME));
         Tasks.await(db.collection("users").document(uid2).set(user2Data, SetOptions.merge()));
 
         Map<String, Object> usernameData = new HashMap<>();
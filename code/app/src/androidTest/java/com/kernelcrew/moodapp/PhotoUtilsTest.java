@@ -1,11 +1,19 @@
 package com.kernelcrew.moodapp;
 
 import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
 
 import com.kernelcrew.moodapp.utils.PhotoUtils;
 
+import java.util.Random;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Check that the PhotoUtils class is correct.
@@ -25,4 +33,72 @@ public class PhotoUtilsTest {
         assertEquals(1, decoded.getWidth());
         assertEquals(1, decoded.getHeight());
     }
+
+    /**
+     * Generate a sample photo. Noise is the worst case for the encoder, gradients the best case,
+     * and the mix is closer to a real photo.
+     */
+    private static Bitmap samplePhoto(int width, int height, double noise, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int base = 255 * (x + y) / (width + height);
+                int jitter = (int) ((random.nextInt(256) - 128) * noise);
+                int v = Math.max(0, Math.min(255, base + jitter));
+                pixels[y * width + x] = Color.rgb(v, 255 - v, (v * 3) & 0xFF);
+            }
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    @Test
+    public void compressFitsBudget() {
+        Bitmap photo = samplePhoto(2048, 1536, 1.0, 1);
+        byte[] encoded = PhotoUtils.compressPhoto(photo, 32 * 1024, 1024);
+        assertTrue(encoded.length <= 32 * 1024);
+
+        Bitmap decoded = PhotoUtils.decodePhoto(encoded);
+        assertTrue(Math.max(decoded.getWidth(), decoded.getHeight()) <= 1024);
+    }
+
+    @Test
+    public void thumbnailFitsBudget() {
+        // Noise barely compresses, so the thumbnail has to shrink below its 96 pixels to fit
+        Bitmap photo = samplePhoto(1600, 1200, 1.0, 7);
+        byte[] thumbnail = PhotoUtils.createThumbnail(photo);
+        assertTrue(thumbnail.length <= PhotoUtils.THUMBNAIL_MAX_BYTES);
+
+        Bitmap decoded = PhotoUtils.decodePhoto(thumbnail);
+        assertTrue(Math.max(decoded.getWidth(), decoded.getHeight()) <= PhotoUtils.THUMBNAIL_DIMENSION);
+        photo.recycle();
+    }
+
+    /**
+     * Not a correctness test: reports encode time and output size across a corpus of sample
+     * images so that changes to the compressor can be compared. Skipped unless run with the
+     * instrumentation argument {@code benchmarks=true}.
+     */
+    @Test
+    public void compressBenchmark() {
+        assumeTrue(Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString("benchmarks", "false")));
+        int[][] sizes = { { 640, 480 }, { 1600, 1200 }, { 4000, 3000 } };
+        double[] noiseLevels = { 0.0, 0.25, 1.0 };
+
+        for (int[] size : sizes) {
+            for (double noise : noiseLevels) {
+                Bitmap photo = samplePhoto(size[0], size[1], noise, 301);
+
+                long start = SystemClock.elapsedRealtimeNanos();
+                byte[] encoded = PhotoUtils.compressPhoto(photo);
+                long elapsedMs = (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000;
+
+                Log.i("PhotoUtilsBenchmark", String.format(
+                        "%dx%d noise=%.2f: %d bytes in %d ms",
+                        size[0], size[1], noise, encoded.length, elapsedMs));
+                assertTrue(encoded.length <= PhotoUtils.MAX_PHOTO_BYTES);
+                photo.recycle();
+            }
+        }
+    }
 }
@@ -26,6 +26,7 @@ import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.SetOptions;
+import com.kernelcrew.moodapp.data.UserSearchIndex;
 import com.kernelcrew.moodapp.ui.MainActivity;
 
 import org.awaitility.Awaitility;
@@ -84,6 +85,7 @@ public class SearchUsersTest {
         userData.put("uid", uid);
         userData.put("email", email);
         userData.put("username", username);
+        userData.putAll(UserSearchIndex.fieldsFor(username));
         Tasks.await(db.collection("users").document(uid).set(userData, SetOptions.merge()));
 
         Map<String, Object> usernameData = new HashMap<>();
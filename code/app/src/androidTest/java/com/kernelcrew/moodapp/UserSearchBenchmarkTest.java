@@ -0,0 +1,158 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.kernelcrew.moodapp.data.User;
+import com.kernelcrew.moodapp.data.UserProvider;
+import com.kernelcrew.moodapp.data.UserSearchIndex;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Compares the indexed user search with downloading the whole users collection, against the
+ * emulator, at growing numbers of users.
+ * <p>
+ * Skipped unless run with the instrumentation argument {@code benchmarks=true}. 1k and 10k
+ * users are then always measured; also pass {@code userSearchBenchmarkLarge=true} to measure
+ * 100k.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class UserSearchBenchmarkTest extends FirebaseEmulatorMixin {
+    private static final String QUERY = "user_42";
+
+    /**
+     * Maximum number of writes in one commit request.
+     */
+    private static final int COMMIT_SIZE = 500;
+
+    private int seeded = 0;
+
+    @BeforeClass
+    public static void seedUser() throws ExecutionException, InterruptedException {
+        assumeTrue(Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString("benchmarks", "false")));
+        staticCreateUser();
+        loginUser();
+    }
+
+    /**
+     * Seed users through the emulator REST API as the owner, since the rules only let a user
+     * create their own document.
+     */
+    private void seedUsersUpTo(int count) throws IOException, JSONException {
+        String projectId = FirebaseApp.getInstance().getOptions().getProjectId();
+        String database = "projects/" + projectId + "/databases/(default)";
+        URL url = new URL("http://10.0.2.2:8080/v1/" + database + "/documents:commit");
+
+        while (seeded < count) {
+            JSONArray writes = new JSONArray();
+            for (int i = 0; i < COMMIT_SIZE && seeded < count; i++, seeded++) {
+                String username = String.format(Locale.ROOT, "User_%06d", seeded);
+                JSONArray tokens = new JSONArray();
+                for (String token : UserSearchIndex.tokensFor(username)) {
+                    tokens.put(new JSONObject().put("stringValue", token));
+                }
+                JSONObject fields = new JSONObject()
+                        .put("uid", new JSONObject().put("stringValue", "bench-" + seeded))
+                        .put("username", new JSONObject().put("stringValue", username))
+                        .put(UserSearchIndex.USERNAME_LOWER_FIELD,
+                                new JSONObject().put("stringValue", UserSearchIndex.normalize(username)))
+                        .put(UserSearchIndex.SEARCH_TOKENS_FIELD,
+                                new JSONObject().put("arrayValue", new JSONObject().put("values", tokens)));
+                writes.put(new JSONObject().put("update", new JSONObject()
+                        .put("name", database + "/documents/users/bench-" + seeded)
+                        .put("fields", fields)));
+            }
+
+            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("POST");
+            urlConnection.setRequestProperty("Authorization", "Bearer owner");
+            urlConnection.setRequestProperty("Content-Type", "application/json");
+            urlConnection.setDoOutput(true);
+            try (OutputStream out = urlConnection.getOutputStream()) {
+                out.write(new JSONObject().put("writes", writes).toString().getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(200, urlConnection.getResponseCode());
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * The search as it was before the index: read every user and filter on the device.
+     */
+    private static int scanAllUsers(String query) throws ExecutionException, InterruptedException {
+        QuerySnapshot snapshot = Tasks.await(FirebaseFirestore.getInstance().collection("users").get());
+        int matches = 0;
+        for (DocumentSnapshot doc : snapshot.getDocuments()) {
+            if (UserSearchIndex.matches(doc.getString("username"), query)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private void measure(int users) throws Exception {
+        seedUsersUpTo(users);
+        String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+
+        long start = SystemClock.elapsedRealtime();
+        List<User> results = Tasks.await(UserProvider.getInstance().searchUsers(QUERY, uid));
+        long indexedMs = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        int scanned = scanAllUsers(QUERY);
+        long scanMs = SystemClock.elapsedRealtime() - start;
+
+        assertFalse(results.isEmpty());
+        assertTrue(results.size() <= UserProvider.SEARCH_LIMIT);
+        assertTrue(scanned >= results.size());
+
+        Log.i("UserSearchBenchmark", String.format(Locale.ROOT,
+                "users=%d query=\"%s\": indexed %d ms (%d results), full scan %d ms (%d matches)",
+                users, QUERY, indexedMs, results.size(), scanMs, scanned));
+    }
+
+    @Test
+    public void compareSearchStrategies() throws Exception {
+        List<Integer> sizes = new ArrayList<>();
+        sizes.add(1_000);
+        sizes.add(10_000);
+        if (Boolean.parseBoolean(InstrumentationRegistry.getArguments()
+                .getString("userSearchBenchmarkLarge", "false"))) {
+            sizes.add(100_000);
+        }
+        for (int users : sizes) {
+            measure(users);
+        }
+    }
+}
@@ -11,4 +11,15 @@ public interface CombinedListener {
      * @param error An error if any listener encountered one, otherwise null.
      */
     void onEvent(List<DocumentSnapshot> documents, FirebaseFirestoreException error);
+
+    /**
+     * Called instead of {@link #onEvent} when the combined list changed incrementally.
+     * Override this to apply the positional diffs (e.g. to a RecyclerView adapter) rather than
+     * rebinding the whole list. By default forwards to {@link #onEvent}.
+     * @param documents Combined list of DocumentSnapshots from all queries, newest first.
+     * @param diffs Positional changes from the previously reported list, in order.
+     */
+    default void onChanges(List<DocumentSnapshot> documents, List<FeedMerger.Diff<DocumentSnapshot>> diffs) {
+        onEvent(documents, null);
+    }
 }
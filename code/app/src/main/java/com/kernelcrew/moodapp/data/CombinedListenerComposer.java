@@ -10,6 +10,13 @@ public class CombinedListenerComposer implements ListenerRegistration {
         this.registrations = registrations;
     }
 
+    /**
+     * @return Number of underlying snapshot listeners
+     */
+    public int getListenerCount() {
+        return registrations.size();
+    }
+
     @Override
     public void remove() {
         for (ListenerRegistration reg : registrations) {
@@ -0,0 +1,189 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exact great-circle filter for mood events around a location, optionally ordering them by
+ * distance. Used after a location query, whose geohash ranges only approximate the radius.
+ * <p>
+ * Locations are copied into primitive arrays, in radians and with the cosine of the latitude
+ * precomputed, so the inner loop is plain arithmetic the JIT can unroll. Points are compared by
+ * the haversine term a = sin²(Δφ/2) + cos φ₁ cos φ₂ sin²(Δλ/2), which grows with distance, so
+ * neither asin nor sqrt is needed to filter or sort. Events further from the center in
+ * latitude alone than the radius are ruled out before any of that.
+ * </p>
+ */
+public class DistanceFilter {
+    /**
+     * Locations in the layout the filter reads, which can be filtered again for other centers
+     * or radii. NaN locations never match.
+     */
+    public static class Points {
+        final double[] latitudes;
+        final double[] longitudes;
+        final double[] cosLatitudes;
+        final int size;
+
+        /**
+         * @param latitudes Latitudes in degrees
+         * @param longitudes Longitudes in degrees
+         * @param size Number of points to use from the arrays
+         */
+        public Points(@NonNull double[] latitudes, @NonNull double[] longitudes, int size) {
+            this.size = size;
+            this.latitudes = new double[size];
+            this.longitudes = new double[size];
+            this.cosLatitudes = new double[size];
+            for (int i = 0; i < size; i++) {
+                this.latitudes[i] = Math.toRadians(latitudes[i]);
+                this.longitudes[i] = Math.toRadians(longitudes[i]);
+                this.cosLatitudes[i] = Math.cos(this.latitudes[i]);
+            }
+        }
+
+        /**
+         * @return Number of points
+         */
+        public int size() {
+            return size;
+        }
+    }
+
+    private final double latitude;
+    private final double longitude;
+    private final double cosLatitude;
+    private final double maxHaversine;
+
+    /**
+     * No point further than this in latitude (in degrees) can be within the radius, since a
+     * great-circle distance is at least the difference in latitude.
+     */
+    private final double maxLatitudeDelta;
+    private final double latitudeDegrees;
+
+    /**
+     * @param latitude Latitude of the center in degrees
+     * @param longitude Longitude of the center in degrees
+     * @param radiusKm Radius in km
+     */
+    public DistanceFilter(double latitude, double longitude, double radiusKm) {
+        this.latitude = Math.toRadians(latitude);
+        this.longitude = Math.toRadians(longitude);
+        this.cosLatitude = Math.cos(this.latitude);
+        double halfAngle = Math.min(Math.PI, radiusKm / GeoHash.EARTH_RADIUS_KM) / 2;
+        this.maxHaversine = Math.sin(halfAngle) * Math.sin(halfAngle);
+        this.latitudeDegrees = latitude;
+        // Slack for rounding, the exact check comes after
+        this.maxLatitudeDelta = Math.toDegrees(2 * halfAngle) + 1e-9;
+    }
+
+    /**
+     * Compute the haversine term of every point.
+     * @param points Points to measure
+     * @param haversines Receives the haversine term of each point, NaN for missing locations
+     */
+    public void haversines(@NonNull Points points, @NonNull double[] haversines) {
+        double[] latitudes = points.latitudes;
+        double[] longitudes = points.longitudes;
+        double[] cosLatitudes = points.cosLatitudes;
+        for (int i = 0; i < points.size; i++) {
+            double sinLat = Math.sin((latitudes[i] - latitude) * 0.5);
+            double sinLon = Math.sin((longitudes[i] - longitude) * 0.5);
+            haversines[i] = sinLat * sinLat + cosLatitude * cosLatitudes[i] * sinLon * sinLon;
+        }
+    }
+
+    /**
+     * Find the points within the radius.
+     * @param points Points to filter
+     * @param matches Receives the indices of the points within the radius, in order
+     * @param haversines Scratch space for the haversine term of every point, which it holds
+     *                   afterwards; at least points.size() long
+     * @return Number of matches
+     */
+    public int select(@NonNull Points points, @NonNull int[] matches, @NonNull double[] haversines) {
+        haversines(points, haversines);
+        int count = 0;
+        for (int i = 0; i < points.size; i++) {
+            // NaN compares false, so missing locations are dropped
+            if (haversines[i] <= maxHaversine) {
+                matches[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Keep only the mood events within the radius.
+     * @param events Mood events to filter
+     * @param sortByDistance Order the result nearest first instead of keeping the list's order
+     * @return Mood events within the radius
+     */
+    @NonNull
+    public List<MoodEvent> apply(@NonNull List<MoodEvent> events, boolean sortByDistance) {
+        // Only events in the latitude band around the center are worth any trigonometry
+        int size = events.size();
+        int[] candidates = new int[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            MoodEvent event = events.get(i);
+            if (!event.hasLocation()) {
+                continue;
+            }
+            double eventLatitude = event.getLatitude();
+            if (Math.abs(eventLatitude - latitudeDegrees) <= maxLatitudeDelta) {
+                candidates[count] = i;
+                latitudes[count] = eventLatitude;
+                longitudes[count] = event.getLongitude();
+                count++;
+            }
+        }
+
+        Points points = new Points(latitudes, longitudes, count);
+        int[] matches = new int[count];
+        double[] haversines = new double[count];
+        int matched = select(points, matches, haversines);
+        if (sortByDistance) {
+            sortByDistance(matches, matched, haversines);
+        }
+
+        List<MoodEvent> filtered = new ArrayList<>(matched);
+        for (int i = 0; i < matched; i++) {
+            filtered.add(events.get(candidates[matches[i]]));
+        }
+        return filtered;
+    }
+
+    /**
+     * Reorder matches nearest first, keeping their order among equal distances. Each match is
+     * packed with its haversine term as a float, which orders non-negative values like their
+     * bits, so this is a primitive sort.
+     */
+    private static void sortByDistance(int[] matches, int count, double[] haversines) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) Float.floatToIntBits((float) haversines[matches[i]]) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = matches[(int) keys[i]];
+        }
+        System.arraycopy(sorted, 0, matches, 0, count);
+    }
+
+    /**
+     * Convert a haversine term to a distance.
+     * @param haversine Haversine term from {@link #haversines}
+     * @return Distance in km
+     */
+    public static double toKm(double haversine) {
+        return 2 * GeoHash.EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(haversine)));
+    }
+}
@@ -0,0 +1,212 @@
+package com.kernelcrew.moodapp.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maintains the materialized home feeds ({@link FeedMode#MATERIALIZED}).
+ * <p>
+ * Each user's feed lives in users/{uid}/feed and holds a copy of every mood event they should
+ * see, keyed by mood event id: their own mood events, and the public mood events of everyone they
+ * follow. Authors fan out their own writes to their followers' feeds from the device.
+ * </p>
+ * <p>
+ * Jobs run one at a time in the order they were submitted, so a quick edit after an insert
+ * can never be overwritten by the insert's fan-out.
+ * </p>
+ */
+public class FeedFanoutWorker {
+    /**
+     * Firestore limit on the number of writes in one batch.
+     */
+    private static final int MAX_BATCH_WRITES = 500;
+
+    private static FeedFanoutWorker instance;
+
+    private final FirebaseFirestore db;
+    private Task<Integer> tail = Tasks.forResult(0);
+    private long writeCount = 0;
+
+    private FeedFanoutWorker() {
+        db = FirebaseFirestore.getInstance();
+    }
+
+    /**
+     * Get the singleton instance of the FeedFanoutWorker.
+     * @return Singleton instance
+     */
+    public static FeedFanoutWorker getInstance() {
+        if (instance == null) {
+            instance = new FeedFanoutWorker();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Get the materialized feed collection of a user.
+     * @param uid User owning the feed
+     * @return The users/{uid}/feed collection
+     */
+    public CollectionReference feedOf(@NonNull String uid) {
+        return db.collection("users").document(uid).collection("feed");
+    }
+
+    /**
+     * Copy a new or edited mood event into its author's feed and, if it is public, into the
+     * feeds of all of the author's followers. A private mood event is removed from the followers'
+     * feeds instead, in case it used to be public.
+     * @param moodEvent Mood event which was written
+     * @return Task resolving to the number of feed documents written
+     */
+    public Task<Integer> publish(@NonNull MoodEvent moodEvent) {
+        return enqueue(() -> fetchFollowerIds(moodEvent.getUid()).onSuccessTask(followers -> {
+            List<Write> writes = new ArrayList<>();
+            writes.add(batch -> batch.set(feedOf(moodEvent.getUid()).document(moodEvent.getId()), moodEvent));
+            boolean isPublic = moodEvent.getVisibility() == MoodEventVisibility.PUBLIC;
+            for (String follower : followers) {
+                DocumentReference entry = feedOf(follower).document(moodEvent.getId());
+                writes.add(isPublic ? batch -> batch.set(entry, moodEvent) : batch -> batch.delete(entry));
+            }
+            return commit(writes);
+        }));
+    }
+
+    /**
+     * Remove a deleted mood event from its author's feed and their followers' feeds.
+     * @param authorUid Author of the mood event
+     * @param moodEventId ID of the deleted mood event
+     * @return Task resolving to the number of feed documents deleted
+     */
+    public Task<Integer> retract(@NonNull String authorUid, @NonNull String moodEventId) {
+        return enqueue(() -> fetchFollowerIds(authorUid).onSuccessTask(followers -> {
+            List<Write> writes = new ArrayList<>();
+            writes.add(batch -> batch.delete(feedOf(authorUid).document(moodEventId)));
+            for (String follower : followers) {
+                writes.add(batch -> batch.delete(feedOf(follower).document(moodEventId)));
+            }
+            return commit(writes);
+        }));
+    }
+
+    /**
+     * Copy an author's most recent public mood events into a new follower's feed.
+     * Must be run by the author, after the follower was added to their followers.
+     * @param authorUid The user being followed
+     * @param followerUid The new follower
+     * @param limit Maximum number of mood events to copy
+     * @return Task resolving to the number of feed documents written
+     */
+    public Task<Integer> backfill(@NonNull String authorUid, @NonNull String followerUid, int limit) {
+        return enqueue(() -> db.collection("moodEvents")
+                .whereEqualTo("uid", authorUid)
+                .whereEqualTo("visibility", "PUBLIC")
+                .orderBy("created", Query.Direction.DESCENDING)
+                .limit(limit)
+                .get()
+                .onSuccessTask(snapshot -> {
+                    List<Write> writes = new ArrayList<>();
+                    for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                        MoodEvent moodEvent = doc.toObject(MoodEvent.class);
+                        if (moodEvent != null) {
+                            writes.add(batch -> batch.set(feedOf(followerUid).document(doc.getId()), moodEvent));
+                        }
+                    }
+                    return commit(writes);
+                }));
+    }
+
+    /**
+     * Remove everything an unfollowed user posted from a follower's feed.
+     * Must be run by the follower.
+     * @param followerUid Owner of the feed
+     * @param authorUid The user who was unfollowed
+     * @return Task resolving to the number of feed documents deleted
+     */
+    public Task<Integer> removeAuthor(@NonNull String followerUid, @NonNull String authorUid) {
+        return enqueue(() -> feedOf(followerUid)
+                .whereEqualTo("uid", authorUid)
+                .get()
+                .onSuccessTask(snapshot -> {
+                    List<Write> writes = new ArrayList<>();
+                    for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                        writes.add(batch -> batch.delete(doc.getReference()));
+                    }
+                    return commit(writes);
+                }));
+    }
+
+    /**
+     * @return Task which completes once every job submitted so far has finished
+     */
+    public Task<Void> idle() {
+        return tail.continueWith(task -> null);
+    }
+
+    /**
+     * @return Total number of feed documents written or deleted by this worker
+     */
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    private interface Job {
+        Task<Integer> run();
+    }
+
+    private interface Write {
+        void addTo(WriteBatch batch);
+    }
+
+    private synchronized Task<Integer> enqueue(Job job) {
+        // Run after the previous job whether or not it failed
+        Task<Integer> result = tail.continueWithTask(previous -> job.run());
+        tail = result.addOnFailureListener(e -> Log.e("FeedFanoutWorker", "Feed fan-out failed", e));
+        return result;
+    }
+
+    private Task<List<String>> fetchFollowerIds(String uid) {
+        return db.collection("users")
+                .document(uid)
+                .collection("followers")
+                .get()
+                .onSuccessTask(snapshot -> {
+                    List<String> ids = new ArrayList<>();
+                    for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                        ids.add(doc.getId());
+                    }
+                    return Tasks.forResult(ids);
+                });
+    }
+
+    private Task<Integer> commit(List<Write> writes) {
+        List<Task<Void>> commits = new ArrayList<>();
+        for (int start = 0; start < writes.size(); start += MAX_BATCH_WRITES) {
+            WriteBatch batch = db.batch();
+            for (Write write : writes.subList(start, Math.min(writes.size(), start + MAX_BATCH_WRITES))) {
+                write.addTo(batch);
+            }
+            commits.add(batch.commit());
+        }
+
+        return Tasks.whenAll(commits).onSuccessTask(unused -> {
+            synchronized (this) {
+                writeCount += writes.size();
+            }
+            return Tasks.forResult(writes.size());
+        });
+    }
+}
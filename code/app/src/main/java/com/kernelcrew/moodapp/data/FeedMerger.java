@@ -0,0 +1,290 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Merges the results of several feed queries into one list ordered newest first, by applying
+ * each query's document changes instead of re-sorting everything on every update.
+ * <p>
+ * The merged feed is a sorted array: each change is located with a binary search, so an update
+ * costs O(log n) comparisons (plus an array shift) instead of an O(n log n) sort.
+ * Sources can cap how many items of each owner are shown, keeping only the newest ones.
+ * Every update reports the positional diffs it made to the merged feed.
+ * </p>
+ *
+ * @param <T> Feed item type
+ */
+public class FeedMerger<T> {
+    /**
+     * Extracts the fields the feed is ordered and capped by.
+     */
+    public interface Keys<T> {
+        /** @return Unique id of the item */
+        String getId(T item);
+        /** @return Creation time of the item in ms, newest items come first */
+        long getCreated(T item);
+        /** @return Owner of the item, used for per-owner caps */
+        String getOwner(T item);
+    }
+
+    /**
+     * A change to one source's results, as reported by the source's query.
+     */
+    public static class Change<T> {
+        public enum Type { UPSERT, REMOVE }
+
+        public final Type type;
+        public final T item;
+
+        public Change(@NonNull Type type, @NonNull T item) {
+            this.type = type;
+            this.item = item;
+        }
+    }
+
+    /**
+     * A positional change made to the merged feed. Diffs must be applied in order.
+     */
+    public static class Diff<T> {
+        public enum Type { INSERT, REMOVE, CHANGE }
+
+        public final Type type;
+        public final int position;
+        /** The inserted or changed item, or the removed item */
+        public final T item;
+
+        Diff(Type type, int position, T item) {
+            this.type = type;
+            this.position = position;
+            this.item = item;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return type + "@" + position;
+        }
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final long created;
+        final String id;
+
+        Entry(T item, long created, String id) {
+            this.item = item;
+            this.created = created;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Results of a single query. Items hidden by the owner cap are still tracked, so they can be
+     * shown once a newer item of the same owner is removed.
+     */
+    private static class Source<T> {
+        final int ownerCap;
+        final Map<String, Entry<T>> byId = new HashMap<>();
+        final Map<String, List<Entry<T>>> byOwner = new HashMap<>();
+
+        Source(int ownerCap) {
+            this.ownerCap = ownerCap;
+        }
+    }
+
+    private final Keys<T> keys;
+    private final List<Entry<T>> merged = new ArrayList<>();
+    private final Map<Integer, Source<T>> sources = new HashMap<>();
+
+    public FeedMerger(@NonNull Keys<T> keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * Register a source. Sources which are not registered have no owner cap.
+     * @param source Index of the source
+     * @param ownerCap Maximum number of items shown per owner, or 0 for no cap
+     */
+    public void addSource(int source, int ownerCap) {
+        sources.put(source, new Source<>(ownerCap));
+    }
+
+    /**
+     * Apply a batch of changes from one source.
+     * @param source Index of the source the changes came from
+     * @param changes Changes reported by the source
+     * @return The positional diffs made to the merged feed, in order
+     */
+    public List<Diff<T>> apply(int source, @NonNull List<Change<T>> changes) {
+        Source<T> src = sources.get(source);
+        if (src == null) {
+            src = new Source<>(0);
+            sources.put(source, src);
+        }
+
+        List<Diff<T>> diffs = new ArrayList<>();
+        for (Change<T> change : changes) {
+            String id = keys.getId(change.item);
+            Entry<T> previous = src.byId.get(id);
+
+            if (change.type == Change.Type.REMOVE) {
+                if (previous != null) {
+                    untrack(src, previous);
+                    hide(previous, diffs);
+                    refreshOwner(src, keys.getOwner(previous.item), diffs);
+                }
+                continue;
+            }
+
+            Entry<T> entry = new Entry<>(change.item, keys.getCreated(change.item), id);
+            if (previous != null) {
+                untrack(src, previous);
+                int position = indexOf(previous);
+                if (position >= 0 && previous.created == entry.created
+                        && Objects.equals(keys.getOwner(previous.item), keys.getOwner(entry.item))) {
+                    // Same place in the feed, so only the item itself changed
+                    merged.set(position, entry);
+                    diffs.add(new Diff<>(Diff.Type.CHANGE, position, entry.item));
+                    track(src, entry);
+                    continue;
+                }
+                hide(previous, diffs);
+                refreshOwner(src, keys.getOwner(previous.item), diffs);
+            }
+
+            track(src, entry);
+            if (src.ownerCap > 0) {
+                refreshOwner(src, keys.getOwner(entry.item), diffs);
+            } else {
+                show(entry, diffs);
+            }
+        }
+        return diffs;
+    }
+
+    /**
+     * Drop all items of a source.
+     * @param source Index of the source
+     * @return The positional diffs made to the merged feed, in order
+     */
+    public List<Diff<T>> clear(int source) {
+        Source<T> src = sources.get(source);
+        List<Diff<T>> diffs = new ArrayList<>();
+        if (src == null) {
+            return diffs;
+        }
+        for (Entry<T> entry : new ArrayList<>(src.byId.values())) {
+            untrack(src, entry);
+            hide(entry, diffs);
+        }
+        return diffs;
+    }
+
+    /**
+     * @return The merged feed, newest first
+     */
+    public List<T> getItems() {
+        List<T> items = new ArrayList<>(merged.size());
+        for (Entry<T> entry : merged) {
+            items.add(entry.item);
+        }
+        return items;
+    }
+
+    /**
+     * @return Number of items in the merged feed
+     */
+    public int size() {
+        return merged.size();
+    }
+
+    private void track(Source<T> src, Entry<T> entry) {
+        src.byId.put(entry.id, entry);
+        List<Entry<T>> owned = src.byOwner.get(keys.getOwner(entry.item));
+        if (owned == null) {
+            owned = new ArrayList<>();
+            src.byOwner.put(keys.getOwner(entry.item), owned);
+        }
+        int position = search(owned, entry);
+        owned.add(position < 0 ? -position - 1 : position, entry);
+    }
+
+    private void untrack(Source<T> src, Entry<T> entry) {
+        src.byId.remove(entry.id);
+        List<Entry<T>> owned = src.byOwner.get(keys.getOwner(entry.item));
+        if (owned != null) {
+            owned.remove(entry);
+            if (owned.isEmpty()) {
+                src.byOwner.remove(keys.getOwner(entry.item));
+            }
+        }
+    }
+
+    /**
+     * Make the merged feed show exactly the newest ownerCap items of an owner in a source.
+     * Called after every single insert or removal, so only the item at the cap boundary can
+     * have changed visibility; everything further down is already hidden.
+     */
+    private void refreshOwner(Source<T> src, @Nullable String owner, List<Diff<T>> diffs) {
+        List<Entry<T>> owned = src.byOwner.get(owner);
+        if (owned == null) {
+            return;
+        }
+        if (src.ownerCap <= 0) {
+            return;
+        }
+
+        int end = Math.min(owned.size(), src.ownerCap + 1);
+        for (int i = 0; i < end; i++) {
+            if (i < src.ownerCap) {
+                show(owned.get(i), diffs);
+            } else {
+                hide(owned.get(i), diffs);
+            }
+        }
+    }
+
+    private void show(Entry<T> entry, List<Diff<T>> diffs) {
+        int position = search(merged, entry);
+        if (position >= 0) {
+            return;
+        }
+        position = -position - 1;
+        merged.add(position, entry);
+        diffs.add(new Diff<>(Diff.Type.INSERT, position, entry.item));
+    }
+
+    private void hide(Entry<T> entry, List<Diff<T>> diffs) {
+        int position = indexOf(entry);
+        if (position < 0) {
+            return;
+        }
+        merged.remove(position);
+        diffs.add(new Diff<>(Diff.Type.REMOVE, position, entry.item));
+    }
+
+    private int indexOf(Entry<T> entry) {
+        int position = search(merged, entry);
+        return position >= 0 && merged.get(position) == entry ? position : -1;
+    }
+
+    private static <T> int search(List<Entry<T>> entries, Entry<T> key) {
+        return Collections.binarySearch(entries, key, FeedMerger::compareNewestFirst);
+    }
+
+    /**
+     * Newest first, ties broken by id so the order is total.
+     */
+    private static <T> int compareNewestFirst(Entry<T> a, Entry<T> b) {
+        int byCreated = Long.compare(b.created, a.created);
+        return byCreated != 0 ? byCreated : a.id.compareTo(b.id);
+    }
+}
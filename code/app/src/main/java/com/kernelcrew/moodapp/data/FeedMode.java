@@ -0,0 +1,21 @@
+package com.kernelcrew.moodapp.data;
+
+/**
+ * How a client reads the home feed. Authors always fan out their mood events (see
+ * {@link FeedFanoutWorker}), so clients may read either way and see the same feed.
+ */
+public enum FeedMode {
+    /**
+     * Query the mood events of every followed user when the feed is opened and merge them on the
+     * device (see {@link MoodEventProvider#listenToMoodEventsForUsers}).
+     * Reads grow with the number of followed users.
+     */
+    READ_TIME_MERGE,
+
+    /**
+     * Read the users/{uid}/feed collection, which authors copy each mood event into for every
+     * follower when it is written (see {@link FeedFanoutWorker}), so the feed is a single
+     * pre-sorted query.
+     */
+    MATERIALIZED
+}
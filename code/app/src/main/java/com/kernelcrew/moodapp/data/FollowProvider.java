@@ -2,24 +2,59 @@ package com.kernelcrew.moodapp.data;
 
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
-import com.google.android.gms.tasks.Tasks;
-import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.WriteBatch;
 import com.kernelcrew.moodapp.utils.NotificationHelper;
 
 import java.util.ArrayList;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Follow requests and the follow edges between users.
+ * <p>
+ * Each edge (users/{uid}/followers/{followerUid} and users/{uid}/following/{followedUid}) stores
+ * the uid and username of the user it points at, so follower lists render from a single query.
+ * {@link #reconcileEdges(String)} rewrites those usernames when a user renames.
+ * </p>
+ */
 public class FollowProvider {
+    /**
+     * Number of recent mood events copied into a new follower's materialized feed.
+     */
+    private static final int FEED_BACKFILL_LIMIT = 3;
+
+    /**
+     * Field on a user document recording the username last written to edges pointing at them.
+     */
+    private static final String EDGE_USERNAME_FIELD = "edgeUsername";
+
+    /**
+     * Firestore limit on the number of writes in one batch.
+     */
+    private static final int MAX_BATCH_WRITES = 500;
+
+    /**
+     * Firestore limit on the number of values in one whereIn query.
+     */
+    private static final int MAX_WHERE_IN = 30;
+
     private static FollowProvider instance;
     private final FirebaseFirestore db = FirebaseFirestore.getInstance();
 
@@ -60,16 +95,29 @@ public class FollowProvider {
     // Accept a follow request
     public Task<Void> acceptRequest(String targetUid, String requesterUid) {
         return deleteRequest(targetUid, requesterUid)
-                .addOnSuccessListener(unused -> {
+                .addOnSuccessListener(unused -> fetchUsernames(Arrays.asList(targetUid, requesterUid))
+                        .addOnCompleteListener(names -> {
+                    // Each edge carries the name of the user it points at, read from their user
+                    // document rather than a cache, as reconcileEdges won't correct it later
+                    // (null if it can't be read)
+                    Map<String, String> usernames = names.isSuccessful()
+                            ? names.getResult() : Collections.emptyMap();
+                    String targetName = usernames.get(targetUid);
+                    String requesterName = usernames.get(requesterUid);
+
                     // Add to followers and following as before:
                     db.collection("users").document(targetUid)
                             .collection("followers")
                             .document(requesterUid)
-                            .set(Collections.emptyMap());
+                            .set(edgeData(requesterUid, requesterName))
+                            .addOnSuccessListener(added -> {
+                                // Seed the new follower's materialized feed with recent posts
+                                FeedFanoutWorker.getInstance().backfill(targetUid, requesterUid, FEED_BACKFILL_LIMIT);
+                            });
                     db.collection("users").document(requesterUid)
                             .collection("following")
                             .document(targetUid)
-                            .set(Collections.emptyMap());
+                            .set(edgeData(targetUid, targetName));
                     // Write a "followAccepted" notification to the requester's notifications subcollection.
                     java.util.HashMap<String, Object> notifData = new java.util.HashMap<>();
                     notifData.put("fromUserId", targetUid);    // The acceptor (User2)
@@ -88,7 +136,170 @@ public class FollowProvider {
                             .addOnFailureListener(e -> {
                                 Log.e("FollowProvider", "Failed to write notification", e);
                             });
-                });
+                }));
+    }
+
+    /**
+     * Bring the usernames stored on follow edges pointing at a user up to date, e.g. after they
+     * renamed. Does nothing (beyond reading the user document) if they are already up to date.
+     * The first run also fills in the uid and username of the user's own edges which were written
+     * before edges carried them.
+     * Must be run by the user themselves.
+     * @param uid User whose edges to reconcile
+     * @return Task resolving to the number of edges rewritten
+     */
+    public Task<Integer> reconcileEdges(@NonNull String uid) {
+        DocumentReference userRef = db.collection("users").document(uid);
+        return userRef.get().onSuccessTask(userDoc -> {
+            String username = userDoc.getString("username");
+            String edgeUsername = userDoc.getString(EDGE_USERNAME_FIELD);
+            if (username == null || username.equals(edgeUsername)) {
+                return Tasks.forResult(0);
+            }
+            UsernameResolver.getInstance().put(uid, username);
+
+            List<Task<Integer>> jobs = new ArrayList<>();
+            // Edges in other users' lists which point at this user
+            jobs.add(renameEdges(db.collectionGroup("followers").whereEqualTo("uid", uid), username));
+            jobs.add(renameEdges(db.collectionGroup("following").whereEqualTo("uid", uid), username));
+            if (edgeUsername == null) {
+                jobs.add(fillLegacyEdges(userRef.collection("followers")));
+                jobs.add(fillLegacyEdges(userRef.collection("following")));
+            }
+
+            return Tasks.whenAllSuccess(jobs).onSuccessTask(counts -> {
+                int rewritten = 0;
+                for (Object count : counts) {
+                    rewritten += (Integer) count;
+                }
+                final int total = rewritten;
+                return userRef.update(EDGE_USERNAME_FIELD, username)
+                        .onSuccessTask(unused -> Tasks.forResult(total));
+            });
+        });
+    }
+
+    private static Map<String, Object> edgeData(@NonNull String uid, @Nullable String username) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("uid", uid);
+        if (username != null) {
+            data.put("username", username);
+        }
+        return data;
+    }
+
+    /**
+     * Read the current usernames of users from their user documents, in whereIn batches.
+     * @param uids Users to look up
+     * @return Task resolving to the username by uid, leaving out users without one
+     */
+    private Task<Map<String, String>> fetchUsernames(List<String> uids) {
+        List<Task<QuerySnapshot>> reads = new ArrayList<>();
+        for (int start = 0; start < uids.size(); start += MAX_WHERE_IN) {
+            List<String> batch = uids.subList(start, Math.min(uids.size(), start + MAX_WHERE_IN));
+            reads.add(db.collection("users").whereIn(FieldPath.documentId(), new ArrayList<>(batch)).get());
+        }
+        return Tasks.whenAllSuccess(reads).onSuccessTask(snapshots -> {
+            Map<String, String> usernames = new HashMap<>();
+            for (Object snapshot : snapshots) {
+                for (DocumentSnapshot doc : ((QuerySnapshot) snapshot).getDocuments()) {
+                    String username = doc.getString("username");
+                    if (username != null) {
+                        usernames.put(doc.getId(), username);
+                    }
+                }
+            }
+            return Tasks.forResult(usernames);
+        });
+    }
+
+    /**
+     * Rewrite the username of every edge matched by a query which doesn't have it yet.
+     */
+    private Task<Integer> renameEdges(Query edges, @NonNull String username) {
+        return edges.get().onSuccessTask(snapshot -> {
+            List<DocumentReference> stale = new ArrayList<>();
+            for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                if (!username.equals(doc.getString("username"))) {
+                    stale.add(doc.getReference());
+                }
+            }
+            Map<DocumentReference, String> names = new HashMap<>();
+            for (DocumentReference ref : stale) {
+                names.put(ref, username);
+            }
+            return writeUsernames(names);
+        });
+    }
+
+    /**
+     * Fill in the uid and username of edges written before edges carried them.
+     */
+    private Task<Integer> fillLegacyEdges(CollectionReference edges) {
+        return edges.get().onSuccessTask(snapshot -> {
+            List<DocumentReference> legacy = new ArrayList<>();
+            List<String> uids = new ArrayList<>();
+            for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                if (doc.getString("username") == null) {
+                    legacy.add(doc.getReference());
+                    uids.add(doc.getId());
+                }
+            }
+            // The rules only accept the name on the user document, so read it rather than a cache
+            return fetchUsernames(uids).onSuccessTask(usernames -> {
+                Map<DocumentReference, String> names = new HashMap<>();
+                for (DocumentReference ref : legacy) {
+                    // Users without a username are left for a later run
+                    String username = usernames.get(ref.getId());
+                    if (username != null) {
+                        names.put(ref, username);
+                    }
+                }
+                return writeUsernames(names);
+            });
+        });
+    }
+
+    /**
+     * Write the usernames of edges, committing each batch on its own so one rejected batch
+     * doesn't hold back the others. Fails once every batch is done if any was rejected, so the
+     * edges it held are retried by the next reconcile.
+     */
+    private Task<Integer> writeUsernames(Map<DocumentReference, String> names) {
+        List<Task<Void>> commits = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        WriteBatch batch = db.batch();
+        int inBatch = 0;
+        for (Map.Entry<DocumentReference, String> entry : names.entrySet()) {
+            DocumentReference ref = entry.getKey();
+            batch.update(ref, "uid", ref.getId(), "username", entry.getValue());
+            if (++inBatch == MAX_BATCH_WRITES) {
+                commits.add(batch.commit());
+                sizes.add(inBatch);
+                batch = db.batch();
+                inBatch = 0;
+            }
+        }
+        if (inBatch > 0) {
+            commits.add(batch.commit());
+            sizes.add(inBatch);
+        }
+        return Tasks.whenAllComplete(commits).continueWithTask(done -> {
+            int written = 0;
+            Exception failure = null;
+            for (int i = 0; i < commits.size(); i++) {
+                if (commits.get(i).isSuccessful()) {
+                    written += sizes.get(i);
+                } else {
+                    failure = commits.get(i).getException();
+                    Log.w("FollowProvider", "Failed to rename a batch of follow edges", failure);
+                }
+            }
+            if (failure != null) {
+                return Tasks.forException(failure);
+            }
+            return Tasks.forResult(written);
+        });
     }
 
     // Fetch all followers for a user
@@ -134,7 +345,9 @@ public class FollowProvider {
                 .document(userUid)
                 .delete();
 
-        return Tasks.whenAllComplete(deleteFollowing, deleteFollower)
+        Task<Integer> clearFeed = FeedFanoutWorker.getInstance().removeAuthor(userUid, followedUid);
+
+        return Tasks.whenAllComplete(deleteFollowing, deleteFollower, clearFeed)
                 .continueWith(task -> null);
     }
 
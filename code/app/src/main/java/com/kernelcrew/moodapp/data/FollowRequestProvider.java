@@ -73,16 +73,14 @@ public class FollowRequestProvider {
      * Send a follow request notification.
      */
     private void sendFollowRequestNotification(String requesterUid) {
-        // Fetch the username from Firestore
-        db.collection("users").document(requesterUid).get()
-                .addOnSuccessListener(doc -> {
-                    String username = requesterUid; // Fallback to requesterUid if username is not found
-                    if (doc.exists()) {
-                        String fetchedName = doc.getString("username");
-                        Log.d("FollowRequest", "Fetched username: " + fetchedName);  // Log the fetched username
-                        if (fetchedName != null && !fetchedName.isEmpty()) {
-                            username = fetchedName;
-                        }
+        UsernameResolver.getInstance().resolve(requesterUid)
+                .continueWith(task -> {
+                    // Fall back to the requester's uid if their username can't be found
+                    String username = task.isSuccessful() && !task.getResult().isEmpty()
+                            ? task.getResult()
+                            : requesterUid;
+                    if (!task.isSuccessful()) {
+                        Log.e("FollowRequestProvider", "Error fetching username", task.getException());
                     }
 
                     // Now send the notification with the username + "wants to follow you"
@@ -90,9 +88,7 @@ public class FollowRequestProvider {
                             "Follow Request",
                             username + " wants to follow you"
                     );
-                })
-                .addOnFailureListener(e -> {
-                    Log.e("FollowRequestProvider", "Error fetching username", e);
+                    return null;
                 });
     }
 
@@ -100,15 +96,14 @@ public class FollowRequestProvider {
      * Send a follow accepted notification and optionally delete the notification.
      */
     private void sendFollowAcceptedNotification(String fromUserId, String docId) {
-        // Fetch the username from Firestore
-        db.collection("users").document(fromUserId).get()
-                .addOnSuccessListener(doc -> {
-                    String username = fromUserId; // Fallback to fromUserId if username is not found
-                    if (doc.exists()) {
-                        String fetchedName = doc.getString("username");
-                        if (fetchedName != null && !fetchedName.isEmpty()) {
-                            username = fetchedName;
-                        }
+        UsernameResolver.getInstance().resolve(fromUserId)
+                .continueWith(task -> {
+                    // Fall back to fromUserId if the username can't be found
+                    String username = task.isSuccessful() && !task.getResult().isEmpty()
+                            ? task.getResult()
+                            : fromUserId;
+                    if (!task.isSuccessful()) {
+                        Log.e("FollowRequestProvider", "Error fetching username", task.getException());
                     }
 
                     // Send the notification with the username + "accepted your follow request"
@@ -123,9 +118,7 @@ public class FollowRequestProvider {
                             .collection("notifications")
                             .document(docId)
                             .update("shown", true);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e("FollowRequestProvider", "Error fetching username", e);
+                    return null;
                 });
     }
 }
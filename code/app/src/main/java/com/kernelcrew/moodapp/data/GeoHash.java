@@ -0,0 +1,462 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Geohashes of mood event locations, so location filters can be answered by range queries on a
+ * single indexed field instead of ranges on both latitude and longitude.
+ * <p>
+ * A geohash interleaves the bits of the longitude and latitude cells a point falls in, so the
+ * points of a cell share the cell's hash as a prefix. A radius is covered by the cells which
+ * intersect it; cells which are consecutive in geohash order merge into a single range, and
+ * ranges separated by few cells are joined to keep the number of queries down.
+ * Covers always contain every point within the radius but may contain more, so results must
+ * be checked with {@link #distanceKm}.
+ * </p>
+ */
+public final class GeoHash {
+    public static final String GEOHASH_FIELD = "geohash";
+
+    /**
+     * Length of the stored geohashes, cells of about 1.2 m by 0.6 m.
+     */
+    public static final int STORED_PRECISION = 10;
+
+    public static final double EARTH_RADIUS_KM = 6371.0;
+
+    /**
+     * Most cells examined when planning a cover at one precision. Finer precisions are skipped.
+     */
+    private static final int MAX_PLANNED_CELLS = 4096;
+
+    /**
+     * Slack for rounding errors, so points right on the radius are never left out.
+     */
+    private static final double DISTANCE_TOLERANCE_KM = 1e-6;
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    /**
+     * Sorts after every geohash character, so prefix + RANGE_END bounds the hashes starting
+     * with prefix.
+     */
+    private static final String RANGE_END = "~";
+
+    private GeoHash() { }
+
+    /**
+     * An inclusive range of geohash prefixes of equal length: every hash starting with a prefix
+     * from start to end, in geohash order.
+     */
+    public static class Range {
+        @NonNull public final String start;
+        @NonNull public final String end;
+
+        public Range(@NonNull String start, @NonNull String end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return Exclusive upper bound of the geohashes in the range
+         */
+        @NonNull
+        public String getUpperBound() {
+            return end + RANGE_END;
+        }
+
+        /**
+         * @param geohash Geohash to check
+         * @return True if the geohash falls in the range
+         */
+        public boolean contains(@Nullable String geohash) {
+            return geohash != null && geohash.compareTo(start) >= 0 && geohash.compareTo(getUpperBound()) < 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Range)) return false;
+            Range range = (Range) o;
+            return start.equals(range.start) && end.equals(range.end);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(start, end);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return start.equals(end) ? start : start + ".." + end;
+        }
+    }
+
+    /**
+     * Compute the geohash of a location.
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param precision Length of the hash, 1 to 12
+     * @return Geohash of the location
+     */
+    @NonNull
+    public static String encode(double latitude, double longitude, int precision) {
+        if (precision < 1 || precision > 12) {
+            throw new IllegalArgumentException("precision must be between 1 and 12");
+        }
+        return toBase32(interleave(row(latitude, precision), column(longitude, precision), precision), precision);
+    }
+
+    /**
+     * Great-circle distance between two locations, by the haversine formula.
+     * @return Distance in km
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Plan the geohash ranges to query for the locations within a radius. At each precision the
+     * cells intersecting the radius are merged into ranges, joining the ranges with the smallest
+     * gaps between them until at most maxRanges are left; the precision whose ranges span the
+     * least area wins. Finer cells fit the radius better, but leave more gaps to fill.
+     * Radii around a pole cover every longitude, and radii across the anti-meridian wrap around.
+     * @param latitude Latitude of the center in degrees
+     * @param longitude Longitude of the center in degrees
+     * @param radiusKm Radius in km
+     * @param maxRanges Most ranges to return, at least 1
+     * @return Ranges in geohash order, covering every location within the radius
+     */
+    @NonNull
+    public static List<Range> coveringRanges(double latitude, double longitude, double radiusKm, int maxRanges) {
+        if (maxRanges < 1) {
+            throw new IllegalArgumentException("maxRanges must be at least 1");
+        }
+
+        List<Range> best = null;
+        double bestArea = Double.MAX_VALUE;
+        for (int precision = 1; precision <= STORED_PRECISION; precision++) {
+            long[] cells = cover(latitude, longitude, radiusKm, precision);
+            if (cells == null) {
+                break;
+            }
+            long[] runs = merge(cells, maxRanges);
+            long spanned = 0;
+            for (int i = 0; i < runs.length; i += 2) {
+                spanned += runs[i + 1] - runs[i] + 1;
+            }
+            // Cells of a precision are 1/32 the size of those of the one before
+            double area = spanned / Math.pow(32, precision);
+            if (area < bestArea) {
+                bestArea = area;
+                best = new ArrayList<>();
+                for (int i = 0; i < runs.length; i += 2) {
+                    best.add(new Range(toBase32(runs[i], precision), toBase32(runs[i + 1], precision)));
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The geohash cells covering a box, at the finest precision needing at most maxCells of
+     * them, for loading a map view tile by tile. Precision 1 is returned even if it needs more.
+     * @param south Southern edge in degrees
+     * @param west Western edge in degrees; east of the eastern edge when the box crosses the
+     *             anti-meridian
+     * @param north Northern edge in degrees
+     * @param east Eastern edge in degrees
+     * @param maxCells Most cells to return, at least 1
+     * @return Cells of one precision, row by row from the south-west
+     */
+    @NonNull
+    public static List<String> cellsInBounds(double south, double west, double north, double east, int maxCells) {
+        if (maxCells < 1) {
+            throw new IllegalArgumentException("maxCells must be at least 1");
+        }
+        double span = east >= west ? east - west : east - west + 360;
+
+        int precision = 1;
+        while (precision < STORED_PRECISION && cellCount(south, west, north, span, precision + 1) <= maxCells) {
+            precision++;
+        }
+
+        int columns = 1 << lonBits(precision);
+        int firstRow = row(south, precision);
+        int lastRow = row(north, precision);
+        int firstColumn = firstColumn(west, precision);
+        int columnCount = columnCount(west, span, precision);
+        List<String> cells = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int i = 0; i < columnCount; i++) {
+                cells.add(toBase32(interleave(row, (firstColumn + i) % columns, precision), precision));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Check whether any of a cell is within a radius, e.g. to skip loading cells outside a
+     * location filter.
+     * @param cell Geohash of the cell
+     * @param latitude Latitude of the center in degrees
+     * @param longitude Longitude of the center in degrees
+     * @param radiusKm Radius in km
+     * @return Whether the cell intersects the radius
+     */
+    public static boolean intersectsRadius(@NonNull String cell, double latitude, double longitude, double radiusKm) {
+        double[] bounds = bounds(cell);
+        return minDistanceKm(latitude, longitude, bounds[0], bounds[2], bounds[1], bounds[3] - bounds[1])
+                <= radiusKm + DISTANCE_TOLERANCE_KM;
+    }
+
+    /**
+     * The box a cell covers.
+     * @param cell Geohash of the cell
+     * @return South, west, north and east edges in degrees
+     */
+    @NonNull
+    public static double[] bounds(@NonNull String cell) {
+        int precision = cell.length();
+        long bits = 0;
+        for (int i = 0; i < precision; i++) {
+            int value = BASE32.indexOf(cell.charAt(i));
+            if (value < 0) {
+                throw new IllegalArgumentException("Not a geohash: " + cell);
+            }
+            bits = (bits << 5) | value;
+        }
+        // Undo the interleaving, longitude first
+        int row = 0;
+        int column = 0;
+        for (int i = 0; i < 5 * precision; i++) {
+            int bit = (int) (bits >> (5 * precision - 1 - i)) & 1;
+            if (i % 2 == 0) {
+                column = (column << 1) | bit;
+            } else {
+                row = (row << 1) | bit;
+            }
+        }
+        double cellLat = 180.0 / (1 << latBits(precision));
+        double cellLon = 360.0 / (1 << lonBits(precision));
+        double south = -90 + row * cellLat;
+        double west = -180 + column * cellLon;
+        return new double[] {south, west, south + cellLat, west + cellLon};
+    }
+
+    private static long cellCount(double south, double west, double north, double span, int precision) {
+        return (long) (row(north, precision) - row(south, precision) + 1) * columnCount(west, span, precision);
+    }
+
+    private static int firstColumn(double west, int precision) {
+        return column(wrap(west), precision);
+    }
+
+    /**
+     * Number of columns a box spans, wrapping around the anti-meridian.
+     */
+    private static int columnCount(double west, double span, int precision) {
+        int columns = 1 << lonBits(precision);
+        if (span >= 360) {
+            return columns;
+        }
+        double first = wrapPositive(west + 180) / 360 * columns;
+        int last = (int) Math.ceil(first + span / 360 * columns) - 1;
+        return Math.min(columns, Math.max((int) Math.floor(first), last) - (int) Math.floor(first) + 1);
+    }
+
+    /**
+     * The cells of a precision which intersect a radius, sorted, or null if the radius spans
+     * more than {@link #MAX_PLANNED_CELLS} cells.
+     */
+    @Nullable
+    private static long[] cover(double latitude, double longitude, double radiusKm, int precision) {
+        int rows = 1 << latBits(precision);
+        int columns = 1 << lonBits(precision);
+        double angle = (radiusKm + DISTANCE_TOLERANCE_KM) / EARTH_RADIUS_KM;
+
+        // Bounding box of the radius
+        double minLat = latitude - Math.toDegrees(angle);
+        double maxLat = latitude + Math.toDegrees(angle);
+        boolean allLongitudes = minLat <= -90 || maxLat >= 90 || angle >= Math.PI / 2;
+        double lonDelta = 180;
+        if (!allLongitudes) {
+            double sin = Math.sin(angle) / Math.cos(Math.toRadians(latitude));
+            allLongitudes = sin >= 1;
+            lonDelta = allLongitudes ? 180 : Math.toDegrees(Math.asin(sin));
+        }
+
+        int firstRow = row(Math.max(-90, minLat), precision);
+        int lastRow = row(Math.min(90, maxLat), precision);
+        int firstColumn = 0;
+        int columnCount = columns;
+        if (!allLongitudes) {
+            firstColumn = column(wrap(longitude - lonDelta), precision);
+            int lastColumn = column(wrap(longitude + lonDelta), precision);
+            columnCount = Math.min(columns, Math.floorMod(lastColumn - firstColumn, columns) + 1);
+        }
+
+        long candidates = (long) (lastRow - firstRow + 1) * columnCount;
+        if (candidates > MAX_PLANNED_CELLS) {
+            return null;
+        }
+
+        double cellLat = 180.0 / rows;
+        double cellLon = 360.0 / columns;
+        long[] cells = new long[(int) candidates];
+        int count = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            double lat0 = -90 + row * cellLat;
+            for (int i = 0; i < columnCount; i++) {
+                int column = (firstColumn + i) % columns;
+                double lon0 = -180 + column * cellLon;
+                if (minDistanceKm(latitude, longitude, lat0, lat0 + cellLat, lon0, cellLon) <= radiusKm + DISTANCE_TOLERANCE_KM) {
+                    cells[count++] = interleave(row, column, precision);
+                }
+            }
+        }
+        long[] result = Arrays.copyOf(cells, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Merge sorted cells into at most maxRanges ranges. Runs of consecutive cells become ranges,
+     * then the smallest gaps between ranges are filled, which adds the fewest cells.
+     * @return First and last cell of each range, flattened
+     */
+    private static long[] merge(long[] cells, int maxRanges) {
+        List<long[]> runs = new ArrayList<>();
+        int i = 0;
+        while (i < cells.length) {
+            int j = i;
+            while (j + 1 < cells.length && cells[j + 1] == cells[j] + 1) {
+                j++;
+            }
+            runs.add(new long[] {cells[i], cells[j]});
+            i = j + 1;
+        }
+
+        // Keep the widest gaps between runs
+        boolean[] kept = new boolean[runs.size()];
+        Integer[] gaps = new Integer[Math.max(0, runs.size() - 1)];
+        for (int g = 0; g < gaps.length; g++) {
+            gaps[g] = g;
+        }
+        Arrays.sort(gaps, (a, b) -> Long.compare(
+                runs.get(b + 1)[0] - runs.get(b)[1], runs.get(a + 1)[0] - runs.get(a)[1]));
+        for (int g = 0; g < Math.min(gaps.length, maxRanges - 1); g++) {
+            kept[gaps[g]] = true;
+        }
+
+        long[] merged = new long[2 * Math.min(runs.size(), maxRanges)];
+        int count = 0;
+        for (int r = 0; r < runs.size(); r++) {
+            if (r == 0 || kept[r - 1]) {
+                merged[count++] = runs.get(r)[0];
+                merged[count++] = runs.get(r)[1];
+            } else {
+                merged[count - 1] = runs.get(r)[1];
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Smallest distance from a point to a cell. The nearest point of a cell the point is outside
+     * of lies on one of its meridian edges (corners included), or straight north or south of
+     * the point if the cell spans its longitude.
+     */
+    private static double minDistanceKm(double latitude, double longitude,
+                                        double lat0, double lat1, double lon0, double width) {
+        double offset = wrapPositive(longitude - lon0);
+        if (offset <= width) {
+            return distanceKm(latitude, longitude, clamp(latitude, lat0, lat1), longitude);
+        }
+        return Math.min(distanceToMeridianKm(latitude, longitude, lon0, lat0, lat1),
+                distanceToMeridianKm(latitude, longitude, lon0 + width, lat0, lat1));
+    }
+
+    /**
+     * Smallest distance from a point to the part of a meridian between two latitudes. The
+     * closeness along a meridian is a cosine of the latitude peaking at the foot of the
+     * perpendicular, so the minimum is at the clamped foot or at an end.
+     */
+    private static double distanceToMeridianKm(double latitude, double longitude,
+                                               double meridian, double lat0, double lat1) {
+        double lat = Math.toRadians(latitude);
+        double foot = Math.toDegrees(Math.atan2(Math.sin(lat),
+                Math.cos(lat) * Math.cos(Math.toRadians(meridian - longitude))));
+        double distance = distanceKm(latitude, longitude, clamp(foot, lat0, lat1), meridian);
+        distance = Math.min(distance, distanceKm(latitude, longitude, lat0, meridian));
+        return Math.min(distance, distanceKm(latitude, longitude, lat1, meridian));
+    }
+
+    private static int latBits(int precision) {
+        return 5 * precision / 2;
+    }
+
+    private static int lonBits(int precision) {
+        return 5 * precision - latBits(precision);
+    }
+
+    private static int row(double latitude, int precision) {
+        int rows = 1 << latBits(precision);
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor((latitude + 90) / 180 * rows)));
+    }
+
+    private static int column(double longitude, int precision) {
+        int columns = 1 << lonBits(precision);
+        return (int) Math.max(0, Math.min(columns - 1, Math.floor((longitude + 180) / 360 * columns)));
+    }
+
+    /**
+     * Interleave column and row bits, longitude first, as geohashes do.
+     */
+    private static long interleave(int row, int column, int precision) {
+        int lonBits = lonBits(precision);
+        int latBits = latBits(precision);
+        long bits = 0;
+        for (int i = 0; i < 5 * precision; i++) {
+            int bit = i % 2 == 0
+                    ? (column >> (lonBits - 1 - i / 2)) & 1
+                    : (row >> (latBits - 1 - i / 2)) & 1;
+            bits = (bits << 1) | bit;
+        }
+        return bits;
+    }
+
+    private static String toBase32(long bits, int precision) {
+        char[] chars = new char[precision];
+        for (int i = precision - 1; i >= 0; i--) {
+            chars[i] = BASE32.charAt((int) (bits & 31));
+            bits >>= 5;
+        }
+        return new String(chars);
+    }
+
+    private static double wrap(double longitude) {
+        return wrapPositive(longitude + 180) - 180;
+    }
+
+    private static double wrapPositive(double degrees) {
+        double wrapped = degrees % 360;
+        return wrapped < 0 ? wrapped + 360 : wrapped;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,212 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An inverted index from reason tokens (see {@link ReasonTokens}) to the mood events a screen
+ * has already loaded, so reason searches over them don't rescan every reason.
+ * <p>
+ * Events are indexed incrementally by id: only events whose reason changed are reindexed.
+ * Not thread safe; use it from the main thread.
+ * </p>
+ */
+public class LocalReasonIndex {
+    private final Map<String, MoodEvent> events = new HashMap<>();
+    private final Map<String, String> indexedReasons = new HashMap<>();
+    private final Map<String, Set<String>> postings = new HashMap<>();
+
+    /**
+     * Add or update mood events. Events without an id are ignored.
+     * @param moodEvents Mood events to index
+     */
+    public void update(@NonNull Collection<MoodEvent> moodEvents) {
+        for (MoodEvent event : moodEvents) {
+            String id = event.getId();
+            if (id == null) {
+                continue;
+            }
+            events.put(id, event);
+            String reason = event.getReason();
+            if (indexedReasons.containsKey(id) && Objects.equals(indexedReasons.get(id), reason)) {
+                continue;
+            }
+            removePostings(id);
+            indexedReasons.put(id, reason);
+            for (String token : ReasonTokens.tokensFor(reason)) {
+                Set<String> ids = postings.get(token);
+                if (ids == null) {
+                    ids = new HashSet<>();
+                    postings.put(token, ids);
+                }
+                ids.add(id);
+            }
+        }
+    }
+
+    /**
+     * Make the index hold exactly the given mood events: index new ones, reindex those whose
+     * reason changed and forget those which are no longer given, e.g. because they were deleted.
+     * @param moodEvents Mood events currently loaded
+     */
+    public void sync(@NonNull Collection<MoodEvent> moodEvents) {
+        Set<String> loaded = new HashSet<>();
+        for (MoodEvent event : moodEvents) {
+            loaded.add(event.getId());
+        }
+        for (String id : new ArrayList<>(events.keySet())) {
+            if (!loaded.contains(id)) {
+                remove(id);
+            }
+        }
+        update(moodEvents);
+    }
+
+    /**
+     * Forget a mood event.
+     * @param id Mood event id
+     */
+    public void remove(@NonNull String id) {
+        removePostings(id);
+        indexedReasons.remove(id);
+        events.remove(id);
+    }
+
+    /**
+     * Forget every mood event.
+     */
+    public void clear() {
+        events.clear();
+        indexedReasons.clear();
+        postings.clear();
+    }
+
+    /**
+     * @return Number of indexed mood events
+     */
+    public int size() {
+        return events.size();
+    }
+
+    /**
+     * Find the ids of the indexed mood events whose reason matches a query.
+     * @param query Search query
+     * @return Matching ids, not to be modified, or null if the query has no words (everything
+     *         matches)
+     */
+    @Nullable
+    public Set<String> matchingIds(@Nullable String query) {
+        List<String> terms = ReasonTokens.queryTerms(query, Integer.MAX_VALUE);
+        if (terms.isEmpty()) {
+            return null;
+        }
+
+        // Intersect starting from the rarest term
+        List<Set<String>> lists = new ArrayList<>();
+        for (String term : terms) {
+            Set<String> ids = postings.get(term);
+            if (ids == null) {
+                return new HashSet<>();
+            }
+            lists.add(ids);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        // Query words cut to the token length still need their full length checked
+        boolean truncated = false;
+        for (String word : ReasonTokens.words(query)) {
+            truncated |= word.length() > ReasonTokens.MAX_PREFIX_LENGTH;
+        }
+
+        if (lists.size() == 1 && !truncated) {
+            return Collections.unmodifiableSet(lists.get(0));
+        }
+
+        Set<String> result = new HashSet<>();
+        for (String id : lists.get(0)) {
+            boolean inAll = true;
+            for (int i = 1; i < lists.size() && inAll; i++) {
+                inAll = lists.get(i).contains(id);
+            }
+            if (inAll && (!truncated || ReasonTokens.matches(indexedReasons.get(id), query))) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Index mood events and keep only those whose reason matches a query.
+     * @param moodEvents Mood events to filter
+     * @param query Search query
+     * @return Matching mood events, in their original order
+     */
+    @NonNull
+    public List<MoodEvent> filter(@NonNull List<MoodEvent> moodEvents, @Nullable String query) {
+        update(moodEvents);
+        Set<String> ids = matchingIds(query);
+        if (ids == null) {
+            return moodEvents;
+        }
+        List<MoodEvent> filtered = new ArrayList<>();
+        for (MoodEvent event : moodEvents) {
+            if (event.getId() != null
+                    ? ids.contains(event.getId())
+                    : ReasonTokens.matches(event.getReason(), query)) {
+                filtered.add(event);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Search every indexed mood event, e.g. to show results before the server answers.
+     * @param query Search query
+     * @return Matching mood events, newest first
+     */
+    @NonNull
+    public List<MoodEvent> search(@Nullable String query) {
+        Set<String> ids = matchingIds(query);
+        List<MoodEvent> results = new ArrayList<>();
+        for (Map.Entry<String, MoodEvent> entry : events.entrySet()) {
+            if (ids == null || ids.contains(entry.getKey())) {
+                results.add(entry.getValue());
+            }
+        }
+        results.sort((a, b) -> {
+            Date createdA = a.getCreated();
+            Date createdB = b.getCreated();
+            if (createdA == null || createdB == null) {
+                return createdA == null ? (createdB == null ? 0 : 1) : -1;
+            }
+            return createdB.compareTo(createdA);
+        });
+        return results;
+    }
+
+    private void removePostings(String id) {
+        if (!indexedReasons.containsKey(id)) {
+            return;
+        }
+        for (String token : ReasonTokens.tokensFor(indexedReasons.get(id))) {
+            Set<String> ids = postings.get(token);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+}
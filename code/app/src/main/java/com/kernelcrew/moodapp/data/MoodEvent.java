@@ -5,6 +5,9 @@ import android.graphics.Bitmap;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.Blob;
 import com.google.firebase.firestore.Exclude;
 import com.kernelcrew.moodapp.utils.PhotoUtils;
 
@@ -25,8 +28,14 @@ public class MoodEvent implements Serializable {
     private String socialSituation;
     private String reason;
     private Bitmap photo;
+    private byte[] photoData;
+    private Task<Bitmap> photoTask;
+    private boolean hasPhoto;
+    private String photoHash;
+    private byte[] thumbnailData;
     private Double latitude;
     private Double longitude;
+    private boolean heatmapCounted;
 
     private @NonNull MoodEventVisibility visibility = MoodEventVisibility.PUBLIC;
 
@@ -101,40 +110,219 @@ public class MoodEvent implements Serializable {
         this.reason = reason;
     }
 
+    /**
+     * Search tokens of the reason, stored with the mood event so reason search can be an indexed
+     * query (see {@link ReasonTokens}).
+     * @return Tokens of the current reason
+     */
+    public List<String> getReasonTokens() {
+        return ReasonTokens.tokensFor(reason);
+    }
+
+    /**
+     * The tokens are always derived from the reason, so stored tokens are ignored.
+     * @param reasonTokens Stored tokens
+     */
+    public void setReasonTokens(List<String> reasonTokens) { }
+
+    /**
+     * Get the decoded photo, decoding it on the calling thread if it has not been decoded yet.
+     * Prefer {@link #loadPhoto()} on the main thread.
+     * @return Decoded photo or null if this mood event has no photo
+     */
     @Exclude // Don't serialize the Bitmap into firestore
+    @Nullable
     public Bitmap getPhoto() {
+        if (photo == null && photoData != null) {
+            photo = PhotoUtils.decodePhoto(photoData);
+        }
         return photo;
     }
     public void setPhoto(Bitmap photo) {
         this.photo = photo;
+        this.photoData = null;
+        this.photoTask = null;
+        this.hasPhoto = photo != null;
+        this.photoHash = null;
+        this.thumbnailData = null;
+    }
+
+    /**
+     * Set a new photo which has already been encoded (see {@link PhotoUtils#compressPhoto(Bitmap)}
+     * and {@link PhotoUtils#createThumbnail(Bitmap)}), so it is stored as is rather than
+     * compressed again.
+     * @param photo New photo
+     * @param encoded The photo's WEBP encoding
+     * @param thumbnail The photo's thumbnail
+     */
+    public void setPhoto(@NonNull Bitmap photo, @NonNull byte[] encoded, @NonNull byte[] thumbnail) {
+        setPhoto(photo);
+        this.photoData = encoded;
+        this.thumbnailData = thumbnail;
+    }
+
+    /**
+     * Keep the photo stored with another copy of this mood event, without fetching or re-encoding
+     * it. The photo is left unloaded, so an update leaves the stored photo document untouched.
+     * @param stored The mood event as it is stored
+     */
+    public void keepStoredPhoto(@NonNull MoodEvent stored) {
+        this.photo = null;
+        this.photoData = null;
+        this.photoTask = null;
+        this.hasPhoto = stored.hasPhoto();
+        this.photoHash = stored.getPhotoHash();
+        this.thumbnailData = stored.thumbnailData;
+    }
+
+    /**
+     * Attach an already decoded copy of the stored photo (e.g. from the
+     * {@link com.kernelcrew.moodapp.utils.PhotoCache}). Unlike {@link #setPhoto(Bitmap)} this does
+     * not mark the photo as changed.
+     * @param decoded Decoded photo matching {@link #getPhotoHash()}
+     */
+    public void attachDecodedPhoto(@NonNull Bitmap decoded) {
+        this.photo = decoded;
+        this.photoTask = null;
+    }
+
+    /**
+     * Decode the photo off the main thread. The decode only happens the first time this is
+     * called, later calls share the same task and the decoded Bitmap.
+     * @return Task resolving to the decoded photo, or to null if this mood event has no photo
+     */
+    @Exclude
+    public Task<Bitmap> loadPhoto() {
+        if (photo != null || photoData == null) {
+            return Tasks.forResult(photo);
+        }
+
+        if (photoTask == null) {
+            photoTask = PhotoUtils.decodePhotoAsync(photoData)
+                    .onSuccessTask(decoded -> {
+                        photo = decoded;
+                        return Tasks.forResult(decoded);
+                    });
+        }
+        return photoTask;
+    }
+
+    /**
+     * Check if a photo is attached to this mood event. The photo itself may not have been fetched
+     * yet (see {@link MoodEventProvider#loadPhoto(MoodEvent)}).
+     * @return True if this mood event has a photo
+     */
+    @Exclude
+    public boolean hasPhoto() {
+        return hasPhoto || photo != null || photoData != null;
+    }
+
+    /**
+     * Check if the encoded photo has already been fetched onto this mood event.
+     * @return True if the photo can be decoded without fetching it first
+     */
+    @Exclude
+    public boolean isPhotoLoaded() {
+        return photo != null || photoData != null;
+    }
+
+    /**
+     * Serialized flag telling readers of the (photo-less) moodEvents document that a photo is
+     * stored in the moodEventPhotos collection under the same id.
+     */
+    public boolean getHasPhoto() {
+        return hasPhoto();
+    }
+    public void setHasPhoto(boolean hasPhoto) {
+        this.hasPhoto = hasPhoto;
     }
 
     /**
-     * PNG encode the photo as a list of bytes (each an int so that it is serializable by
-     * Firestore.)
-     * @return PNG encoded photo or null
+     * Short hash of the encoded photo. Changes whenever the photo does, so it can be used to key
+     * caches of the decoded photo.
+     * @return Hash of the photo or null if there is no photo
      */
     @Nullable
-    public List<Integer> getPhotoBytes() {
-        if (photo == null) {
-            return null;
+    public String getPhotoHash() {
+        if (photoHash == null && isPhotoLoaded()) {
+            photoHash = PhotoUtils.hashPhoto(getPhotoBlob().toBytes());
+        }
+        return photoHash;
+    }
+    public void setPhotoHash(@Nullable String photoHash) {
+        this.photoHash = photoHash;
+    }
+
+    /**
+     * WEBP encode the photo as a single Firestore Blob.
+     * The photo is stored in its own moodEventPhotos document, never in the moodEvents document.
+     * @return WEBP encoded photo or null
+     */
+    @Exclude
+    @Nullable
+    public Blob getPhotoBlob() {
+        if (photoData == null && photo != null) {
+            photoData = PhotoUtils.compressPhoto(photo);
         }
 
-        return PhotoUtils.compressPhoto(photo);
+        return photoData == null ? null : Blob.fromBytes(photoData);
     }
 
     /**
-     * Set the photo associated with this mood event.
-     * The photo bytes must be PNG encoded as a list of bytes (store as integers in Firestore).
-     * @param byteList List of bytes encoding the PNG photo
+     * Set the photo associated with this mood event from a WEBP encoded Blob.
+     * The photo is only decoded once it is requested through {@link #loadPhoto()}.
+     * Also reads documents written before photos moved to the moodEventPhotos collection.
+     * @param blob Blob encoding the WEBP photo
+     */
+    public void setPhotoBlob(@Nullable Blob blob) {
+        if (blob == null) {
+            return;
+        }
+
+        photo = null;
+        photoTask = null;
+        photoData = blob.toBytes();
+    }
+
+    /**
+     * Tiny WEBP preview of the photo, stored inline so list rows can show it without fetching
+     * the photo (see {@link PhotoUtils#createThumbnail(Bitmap)}).
+     * @return Encoded thumbnail or null
+     */
+    @Nullable
+    public Blob getThumbnail() {
+        return thumbnailData == null ? null : Blob.fromBytes(thumbnailData);
+    }
+    public void setThumbnail(@Nullable Blob thumbnail) {
+        this.thumbnailData = thumbnail == null ? null : thumbnail.toBytes();
+    }
+
+    /**
+     * Decode the thumbnail off the main thread.
+     * @return Task resolving to the decoded thumbnail, or to null if there is none
+     */
+    @Exclude
+    public Task<Bitmap> loadThumbnail() {
+        if (thumbnailData == null) {
+            return Tasks.forResult(null);
+        }
+        return PhotoUtils.decodePhotoAsync(thumbnailData);
+    }
+
+    /**
+     * Set the photo from the legacy storage format, where each byte of the encoded photo was
+     * stored as an integer in a Firestore array. Only used when reading documents that have not
+     * been migrated yet (see {@link Utility#migrateLegacyPhotos}).
+     * @param byteList List of bytes encoding the WEBP photo
      */
     public void setPhotoBytes(@Nullable List<Integer> byteList) {
         if (byteList == null) {
-            photo = null;
             return;
         }
 
-        photo = PhotoUtils.decodePhoto(byteList);
+        photo = null;
+        photoTask = null;
+        photoData = PhotoUtils.toByteArray(byteList);
     }
 
     public Double getLatitude() {
@@ -151,6 +339,22 @@ public class MoodEvent implements Serializable {
         this.longitude = longitude;
     }
 
+    /**
+     * Geohash of the location, stored with the mood event so location filters can be range
+     * queries on a single field (see {@link GeoHash}).
+     * @return Geohash of the current location, or null if there is no location
+     */
+    @Nullable
+    public String getGeohash() {
+        return hasLocation() ? GeoHash.encode(latitude, longitude, GeoHash.STORED_PRECISION) : null;
+    }
+
+    /**
+     * The geohash is always derived from the location, so a stored geohash is ignored.
+     * @param geohash Stored geohash
+     */
+    public void setGeohash(String geohash) { }
+
     @Exclude
     public boolean hasLocation() {
         return latitude != null && longitude != null;
@@ -177,6 +381,18 @@ public class MoodEvent implements Serializable {
         this.visibility = visibility;
     }
 
+    /**
+     * Serialized flag telling whether the stored mood event is counted in the mood heatmap, so
+     * edits and deletes know whether to count it out and mood events which predate the heatmap
+     * can be counted in once (see {@link MoodHeatmapWorker}).
+     */
+    public boolean getHeatmapCounted() {
+        return heatmapCounted;
+    }
+    public void setHeatmapCounted(boolean heatmapCounted) {
+        this.heatmapCounted = heatmapCounted;
+    }
+
     @Exclude
     private boolean isSynced = true;
 
@@ -4,16 +4,27 @@ import androidx.annotation.Nullable;
 import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.Query;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * A class for filtering mood events through Firestore. It is used to build queries based on various filters.
  */
 public class MoodEventFilter {
-    private static final double EARTH_RADIUS_KM = 6371.0;
+    /**
+     * Firestore rejects queries whose filters expand to more than this many disjunctions
+     * (the product of the sizes of every in / OR clause).
+     */
+    public static final int MAX_DISJUNCTIONS = 30;
+
+    /**
+     * Most geohash range queries {@link #buildQueries} runs in parallel for a location filter.
+     */
+    public static final int MAX_GEOHASH_RANGES = 8;
 
     private final Query allMoodEvents;
     private final FilterCriteria criteria = new FilterCriteria();
@@ -27,6 +38,7 @@ public class MoodEventFilter {
         Sorting sorting;
         LocationFilter location;
         Integer limit;
+        boolean sortByDistance;
     }
 
     private static class DateRange {
@@ -43,6 +55,7 @@ public class MoodEventFilter {
         Double latitude;
         Double longitude;
         Double radius;
+        DistanceFilter distanceFilter;
     }
 
     // Constructors
@@ -91,11 +104,21 @@ public class MoodEventFilter {
             loc.latitude = latitude;
             loc.longitude = longitude;
             loc.radius = radius;
+            loc.distanceFilter = new DistanceFilter(latitude, longitude, radius);
             criteria.location = loc;
         }
         return this;
     }
 
+    /**
+     * Order results nearest first when a location filter is set, see {@link #applyLocationFilter}.
+     * Queries are still sorted by their sort field, so this only orders what they return.
+     */
+    public MoodEventFilter setSortByDistance(boolean sortByDistance) {
+        criteria.sortByDistance = sortByDistance;
+        return this;
+    }
+
     // Date range filter
     public MoodEventFilter setDateRange(@Nullable Date startDate, @Nullable Date endDate) {
         if (startDate != null && endDate != null && startDate.after(endDate)) {
@@ -222,10 +245,22 @@ public class MoodEventFilter {
         return criteria.dateRange != null ? criteria.dateRange.end : null;
     }
 
+    public String getSortField() {
+        return criteria.sorting != null ? criteria.sorting.field : null;
+    }
+
     public String getReasonQuery() {
         return reasonQuery;
     }
 
+    public Integer getLimit() {
+        return criteria.limit;
+    }
+
+    public boolean isSortByDistance() {
+        return criteria.sortByDistance;
+    }
+
     public Double getFilterLatitude() {
         return (criteria.location != null) ? criteria.location.latitude : null;
     }
@@ -238,6 +273,59 @@ public class MoodEventFilter {
         return (criteria.location != null) ? criteria.location.radius : null;
     }
 
+    /**
+     * The geohash ranges covering the location filter (see {@link GeoHash#coveringRanges}).
+     * @param maxRanges Most ranges to return
+     * @return Ranges to query, empty if there is no location filter
+     */
+    public List<GeoHash.Range> getGeohashRanges(int maxRanges) {
+        if (criteria.location == null) {
+            return new ArrayList<>();
+        }
+        return GeoHash.coveringRanges(criteria.location.latitude, criteria.location.longitude,
+                criteria.location.radius, maxRanges);
+    }
+
+    /**
+     * Describes everything the filters query on except the location, so results for an area
+     * can be cached and reused while the rest of the filter stays the same.
+     * @return Equal strings for filters whose queries differ only in location
+     */
+    public String getQueryKey() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("users=").append(new TreeSet<>(criteria.userIds));
+        TreeSet<String> emotions = new TreeSet<>();
+        for (Emotion emotion : criteria.emotions) {
+            emotions.add(emotion.name());
+        }
+        sb.append(";emotions=").append(emotions);
+        sb.append(";situations=").append(new TreeSet<>(criteria.socialSituations));
+        if (criteria.dateRange != null) {
+            sb.append(";from=").append(criteria.dateRange.start != null ? criteria.dateRange.start.getTime() : "")
+                    .append(";to=").append(criteria.dateRange.end != null ? criteria.dateRange.end.getTime() : "");
+        }
+        if (criteria.sorting != null) {
+            sb.append(";sort=").append(criteria.sorting.field).append(' ').append(criteria.sorting.direction);
+        }
+        sb.append(";reason=").append(getReasonTerm());
+        if (criteria.limit != null) {
+            sb.append(";limit=").append(criteria.limit);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Check whether the filters only narrow mood events down by emotion and location, which
+     * precomputed counts per area and emotion (see {@link MoodHeatmapCell}) can answer.
+     * @return Whether no user, social situation, date or reason filters are applied
+     */
+    public boolean hasOnlyEmotionAndLocationFilters() {
+        return criteria.userIds.isEmpty()
+                && criteria.socialSituations.isEmpty()
+                && (criteria.dateRange == null || (criteria.dateRange.start == null && criteria.dateRange.end == null))
+                && reasonQuery == null;
+    }
+
     /**
      * Counts the number of applied filters.
      * @return The number of active filters.
@@ -265,6 +353,7 @@ public class MoodEventFilter {
         criteria.sorting = null;
         criteria.location = null;
         criteria.limit = null;
+        criteria.sortByDistance = false;
         reasonQuery = null;
     }
 
@@ -296,6 +385,9 @@ public class MoodEventFilter {
             sb.append("Location: (").append(criteria.location.latitude).append(", ")
                     .append(criteria.location.longitude).append(") within ")
                     .append(criteria.location.radius).append(" km\n");
+            if (criteria.sortByDistance) {
+                sb.append("Sort: distance\n");
+            }
         }
         if (!criteria.socialSituations.isEmpty()) {
             sb.append("Social Situations: ").append(criteria.socialSituations).append("\n");
@@ -312,12 +404,100 @@ public class MoodEventFilter {
         return sb.toString();
     }
 
+    /**
+     * Number of disjunctions the applied filters expand to (see {@link #MAX_DISJUNCTIONS}).
+     * @return The product of the sizes of every in clause, at least 1.
+     */
+    public int disjunctionCount() {
+        int count = 1;
+        if (criteria.userIds.size() > 1) count *= criteria.userIds.size();
+        if (!criteria.emotions.isEmpty()) count *= criteria.emotions.size();
+        if (!criteria.socialSituations.isEmpty()) count *= criteria.socialSituations.size();
+        return count;
+    }
+
+    /**
+     * The reason token the query looks up (see {@link ReasonTokens}): the longest, so most
+     * selective, of the query's words. Mood events which don't match the other words are removed
+     * by {@link #applyReasonFilter}.
+     * @return Reason query term, or null if there is no reason query
+     */
+    @Nullable
+    public String getReasonTerm() {
+        List<String> terms = ReasonTokens.queryTerms(reasonQuery, 1);
+        return terms.isEmpty() ? null : terms.get(0);
+    }
+
+    /**
+     * How many values a further whereIn clause may hold on top of these filters.
+     * @param baseDisjunctions Disjunctions of the base query the filters are applied to.
+     * @return The largest whereIn size which keeps the query valid, at least 1.
+     */
+    public int whereInBatchSize(int baseDisjunctions) {
+        return Math.max(1, MAX_DISJUNCTIONS / (Math.max(1, baseDisjunctions) * disjunctionCount()));
+    }
+
     /**
      * Builds a Firestore Query using the applied filters.
+     * A location filter is queried as a single geohash range, which can be much larger than
+     * the radius; prefer {@link #buildQueries()} where several queries can be merged.
      * @return A Query with filtering and sorting applied.
      */
     public Query buildQuery() {
-        Query query = allMoodEvents;
+        return buildQuery(allMoodEvents);
+    }
+
+    /**
+     * Builds a Firestore Query applying the filters to a different base query.
+     * @param base The query to apply the filters to.
+     * @return A Query with filtering and sorting applied.
+     * @see #buildQuery()
+     */
+    public Query buildQuery(Query base) {
+        List<GeoHash.Range> ranges = getGeohashRanges(1);
+        return buildQuery(base, ranges.isEmpty() ? null : ranges.get(0));
+    }
+
+    /**
+     * Builds a Firestore Query for the mood events in a geohash range, applying every filter
+     * but the location, e.g. to load the part of a map in view.
+     * @param range The geohash range to query instead of the location filter's.
+     * @return A Query with filtering and sorting applied.
+     */
+    public Query buildQuery(GeoHash.Range range) {
+        return buildQuery(allMoodEvents, range);
+    }
+
+    /**
+     * Builds the Firestore Queries to run in parallel for the applied filters: one per geohash
+     * range covering the location filter, or just {@link #buildQuery()} without one.
+     * The ranges don't overlap, so merged results hold no duplicates, but they may hold mood
+     * events outside the radius (see {@link #applyLocationFilter}). Each query has its own limit.
+     * @return Queries with filtering and sorting applied.
+     */
+    public List<Query> buildQueries() {
+        return buildQueries(allMoodEvents);
+    }
+
+    /**
+     * Builds the Firestore Queries applying the filters to a different base query.
+     * @param base The query to apply the filters to.
+     * @return Queries with filtering and sorting applied.
+     * @see #buildQueries()
+     */
+    public List<Query> buildQueries(Query base) {
+        if (criteria.location == null) {
+            return Collections.singletonList(buildQuery(base, null));
+        }
+        List<Query> queries = new ArrayList<>();
+        for (GeoHash.Range range : getGeohashRanges(MAX_GEOHASH_RANGES)) {
+            queries.add(buildQuery(base, range));
+        }
+        return queries;
+    }
+
+    private Query buildQuery(Query base, @Nullable GeoHash.Range range) {
+        Query query = base;
 
         if (!criteria.userIds.isEmpty()) {
             if (criteria.userIds.size() == 1) {
@@ -344,27 +524,20 @@ public class MoodEventFilter {
             query = query.orderBy(criteria.sorting.field, criteria.sorting.direction);
         }
 
-        if (criteria.location != null) {
-            // Great-circle bounding box approximation
-            double latDelta = Math.toDegrees(criteria.location.radius / EARTH_RADIUS_KM);
-            double lonDelta = Math.toDegrees(criteria.location.radius / (EARTH_RADIUS_KM *
-                    Math.cos(Math.toRadians(criteria.location.latitude))));
-
-            double minLat = criteria.location.latitude - latDelta;
-            double maxLat = criteria.location.latitude + latDelta;
-            double minLon = criteria.location.longitude - lonDelta;
-            double maxLon = criteria.location.longitude + lonDelta;
-
-            query = query.whereGreaterThanOrEqualTo("latitude", minLat)
-                    .whereLessThanOrEqualTo("latitude", maxLat)
-                    .whereGreaterThanOrEqualTo("longitude", minLon)
-                    .whereLessThanOrEqualTo("longitude", maxLon);
+        if (range != null) {
+            query = query.whereGreaterThanOrEqualTo(GeoHash.GEOHASH_FIELD, range.start)
+                    .whereLessThan(GeoHash.GEOHASH_FIELD, range.getUpperBound());
         }
 
         if (!criteria.socialSituations.isEmpty()) {
             query = query.whereIn("socialSituation", new ArrayList<>(criteria.socialSituations));
         }
 
+        String reasonTerm = getReasonTerm();
+        if (reasonTerm != null) {
+            query = query.whereArrayContains(ReasonTokens.REASON_TOKENS_FIELD, reasonTerm);
+        }
+
         if (criteria.limit != null && criteria.limit > 0) {
             query = query.limit(criteria.limit);
         }
@@ -374,7 +547,24 @@ public class MoodEventFilter {
 
     // ------------------------------------- Filtering Lists ----
     /**
-     * Filters a list of mood events by reasonQuery if set.
+     * Filters a list of mood events by the location filter if set, by their exact distance to
+     * its center (see {@link DistanceFilter}). Geohash ranges only approximate the radius, so
+     * query results need this.
+     *
+     * @param events The events to filter.
+     * @return A filtered List containing only those within the radius if a location is set,
+     *         nearest first if sorting by distance.
+     */
+    public List<MoodEvent> applyLocationFilter(List<MoodEvent> events) {
+        if (criteria.location == null) {
+            return events;
+        }
+        return criteria.location.distanceFilter.apply(events, criteria.sortByDistance);
+    }
+
+    /**
+     * Filters a list of mood events by reasonQuery if set: every word of the query must start a
+     * word of the reason (see {@link ReasonTokens#matches}).
      *
      * @param events The events to filter.
      * @return A filtered List containing only those with a matching reason if reasonQuery is set.
@@ -385,8 +575,7 @@ public class MoodEventFilter {
         }
         List<MoodEvent> filtered = new ArrayList<>();
         for (MoodEvent event : events) {
-            String reason = event.getReason();
-            if (reason != null && reason.toLowerCase().contains(reasonQuery)) {
+            if (ReasonTokens.matches(event.getReason(), reasonQuery)) {
                 filtered.add(event);
             }
         }
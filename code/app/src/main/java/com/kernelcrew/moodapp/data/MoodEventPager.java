@@ -0,0 +1,369 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keyset pagination over a mood event query ordered newest first.
+ * <p>
+ * Only the first page is live: it is listened to so new, edited and deleted mood events show up
+ * immediately. Older pages are fetched once with startAfter() on the last loaded document when
+ * {@link #loadNextPage()} is called, so opening a long history costs one page of reads no matter
+ * how long the history is.
+ * </p>
+ * <p>
+ * When a new mood event pushes the oldest mood event off the live first page, it is kept at the
+ * top of the older pages rather than dropped, so no rows go missing between pages.
+ * </p>
+ * <p>
+ * Several disjoint queries, e.g. one per geohash range of a location filter (see
+ * {@link MoodEventFilter#buildQueries()}), are paged side by side and merged. A mood event is
+ * only shown once every query which may still hold newer ones has loaded past it, and the next
+ * page is read from the query that holds the others back.
+ * </p>
+ * <p>
+ * Every update is reported with its positional diffs (see {@link CombinedListener#onChanges}).
+ * The pager can also feed one source of a larger {@link FeedMerger}, e.g. alongside live
+ * listeners, in which case the listener receives the whole merged feed.
+ * </p>
+ */
+public class MoodEventPager implements ListenerRegistration {
+    private static final Comparator<DocumentSnapshot> NEWEST_FIRST =
+            (a, b) -> isOlder(a, b) ? 1 : isOlder(b, a) ? -1 : 0;
+
+    private final List<Source> sources = new ArrayList<>();
+    private final int pageSize;
+    private final FeedMerger<DocumentSnapshot> merger;
+    private final int mergerSource;
+    private final CombinedListener listener;
+    private final List<ListenerRegistration> removedWith = new ArrayList<>();
+
+    private boolean removed = false;
+    // The mood events last passed to the merger, by id
+    private Map<String, DocumentSnapshot> emitted = new HashMap<>();
+
+    /**
+     * One of the queries being paged.
+     */
+    private class Source {
+        final Query query;
+        ListenerRegistration firstPageRegistration;
+        List<DocumentSnapshot> firstPage = new ArrayList<>();
+        final List<DocumentSnapshot> olderPages = new ArrayList<>();
+        boolean started = false;
+        boolean loading = false;
+        boolean pastFirstPage = false;
+        boolean exhausted = false;
+
+        Source(Query query) {
+            this.query = query;
+        }
+
+        void start() {
+            firstPageRegistration = query.limit(pageSize).addSnapshotListener((snapshot, error) -> {
+                if (error != null) {
+                    listener.onEvent(null, error);
+                    return;
+                }
+                if (snapshot != null) {
+                    onFirstPage(snapshot);
+                }
+            });
+        }
+
+        void loadNextPage(DocumentSnapshot cursor) {
+            loading = true;
+            query.startAfter(cursor).limit(pageSize).get()
+                    .addOnSuccessListener(snapshot -> {
+                        loading = false;
+                        if (removed) {
+                            return;
+                        }
+                        List<DocumentSnapshot> page = snapshot.getDocuments();
+                        pastFirstPage = true;
+                        Set<String> shown = idsOf(firstPage);
+                        shown.addAll(idsOf(olderPages));
+                        for (DocumentSnapshot doc : page) {
+                            if (!shown.contains(doc.getId())) {
+                                olderPages.add(doc);
+                            }
+                        }
+                        exhausted = page.size() < pageSize;
+
+                        int before = emitted.size();
+                        emit();
+                        if (emitted.size() == before) {
+                            // Only loaded mood events still held back by another query
+                            MoodEventPager.this.loadNextPage();
+                        }
+                    })
+                    .addOnFailureListener(e -> {
+                        loading = false;
+                        listener.onEvent(null, e instanceof FirebaseFirestoreException
+                                ? (FirebaseFirestoreException) e
+                                : new FirebaseFirestoreException(String.valueOf(e.getMessage()),
+                                        FirebaseFirestoreException.Code.UNKNOWN));
+                    });
+        }
+
+        void onFirstPage(QuerySnapshot snapshot) {
+            List<DocumentSnapshot> page = snapshot.getDocuments();
+            DocumentSnapshot newLast = page.isEmpty() ? null : page.get(page.size() - 1);
+
+            if (pastFirstPage) {
+                // Older pages were loaded: a document leaving a full first page because newer ones
+                // arrived was pushed down, not deleted, so move it to the top of the older pages.
+                List<DocumentSnapshot> pushedDown = new ArrayList<>();
+                for (DocumentChange change : snapshot.getDocumentChanges()) {
+                    if (change.getType() != DocumentChange.Type.REMOVED) {
+                        continue;
+                    }
+                    DocumentSnapshot doc = change.getDocument();
+                    if (page.size() == pageSize && newLast != null && isOlder(doc, newLast)) {
+                        pushedDown.add(doc);
+                    }
+                }
+                pushedDown.sort(NEWEST_FIRST);
+                olderPages.addAll(0, pushedDown);
+            }
+
+            // A deletion on the first page pulls the next document up into it
+            Set<String> firstPageIds = idsOf(page);
+            olderPages.removeIf(doc -> firstPageIds.contains(doc.getId()));
+
+            firstPage = new ArrayList<>(page);
+            if (!pastFirstPage) {
+                exhausted = page.size() < pageSize;
+            }
+            started = true;
+            emit();
+        }
+
+        @Nullable
+        DocumentSnapshot lastLoaded() {
+            if (!olderPages.isEmpty()) {
+                return olderPages.get(olderPages.size() - 1);
+            }
+            return firstPage.isEmpty() ? null : firstPage.get(firstPage.size() - 1);
+        }
+    }
+
+    /**
+     * @param query Query to paginate, ordered by created descending
+     * @param pageSize Number of mood events per page
+     * @param listener Receives all loaded mood events, newest first, whenever they change
+     */
+    public MoodEventPager(@NonNull Query query, int pageSize, @NonNull CombinedListener listener) {
+        this(Collections.singletonList(query), pageSize, listener);
+    }
+
+    /**
+     * @param queries Disjoint queries to paginate together, each ordered by created descending
+     * @param pageSize Number of mood events per page of each query
+     * @param listener Receives all loaded mood events, newest first, whenever they change
+     */
+    public MoodEventPager(@NonNull List<Query> queries, int pageSize, @NonNull CombinedListener listener) {
+        this(queries, pageSize, new FeedMerger<>(MoodEventProvider.SNAPSHOT_KEYS), 0, listener);
+    }
+
+    /**
+     * @param queries Disjoint queries to paginate together, each ordered by created descending
+     * @param pageSize Number of mood events per page of each query
+     * @param merger Merger to add the loaded mood events to
+     * @param mergerSource Source of the merger the loaded mood events belong to
+     * @param listener Receives the merger's feed, newest first, whenever it changes
+     */
+    public MoodEventPager(@NonNull List<Query> queries, int pageSize, @NonNull FeedMerger<DocumentSnapshot> merger,
+                          int mergerSource, @NonNull CombinedListener listener) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("queries must not be empty");
+        }
+        for (Query query : queries) {
+            sources.add(new Source(query));
+        }
+        this.pageSize = pageSize;
+        this.merger = merger;
+        this.mergerSource = mergerSource;
+        this.listener = listener;
+    }
+
+    /**
+     * Start listening to the first page.
+     * @return This pager
+     */
+    public MoodEventPager start() {
+        for (Source source : sources) {
+            if (source.firstPageRegistration == null) {
+                source.start();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Fetch the next page, unless a page is already loading or everything has been loaded.
+     */
+    public void loadNextPage() {
+        if (removed || isLoading()) {
+            return;
+        }
+        Source next = holdingBack();
+        DocumentSnapshot cursor = next == null ? null : next.lastLoaded();
+        if (cursor == null) {
+            return;
+        }
+        next.loadNextPage(cursor);
+    }
+
+    /**
+     * @return True while an older page is being fetched
+     */
+    public boolean isLoading() {
+        for (Source source : sources) {
+            if (source.loading) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if there may be older mood events which have not been loaded yet
+     */
+    public boolean hasMore() {
+        for (Source source : sources) {
+            if (!source.exhausted) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove another listener along with this pager, e.g. one feeding the same merger.
+     * @param registration Listener to remove
+     * @return This pager
+     */
+    public MoodEventPager removeWith(@NonNull ListenerRegistration registration) {
+        removedWith.add(registration);
+        return this;
+    }
+
+    @Override
+    public void remove() {
+        removed = true;
+        for (Source source : sources) {
+            if (source.firstPageRegistration != null) {
+                source.firstPageRegistration.remove();
+            }
+        }
+        for (ListenerRegistration registration : removedWith) {
+            registration.remove();
+        }
+    }
+
+    /**
+     * The query whose last loaded mood event is the newest among those which may hold more, i.e.
+     * the one keeping the other queries' older mood events from being shown.
+     */
+    @Nullable
+    private Source holdingBack() {
+        Source holding = null;
+        for (Source source : sources) {
+            DocumentSnapshot last = source.lastLoaded();
+            if (source.exhausted || last == null) {
+                continue;
+            }
+            if (holding == null || isOlder(holding.lastLoaded(), last)) {
+                holding = source;
+            }
+        }
+        return holding;
+    }
+
+    private void emit() {
+        List<DocumentSnapshot> combined = new ArrayList<>();
+        for (Source source : sources) {
+            if (!source.started) {
+                // Wait for every first page, so the merged order doesn't jump around
+                return;
+            }
+            combined.addAll(source.firstPage);
+            combined.addAll(source.olderPages);
+        }
+        if (sources.size() > 1) {
+            combined.sort(NEWEST_FIRST);
+            // Anything older than where a query stopped may be missing that query's mood events
+            Source holding = holdingBack();
+            if (holding != null) {
+                DocumentSnapshot boundary = holding.lastLoaded();
+                int end = combined.size();
+                while (end > 0 && isOlder(combined.get(end - 1), boundary)) {
+                    end--;
+                }
+                combined = new ArrayList<>(combined.subList(0, end));
+            }
+        }
+
+        // Pass on only what changed since the last update
+        Map<String, DocumentSnapshot> next = new HashMap<>();
+        for (DocumentSnapshot doc : combined) {
+            next.put(doc.getId(), doc);
+        }
+        List<FeedMerger.Change<DocumentSnapshot>> changes = new ArrayList<>();
+        for (DocumentSnapshot doc : emitted.values()) {
+            if (!next.containsKey(doc.getId())) {
+                changes.add(new FeedMerger.Change<>(FeedMerger.Change.Type.REMOVE, doc));
+            }
+        }
+        for (DocumentSnapshot doc : combined) {
+            DocumentSnapshot previous = emitted.get(doc.getId());
+            if (previous == null || !previous.equals(doc)) {
+                changes.add(new FeedMerger.Change<>(FeedMerger.Change.Type.UPSERT, doc));
+            }
+        }
+        emitted = next;
+        List<FeedMerger.Diff<DocumentSnapshot>> diffs = merger.apply(mergerSource, changes);
+        listener.onChanges(merger.getItems(), diffs);
+    }
+
+    private static Set<String> idsOf(List<DocumentSnapshot> docs) {
+        Set<String> ids = new HashSet<>();
+        for (DocumentSnapshot doc : docs) {
+            ids.add(doc.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * @return True if a sorts after b in a newest first ordering
+     */
+    private static boolean isOlder(DocumentSnapshot a, DocumentSnapshot b) {
+        Date ta = a.getDate("created");
+        Date tb = b.getDate("created");
+        if (ta == null || tb == null) {
+            return ta == null && tb != null;
+        }
+        return ta.before(tb);
+    }
+}
@@ -0,0 +1,40 @@
+package com.kernelcrew.moodapp.data;
+
+import com.google.firebase.firestore.Blob;
+
+/**
+ * The photo attached to a mood event. Stored in the moodEventPhotos collection under the same id
+ * as its mood event so that feed queries over moodEvents never download image bytes.
+ */
+public class MoodEventPhoto {
+    private String uid;
+    private Blob photo;
+
+    /**
+     * Empty constructor for Firestore deserialization. Do not use.
+     */
+    public MoodEventPhoto() { }
+
+    /**
+     * @param uid Owner of the mood event this photo belongs to
+     * @param photo WEBP encoded photo
+     */
+    public MoodEventPhoto(String uid, Blob photo) {
+        this.uid = uid;
+        this.photo = photo;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+    public void setUid(String uid) {
+        this.uid = uid;
+    }
+
+    public Blob getPhoto() {
+        return photo;
+    }
+    public void setPhoto(Blob photo) {
+        this.photo = photo;
+    }
+}
@@ -1,34 +1,45 @@
 package com.kernelcrew.moodapp.data;
 
+import android.graphics.Bitmap;
+
 import androidx.annotation.NonNull;
 
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.Blob;
 import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.Filter;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+import com.kernelcrew.moodapp.utils.PhotoCache;
+import com.kernelcrew.moodapp.utils.PhotoUtils;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
 public class MoodEventProvider {
+    private final FirebaseFirestore db;
     private final CollectionReference collection;
+    private final CollectionReference photoCollection;
     private final FirebaseAuth auth;
+    private FeedMode feedMode = FeedMode.READ_TIME_MERGE;
 
     private MoodEventProvider() {
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        db = FirebaseFirestore.getInstance();
         collection = db.collection("moodEvents");
+        photoCollection = db.collection("moodEventPhotos");
 
         auth = FirebaseAuth.getInstance();
     }
@@ -47,6 +58,22 @@ public class MoodEventProvider {
         return instance;
     }
 
+    /**
+     * @return How the home feed is assembled
+     */
+    public FeedMode getFeedMode() {
+        return feedMode;
+    }
+
+    /**
+     * Choose how this client reads the home feed. Every write is fanned out to the followers'
+     * feeds whatever the mode, so clients reading either way see the same mood events.
+     * @param feedMode Feed mode to use
+     */
+    public void setFeedMode(@NonNull FeedMode feedMode) {
+        this.feedMode = feedMode;
+    }
+
     /**
      * Insert a new mood event into the DB.
      * @param moodEvent Mood event to insert
@@ -69,11 +96,21 @@ public class MoodEventProvider {
         // Ensure the MoodEvent has the correct userId
         moodEvent.setUid(user.getUid());
 
-        return collection.document(moodEvent.getId()).set(moodEvent);
+        return ensureThumbnail(moodEvent).onSuccessTask(unused -> {
+            WriteBatch batch = db.batch();
+            MoodHeatmapWorker.getInstance().addTo(batch, null, moodEvent);
+            batch.set(collection.document(moodEvent.getId()), moodEvent);
+            if (moodEvent.hasPhoto()) {
+                batch.set(photoCollection.document(moodEvent.getId()), toPhotoDocument(moodEvent));
+            }
+            return batch.commit();
+        }).addOnSuccessListener(unused -> FeedFanoutWorker.getInstance().publish(moodEvent));
     }
 
     /**
-     * Update an existing mood event in DB.
+     * Update an existing mood event in DB. The stored mood event is read in the same transaction
+     * as the write, so the heatmap counts it out exactly where it was counted in. Like every
+     * transaction this needs the server, so it fails while offline.
      * @param moodId ID of mood event to update
      * @param moodEvent Mood event details to update with
      * @return Update task
@@ -89,7 +126,47 @@ public class MoodEventProvider {
             throw new IllegalArgumentException("moodEvent.getId() must equal moodId");
         }
 
-        return collection.document(moodEvent.getId()).set(moodEvent);
+        // The heatmap needs to know where the mood event was counted before, so the update
+        // fails rather than leaving the counts behind if the mood event cannot be read
+        return ensureThumbnail(moodEvent).onSuccessTask(unused -> db.<Void>runTransaction(transaction -> {
+            DocumentSnapshot previous = transaction.get(collection.document(moodId));
+            MoodHeatmapWorker.getInstance().addTo(transaction, previous.toObject(MoodEvent.class), moodEvent);
+            transaction.set(collection.document(moodId), moodEvent);
+            if (!moodEvent.hasPhoto()) {
+                transaction.delete(photoCollection.document(moodId));
+            } else if (moodEvent.isPhotoLoaded()) {
+                transaction.set(photoCollection.document(moodId), toPhotoDocument(moodEvent));
+            }
+            // Otherwise the photo was never fetched, so it is unchanged and the stored copy is kept.
+            return null;
+        })).addOnSuccessListener(unused -> FeedFanoutWorker.getInstance().publish(moodEvent));
+    }
+
+    /**
+     * Generate the thumbnail of a new or changed photo so feed rows can preview it. Photos
+     * picked in the form already come with one; otherwise it is decoded and generated on a
+     * background thread.
+     * @return Task resolving once the thumbnail is set
+     */
+    private Task<Void> ensureThumbnail(MoodEvent moodEvent) {
+        if (moodEvent.getThumbnail() != null || !moodEvent.isPhotoLoaded()) {
+            return Tasks.forResult(null);
+        }
+
+        return moodEvent.loadPhoto()
+                .onSuccessTask(photo -> photo == null
+                        ? Tasks.<byte[]>forResult(null)
+                        : PhotoUtils.createThumbnailAsync(photo))
+                .onSuccessTask(thumbnail -> {
+                    if (thumbnail != null) {
+                        moodEvent.setThumbnail(Blob.fromBytes(thumbnail));
+                    }
+                    return Tasks.<Void>forResult(null);
+                });
+    }
+
+    private MoodEventPhoto toPhotoDocument(MoodEvent moodEvent) {
+        return new MoodEventPhoto(moodEvent.getUid(), moodEvent.getPhotoBlob());
     }
 
     /**
@@ -108,8 +185,108 @@ public class MoodEventProvider {
         });
     }
 
+    /**
+     * Fetch (if necessary) and decode the photo attached to a mood event.
+     * Photos live in the moodEventPhotos collection and are only downloaded when requested.
+     * Decoded photos are kept in the {@link PhotoCache}, so reopening a mood is free.
+     * @param moodEvent Mood event to load the photo for
+     * @return Task resolving to the decoded photo, or null if the mood event has no photo
+     */
+    public Task<Bitmap> loadPhoto(@NonNull MoodEvent moodEvent) {
+        if (!moodEvent.hasPhoto()) {
+            return Tasks.forResult(null);
+        }
+
+        PhotoCache cache = PhotoCache.getInstance();
+        String key = PhotoCache.keyOf(moodEvent);
+        Bitmap cached = cache.get(key);
+        if (cached != null) {
+            moodEvent.attachDecodedPhoto(cached);
+            return Tasks.forResult(cached);
+        }
+
+        Task<Bitmap> decodeTask;
+        if (moodEvent.isPhotoLoaded()) {
+            decodeTask = moodEvent.loadPhoto();
+        } else {
+            decodeTask = photoCollection.document(moodEvent.getId()).get().onSuccessTask(doc -> {
+                MoodEventPhoto photo = doc.toObject(MoodEventPhoto.class);
+                if (photo == null || photo.getPhoto() == null) {
+                    return Tasks.forResult(null);
+                }
+
+                moodEvent.setPhotoBlob(photo.getPhoto());
+                return moodEvent.loadPhoto();
+            });
+        }
+
+        return decodeTask.onSuccessTask(decoded -> {
+            // Documents written before photo hashes existed only get a key once the bytes are here
+            cache.put(key != null ? key : PhotoCache.keyOf(moodEvent), decoded);
+            return Tasks.forResult(decoded);
+        });
+    }
+
+    /**
+     * Delete a mood event along with its photo. Like {@link #updateMoodEvent}, this is a
+     * transaction, so it fails while offline.
+     * @param moodId ID of the mood event to delete
+     * @return Delete task
+     */
     public Task<Void> deleteMoodEvent(String moodId) {
-        return collection.document(moodId).delete();
+        // The heatmap needs to know where the mood event was counted
+        return db.<Void>runTransaction(transaction -> {
+            DocumentSnapshot previous = transaction.get(collection.document(moodId));
+            MoodHeatmapWorker.getInstance().addTo(transaction, previous.toObject(MoodEvent.class), null);
+            transaction.delete(collection.document(moodId));
+            transaction.delete(photoCollection.document(moodId));
+            return null;
+        }).addOnSuccessListener(unused -> {
+            FirebaseUser user = auth.getCurrentUser();
+            if (user != null) {
+                FeedFanoutWorker.getInstance().retract(user.getUid(), moodId);
+            }
+        });
+    }
+
+    /**
+     * Move the photos of a user's mood events which still store them inline into the photos
+     * collection (see {@link Utility#migrateLegacyPhotos}). Must be run by the user themselves.
+     * @param uid The user whose mood events to migrate.
+     * @return Task resolving to the number of mood events migrated.
+     */
+    public Task<Integer> migrateLegacyPhotos(@NonNull String uid) {
+        return Utility.migrateLegacyPhotos(collection.whereEqualTo("uid", uid), photoCollection, 100);
+    }
+
+    /**
+     * Write the reason search tokens of a user's mood events which predate them
+     * (see {@link Utility#backfillReasonTokens}). Must be run by the user themselves.
+     * @param uid The user whose mood events to index.
+     * @return Task resolving to the number of mood events updated.
+     */
+    public Task<Integer> backfillReasonTokens(@NonNull String uid) {
+        return Utility.backfillReasonTokens(collection.whereEqualTo("uid", uid), 100);
+    }
+
+    /**
+     * Write the geohashes of a user's mood events which predate them
+     * (see {@link Utility#backfillGeohashes}). Must be run by the user themselves.
+     * @param uid The user whose mood events to index.
+     * @return Task resolving to the number of mood events updated.
+     */
+    public Task<Integer> backfillGeohashes(@NonNull String uid) {
+        return Utility.backfillGeohashes(collection.whereEqualTo("uid", uid), 100);
+    }
+
+    /**
+     * Count a user's mood events which predate the mood heatmap into it
+     * (see {@link Utility#backfillHeatmap}). Must be run by the user themselves.
+     * @param uid The user whose mood events to count.
+     * @return Task resolving to the number of mood events counted.
+     */
+    public Task<Integer> backfillHeatmap(@NonNull String uid) {
+        return Utility.backfillHeatmap(collection.whereEqualTo("uid", uid), 100);
     }
 
     /**
@@ -125,11 +302,101 @@ public class MoodEventProvider {
                 Filter.equalTo("visibility", "PUBLIC")));
     }
 
+    /**
+     * Listens to the mood events matching a filter one page at a time, newest first.
+     * Only the first page is live; call {@link MoodEventPager#loadNextPage()} to load older ones.
+     * A location filter pages each of its geohash ranges (see {@link MoodEventFilter#buildQueries()})
+     * and merges them.
+     * @param filter Filters to apply
+     * @param pageSize Number of mood events per page
+     * @param listener Listener receiving every loaded mood event
+     * @return The started pager, remove it to stop listening
+     */
+    public MoodEventPager paginate(MoodEventFilter filter, int pageSize, CombinedListener listener) {
+        List<Query> queries = new ArrayList<>();
+        for (Query query : filter.buildQueries()) {
+            if (filter.getSortField() == null) {
+                query = query.orderBy("created", Query.Direction.DESCENDING);
+            }
+            queries.add(query);
+        }
+        return new MoodEventPager(queries, pageSize, listener).start();
+    }
+
+    /**
+     * Listens to the public mood events of a user one page at a time, newest first.
+     * @param uid User whose mood events to load
+     * @param pageSize Number of mood events per page
+     * @param listener Listener receiving every loaded mood event
+     * @return The started pager, remove it to stop listening
+     */
+    public MoodEventPager paginatePublicMoodEvents(@NonNull String uid, int pageSize, CombinedListener listener) {
+        Query query = collection
+                .whereEqualTo("uid", uid)
+                .whereEqualTo("visibility", "PUBLIC")
+                .orderBy("created", Query.Direction.DESCENDING);
+        return new MoodEventPager(query, pageSize, listener).start();
+    }
+
+    /**
+     * Listens to the first limit mood events of a user's materialized feed
+     * ({@link FeedMode#MATERIALIZED}). The feed is already sorted and holds both the user's own
+     * mood events and those of everyone they follow, so this is a single query, or one per
+     * geohash range with a location filter.
+     * @param uid User whose feed to read
+     * @param filter Filters to apply to the feed
+     * @param limit Number of mood events to read
+     * @param listener Listener receiving the feed
+     * @return Registration of the feed listener
+     */
+    public ListenerRegistration listenToMaterializedFeed(@NonNull String uid, MoodEventFilter filter, int limit,
+                                                         CombinedListener listener) {
+        List<Query> queries = new ArrayList<>();
+        for (Query query : materializedFeedQueries(uid, filter)) {
+            queries.add(query.limit(limit));
+        }
+
+        return listenAndMerge(queries, new FeedMerger<>(SNAPSHOT_KEYS), listener);
+    }
+
+    /**
+     * Listens to a user's materialized feed ({@link FeedMode#MATERIALIZED}) one page at a time,
+     * newest first. Only the first page is live; call {@link MoodEventPager#loadNextPage()} to
+     * load older ones.
+     * @param uid User whose feed to read
+     * @param filter Filters to apply to the feed
+     * @param pageSize Number of mood events per page
+     * @param listener Listener receiving the feed, along with the positional diffs of each update
+     * @return The started pager, remove it to stop listening
+     */
+    public MoodEventPager paginateMaterializedFeed(@NonNull String uid, MoodEventFilter filter, int pageSize,
+                                                   CombinedListener listener) {
+        return new MoodEventPager(materializedFeedQueries(uid, filter), pageSize, listener).start();
+    }
+
+    private List<Query> materializedFeedQueries(String uid, MoodEventFilter filter) {
+        List<Query> queries = new ArrayList<>();
+        for (Query query : filter.buildQueries(FeedFanoutWorker.getInstance().feedOf(uid))) {
+            if (filter.getSortField() == null) {
+                query = query.orderBy("created", Query.Direction.DESCENDING);
+            }
+            queries.add(query);
+        }
+        return queries;
+    }
+
     /**
      * Listens to mood events for a list of user IDs.
      * For the current user (assumed to be the first element in userIds) all posts are returned.
-     * For each followed user, only the 3 most recent posts are returned.
-     * The results from all queries are combined and returned via the CombinedListener.
+     * For each followed user, only the followerLimit most recent public posts are returned.
+     * Followed users are queried in whereIn batches, so following n users costs about
+     * n / 30 listeners rather than n. Each batch fetches up to followerLimit posts per user in
+     * the batch; if a very active user fills it up, the batch is split into one query per user
+     * so they don't crowd out the others (see {@link FollowedBatch}).
+     * With a location filter every query is split by geohash range (see
+     * {@link MoodEventFilter#buildQueries()}), and the per-user limits apply across all ranges.
+     * The results from all queries are merged incrementally (see {@link FeedMerger}) and returned
+     * via the CombinedListener, along with the positional diffs of each update.
      */
     public ListenerRegistration listenToMoodEventsForUsers(List<String> userIds, MoodEventFilter filter, int followerLimit, CombinedListener listener) {
         if (userIds == null || userIds.isEmpty()) {
@@ -141,44 +408,314 @@ public class MoodEventProvider {
 
         // Assume first element is the current user's UID.
         String currentUserId = userIds.get(0);
-        Map<String, List<DocumentSnapshot>> snapshotsByUser = new HashMap<>();
+        List<Query> queries = new ArrayList<>();
+        for (Query ownQuery : filter.buildQueries()) {
+            queries.add(ownQuery.whereEqualTo("uid", currentUserId));
+        }
+
+        FeedMerger<DocumentSnapshot> merger = new FeedMerger<>(SNAPSHOT_KEYS);
         List<ListenerRegistration> registrations = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            merger.addSource(i, 0);
+            registrations.add(listenToSource(queries.get(i), merger, i, listener));
+        }
+        registrations.addAll(listenToFollowed(userIds, filter, followerLimit, merger, queries.size(), listener));
+        return new CombinedListenerComposer(registrations);
+    }
 
-        for (String uid : userIds) {
-            Query query = filter.buildQuery().whereEqualTo("uid", uid);
-            if (!uid.equals(currentUserId)) {
-                query = query.limit(followerLimit);
+    /**
+     * Listens to mood events for a list of user IDs like
+     * {@link #listenToMoodEventsForUsers(List, MoodEventFilter, int, CombinedListener)}, but reads
+     * the current user's own mood events one page at a time. Only their first page is live; call
+     * {@link MoodEventPager#loadNextPage()} to load older ones.
+     * @param userIds The current user's UID, followed by the UIDs of the users they follow
+     * @param filter Filters to apply
+     * @param followerLimit Number of recent public mood events to show per followed user
+     * @param pageSize Number of the current user's mood events per page
+     * @param listener Listener receiving the merged feed, along with the positional diffs of each update
+     * @return The started pager, remove it to stop listening to the whole feed
+     */
+    public MoodEventPager paginateMoodEventsForUsers(@NonNull List<String> userIds, MoodEventFilter filter,
+                                                     int followerLimit, int pageSize, CombinedListener listener) {
+        String currentUserId = userIds.get(0);
+        List<Query> ownQueries = new ArrayList<>();
+        for (Query ownQuery : filter.buildQueries()) {
+            ownQuery = ownQuery.whereEqualTo("uid", currentUserId);
+            if (filter.getSortField() == null) {
+                ownQuery = ownQuery.orderBy("created", Query.Direction.DESCENDING);
             }
-            ListenerRegistration reg = query.addSnapshotListener((querySnapshot, error) -> {
-                if (error != null) {
-                    listener.onEvent(null, error);
-                    return;
-                }
-                if (querySnapshot != null) {
-                    // Save the latest documents for this uid.
-                    snapshotsByUser.put(uid, querySnapshot.getDocuments());
-
-                    // Combine all documents from all users.
-                    List<DocumentSnapshot> combined = new ArrayList<>();
-                    for (List<DocumentSnapshot> docs : snapshotsByUser.values()) {
-                        combined.addAll(docs);
+            ownQueries.add(ownQuery);
+        }
+
+        // The pager is source 0 of the merger, the followed users follow it
+        FeedMerger<DocumentSnapshot> merger = new FeedMerger<>(SNAPSHOT_KEYS);
+        MoodEventPager pager = new MoodEventPager(ownQueries, pageSize, merger, 0, listener);
+        for (ListenerRegistration registration : listenToFollowed(userIds, filter, followerLimit, merger, 1, listener)) {
+            pager.removeWith(registration);
+        }
+        return pager.start();
+    }
+
+    /**
+     * Listens to the recent public mood events of the users followed by the current user, in
+     * whereIn batches (see {@link FollowedBatch}).
+     * @param userIds The current user's UID, followed by the UIDs of the users they follow
+     * @param filter Filters to apply
+     * @param followerLimit Number of recent public mood events to show per followed user
+     * @param merger Merger to add the mood events to
+     * @param firstSource First merger source to use, each batch takes one more than its size
+     * @param listener Listener receiving the merged feed
+     * @return Registrations of the batches
+     */
+    private List<ListenerRegistration> listenToFollowed(List<String> userIds, MoodEventFilter filter, int followerLimit,
+                                                        FeedMerger<DocumentSnapshot> merger, int firstSource,
+                                                        CombinedListener listener) {
+        // Only public posts of followed users are visible, so they need no OR on visibility
+        Query followedBase = collection.whereEqualTo("visibility", "PUBLIC");
+        List<Query> followedQueries = new ArrayList<>();
+        for (Query query : filter.buildQueries(followedBase)) {
+            // The most recent posts of each user
+            if (filter.getSortField() == null) {
+                query = query.orderBy("created", Query.Direction.DESCENDING);
+            }
+            followedQueries.add(query);
+        }
+        String currentUserId = userIds.get(0);
+        List<String> followed = new ArrayList<>(new LinkedHashSet<>(userIds.subList(1, userIds.size())));
+        followed.remove(currentUserId);
+        int batchSize = filter.whereInBatchSize(1);
+        int nextSource = firstSource;
+        List<ListenerRegistration> registrations = new ArrayList<>();
+        for (int start = 0; start < followed.size(); start += batchSize) {
+            List<String> batch = followed.subList(start, Math.min(followed.size(), start + batchSize));
+            FollowedBatch followedBatch = new FollowedBatch(followedQueries, new ArrayList<>(batch), followerLimit,
+                    merger, nextSource, listener);
+            followedBatch.start();
+            registrations.add(followedBatch);
+            // The batch queries, then one per user if it is split
+            nextSource += 1 + batch.size();
+        }
+        return registrations;
+    }
+
+    /**
+     * The followed users of one whereIn batch. The batch query reads up to followerLimit mood
+     * events per user in the batch, so a very active user can fill it and crowd out the recent
+     * mood events of the others. A batch which comes back full, with some user over their limit,
+     * is replaced by one query per user so each keeps their own limit.
+     * <p>
+     * With a location filter there is one query per geohash range. The queries of all ranges
+     * feed the same merger source, so followerLimit holds per user across the ranges rather than
+     * within each.
+     * </p>
+     */
+    private static class FollowedBatch implements ListenerRegistration {
+        private final List<Query> bases;
+        private final List<String> uids;
+        private final int followerLimit;
+        private final FeedMerger<DocumentSnapshot> merger;
+        private final int batchSource;
+        private final CombinedListener listener;
+
+        private final List<ListenerRegistration> batchRegistrations = new ArrayList<>();
+        private final List<ListenerRegistration> userRegistrations = new ArrayList<>();
+        // Latest snapshots of the per-user queries and their sources, held back until all of
+        // them have answered
+        private final Map<Integer, QuerySnapshot> pending = new HashMap<>();
+        private final Map<Integer, Integer> pendingSources = new HashMap<>();
+        private boolean split = false;
+        private boolean swapped = false;
+        private boolean removed = false;
+
+        /**
+         * @param bases Queries of the followed users' mood events, one per geohash range, without
+         *              a uid filter
+         * @param uids Users in the batch
+         * @param followerLimit Most mood events shown per user
+         * @param merger Merger of the whole feed
+         * @param batchSource Merger source of the batch queries. The per-user queries use the
+         *                    uids.size() sources after it.
+         * @param listener Listener receiving the merged feed
+         */
+        FollowedBatch(List<Query> bases, List<String> uids, int followerLimit, FeedMerger<DocumentSnapshot> merger,
+                      int batchSource, CombinedListener listener) {
+            this.bases = bases;
+            this.uids = uids;
+            this.followerLimit = followerLimit;
+            this.merger = merger;
+            this.batchSource = batchSource;
+            this.listener = listener;
+        }
+
+        void start() {
+            merger.addSource(batchSource, followerLimit);
+            long limit = (long) uids.size() * followerLimit;
+            for (Query base : bases) {
+                Query query = uids.size() == 1
+                        ? base.whereEqualTo("uid", uids.get(0))
+                        : base.whereIn("uid", new ArrayList<>(uids));
+                batchRegistrations.add(query.limit(limit).addSnapshotListener((snapshot, error) -> {
+                    if (error != null) {
+                        listener.onEvent(null, error);
+                        return;
+                    }
+                    if (snapshot == null || split) {
+                        return;
                     }
+                    listener.onChanges(merger.getItems(), merger.apply(batchSource, changesOf(snapshot)));
+                    if (snapshot.size() >= limit && isCrowded(snapshot)) {
+                        splitByUser();
+                    }
+                }));
+            }
+        }
 
-                    // Sorting the combined by time created aswell
-                    combined.sort((d1, d2) -> {
-                        Date t1 = d1.getDate("created");
-                        Date t2 = d2.getDate("created");
-                        if (t1 == null && t2 == null) return 0;
-                        if (t1 == null) return 1;
-                        if (t2 == null) return -1;
-                        return t2.compareTo(t1);
-                    });
-                    listener.onEvent(combined, null);
+        /**
+         * @return True if some user in a full batch has more than their share of it, so others
+         *         may be missing mood events
+         */
+        private boolean isCrowded(QuerySnapshot snapshot) {
+            Map<String, Integer> counts = new HashMap<>();
+            for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                String uid = SNAPSHOT_KEYS.getOwner(doc);
+                Integer count = counts.get(uid);
+                count = count == null ? 1 : count + 1;
+                if (count > followerLimit) {
+                    return true;
                 }
-            });
-            registrations.add(reg);
+                counts.put(uid, count);
+            }
+            return false;
+        }
+
+        private void splitByUser() {
+            split = true;
+            for (int i = 0; i < uids.size(); i++) {
+                final int source = batchSource + 1 + i;
+                merger.addSource(source, followerLimit);
+                for (int range = 0; range < bases.size(); range++) {
+                    final int key = i * bases.size() + range;
+                    userRegistrations.add(bases.get(range).whereEqualTo("uid", uids.get(i)).limit(followerLimit)
+                            .addSnapshotListener((snapshot, error) -> {
+                                if (error != null) {
+                                    listener.onEvent(null, error);
+                                    return;
+                                }
+                                if (snapshot == null || removed) {
+                                    return;
+                                }
+                                if (swapped) {
+                                    listener.onChanges(merger.getItems(), merger.apply(source, changesOf(snapshot)));
+                                    return;
+                                }
+                                pending.put(key, snapshot);
+                                pendingSources.put(key, source);
+                                if (pending.size() == uids.size() * bases.size()) {
+                                    swap();
+                                }
+                            }));
+                }
+            }
+        }
+
+        /**
+         * Replace the batch queries' mood events with the per-user queries' in a single update,
+         * so the feed doesn't flicker while they load.
+         */
+        private void swap() {
+            swapped = true;
+            for (ListenerRegistration registration : batchRegistrations) {
+                registration.remove();
+            }
+            List<FeedMerger.Diff<DocumentSnapshot>> diffs = merger.clear(batchSource);
+            for (Map.Entry<Integer, QuerySnapshot> entry : pending.entrySet()) {
+                List<FeedMerger.Change<DocumentSnapshot>> changes = new ArrayList<>();
+                for (DocumentSnapshot doc : entry.getValue().getDocuments()) {
+                    changes.add(new FeedMerger.Change<>(FeedMerger.Change.Type.UPSERT, doc));
+                }
+                diffs.addAll(merger.apply(pendingSources.get(entry.getKey()), changes));
+            }
+            pending.clear();
+            pendingSources.clear();
+            listener.onChanges(merger.getItems(), diffs);
         }
 
+        @Override
+        public void remove() {
+            removed = true;
+            for (ListenerRegistration registration : batchRegistrations) {
+                registration.remove();
+            }
+            for (ListenerRegistration registration : userRegistrations) {
+                registration.remove();
+            }
+        }
+    }
+
+    /**
+     * Listen to several queries, merging their results as they change.
+     * @param queries Queries to listen to, each one a source of the merger
+     * @param merger Merger to apply the changes of each query to
+     * @param listener Listener receiving the merged results
+     * @return Registration of every query listener
+     */
+    private ListenerRegistration listenAndMerge(List<Query> queries, FeedMerger<DocumentSnapshot> merger,
+                                                CombinedListener listener) {
+        List<ListenerRegistration> registrations = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            registrations.add(listenToSource(queries.get(i), merger, i, listener));
+        }
         return new CombinedListenerComposer(registrations);
     }
+
+    /**
+     * Listen to one query, merging its results into the others' as they change.
+     */
+    private ListenerRegistration listenToSource(Query query, FeedMerger<DocumentSnapshot> merger, int source,
+                                                CombinedListener listener) {
+        return query.addSnapshotListener((querySnapshot, error) -> {
+            if (error != null) {
+                listener.onEvent(null, error);
+                return;
+            }
+            if (querySnapshot != null) {
+                List<FeedMerger.Diff<DocumentSnapshot>> diffs = merger.apply(source, changesOf(querySnapshot));
+                listener.onChanges(merger.getItems(), diffs);
+            }
+        });
+    }
+
+    /**
+     * Only what changed in a query, to apply to the merged, time-ordered feed.
+     */
+    private static List<FeedMerger.Change<DocumentSnapshot>> changesOf(QuerySnapshot querySnapshot) {
+        List<FeedMerger.Change<DocumentSnapshot>> changes = new ArrayList<>();
+        for (DocumentChange change : querySnapshot.getDocumentChanges()) {
+            changes.add(new FeedMerger.Change<>(
+                    change.getType() == DocumentChange.Type.REMOVED
+                            ? FeedMerger.Change.Type.REMOVE
+                            : FeedMerger.Change.Type.UPSERT,
+                    change.getDocument()));
+        }
+        return changes;
+    }
+
+    static final FeedMerger.Keys<DocumentSnapshot> SNAPSHOT_KEYS = new FeedMerger.Keys<DocumentSnapshot>() {
+        @Override
+        public String getId(DocumentSnapshot doc) {
+            return doc.getId();
+        }
+
+        @Override
+        public long getCreated(DocumentSnapshot doc) {
+            // Undated documents sort last
+            Date created = doc.getDate("created");
+            return created == null ? Long.MIN_VALUE : created.getTime();
+        }
+
+        @Override
+        public String getOwner(DocumentSnapshot doc) {
+            return doc.getString("uid");
+        }
+    };
 }
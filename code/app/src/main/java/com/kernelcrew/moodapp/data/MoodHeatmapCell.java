@@ -0,0 +1,131 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How many public mood events with a location fall in a geohash cell, per emotion. Stored in the
+ * moodHeatmap collection under the cell's geohash and kept up to date by
+ * {@link MoodHeatmapWorker}, so a zoomed-out map reads one document per cell instead of every
+ * mood event in it.
+ */
+public class MoodHeatmapCell {
+    private String cell;
+    private int precision;
+    private long total;
+    private Map<String, Long> counts = new HashMap<>();
+    private String moodEvent;
+
+    /**
+     * Empty constructor for Firestore deserialization. Do not use.
+     */
+    public MoodHeatmapCell() { }
+
+    /**
+     * @param cell Geohash of the cell
+     */
+    public MoodHeatmapCell(@NonNull String cell) {
+        this.cell = cell;
+        this.precision = cell.length();
+    }
+
+    public String getCell() {
+        return cell;
+    }
+    public void setCell(String cell) {
+        this.cell = cell;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+    public void setPrecision(int precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * @return Number of mood events in the cell
+     */
+    public long getTotal() {
+        return total;
+    }
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * @return Number of mood events in the cell by emotion name ({@link Emotion#name()})
+     */
+    public Map<String, Long> getCounts() {
+        return counts;
+    }
+    public void setCounts(Map<String, Long> counts) {
+        this.counts = counts == null ? new HashMap<>() : counts;
+    }
+
+    /**
+     * @return Id of the mood event whose write last moved the counts, which the security rules
+     *         check the counts against
+     */
+    public String getMoodEvent() {
+        return moodEvent;
+    }
+    public void setMoodEvent(String moodEvent) {
+        this.moodEvent = moodEvent;
+    }
+
+    /**
+     * Count a mood event in, or with a negative delta out of, the cell.
+     * @param emotion Emotion of the mood event
+     * @param delta Number of mood events to add
+     */
+    public void add(@NonNull Emotion emotion, long delta) {
+        total += delta;
+        counts.put(emotion.name(), count(emotion) + delta);
+    }
+
+    /**
+     * @param emotion Emotion to count
+     * @return Number of mood events in the cell with that emotion
+     */
+    public long count(@NonNull Emotion emotion) {
+        Long count = counts.get(emotion.name());
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @param emotions Emotions to count, or all of them if empty
+     * @return Number of mood events in the cell with one of the emotions
+     */
+    public long count(@NonNull Set<Emotion> emotions) {
+        if (emotions.isEmpty()) {
+            return total;
+        }
+        long count = 0;
+        for (Emotion emotion : emotions) {
+            count += count(emotion);
+        }
+        return count;
+    }
+
+    /**
+     * @param emotions Emotions to consider, or all of them if empty
+     * @return The most common of the emotions in the cell, the first in declaration order on
+     *         ties, or null if the cell has none of them
+     */
+    @Nullable
+    public Emotion dominantEmotion(@NonNull Set<Emotion> emotions) {
+        Emotion best = null;
+        for (Emotion emotion : Emotion.values()) {
+            if ((emotions.isEmpty() || emotions.contains(emotion)) && count(emotion) > 0
+                    && (best == null || count(emotion) > count(best))) {
+                best = emotion;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,231 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the mood heatmap: the number of public mood events per geohash cell and emotion
+ * (see {@link MoodHeatmapCell}), for cells of {@link #MIN_PRECISION} to {@link #MAX_PRECISION}
+ * characters, in the moodHeatmap collection.
+ * <p>
+ * Writers update the cells of their own mood events with atomic increments in the same batch as
+ * the mood event itself (see {@link #addTo}), so concurrent writers never lose counts and a failed
+ * write never leaves the counts behind. Each mood event records whether it is counted, and mood
+ * events which predate the heatmap are counted in by their owners on sign in (see
+ * {@link MoodEventProvider#backfillHeatmap}). Until every owner has signed in once, the heatmap
+ * is missing their older mood events.
+ * </p>
+ * <p>
+ * The security rules only accept a step of a cell which matches the write of the mood event it
+ * names, made by its owner in the same request.
+ * </p>
+ */
+public class MoodHeatmapWorker {
+    /**
+     * Shortest cells counted, about 1250 km across.
+     */
+    public static final int MIN_PRECISION = 2;
+
+    /**
+     * Longest cells counted, about 150 km across.
+     */
+    public static final int MAX_PRECISION = 3;
+
+    private static MoodHeatmapWorker instance;
+
+    private final FirebaseFirestore db;
+    private final CollectionReference collection;
+
+    private MoodHeatmapWorker() {
+        db = FirebaseFirestore.getInstance();
+        collection = db.collection("moodHeatmap");
+    }
+
+    /**
+     * Get the singleton instance of the MoodHeatmapWorker.
+     * @return Singleton instance
+     */
+    public static MoodHeatmapWorker getInstance() {
+        if (instance == null) {
+            instance = new MoodHeatmapWorker();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Query the heatmap cells of one precision within a larger cell.
+     * @param cell Geohash of the area to read
+     * @param precision Length of the cells to read, at least the area's
+     * @return Query for the {@link MoodHeatmapCell} documents
+     */
+    public Query cellsWithin(@NonNull String cell, int precision) {
+        GeoHash.Range range = new GeoHash.Range(cell, cell);
+        return collection.whereEqualTo("precision", precision)
+                .whereGreaterThanOrEqualTo("cell", range.start)
+                .whereLessThan("cell", range.getUpperBound());
+    }
+
+    /**
+     * Add the heatmap changes of a mood event write to the batch which writes the mood event, so
+     * the counts change if and only if the mood event does. Call it before adding the mood event
+     * to the batch, as it marks {@code after} as counted.
+     * @param batch Batch writing the mood event
+     * @param before Mood event as stored before the write, or null if it is new. Only counted
+     *               out if it was counted in (see {@link MoodEvent#getHeatmapCounted()}).
+     * @param after Mood event being written, or null if it is deleted
+     */
+    public void addTo(@NonNull WriteBatch batch, @Nullable MoodEvent before, @Nullable MoodEvent after) {
+        MoodEvent counted = before != null && before.getHeatmapCounted() ? before : null;
+        for (MoodHeatmapCell delta : deltas(counted, after).values()) {
+            batch.set(collection.document(delta.getCell()), toIncrements(delta, idOf(before, after)),
+                    SetOptions.merge());
+        }
+        if (after != null) {
+            after.setHeatmapCounted(true);
+        }
+    }
+
+    /**
+     * Add the heatmap changes of a mood event write to the transaction which writes the mood
+     * event, as {@link #addTo(WriteBatch, MoodEvent, MoodEvent)} does for a batch. Read
+     * {@code before} in the same transaction, so it cannot be counted in by {@link #countIn}
+     * between the read and the write.
+     * @param transaction Transaction writing the mood event
+     * @param before Mood event as read in the transaction, or null if it does not exist
+     * @param after Mood event being written, or null if it is deleted
+     */
+    public void addTo(@NonNull Transaction transaction, @Nullable MoodEvent before, @Nullable MoodEvent after) {
+        MoodEvent counted = before != null && before.getHeatmapCounted() ? before : null;
+        for (MoodHeatmapCell delta : deltas(counted, after).values()) {
+            transaction.set(collection.document(delta.getCell()), toIncrements(delta, idOf(before, after)),
+                    SetOptions.merge());
+        }
+        if (after != null) {
+            after.setHeatmapCounted(true);
+        }
+    }
+
+    /**
+     * Count in a mood event which predates the heatmap. Reads and marks the mood event in a
+     * transaction, so it is never counted twice even if it is edited at the same time.
+     * @param moodEvent Reference to the mood event document
+     * @return Task resolving to true if the mood event was counted, false if it already was or
+     *         no longer exists
+     */
+    public Task<Boolean> countIn(@NonNull DocumentReference moodEvent) {
+        return db.runTransaction(transaction -> {
+            MoodEvent stored = transaction.get(moodEvent).toObject(MoodEvent.class);
+            if (stored == null || stored.getHeatmapCounted()) {
+                return false;
+            }
+            for (MoodHeatmapCell delta : deltas(null, stored).values()) {
+                transaction.set(collection.document(delta.getCell()), toIncrements(delta, moodEvent.getId()),
+                        SetOptions.merge());
+            }
+            // The security rules place the mood event by its stored geohash, which older mood
+            // events may not have yet
+            transaction.update(moodEvent, "heatmapCounted", true, "geohash", stored.getGeohash());
+            return true;
+        });
+    }
+
+    /**
+     * The geohash cells a mood event is counted in: one per precision, or none if it is private
+     * or has no location.
+     * @param moodEvent Mood event to place
+     * @return Cells, shortest first
+     */
+    @NonNull
+    public static List<String> cellsOf(@NonNull MoodEvent moodEvent) {
+        List<String> cells = new ArrayList<>();
+        String geohash = moodEvent.getGeohash();
+        if (geohash == null || moodEvent.getVisibility() != MoodEventVisibility.PUBLIC) {
+            return cells;
+        }
+        for (int precision = MIN_PRECISION; precision <= MAX_PRECISION; precision++) {
+            cells.add(geohash.substring(0, precision));
+        }
+        return cells;
+    }
+
+    /**
+     * The changes to the heatmap when a mood event changes. Counts which stay the same, e.g.
+     * after editing only the reason, are left out.
+     * @param before Mood event before the change, or null if it is new
+     * @param after Mood event after the change, or null if it was deleted
+     * @return Count changes by cell, holding only the cells whose counts change
+     */
+    @NonNull
+    public static Map<String, MoodHeatmapCell> deltas(@Nullable MoodEvent before, @Nullable MoodEvent after) {
+        Map<String, MoodHeatmapCell> deltas = new LinkedHashMap<>();
+        if (before != null) {
+            for (String cell : cellsOf(before)) {
+                deltaOf(deltas, cell).add(before.getEmotion(), -1);
+            }
+        }
+        if (after != null) {
+            for (String cell : cellsOf(after)) {
+                deltaOf(deltas, cell).add(after.getEmotion(), 1);
+            }
+        }
+
+        Iterator<MoodHeatmapCell> it = deltas.values().iterator();
+        while (it.hasNext()) {
+            MoodHeatmapCell delta = it.next();
+            delta.getCounts().values().removeIf(count -> count == 0);
+            if (delta.getCounts().isEmpty()) {
+                it.remove();
+            }
+        }
+        return deltas;
+    }
+
+    private static MoodHeatmapCell deltaOf(Map<String, MoodHeatmapCell> deltas, String cell) {
+        MoodHeatmapCell delta = deltas.get(cell);
+        if (delta == null) {
+            delta = new MoodHeatmapCell(cell);
+            deltas.put(cell, delta);
+        }
+        return delta;
+    }
+
+    private static String idOf(@Nullable MoodEvent before, @Nullable MoodEvent after) {
+        return after != null ? after.getId() : before.getId();
+    }
+
+    /**
+     * The fields of a heatmap document as atomic increments by a delta's counts, along with the
+     * mood event being written, which the security rules check the increments against.
+     */
+    private static Map<String, Object> toIncrements(MoodHeatmapCell delta, String moodEventId) {
+        Map<String, Object> counts = new HashMap<>();
+        for (Map.Entry<String, Long> count : delta.getCounts().entrySet()) {
+            counts.put(count.getKey(), FieldValue.increment(count.getValue()));
+        }
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("cell", delta.getCell());
+        fields.put("precision", delta.getPrecision());
+        fields.put("total", FieldValue.increment(delta.getTotal()));
+        fields.put("counts", counts);
+        fields.put("moodEvent", moodEventId);
+        return fields;
+    }
+}
@@ -0,0 +1,124 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Tokenization of mood event reasons, so reason search can be answered by an indexed query.
+ * <p>
+ * A reason is normalized (lower case, accents removed) and split into words; no stemming is
+ * done. "reasonTokens" holds every prefix of every word, up to {@link #MAX_PREFIX_LENGTH}
+ * characters, so a query matches a mood event if each of its words starts a word of the reason.
+ * </p>
+ */
+public final class ReasonTokens {
+    public static final String REASON_TOKENS_FIELD = "reasonTokens";
+
+    /**
+     * Longest prefix stored as a token. Longer query words are matched on their first
+     * MAX_PREFIX_LENGTH characters and then checked on the device.
+     */
+    public static final int MAX_PREFIX_LENGTH = 12;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    private ReasonTokens() { }
+
+    /**
+     * Normalize text for matching: lower case, with accents removed.
+     * @param text Text to normalize
+     * @return Normalized text
+     */
+    @NonNull
+    public static String normalize(@Nullable String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("");
+    }
+
+    /**
+     * Split text into its distinct normalized words.
+     * @param text Text to split
+     * @return Words, in order of first appearance
+     */
+    @NonNull
+    public static List<String> words(@Nullable String text) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : SEPARATORS.split(normalize(text))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return new ArrayList<>(words);
+    }
+
+    /**
+     * Compute the search tokens of a reason.
+     * @param reason Reason to index
+     * @return Every distinct prefix of every word, of length 1 to {@link #MAX_PREFIX_LENGTH}
+     */
+    @NonNull
+    public static List<String> tokensFor(@Nullable String reason) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String word : words(reason)) {
+            int end = Math.min(word.length(), MAX_PREFIX_LENGTH);
+            for (int length = 1; length <= end; length++) {
+                tokens.add(word.substring(0, length));
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    /**
+     * The tokens to look a query up by: its words, cut to {@link #MAX_PREFIX_LENGTH} characters,
+     * longest (most selective) first.
+     * @param query Search query
+     * @param maxTerms Maximum number of terms returned
+     * @return Query terms, empty if the query has no words
+     */
+    @NonNull
+    public static List<String> queryTerms(@Nullable String query, int maxTerms) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String word : words(query)) {
+            terms.add(word.length() > MAX_PREFIX_LENGTH ? word.substring(0, MAX_PREFIX_LENGTH) : word);
+        }
+        List<String> sorted = new ArrayList<>(terms);
+        sorted.sort(Comparator.comparingInt(String::length).reversed());
+        return sorted.size() > maxTerms ? new ArrayList<>(sorted.subList(0, maxTerms)) : sorted;
+    }
+
+    /**
+     * Check whether a reason matches a search query.
+     * @param reason Reason of a mood event
+     * @param query Search query
+     * @return True if every word of the query starts some word of the reason
+     */
+    public static boolean matches(@Nullable String reason, @Nullable String query) {
+        List<String> reasonWords = words(reason);
+        for (String term : words(query)) {
+            boolean found = false;
+            for (String word : reasonWords) {
+                if (word.startsWith(term)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
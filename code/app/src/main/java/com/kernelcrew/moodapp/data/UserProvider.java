@@ -1,20 +1,39 @@
 package com.kernelcrew.moodapp.data;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.google.android.gms.tasks.CancellationToken;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class UserProvider {
+    /**
+     * Maximum number of users returned by {@link #searchUsers}.
+     */
+    public static final int SEARCH_LIMIT = 20;
+
+    /**
+     * Pages of token matches checked for a query longer than a token before giving up, so a
+     * common start followed by a rare rest doesn't read every user.
+     */
+    private static final int MAX_SEARCH_PAGES = 5;
+
     private final FirebaseFirestore db;
 
     private UserProvider() {
@@ -72,8 +91,11 @@ public class UserProvider {
                 if (isFollowingBack == null) {
                     isFollowingBack = false;
                 }
-                followersList.add(new User(followerUid, followerUid, isFollowingBack));
+                // Edges carry the follower's username; older edges have none, which is left null
+                // so the UsernameResolver can look it up
+                followersList.add(new User(followerUid, doc.getString("username"), isFollowingBack));
             }
+            UsernameIndex.getInstance().putAll(followersList);
 
             return Tasks.forResult(followersList);
         });
@@ -96,9 +118,9 @@ public class UserProvider {
                 if (isFollowed == null) {
                     isFollowed = false;
                 }
-                // Same approach here: pass the UID in both fields if that's all you have
-                followingList.add(new User(followingUid, followingUid, isFollowed));
+                followingList.add(new User(followingUid, doc.getString("username"), isFollowed));
             }
+            UsernameIndex.getInstance().putAll(followingList);
 
             return Tasks.forResult(followingList);
         });
@@ -116,53 +138,131 @@ public class UserProvider {
 
     /**
      * Search users by username (case-insensitive, partial-match) while excluding the current user.
+     * Uses the search fields maintained by {@link UserSearchIndex}, so only matching users are
+     * read. Users whose username starts with the query come first: they are read in order with
+     * a range on the lower case username, and only if there are fewer than
+     * {@link #SEARCH_LIMIT} of them are the usernames containing the query looked up by token.
      *
      * @param query The search string.
      * @param currentUserId The current user's ID to exclude.
-     * @return A Task that returns a List of matching Users.
+     * @return A Task that returns at most {@link #SEARCH_LIMIT} matching Users.
      */
     public Task<List<User>> searchUsers(String query, @NonNull String currentUserId) {
-        final String lowerQuery = query.toLowerCase();
-        return db.collection("users").get().onSuccessTask(querySnapshot -> {
-            List<User> results = new ArrayList<>();
-            for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
-                if (doc.getId().equals(currentUserId)) continue;
-
-                String username = doc.getString("username");
-                if (username != null && username.toLowerCase().contains(lowerQuery)) {
-                    results.add(new User(doc.getId(), username, false));
-                }
+        return searchUsers(query, currentUserId, null);
+    }
+
+    /**
+     * Search users by username, as {@link #searchUsers(String, String)}, unless cancelled.
+     * A query which has already been sent can't be recalled, but its results are dropped.
+     *
+     * @param query The search string.
+     * @param currentUserId The current user's ID to exclude.
+     * @param cancellationToken Token to cancel the search with, or null.
+     * @return A Task that returns at most {@link #SEARCH_LIMIT} matching Users, or is cancelled.
+     */
+    public Task<List<User>> searchUsers(String query, @NonNull String currentUserId,
+                                        @Nullable CancellationToken cancellationToken) {
+        if (cancellationToken != null && cancellationToken.isCancellationRequested()) {
+            return Tasks.forCanceled();
+        }
+        final String normalized = UserSearchIndex.normalize(query);
+        CollectionReference users = db.collection("users");
+        Query byName = users.orderBy(UserSearchIndex.USERNAME_LOWER_FIELD);
+        if (!normalized.isEmpty()) {
+            byName = byName.startAt(normalized).endAt(normalized + '\uf8ff');
+        }
+
+        return byName.limit(SEARCH_LIMIT + 1).get().onSuccessTask(querySnapshot -> {
+            if (cancellationToken != null && cancellationToken.isCancellationRequested()) {
+                return Tasks.forCanceled();
+            }
+            Map<String, User> found = new LinkedHashMap<>();
+            collectMatches(querySnapshot.getDocuments(), normalized, currentUserId, found);
+            if (normalized.isEmpty() || found.size() >= SEARCH_LIMIT) {
+                return Tasks.forResult(searchResults(found, normalized));
             }
-            return Tasks.forResult(results);
+
+            // Then usernames containing the query further in, in username order
+            Query byToken = users
+                    .whereArrayContains(UserSearchIndex.SEARCH_TOKENS_FIELD, UserSearchIndex.queryToken(normalized))
+                    .orderBy(UserSearchIndex.USERNAME_LOWER_FIELD)
+                    .limit(SEARCH_LIMIT + 1);
+            return searchTokenPages(byToken, null, 1, normalized, currentUserId, found, cancellationToken);
+        });
+    }
+
+    /**
+     * Read pages of users having a query's token until {@link #SEARCH_LIMIT} of them match.
+     * Queries up to a token long match every user having their token, so only those longer than
+     * a token, which are looked up by their start, can need more than one page.
+     */
+    private Task<List<User>> searchTokenPages(Query byToken, @Nullable DocumentSnapshot startAfter, int page,
+                                              String normalized, String currentUserId, Map<String, User> found,
+                                              @Nullable CancellationToken cancellationToken) {
+        Query next = startAfter == null ? byToken : byToken.startAfter(startAfter);
+        return next.get().onSuccessTask(querySnapshot -> {
+            if (cancellationToken != null && cancellationToken.isCancellationRequested()) {
+                return Tasks.forCanceled();
+            }
+            List<DocumentSnapshot> docs = querySnapshot.getDocuments();
+            collectMatches(docs, normalized, currentUserId, found);
+            if (found.size() >= SEARCH_LIMIT || docs.size() <= SEARCH_LIMIT || page >= MAX_SEARCH_PAGES) {
+                return Tasks.forResult(searchResults(found, normalized));
+            }
+            return searchTokenPages(byToken, docs.get(docs.size() - 1), page + 1,
+                    normalized, currentUserId, found, cancellationToken);
+        });
+    }
+
+    private static void collectMatches(List<DocumentSnapshot> docs, String normalized, String currentUserId,
+                                       Map<String, User> found) {
+        for (DocumentSnapshot doc : docs) {
+            if (doc.getId().equals(currentUserId) || found.containsKey(doc.getId())) continue;
+
+            String username = doc.getString("username");
+            if (username != null && UserSearchIndex.matches(username, normalized)) {
+                found.put(doc.getId(), new User(doc.getId(), username, false));
+            }
+        }
+    }
+
+    private static List<User> searchResults(Map<String, User> found, String normalized) {
+        List<User> results = new ArrayList<>(found.values());
+        results.sort(UserSearchIndex.byRelevance(normalized));
+        // Remember who was found, for instant local results next time
+        UsernameIndex.getInstance().putAll(results);
+        return results.size() > SEARCH_LIMIT
+                ? new ArrayList<>(results.subList(0, SEARCH_LIMIT))
+                : results;
+    }
+
+    /**
+     * Make sure a user's document has up to date search fields (see {@link UserSearchIndex}),
+     * e.g. for users who signed up before they existed.
+     * Must be run by the user themselves.
+     * @param uid The user to index.
+     * @return Task resolving to true if the fields were (re)written.
+     */
+    public Task<Boolean> ensureSearchIndex(@NonNull String uid) {
+        DocumentReference userRef = db.collection("users").document(uid);
+        return userRef.get().onSuccessTask(doc -> {
+            String username = doc.getString("username");
+            if (username == null
+                    || UserSearchIndex.normalize(username).equals(doc.getString(UserSearchIndex.USERNAME_LOWER_FIELD))) {
+                return Tasks.forResult(false);
+            }
+            return userRef.set(UserSearchIndex.fieldsFor(username), SetOptions.merge())
+                    .onSuccessTask(unused -> Tasks.forResult(true));
         });
     }
 
     /**
      * Fetch the username for a specific user.
+     * Lookups are cached and batched by {@link UsernameResolver}.
      * @param uid The user ID whose username to fetch.
      * @return A Task containing the username as a String.
      */
     public Task<String> fetchUsername(@NonNull String uid) {
-        return db.collection("users")
-                .document(uid)
-                .get()
-                .continueWith(task -> {
-                    if (!task.isSuccessful()) {
-                        throw task.getException();
-                    }
-                    DocumentSnapshot document = task.getResult();
-                    if (document != null && document.exists()) {
-                        String username = document.getString("username");
-                        if (username == null) {
-                            username = document.getString("name");
-                        }
-                        if (username == null) {
-                            username = "UnknownUser";
-                        }
-                        return username;
-                    } else {
-                        throw new Exception("User not found");
-                    }
-                });
+        return UsernameResolver.getInstance().resolve(uid);
     }
 }
@@ -0,0 +1,121 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The search fields stored on each user document, so user search can be answered by an indexed
+ * query instead of downloading every user.
+ * <p>
+ * "usernameLower" holds the normalized username, for prefix queries with orderBy/startAt/endAt.
+ * "searchTokens" holds every substring of the normalized username up to
+ * {@link #MAX_TOKEN_LENGTH} characters long, so a partial match anywhere in the username is a
+ * single whereArrayContains.
+ * </p>
+ */
+public final class UserSearchIndex {
+    public static final String USERNAME_LOWER_FIELD = "usernameLower";
+    public static final String SEARCH_TOKENS_FIELD = "searchTokens";
+
+    /**
+     * Longest substring stored as a token. Longer queries are matched on their first
+     * MAX_TOKEN_LENGTH characters and then checked on the device.
+     */
+    public static final int MAX_TOKEN_LENGTH = 8;
+
+    private UserSearchIndex() { }
+
+    /**
+     * Normalize a username or search query for matching.
+     * @param text Text to normalize
+     * @return The trimmed, lower case text
+     */
+    @NonNull
+    public static String normalize(@Nullable String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Compute the search tokens of a username.
+     * @param username Username to index
+     * @return Every distinct substring of the normalized username of length 1 to
+     *         {@link #MAX_TOKEN_LENGTH}
+     */
+    @NonNull
+    public static List<String> tokensFor(@Nullable String username) {
+        String normalized = normalize(username);
+        Set<String> tokens = new LinkedHashSet<>();
+        for (int start = 0; start < normalized.length(); start++) {
+            int end = Math.min(normalized.length(), start + MAX_TOKEN_LENGTH);
+            for (int stop = start + 1; stop <= end; stop++) {
+                tokens.add(normalized.substring(start, stop));
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    /**
+     * The token to look a query up by.
+     * @param query Search query
+     * @return The normalized query, cut to {@link #MAX_TOKEN_LENGTH} characters
+     */
+    @NonNull
+    public static String queryToken(@Nullable String query) {
+        String normalized = normalize(query);
+        return normalized.length() > MAX_TOKEN_LENGTH
+                ? normalized.substring(0, MAX_TOKEN_LENGTH)
+                : normalized;
+    }
+
+    /**
+     * Check whether a username matches a search query.
+     * @param username Username
+     * @param query Search query
+     * @return True if the normalized query appears anywhere in the normalized username
+     */
+    public static boolean matches(@Nullable String username, @Nullable String query) {
+        return normalize(username).contains(normalize(query));
+    }
+
+    /**
+     * Order search results for a query: usernames starting with the query first, then by username.
+     * @param query Search query
+     * @return Comparator of users
+     */
+    @NonNull
+    public static Comparator<User> byRelevance(@Nullable String query) {
+        String normalized = normalize(query);
+        return (a, b) -> {
+            String nameA = normalize(a.getName());
+            String nameB = normalize(b.getName());
+            boolean prefixA = nameA.startsWith(normalized);
+            boolean prefixB = nameB.startsWith(normalized);
+            if (prefixA != prefixB) {
+                return prefixA ? -1 : 1;
+            }
+            return nameA.compareTo(nameB);
+        };
+    }
+
+    /**
+     * The search fields of a user document.
+     * @param username The user's username
+     * @return Map of field name to value, to merge into the user document
+     */
+    @NonNull
+    public static Map<String, Object> fieldsFor(@NonNull String username) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(USERNAME_LOWER_FIELD, normalize(username));
+        fields.put(SEARCH_TOKENS_FIELD, tokensFor(username));
+        return fields;
+    }
+}
@@ -0,0 +1,197 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An in-memory prefix index of the usernames this client already knows about: followers,
+ * followed users, feed authors, resolved usernames and recent search results.
+ * <p>
+ * Usernames are kept in a sorted array, rebuilt lazily after changes, so a prefix query is a
+ * binary search followed by a scan of the matches. This answers typeahead queries on the device
+ * while the server search (see {@link UserProvider#searchUsers}) runs.
+ * </p>
+ */
+public class UsernameIndex {
+    private static UsernameIndex instance;
+
+    private final Map<String, String> usernames = new HashMap<>();
+    private boolean dirty = false;
+
+    // Sorted snapshot of usernames: normalized name, uid and display name at the same position
+    private String[] sortedKeys = new String[0];
+    private String[] sortedUids = new String[0];
+    private String[] sortedNames = new String[0];
+
+    /**
+     * Create a standalone index. The app should use {@link #getInstance()} instead.
+     */
+    @VisibleForTesting
+    public UsernameIndex() { }
+
+    /**
+     * Get the singleton instance of the UsernameIndex.
+     * @return Singleton instance
+     */
+    public static synchronized UsernameIndex getInstance() {
+        if (instance == null) {
+            instance = new UsernameIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Record a known username.
+     * @param uid User id, ignored if null
+     * @param username The user's username, ignored if null
+     */
+    public synchronized void put(@Nullable String uid, @Nullable String username) {
+        if (uid == null || username == null || username.isEmpty()) {
+            return;
+        }
+        String previous = usernames.put(uid, username);
+        if (!username.equals(previous)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Record the usernames of a list of users, e.g. followers or search results.
+     * @param users Users to record
+     */
+    public synchronized void putAll(@NonNull Collection<User> users) {
+        for (User user : users) {
+            // Users read from edges without a username have none, or the uid in its place
+            if (!Objects.equals(user.getUid(), user.getName())) {
+                put(user.getUid(), user.getName());
+            }
+        }
+    }
+
+    /**
+     * Forget a user.
+     * @param uid User id
+     */
+    public synchronized void remove(@NonNull String uid) {
+        if (usernames.remove(uid) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return Number of users in the index
+     */
+    public synchronized int size() {
+        return usernames.size();
+    }
+
+    /**
+     * Find the known users whose username starts with a query, case-insensitively.
+     * @param query Search query
+     * @param limit Maximum number of users returned
+     * @param excludeUid A user to leave out, e.g. the current user, or null
+     * @return Matching users, in username order
+     */
+    @NonNull
+    public synchronized List<User> searchPrefix(@Nullable String query, int limit, @Nullable String excludeUid) {
+        rebuildIfDirty();
+        String prefix = UserSearchIndex.normalize(query);
+        List<User> results = new ArrayList<>();
+
+        // Lower bound of the prefix: the first key not less than it
+        int low = 0;
+        int high = sortedKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedKeys[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        for (int i = low; i < sortedKeys.length && results.size() < limit; i++) {
+            if (!sortedKeys[i].startsWith(prefix)) {
+                break;
+            }
+            if (!sortedUids[i].equals(excludeUid)) {
+                results.add(new User(sortedUids[i], sortedNames[i], false));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Rebuild the sorted arrays now instead of on the next query.
+     */
+    @VisibleForTesting
+    public synchronized void rebuildIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        int size = usernames.size();
+        Entry[] entries = new Entry[size];
+        int i = 0;
+        for (Map.Entry<String, String> entry : usernames.entrySet()) {
+            entries[i++] = new Entry(UserSearchIndex.normalize(entry.getValue()), entry.getKey(), entry.getValue());
+        }
+        Arrays.sort(entries, (a, b) -> a.key.compareTo(b.key));
+
+        sortedKeys = new String[size];
+        sortedUids = new String[size];
+        sortedNames = new String[size];
+        for (i = 0; i < size; i++) {
+            sortedKeys[i] = entries[i].key;
+            sortedUids[i] = entries[i].uid;
+            sortedNames[i] = entries[i].name;
+        }
+        dirty = false;
+    }
+
+    /**
+     * Merge local and server search results, dropping duplicates, ranked as the server ranks them.
+     * @param local Results from {@link #searchPrefix}
+     * @param server Results from {@link UserProvider#searchUsers}
+     * @param query Search query
+     * @param limit Maximum number of users returned
+     * @return Merged results
+     */
+    @NonNull
+    public static List<User> merge(@NonNull List<User> local, @NonNull List<User> server,
+                                   @Nullable String query, int limit) {
+        Map<String, User> byUid = new LinkedHashMap<>();
+        for (User user : server) {
+            byUid.put(user.getUid(), user);
+        }
+        for (User user : local) {
+            if (!byUid.containsKey(user.getUid())) {
+                byUid.put(user.getUid(), user);
+            }
+        }
+        List<User> merged = new ArrayList<>(byUid.values());
+        merged.sort(UserSearchIndex.byRelevance(query));
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    private static class Entry {
+        final String key;
+        final String uid;
+        final String name;
+
+        Entry(String key, String uid, String name) {
+            this.key = key;
+            this.uid = uid;
+            this.name = name;
+        }
+    }
+}
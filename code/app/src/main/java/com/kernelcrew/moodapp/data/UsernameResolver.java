@@ -0,0 +1,281 @@
+package com.kernelcrew.moodapp.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * Resolves user ids to usernames for display.
+ * <p>
+ * Names are served from an in-memory LRU cache, then from an optional disk cache (see
+ * {@link #init(Context)}), and only then fetched. Cached names are trusted for a day, so renames
+ * show up the next day at the latest. Lookups made in the same frame are queued and
+ * fetched together with whereIn on the document id, up to 30 users per query, and concurrent
+ * lookups of the same user share a single fetch.
+ * </p>
+ */
+public class UsernameResolver {
+    /**
+     * Firestore limit on the number of values in a whereIn.
+     */
+    public static final int MAX_BATCH_SIZE = 30;
+
+    /**
+     * Number of usernames kept in memory.
+     */
+    private static final int MEMORY_CACHE_SIZE = 500;
+
+    /**
+     * How long a cached username is trusted after it was fetched, in ms.
+     */
+    private static final long CACHE_TTL = 24 * 60 * 60 * 1000L;
+
+    private static final String PREFS_NAME = "usernames";
+
+    /**
+     * Fetches the usernames of a batch of users.
+     */
+    @VisibleForTesting
+    public interface BatchFetcher {
+        /**
+         * @param uids At most {@link #MAX_BATCH_SIZE} user ids
+         * @return Task resolving to the username of every user which exists
+         */
+        Task<Map<String, String>> fetch(@NonNull List<String> uids);
+    }
+
+    /**
+     * A username in the memory cache, with when it was fetched.
+     */
+    private static class Cached {
+        final String username;
+        final long fetchedAt;
+
+        Cached(String username, long fetchedAt) {
+            this.username = username;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private static UsernameResolver instance;
+
+    private final BatchFetcher fetcher;
+    private final Executor scheduler;
+    private final LongSupplier clock;
+    private final LruCache<String, Cached> memory = new LruCache<>(MEMORY_CACHE_SIZE);
+    private final Map<String, TaskCompletionSource<String>> pending = new HashMap<>();
+    private final Map<String, TaskCompletionSource<String>> queued = new LinkedHashMap<>();
+    private SharedPreferences disk;
+    private boolean flushScheduled = false;
+    private int fetchCount = 0;
+
+    /**
+     * Create a standalone resolver. The app should use {@link #getInstance()} instead.
+     * @param fetcher Fetches batches of usernames
+     * @param scheduler Runs the queued fetches, after the lookups of the current frame
+     */
+    @VisibleForTesting
+    public UsernameResolver(@NonNull BatchFetcher fetcher, @NonNull Executor scheduler) {
+        this(fetcher, scheduler, System::currentTimeMillis);
+    }
+
+    /**
+     * Create a standalone resolver with its own clock.
+     * @param fetcher Fetches batches of usernames
+     * @param scheduler Runs the queued fetches, after the lookups of the current frame
+     * @param clock Current time in ms, which cached usernames expire by
+     */
+    @VisibleForTesting
+    public UsernameResolver(@NonNull BatchFetcher fetcher, @NonNull Executor scheduler, @NonNull LongSupplier clock) {
+        this.fetcher = fetcher;
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the singleton instance of the UsernameResolver.
+     * @return Singleton instance
+     */
+    public static synchronized UsernameResolver getInstance() {
+        if (instance == null) {
+            Handler mainHandler = new Handler(Looper.getMainLooper());
+            instance = new UsernameResolver(UsernameResolver::fetchFromFirestore, mainHandler::post);
+        }
+        return instance;
+    }
+
+    /**
+     * Enable the disk cache, so usernames survive restarts. Has no effect if already enabled.
+     * @param context Any context
+     */
+    public synchronized void init(@NonNull Context context) {
+        if (disk == null) {
+            disk = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        }
+    }
+
+    /**
+     * Get a username if it is already cached, without fetching it.
+     * @param uid User id
+     * @return The cached username, or null
+     */
+    @Nullable
+    public synchronized String getCached(@NonNull String uid) {
+        long now = clock.getAsLong();
+        Cached cached = memory.get(uid);
+        if (cached != null && now - cached.fetchedAt >= CACHE_TTL) {
+            memory.remove(uid);
+            cached = null;
+        }
+        if (cached == null && disk != null) {
+            String entry = disk.getString(uid, null);
+            int separator = entry == null ? -1 : entry.indexOf('\n');
+            if (separator > 0) {
+                long written = Long.parseLong(entry.substring(0, separator));
+                if (now - written < CACHE_TTL) {
+                    // Expires when the disk entry would have
+                    cached = new Cached(entry.substring(separator + 1), written);
+                    memory.put(uid, cached);
+                    UsernameIndex.getInstance().put(uid, cached.username);
+                }
+            }
+        }
+        return cached == null ? null : cached.username;
+    }
+
+    /**
+     * Resolve a user id to a username.
+     * @param uid User id
+     * @return Task resolving to the username, failing if the user does not exist or has no name
+     */
+    public synchronized Task<String> resolve(@NonNull String uid) {
+        String cached = getCached(uid);
+        if (cached != null) {
+            return Tasks.forResult(cached);
+        }
+
+        TaskCompletionSource<String> source = pending.get(uid);
+        if (source == null) {
+            source = new TaskCompletionSource<>();
+            pending.put(uid, source);
+            queued.put(uid, source);
+            if (queued.size() >= MAX_BATCH_SIZE) {
+                flush();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduler.execute(this::flush);
+            }
+        }
+        return source.getTask();
+    }
+
+    /**
+     * Record a username which is already known, e.g. after a user renames themselves.
+     * @param uid User id
+     * @param username Current username
+     */
+    public synchronized void put(@NonNull String uid, @NonNull String username) {
+        long now = clock.getAsLong();
+        memory.put(uid, new Cached(username, now));
+        UsernameIndex.getInstance().put(uid, username);
+        if (disk != null) {
+            disk.edit().putString(uid, now + "\n" + username).apply();
+        }
+    }
+
+    /**
+     * Forget a cached username, so the next lookup fetches it again.
+     * @param uid User id
+     */
+    public synchronized void invalidate(@NonNull String uid) {
+        memory.remove(uid);
+        if (disk != null) {
+            disk.edit().remove(uid).apply();
+        }
+    }
+
+    /**
+     * @return Number of batch fetches made so far
+     */
+    public synchronized int getFetchCount() {
+        return fetchCount;
+    }
+
+    /**
+     * Fetch everything queued, in batches of at most {@link #MAX_BATCH_SIZE}.
+     */
+    private synchronized void flush() {
+        flushScheduled = false;
+        List<String> uids = new ArrayList<>(queued.keySet());
+        queued.clear();
+
+        for (int start = 0; start < uids.size(); start += MAX_BATCH_SIZE) {
+            List<String> batch = new ArrayList<>(uids.subList(start, Math.min(uids.size(), start + MAX_BATCH_SIZE)));
+            fetchCount++;
+            fetcher.fetch(batch).addOnCompleteListener(Runnable::run, task -> {
+                synchronized (this) {
+                    for (String uid : batch) {
+                        TaskCompletionSource<String> source = pending.remove(uid);
+                        if (source == null) {
+                            continue;
+                        }
+                        if (!task.isSuccessful()) {
+                            Exception e = task.getException();
+                            source.setException(e != null ? e : new Exception("Failed to fetch username"));
+                            continue;
+                        }
+                        String username = task.getResult().get(uid);
+                        if (username != null) {
+                            put(uid, username);
+                            source.setResult(username);
+                        } else {
+                            source.setException(new Exception("User not found"));
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private static Task<Map<String, String>> fetchFromFirestore(@NonNull List<String> uids) {
+        return FirebaseFirestore.getInstance()
+                .collection("users")
+                .whereIn(FieldPath.documentId(), uids)
+                .get()
+                .onSuccessTask(snapshot -> {
+                    Map<String, String> usernames = new HashMap<>();
+                    for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                        String username = doc.getString("username");
+                        if (username == null) {
+                            username = doc.getString("name");
+                        }
+                        // A user without a name is not found, rather than cached under a placeholder
+                        if (username != null) {
+                            usernames.put(doc.getId(), username);
+                        }
+                    }
+                    return Tasks.forResult(usernames);
+                });
+    }
+}
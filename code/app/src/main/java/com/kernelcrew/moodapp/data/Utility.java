@@ -3,14 +3,23 @@ package com.kernelcrew.moodapp.data;
 import android.app.Activity;
 import android.view.inputmethod.InputMethodManager;
 
+import androidx.annotation.Nullable;
+
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.Blob;
 import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
 import com.google.firebase.firestore.WriteBatch;
+import com.kernelcrew.moodapp.utils.PhotoUtils;
 
 import java.util.List;
+import java.util.Objects;
 
 /**
  * A utility class for UI related actions.
@@ -65,4 +74,227 @@ public class Utility {
         });
     }
 
+    /**
+     * Work done on one page of a {@link #walkPages} walk.
+     */
+    private interface PageVisitor {
+        /**
+         * @param documents The documents of the page, never empty.
+         * @return A Task resolving to the number of documents the page changed.
+         */
+        Task<Integer> visit(List<DocumentSnapshot> documents);
+    }
+
+    /**
+     * Visits every document matched by a query in pages ordered by document ID, one page after
+     * the other. Each page starts after the last document of the previous one, so documents
+     * the visitor rewrites are not visited twice.
+     *
+     * @param query The documents to visit.
+     * @param batchSize The maximum number of documents per page.
+     * @param visitor The work to do on each page.
+     * @return A Task resolving to the total count of all pages, or failing with the first page
+     *         that could not be read or visited.
+     */
+    private static Task<Integer> walkPages(final Query query, final int batchSize, final PageVisitor visitor) {
+        return walkPages(query, batchSize, visitor, null, 0);
+    }
+
+    private static Task<Integer> walkPages(final Query query,
+                                           final int batchSize,
+                                           final PageVisitor visitor,
+                                           @Nullable final DocumentSnapshot startAfter,
+                                           final int total) {
+        Query page = query.orderBy(FieldPath.documentId()).limit(batchSize);
+        if (startAfter != null) {
+            page = page.startAfter(startAfter);
+        }
+
+        return page.get().onSuccessTask(snapshot -> {
+            List<DocumentSnapshot> documents = snapshot.getDocuments();
+
+            if (documents.isEmpty()) {
+                return Tasks.forResult(total);
+            }
+
+            DocumentSnapshot last = documents.get(documents.size() - 1);
+            return visitor.visit(documents).onSuccessTask(count ->
+                    walkPages(query, batchSize, visitor, last, total + count));
+        });
+    }
+
+    /**
+     * Commits the writes of one page.
+     *
+     * @return A Task resolving to the number of documents written once the batch is committed.
+     */
+    private static Task<Integer> commitPage(WriteBatch batch, int updates) {
+        if (updates == 0) {
+            return Tasks.forResult(0);
+        }
+        return batch.commit().onSuccessTask(unused -> Tasks.forResult(updates));
+    }
+
+    /**
+     * Moves the photos of every mood event document that still stores them inline (either in
+     * the legacy "photoBytes" format, an array with one integer per byte, or as a "photoBlob")
+     * into their own document in the photos collection, and marks the mood event with
+     * "hasPhoto" and "photoHash" instead.
+     * Documents are visited in pages ordered by document ID, so this is safe to rerun.
+     * Users may only write their own mood events and photos, so the query should select them
+     * (see {@link MoodEventProvider#migrateLegacyPhotos}) unless run with admin access.
+     *
+     * @param query The mood events to migrate.
+     * @param photoCollectionRef The collection photos are moved into.
+     * @param batchSize The maximum number of documents to read and rewrite per batch.
+     * @return A Task resolving to the number of mood events migrated, or failing with the first
+     *         page that could not be read or written.
+     */
+    public static Task<Integer> migrateLegacyPhotos(final Query query,
+                                                    final CollectionReference photoCollectionRef,
+                                                    final int batchSize) {
+        return walkPages(query, batchSize, documents -> {
+            // Each migrated document costs two writes
+            WriteBatch batch = query.getFirestore().batch();
+            int migrated = 0;
+            for (DocumentSnapshot doc : documents) {
+                byte[] bytes;
+                Object legacyBytes = doc.get("photoBytes");
+                Blob blob = doc.getBlob("photoBlob");
+                if (legacyBytes instanceof List) {
+                    @SuppressWarnings("unchecked")
+                    List<? extends Number> byteList = (List<? extends Number>) legacyBytes;
+                    bytes = PhotoUtils.toByteArray(byteList);
+                } else if (blob != null) {
+                    bytes = blob.toBytes();
+                } else {
+                    continue;
+                }
+
+                batch.set(photoCollectionRef.document(doc.getId()),
+                        new MoodEventPhoto(doc.getString("uid"), Blob.fromBytes(bytes)));
+                batch.update(doc.getReference(),
+                        "hasPhoto", true,
+                        "photoHash", PhotoUtils.hashPhoto(bytes),
+                        "photoBytes", FieldValue.delete(),
+                        "photoBlob", FieldValue.delete());
+                migrated++;
+            }
+            return commitPage(batch, migrated);
+        });
+    }
+
+    /**
+     * Adds the search fields (see {@link UserSearchIndex}) to every user document which doesn't
+     * have them yet, or whose username changed since they were written.
+     * Documents are visited in pages ordered by document ID, so this is safe to rerun.
+     * Writing other users' documents needs admin access (e.g. the emulator or a maintenance
+     * script); users also index themselves when they sign in (see
+     * {@link UserProvider#ensureSearchIndex}).
+     *
+     * @param collectionRef The users collection to index.
+     * @param batchSize The maximum number of documents to read and rewrite per batch.
+     * @return A Task resolving to the number of documents updated.
+     */
+    public static Task<Integer> backfillUserSearchIndex(final CollectionReference collectionRef,
+                                                        final int batchSize) {
+        return walkPages(collectionRef, batchSize, documents -> {
+            WriteBatch batch = collectionRef.getFirestore().batch();
+            int updated = 0;
+            for (DocumentSnapshot doc : documents) {
+                String username = doc.getString("username");
+                if (username == null || UserSearchIndex.normalize(username)
+                        .equals(doc.getString(UserSearchIndex.USERNAME_LOWER_FIELD))) {
+                    continue;
+                }
+                batch.set(doc.getReference(), UserSearchIndex.fieldsFor(username), SetOptions.merge());
+                updated++;
+            }
+            return commitPage(batch, updated);
+        });
+    }
+
+    /**
+     * Writes the reason search tokens (see {@link ReasonTokens}) to every mood event matched by
+     * a query which doesn't have them yet, or whose reason changed since they were written.
+     * Documents are visited in pages ordered by document ID, so this is safe to rerun.
+     * Users may only update their own mood events, so the query should select them (see
+     * {@link MoodEventProvider#backfillReasonTokens}) unless run with admin access.
+     *
+     * @param query The mood events to index.
+     * @param batchSize The maximum number of documents to read and rewrite per batch.
+     * @return A Task resolving to the number of documents updated.
+     */
+    public static Task<Integer> backfillReasonTokens(final Query query, final int batchSize) {
+        return walkPages(query, batchSize, documents -> {
+            WriteBatch batch = query.getFirestore().batch();
+            int updated = 0;
+            for (DocumentSnapshot doc : documents) {
+                List<String> tokens = ReasonTokens.tokensFor(doc.getString("reason"));
+                if (tokens.equals(doc.get(ReasonTokens.REASON_TOKENS_FIELD))) {
+                    continue;
+                }
+                batch.update(doc.getReference(), ReasonTokens.REASON_TOKENS_FIELD, tokens);
+                updated++;
+            }
+            return commitPage(batch, updated);
+        });
+    }
+
+    /**
+     * Writes the geohash (see {@link GeoHash}) to every mood event matched by a query which
+     * doesn't have one yet, or whose location changed since it was written.
+     * Documents are visited in pages ordered by document ID, so this is safe to rerun.
+     * Users may only update their own mood events, so the query should select them (see
+     * {@link MoodEventProvider#backfillGeohashes}) unless run with admin access.
+     *
+     * @param query The mood events to index.
+     * @param batchSize The maximum number of documents to read and rewrite per batch.
+     * @return A Task resolving to the number of documents updated.
+     */
+    public static Task<Integer> backfillGeohashes(final Query query, final int batchSize) {
+        return walkPages(query, batchSize, documents -> {
+            WriteBatch batch = query.getFirestore().batch();
+            int updated = 0;
+            for (DocumentSnapshot doc : documents) {
+                Double latitude = doc.getDouble("latitude");
+                Double longitude = doc.getDouble("longitude");
+                String geohash = latitude != null && longitude != null
+                        ? GeoHash.encode(latitude, longitude, GeoHash.STORED_PRECISION)
+                        : null;
+                if (Objects.equals(geohash, doc.getString(GeoHash.GEOHASH_FIELD))) {
+                    continue;
+                }
+                batch.update(doc.getReference(), GeoHash.GEOHASH_FIELD, geohash);
+                updated++;
+            }
+            return commitPage(batch, updated);
+        });
+    }
+
+    /**
+     * Counts every mood event matched by a query which is not counted in the mood heatmap yet
+     * into it (see {@link MoodHeatmapWorker#countIn}). Each mood event is counted in its own
+     * transaction, as heatmap writes may only move counts by one, and is marked as counted, so
+     * this is safe to rerun. Users may only update their own mood events, so the query should
+     * select them (see {@link MoodEventProvider#backfillHeatmap}).
+     *
+     * @param query The mood events to count.
+     * @param batchSize The maximum number of documents to read per page.
+     * @return A Task resolving to the number of mood events counted.
+     */
+    public static Task<Integer> backfillHeatmap(final Query query, final int batchSize) {
+        return walkPages(query, batchSize, documents -> {
+            Task<Integer> counted = Tasks.forResult(0);
+            for (DocumentSnapshot doc : documents) {
+                if (Boolean.TRUE.equals(doc.getBoolean("heatmapCounted"))) {
+                    continue;
+                }
+                counted = counted.onSuccessTask(total ->
+                        MoodHeatmapWorker.getInstance().countIn(doc.getReference())
+                                .onSuccessTask(countedIn -> Tasks.forResult(countedIn ? total + 1 : total)));
+            }
+            return counted;
+        });
+    }
 }
@@ -0,0 +1,257 @@
+package com.kernelcrew.moodapp.data;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the mood events of a map view tile by tile, where a tile is a geohash cell (see
+ * {@link GeoHash#cellsInBounds}) queried with the current filter.
+ * <p>
+ * Tiles are cached by cell and filter key ({@link MoodEventFilter#getQueryKey()}) and keep
+ * listening for changes while cached, so panning back, zooming into a loaded cell or switching
+ * back to an earlier filter does not query again. Only the cells missing from the cache are
+ * fetched. A larger cell only serves the cells within it if its query returned every mood event
+ * in it, rather than stopping at its limit. The least recently shown tiles are dropped beyond
+ * {@link #MAX_CACHED_TILES}.
+ * </p>
+ * <p>
+ * Not thread safe; call it and deliver tile changes on the main thread.
+ * </p>
+ */
+public class ViewportLoader {
+    /**
+     * Most tiles kept listening, including those in view.
+     */
+    public static final int MAX_CACHED_TILES = 64;
+
+    /**
+     * Starts listening to the mood events of a tile.
+     */
+    public interface TileSource {
+        /**
+         * @param filter Filter to query with
+         * @param cell Geohash cell to query
+         * @param listener Receives the tile's mood events as they change
+         * @return Registration removing the listener
+         */
+        @NonNull
+        ListenerRegistration listen(@NonNull MoodEventFilter filter, @NonNull String cell, @NonNull TileListener listener);
+    }
+
+    /**
+     * Receives changes to the mood events of a tile.
+     */
+    public interface TileListener {
+        /**
+         * @param changed Mood events added or modified, with their IDs set
+         * @param removedIds IDs of the mood events removed
+         * @param complete True if the tile now holds every mood event of its cell, false if its
+         *                 query stopped at its limit
+         */
+        void onChanges(@NonNull List<MoodEvent> changed, @NonNull List<String> removedIds, boolean complete);
+    }
+
+    /**
+     * Receives the mood events in view whenever they change.
+     */
+    public interface Listener {
+        void onMoodEvents(@NonNull List<MoodEvent> moods);
+    }
+
+    private static class Tile {
+        final Map<String, MoodEvent> moods = new LinkedHashMap<>();
+        ListenerRegistration registration;
+        // Set once the tile leaves the cache, so late snapshots are ignored
+        boolean removed = false;
+
+        void remove() {
+            removed = true;
+            registration.remove();
+        }
+    }
+
+    private final TileSource source;
+    private final Listener listener;
+    // In access order, so the first tiles are the least recently shown
+    private final LinkedHashMap<String, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> visibleKeys = new LinkedHashSet<>();
+    // Tiles whose last snapshot held every mood event of their cell. Unknown until the first
+    // snapshot, so a tile can't serve smaller cells before it.
+    private final Set<String> completeKeys = new HashSet<>();
+    private List<String> cells = Collections.emptyList();
+    private MoodEventFilter filter;
+    private String filterKey;
+    private int fetchCount = 0;
+
+    /**
+     * @param source Queries tiles
+     * @param listener Receives the mood events in view
+     */
+    public ViewportLoader(@NonNull TileSource source, @NonNull Listener listener) {
+        this.source = source;
+        this.listener = listener;
+    }
+
+    /**
+     * Query with a new filter, reloading the cells in view.
+     * @param filter Filter to query with
+     */
+    public void setFilter(@NonNull MoodEventFilter filter) {
+        this.filter = filter;
+        this.filterKey = filter.getQueryKey();
+        // Deliver even if the tiles are the same, since the rest of the filter may have changed
+        show(cells, true);
+    }
+
+    /**
+     * Show the mood events of some cells, fetching the ones not cached. A cell within a cached
+     * larger cell is served by that one if it holds every mood event in it. The mood events are
+     * delivered unless the same tiles were already in view.
+     * @param cells Geohash cells in view
+     */
+    public void show(@NonNull List<String> cells) {
+        show(cells, false);
+    }
+
+    private void show(List<String> cells, boolean force) {
+        this.cells = new ArrayList<>(cells);
+        Set<String> previousKeys = new LinkedHashSet<>(visibleKeys);
+        visibleKeys.clear();
+        if (filter == null) {
+            return;
+        }
+        for (String cell : cells) {
+            String key = cachedKey(cell);
+            if (key == null) {
+                key = key(cell);
+                fetch(key, cell);
+            }
+            // Mark it as recently shown
+            tiles.get(key);
+            visibleKeys.add(key);
+        }
+        evict();
+        if (force || !visibleKeys.equals(previousKeys)) {
+            deliver();
+        }
+    }
+
+    /**
+     * Stop listening to every tile and drop the cache, e.g. when the map goes away.
+     */
+    public void clear() {
+        for (Tile tile : tiles.values()) {
+            tile.remove();
+        }
+        tiles.clear();
+        visibleKeys.clear();
+        completeKeys.clear();
+    }
+
+    /**
+     * @return Number of tile queries started so far
+     */
+    public int getFetchCount() {
+        return fetchCount;
+    }
+
+    /**
+     * @return Number of tiles cached
+     */
+    public int getCachedTileCount() {
+        return tiles.size();
+    }
+
+    private String key(String cell) {
+        return filterKey + "|" + cell;
+    }
+
+    /**
+     * The cache key of the loaded tile covering a cell: the cell itself, or a larger one which
+     * holds every mood event in it.
+     */
+    private String cachedKey(String cell) {
+        String own = key(cell);
+        // containsKey does not count as an access
+        if (tiles.containsKey(own)) {
+            return own;
+        }
+        for (int length = cell.length() - 1; length >= 1; length--) {
+            String key = key(cell.substring(0, length));
+            if (completeKeys.contains(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private void fetch(String key, String cell) {
+        fetchCount++;
+        Tile tile = new Tile();
+        tiles.put(key, tile);
+        tile.registration = source.listen(filter, cell, (changed, removedIds, complete) -> {
+            if (tile.removed) {
+                return;
+            }
+            boolean wasComplete = completeKeys.contains(key);
+            if (complete) {
+                completeKeys.add(key);
+            } else {
+                completeKeys.remove(key);
+            }
+            for (String id : removedIds) {
+                tile.moods.remove(id);
+            }
+            for (MoodEvent mood : changed) {
+                tile.moods.put(mood.getId(), mood);
+            }
+            if (!visibleKeys.contains(key)) {
+                return;
+            }
+            if (wasComplete && !complete) {
+                // No longer enough for the smaller cells it served, so they load on their own
+                show(cells, true);
+            } else {
+                deliver();
+            }
+        });
+    }
+
+    /**
+     * Drop the least recently shown tiles not in view.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Tile>> it = tiles.entrySet().iterator();
+        while (tiles.size() > MAX_CACHED_TILES && it.hasNext()) {
+            Map.Entry<String, Tile> entry = it.next();
+            if (!visibleKeys.contains(entry.getKey())) {
+                entry.getValue().remove();
+                completeKeys.remove(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    private void deliver() {
+        // A mood event may be in both a cell and a larger cell around it
+        Map<String, MoodEvent> moods = new LinkedHashMap<>();
+        for (String key : visibleKeys) {
+            Tile tile = tiles.get(key);
+            if (tile != null) {
+                moods.putAll(tile.moods);
+            }
+        }
+        listener.onMoodEvents(new ArrayList<>(moods.values()));
+    }
+}
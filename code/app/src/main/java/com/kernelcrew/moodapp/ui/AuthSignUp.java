@@ -29,6 +29,7 @@ import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.WriteBatch;
 import com.kernelcrew.moodapp.R;
+import com.kernelcrew.moodapp.data.UserSearchIndex;
 
 import java.util.HashMap;
 import java.util.Objects;
@@ -252,6 +253,7 @@ public class AuthSignUp extends Fragment {
                             put("uid", user.getUid());
                             put("email", details.email);
                             put("username", details.userName);
+                            putAll(UserSearchIndex.fieldsFor(details.userName));
                         }});
 
                 // Add username document
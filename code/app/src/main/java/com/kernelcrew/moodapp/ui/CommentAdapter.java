@@ -6,6 +6,7 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.kernelcrew.moodapp.R;
@@ -16,8 +17,15 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
-public class CommentAdapter extends RecyclerView.Adapter<CommentAdapter.CommentViewHolder> {
-    private List<Comment> comments = new ArrayList<>();
+/**
+ * Shows the comments on a mood event. New lists are diffed against the current one on a
+ * background thread, so only the comments which changed are rebound.
+ */
+public class CommentAdapter extends ListAdapter<Comment, CommentAdapter.CommentViewHolder> {
+    public CommentAdapter() {
+        super(ListDiffs.COMMENTS);
+        setHasStableIds(true);
+    }
 
     @NonNull
     @Override
@@ -29,18 +37,17 @@ public class CommentAdapter extends RecyclerView.Adapter<CommentAdapter.CommentV
 
     @Override
     public void onBindViewHolder(@NonNull CommentViewHolder holder, int position) {
-        Comment comment = comments.get(position);
+        Comment comment = getItem(position);
         holder.bind(comment);
     }
 
     @Override
-    public int getItemCount() {
-        return comments.size();
+    public long getItemId(int position) {
+        return ListDiffs.stableIdOf(getItem(position).getId());
     }
 
     public void setComments(List<Comment> comments) {
-        this.comments = comments;
-        notifyDataSetChanged();
+        submitList(comments != null ? new ArrayList<>(comments) : new ArrayList<>());
     }
 
     static class CommentViewHolder extends RecyclerView.ViewHolder {
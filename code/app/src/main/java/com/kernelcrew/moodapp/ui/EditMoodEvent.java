@@ -33,6 +33,7 @@ public class EditMoodEvent extends Fragment {
 
     private FirebaseUser currentUser;
     private MoodEventProvider provider;
+    private MoodEvent stored;
 
     private boolean isOnline() {
         ConnectivityManager cm = (ConnectivityManager) requireContext().getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -48,6 +49,10 @@ public class EditMoodEvent extends Fragment {
         MoodEvent moodEvent = details.toMoodEvent(currentUser.getUid());
         moodEvent.setId(moodEventId);
         moodEvent.setSynced(false);
+        if (!details.photoChanged && stored != null) {
+            // Don't re-encode (or lose) a photo the user did not touch
+            moodEvent.keepStoredPhoto(stored);
+        }
 
         if (!isOnline()) {
             Toast.makeText(getContext(), "You're offline! Mood will be updated when you're back online.", Toast.LENGTH_LONG).show();
@@ -95,8 +100,14 @@ public class EditMoodEvent extends Fragment {
         currentUser = FirebaseAuth.getInstance().getCurrentUser();
         assert currentUser != null;
 
+        // Fetch and decode the photo in the background before binding so the form never decodes
+        // it on the main thread. If the photo can't be loaded the form is bound without it, and
+        // the stored photo is kept unless the user picks another one.
         provider.getMoodEvent(moodEventId)
-                .addOnSuccessListener(moodEvent ->
-                    form.bind(new MoodEventForm.MoodEventDetails(moodEvent)));
+                .addOnSuccessListener(moodEvent -> provider.loadPhoto(moodEvent)
+                        .addOnCompleteListener(photoTask -> {
+                            stored = moodEvent;
+                            form.bind(new MoodEventForm.MoodEventDetails(moodEvent));
+                        }));
     }
 }
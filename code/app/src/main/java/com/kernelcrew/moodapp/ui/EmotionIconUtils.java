@@ -1,15 +1,23 @@
 package com.kernelcrew.moodapp.ui;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.drawable.Drawable;
+import android.util.LruCache;
 
 import androidx.core.content.ContextCompat;
 
 import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.kernelcrew.moodapp.R;
+import com.kernelcrew.moodapp.data.Emotion;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Utility class for converting emotion names into map marker icons.
@@ -19,11 +27,31 @@ import com.kernelcrew.moodapp.R;
  * It handles the conversion of vector drawables into appropriately sized bitmap markers
  * with proper background and formatting for each distinct emotion.
  * </p>
+ * <p>
+ * Icons are drawn once per emotion and cached, so a map full of markers shares eight bitmaps.
+ * They are sized in dp, and the cache is dropped when the screen density or night mode changes.
+ * </p>
  *
  * Created by Anthropic, Claude 3.7 Sonnet, "Generate JavaDoc for EmotionIconUtils", accessed 03-30-2025
  */
 
 public class EmotionIconUtils {
+    /**
+     * Size of an emotion marker icon, 80 pixels on a typical 420 dpi phone.
+     */
+    private static final float ICON_SIZE_DP = 30f;
+
+    /**
+     * Cluster icons differ by emotion and count, so only the recently used ones are kept.
+     */
+    private static final int MAX_CLUSTER_ICONS = 64;
+
+    private static final Map<String, BitmapDescriptor> emotionIcons = new HashMap<>();
+    private static final LruCache<String, BitmapDescriptor> clusterIcons = new LruCache<>(MAX_CLUSTER_ICONS);
+    // The configuration the cached icons were drawn for
+    private static int cachedDensityDpi = Configuration.DENSITY_DPI_UNDEFINED;
+    private static int cachedNightMode = Configuration.UI_MODE_NIGHT_UNDEFINED;
+    private static int bitmapsCreated = 0;
 
     /**
      * Converts an emotion name to its corresponding map marker icon.
@@ -39,7 +67,75 @@ public class EmotionIconUtils {
      * @return A BitmapDescriptor object representing the emotion as a map marker icon
      */
 
-    public static BitmapDescriptor getEmotionIcon(Context context, String emotion) {
+    public static synchronized BitmapDescriptor getEmotionIcon(Context context, String emotion) {
+        checkConfiguration(context);
+        BitmapDescriptor icon = emotionIcons.get(emotion);
+        if (icon == null) {
+            icon = createEmotionIcon(context, emotion);
+            emotionIcons.put(emotion, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Converts an emotion to its corresponding map marker icon.
+     *
+     * @param context The Android context used to access resources
+     * @param emotion The emotion
+     * @return A BitmapDescriptor object representing the emotion as a map marker icon
+     */
+    public static BitmapDescriptor getEmotionIcon(Context context, Emotion emotion) {
+        return getEmotionIcon(context, emotion.toString());
+    }
+
+    /**
+     * Draws every emotion's icon ahead of time, so the first markers on a map do not wait for
+     * them. The map must be initialized first.
+     *
+     * @param context The Android context used to access resources
+     */
+    public static void prewarm(Context context) {
+        for (Emotion emotion : Emotion.values()) {
+            getEmotionIcon(context, emotion);
+        }
+    }
+
+    /**
+     * Drops every cached icon, so they are drawn again when next used.
+     */
+    public static synchronized void clearCache() {
+        emotionIcons.clear();
+        clusterIcons.evictAll();
+    }
+
+    /**
+     * @return Number of icon bitmaps drawn so far, cached or not
+     */
+    public static synchronized int getBitmapsCreated() {
+        return bitmapsCreated;
+    }
+
+    /**
+     * Drops the cached icons if they were drawn for another density or night mode.
+     */
+    private static void checkConfiguration(Context context) {
+        Configuration configuration = context.getResources().getConfiguration();
+        int nightMode = configuration.uiMode & Configuration.UI_MODE_NIGHT_MASK;
+        if (configuration.densityDpi != cachedDensityDpi || nightMode != cachedNightMode) {
+            clearCache();
+            cachedDensityDpi = configuration.densityDpi;
+            cachedNightMode = nightMode;
+        }
+    }
+
+    /**
+     * Draws a new map marker icon for an emotion, bypassing the cache.
+     *
+     * @param context The Android context used to access resources
+     * @param emotion The string name of the emotion (e.g., "Happy", "Sad", "Anger")
+     * @return A BitmapDescriptor object representing the emotion as a map marker icon
+     */
+    public static BitmapDescriptor createEmotionIcon(Context context, String emotion) {
         int resourceId = 0;
 
         switch (emotion) {
@@ -93,15 +189,73 @@ public class EmotionIconUtils {
             return BitmapDescriptorFactory.defaultMarker();
         }
 
-        int targetWidth = 80;  // adjust size as needed (original icons may be 96–192px)
-        int targetHeight = 80;
+        int targetWidth = Math.round(ICON_SIZE_DP * context.getResources().getDisplayMetrics().density);
+        int targetHeight = targetWidth;
 
         vectorDrawable.setBounds(0, 0, targetWidth, targetHeight);
 
         Bitmap bitmap = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+        countBitmap();
         Canvas canvas = new Canvas(bitmap);
         vectorDrawable.draw(canvas);
 
         return BitmapDescriptorFactory.fromBitmap(bitmap);
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates the map marker icon for a cluster of mood events: a circle in the color of the
+     * cluster's most common emotion, labelled with the number of mood events.
+     * <p>
+     * The circle grows with the number of mood events so that busier areas stand out. Icons are
+     * cached by emotion and label.
+     * </p>
+     *
+     * @param context The Android context used to access resources
+     * @param emotion The most common emotion in the cluster
+     * @param count The number of mood events in the cluster
+     * @return A BitmapDescriptor object representing the cluster as a map marker icon
+     */
+    public static synchronized BitmapDescriptor getClusterIcon(Context context, Emotion emotion, int count) {
+        checkConfiguration(context);
+        String label = count < 1000 ? String.valueOf(count) : (count / 1000) + "k";
+        String key = emotion.name() + "/" + label;
+        BitmapDescriptor icon = clusterIcons.get(key);
+        if (icon == null) {
+            icon = createClusterIcon(context, emotion, count, label);
+            clusterIcons.put(key, icon);
+        }
+        return icon;
+    }
+
+    private static BitmapDescriptor createClusterIcon(Context context, Emotion emotion, int count, String label) {
+        float density = context.getResources().getDisplayMetrics().density;
+        float sizeDp = count < 10 ? ICON_SIZE_DP : count < 100 ? ICON_SIZE_DP * 1.2f : ICON_SIZE_DP * 1.4f;
+        int size = Math.round(sizeDp * density);
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        countBitmap();
+        Canvas canvas = new Canvas(bitmap);
+
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(ContextCompat.getColor(context, emotion.getColorRes()));
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f, paint);
+        paint.setColor(Color.WHITE);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(1.5f * density);
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f - 0.75f * density, paint);
+
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(Color.BLACK);
+        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setTextSize(size / 3f);
+        paint.setFakeBoldText(true);
+        // Center the text vertically on the circle
+        float baseline = size / 2f - (paint.descent() + paint.ascent()) / 2;
+        canvas.drawText(label, size / 2f, baseline, paint);
+
+        return BitmapDescriptorFactory.fromBitmap(bitmap);
+    }
+
+    private static synchronized void countBitmap() {
+        bitmapsCreated++;
+    }
+}
@@ -24,6 +24,7 @@ import com.google.firebase.firestore.FirebaseFirestore;
 import com.kernelcrew.moodapp.R;
 import com.kernelcrew.moodapp.data.User;
 import com.kernelcrew.moodapp.data.UserProvider;
+import com.kernelcrew.moodapp.data.UsernameResolver;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -103,13 +104,20 @@ public class FollowersFragment extends Fragment {
                 return;
             }
 
-            FirebaseFirestore.getInstance().collection("users").document(uid)
-                    .get()
-                    .addOnSuccessListener(doc -> {
-                        String realName = doc.getString("username");
-                        holder.usernameTextView.setText((realName != null && !realName.isEmpty()) ? realName : uid);
-                    })
-                    .addOnFailureListener(e -> holder.usernameTextView.setText(uid));
+            // Edges carry the username; only edges written before that need a lookup
+            UsernameResolver resolver = UsernameResolver.getInstance();
+            holder.usernameTextView.setTag(uid);
+            String cachedName = user.getName() != null ? user.getName() : resolver.getCached(uid);
+            if (cachedName != null) {
+                holder.usernameTextView.setText(cachedName);
+            } else {
+                holder.usernameTextView.setText(uid);
+                resolver.resolve(uid).addOnSuccessListener(realName -> {
+                    if (uid.equals(holder.usernameTextView.getTag()) && !realName.isEmpty()) {
+                        holder.usernameTextView.setText(realName);
+                    }
+                });
+            }
 
             holder.avatarImageView.setImageResource(R.drawable.ic_person);
 
@@ -19,11 +19,11 @@ import com.google.android.material.navigation.NavigationBarView;
 import com.google.android.material.imageview.ShapeableImageView;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.FirebaseFirestore;
 import com.kernelcrew.moodapp.R;
 import com.kernelcrew.moodapp.data.FollowProvider;
 import com.kernelcrew.moodapp.data.User;
 import com.kernelcrew.moodapp.data.UserProvider;
+import com.kernelcrew.moodapp.data.UsernameResolver;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -105,13 +105,20 @@ public class FollowingFragment extends Fragment {
                 return;
             }
 
-            FirebaseFirestore.getInstance().collection("users").document(uid)
-                    .get()
-                    .addOnSuccessListener(doc -> {
-                        String realName = doc.getString("username");
-                        holder.usernameTextView.setText((realName != null && !realName.isEmpty()) ? realName : uid);
-                    })
-                    .addOnFailureListener(e -> holder.usernameTextView.setText(uid));
+            // Edges carry the username; only edges written before that need a lookup
+            UsernameResolver resolver = UsernameResolver.getInstance();
+            holder.usernameTextView.setTag(uid);
+            String cachedName = user.getName() != null ? user.getName() : resolver.getCached(uid);
+            if (cachedName != null) {
+                holder.usernameTextView.setText(cachedName);
+            } else {
+                holder.usernameTextView.setText(uid);
+                resolver.resolve(uid).addOnSuccessListener(realName -> {
+                    if (uid.equals(holder.usernameTextView.getTag()) && !realName.isEmpty()) {
+                        holder.usernameTextView.setText(realName);
+                    }
+                });
+            }
 
             holder.avatarImageView.setImageResource(R.drawable.ic_person);
 
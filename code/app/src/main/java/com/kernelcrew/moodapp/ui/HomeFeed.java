@@ -21,15 +21,18 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.kernelcrew.moodapp.R;
 import com.kernelcrew.moodapp.data.CombinedListener;
+import com.kernelcrew.moodapp.data.FeedMerger;
+import com.kernelcrew.moodapp.data.FeedMode;
 import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.data.MoodEventFilter;
+import com.kernelcrew.moodapp.data.MoodEventPager;
 import com.kernelcrew.moodapp.data.MoodEventProvider;
 import com.kernelcrew.moodapp.data.User;
 import com.kernelcrew.moodapp.data.UserProvider;
+import com.kernelcrew.moodapp.data.UsernameIndex;
 import com.kernelcrew.moodapp.ui.components.DefaultFilterBarFragment;
 import com.kernelcrew.moodapp.ui.components.FilterBarFragment;
 import java.util.ArrayList;
@@ -48,13 +51,22 @@ public class HomeFeed extends DefaultFilterBarFragment
     private FirebaseAuth auth;
     private FirebaseUser user;
     private MoodEventProvider provider;
-    private ListenerRegistration registration;
+    private final UsernameIndex usernameIndex = UsernameIndex.getInstance();
+    private MoodEventPager feedPager;
     private FilterBarFragment searchNFilterFragment;
     private BottomNavBarController navBarController;
     private RecyclerView recyclerView;
     private MoodAdapter moodAdapter;
     private UserAdapter userAdapter;
 
+    /**
+     * Mood events loaded per page: of the materialized feed, or of the user's own mood events
+     * when the feed is merged at read time
+     */
+    private static final int FEED_PAGE_SIZE = 20;
+    private MoodEventFilter currentFilter;
+    private List<String> feedUserIds;
+
     @SuppressLint("ClickableViewAccessibility")
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
@@ -79,6 +91,7 @@ public class HomeFeed extends DefaultFilterBarFragment
         moodAdapter = new MoodAdapter();
         userAdapter = new UserAdapter();
         recyclerView.setAdapter(moodAdapter);
+        recyclerView.addOnScrollListener(loadMoreListener);
 
         if (auth.getCurrentUser() == null) {
             Log.e("HomeFeed", "User not authenticated!");
@@ -139,6 +152,18 @@ public class HomeFeed extends DefaultFilterBarFragment
             return;
         }
 
+        // Show matches among the loaded mood events until the new query answers
+        List<MoodEvent> preview = searchNFilterFragment != null ? searchNFilterFragment.getReasonPreview() : null;
+        if (preview != null) {
+            moodAdapter.setMoods(preview);
+        }
+
+        currentFilter = filter;
+        if (provider.getFeedMode() == FeedMode.MATERIALIZED) {
+            listenToFeed();
+            return;
+        }
+
         // Fetch the list of users the current user is following.
         UserProvider.getInstance().fetchFollowing(user.getUid())
                 .addOnSuccessListener(following -> {
@@ -149,41 +174,123 @@ public class HomeFeed extends DefaultFilterBarFragment
                         userIds.add(followedUser.getUid());
                     }
 
-                    registration = MoodEventProvider.getInstance().listenToMoodEventsForUsers(userIds, filter, 3,
-                            new CombinedListener() {
-                                @Override
-                                public void onEvent(List<DocumentSnapshot> documents,
-                                        FirebaseFirestoreException error) {
-                                    if (error != null) {
-                                        Log.e("HomeFeed", "Error listening to mood events", error);
-                                        return;
-                                    }
-                                    List<MoodEvent> moods = new ArrayList<>();
-                                    for (DocumentSnapshot doc : documents) {
-                                        MoodEvent mood = doc.toObject(MoodEvent.class);
-                                        if (mood != null) {
-                                            mood.setId(doc.getId());
-                                            moods.add(mood);
-                                        }
-                                    }
-
-                                    moods.sort((m1, m2) -> m2.getCreated().compareTo(m1.getCreated()));
-                                    Log.v("HomeFeed", "Displaying " + String.valueOf(moods.size()) + " Mood Events");
-                                    moodAdapter.setMoods(searchNFilterFragment.applyLocalSearch(moods));
-                                }
-                            });
+                    feedUserIds = userIds;
+                    listenToFeed();
                 })
                 .addOnFailureListener(e -> {
                     Log.e("HomeFeed", "Failed to fetch following users", e);
                 });
     }
 
+    /**
+     * (Re)listen to the first page of the feed: of the materialized feed, or of the user's own
+     * mood events when merging at read time. Older pages are read with a cursor as the user
+     * scrolls, so the loaded pages are never read again.
+     * Replaces the listeners of the previous filter rather than stacking them.
+     */
+    private void listenToFeed() {
+        if (feedPager != null) {
+            feedPager.remove();
+            feedPager = null;
+        }
+        // The new listeners report the whole feed again
+        feedMoods.clear();
+        if (provider.getFeedMode() == FeedMode.MATERIALIZED) {
+            feedPager = provider.paginateMaterializedFeed(user.getUid(), currentFilter, FEED_PAGE_SIZE, feedListener);
+        } else if (feedUserIds != null) {
+            feedPager = provider.paginateMoodEventsForUsers(feedUserIds, currentFilter, 3, FEED_PAGE_SIZE, feedListener);
+        }
+    }
+
+    /**
+     * Load the next page of the feed once the user scrolls near its end.
+     */
+    private final PaginationScrollListener loadMoreListener = new PaginationScrollListener() {
+        @Override
+        protected boolean isLoading() {
+            return feedPager == null || feedPager.isLoading() || recyclerView.getAdapter() != moodAdapter;
+        }
+
+        @Override
+        protected boolean hasMore() {
+            return feedPager != null && feedPager.hasMore();
+        }
+
+        @Override
+        protected void loadMore() {
+            feedPager.loadNextPage();
+        }
+    };
+
+    /**
+     * The feed's mood events, kept in step with the merged feed by applying its diffs, so an
+     * update only deserializes the mood events which changed.
+     */
+    private final List<MoodEvent> feedMoods = new ArrayList<>();
+
+    private final CombinedListener feedListener = new CombinedListener() {
+        @Override
+        public void onEvent(List<DocumentSnapshot> documents,
+                FirebaseFirestoreException error) {
+            if (error != null) {
+                Log.e("HomeFeed", "Error listening to mood events", error);
+                return;
+            }
+            feedMoods.clear();
+            for (DocumentSnapshot doc : documents) {
+                feedMoods.add(toMoodEvent(doc));
+            }
+            showFeed();
+        }
+
+        @Override
+        public void onChanges(List<DocumentSnapshot> documents,
+                List<FeedMerger.Diff<DocumentSnapshot>> diffs) {
+            for (FeedMerger.Diff<DocumentSnapshot> diff : diffs) {
+                switch (diff.type) {
+                    case INSERT:
+                        feedMoods.add(diff.position, toMoodEvent(diff.item));
+                        break;
+                    case REMOVE:
+                        feedMoods.remove(diff.position);
+                        break;
+                    case CHANGE:
+                        feedMoods.set(diff.position, toMoodEvent(diff.item));
+                        break;
+                }
+            }
+            showFeed();
+        }
+    };
+
+    @Nullable
+    private MoodEvent toMoodEvent(DocumentSnapshot doc) {
+        MoodEvent mood = doc.toObject(MoodEvent.class);
+        if (mood != null) {
+            mood.setId(doc.getId());
+            usernameIndex.put(mood.getUid(), mood.getUsername());
+        }
+        return mood;
+    }
+
+    private void showFeed() {
+        List<MoodEvent> moods = new ArrayList<>(feedMoods.size());
+        for (MoodEvent mood : feedMoods) {
+            if (mood != null) {
+                moods.add(mood);
+            }
+        }
+
+        Log.v("HomeFeed", "Displaying " + String.valueOf(moods.size()) + " Mood Events");
+        moodAdapter.setMoods(searchNFilterFragment.applyLocalSearch(moods));
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
 
-        if (this.registration != null) {
-            this.registration.remove();
+        if (this.feedPager != null) {
+            this.feedPager.remove();
         }
     }
 
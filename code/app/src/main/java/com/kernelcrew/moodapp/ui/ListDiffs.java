@@ -0,0 +1,75 @@
+package com.kernelcrew.moodapp.ui;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.kernelcrew.moodapp.data.Comment;
+import com.kernelcrew.moodapp.data.MoodEvent;
+
+import java.util.Objects;
+
+/**
+ * DiffUtil callbacks and stable ids for the list adapters, so an update which changes one mood
+ * event or comment only rebinds that one row.
+ */
+final class ListDiffs {
+    private ListDiffs() { }
+
+    /**
+     * Mood events are the same item if they have the same id, and look the same if every field
+     * shown in a row is equal.
+     */
+    static final DiffUtil.ItemCallback<MoodEvent> MOOD_EVENTS = new DiffUtil.ItemCallback<MoodEvent>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull MoodEvent oldItem, @NonNull MoodEvent newItem) {
+            return Objects.equals(oldItem.getId(), newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull MoodEvent oldItem, @NonNull MoodEvent newItem) {
+            return Objects.equals(oldItem.getUid(), newItem.getUid())
+                    && Objects.equals(oldItem.getUsername(), newItem.getUsername())
+                    && Objects.equals(oldItem.getCreated(), newItem.getCreated())
+                    && oldItem.getEmotion() == newItem.getEmotion()
+                    && Objects.equals(oldItem.getSocialSituation(), newItem.getSocialSituation())
+                    && Objects.equals(oldItem.getReason(), newItem.getReason())
+                    && oldItem.getVisibility() == newItem.getVisibility()
+                    && Objects.equals(oldItem.getLatitude(), newItem.getLatitude())
+                    && Objects.equals(oldItem.getLongitude(), newItem.getLongitude())
+                    && oldItem.getHasPhoto() == newItem.getHasPhoto()
+                    && Objects.equals(oldItem.getThumbnail(), newItem.getThumbnail());
+        }
+    };
+
+    static final DiffUtil.ItemCallback<Comment> COMMENTS = new DiffUtil.ItemCallback<Comment>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Comment oldItem, @NonNull Comment newItem) {
+            return Objects.equals(oldItem.getId(), newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Comment oldItem, @NonNull Comment newItem) {
+            return Objects.equals(oldItem.getUsername(), newItem.getUsername())
+                    && Objects.equals(oldItem.getCreated(), newItem.getCreated())
+                    && Objects.equals(oldItem.getCommentText(), newItem.getCommentText());
+        }
+    };
+
+    /**
+     * Derive a stable RecyclerView item id from a document id (64-bit FNV-1a hash).
+     * @param id Document id, may be null
+     * @return Item id, never {@link androidx.recyclerview.widget.RecyclerView#NO_ID}
+     */
+    static long stableIdOf(@Nullable String id) {
+        if (id == null) {
+            return 0;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == -1 ? 0 : hash;
+    }
+}
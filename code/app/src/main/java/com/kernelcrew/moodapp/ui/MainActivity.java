@@ -1,6 +1,8 @@
 package com.kernelcrew.moodapp.ui;
 
+import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.util.Log;
 
 import androidx.activity.EdgeToEdge;
 import androidx.appcompat.app.AppCompatActivity;
@@ -13,7 +15,12 @@ import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.kernelcrew.moodapp.R;
+import com.kernelcrew.moodapp.data.FollowProvider;
 import com.kernelcrew.moodapp.data.FollowRequestProvider;
+import com.kernelcrew.moodapp.data.MoodEventProvider;
+import com.kernelcrew.moodapp.data.UserProvider;
+import com.kernelcrew.moodapp.data.UsernameResolver;
+import com.kernelcrew.moodapp.utils.PhotoCache;
 
 
 public class MainActivity extends AppCompatActivity {
@@ -21,6 +28,8 @@ public class MainActivity extends AppCompatActivity {
     private FirebaseUser currentUser;
     private FollowRequestProvider followRequestProvider;
     private boolean listenersAttached = false;
+    private static final String MIGRATIONS_PREFS = "migrations";
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -39,6 +48,8 @@ public class MainActivity extends AppCompatActivity {
                 .build();
         FirebaseFirestore.getInstance().setFirestoreSettings(settings);
 
+        PhotoCache.init(this);
+        UsernameResolver.getInstance().init(this);
 
         auth = FirebaseAuth.getInstance();
         followRequestProvider = new FollowRequestProvider(this);
@@ -50,9 +61,81 @@ public class MainActivity extends AppCompatActivity {
                 currentUser = newUser;
                 followRequestProvider.listenForFollowRequests(currentUser.getUid());
                 followRequestProvider.listenForFollowAcceptedNotifications(currentUser.getUid());
+                UserProvider.getInstance().ensureSearchIndex(currentUser.getUid())
+                        .addOnFailureListener(e -> Log.e("MainActivity", "Failed to index user for search", e));
+                FollowProvider.getInstance().reconcileEdges(currentUser.getUid())
+                        .addOnFailureListener(e -> Log.e("MainActivity", "Failed to reconcile follow edges", e));
+                migrateLegacyPhotos(currentUser.getUid());
+                backfillReasonTokens(currentUser.getUid());
+                backfillGeohashes(currentUser.getUid());
+                backfillHeatmap(currentUser.getUid());
 
                 listenersAttached = true;
             }
         });
     }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        PhotoCache.getInstance().trim(level);
+    }
+
+    /**
+     * Move the inline photos of the user's older mood events into their own documents, once per
+     * user and device.
+     */
+    private void migrateLegacyPhotos(String uid) {
+        SharedPreferences migrations = getSharedPreferences(MIGRATIONS_PREFS, MODE_PRIVATE);
+        String key = "photos:" + uid;
+        if (migrations.getBoolean(key, false)) {
+            return;
+        }
+        MoodEventProvider.getInstance().migrateLegacyPhotos(uid)
+                .addOnSuccessListener(migrated -> migrations.edit().putBoolean(key, true).apply())
+                .addOnFailureListener(e -> Log.e("MainActivity", "Failed to migrate mood event photos", e));
+    }
+
+    /**
+     * Index the reasons of the user's older mood events for search, once per user and device.
+     */
+    private void backfillReasonTokens(String uid) {
+        SharedPreferences migrations = getSharedPreferences(MIGRATIONS_PREFS, MODE_PRIVATE);
+        String key = "reasonTokens:" + uid;
+        if (migrations.getBoolean(key, false)) {
+            return;
+        }
+        MoodEventProvider.getInstance().backfillReasonTokens(uid)
+                .addOnSuccessListener(updated -> migrations.edit().putBoolean(key, true).apply())
+                .addOnFailureListener(e -> Log.e("MainActivity", "Failed to index mood event reasons", e));
+    }
+
+    /**
+     * Index the locations of the user's older mood events for location filters, once per user
+     * and device.
+     */
+    private void backfillGeohashes(String uid) {
+        SharedPreferences migrations = getSharedPreferences(MIGRATIONS_PREFS, MODE_PRIVATE);
+        String key = "geohash:" + uid;
+        if (migrations.getBoolean(key, false)) {
+            return;
+        }
+        MoodEventProvider.getInstance().backfillGeohashes(uid)
+                .addOnSuccessListener(updated -> migrations.edit().putBoolean(key, true).apply())
+                .addOnFailureListener(e -> Log.e("MainActivity", "Failed to index mood event locations", e));
+    }
+
+    /**
+     * Count the user's older mood events into the mood heatmap, once per user and device.
+     */
+    private void backfillHeatmap(String uid) {
+        SharedPreferences migrations = getSharedPreferences(MIGRATIONS_PREFS, MODE_PRIVATE);
+        String key = "heatmap:" + uid;
+        if (migrations.getBoolean(key, false)) {
+            return;
+        }
+        MoodEventProvider.getInstance().backfillHeatmap(uid)
+                .addOnSuccessListener(counted -> migrations.edit().putBoolean(key, true).apply())
+                .addOnFailureListener(e -> Log.e("MainActivity", "Failed to count mood events into the heatmap", e));
+    }
 }
@@ -0,0 +1,132 @@
+package com.kernelcrew.moodapp.ui;
+
+import androidx.annotation.NonNull;
+
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.MoodEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The mood markers on the map, keyed by cluster key (the mood event ID for a single mood event).
+ * Showing a new set of clusters only adds, updates or removes the markers that differ, so a change
+ * to one mood event touches one marker and everything else on the map stays put.
+ * @param <M> Type of the markers
+ */
+public class MarkerRegistry<M> {
+    /**
+     * Draws markers.
+     * @param <M> Type of the markers
+     */
+    public interface Renderer<M> {
+        /**
+         * @return The new marker, or null if it could not be added
+         */
+        M add(@NonNull MoodClusterer.Cluster cluster);
+
+        /**
+         * Move or redraw a marker for a changed cluster.
+         */
+        void update(@NonNull M marker, @NonNull MoodClusterer.Cluster cluster);
+
+        void remove(@NonNull M marker);
+    }
+
+    private static class Entry<M> {
+        final M marker;
+        MoodClusterer.Cluster cluster;
+
+        Entry(M marker, MoodClusterer.Cluster cluster) {
+            this.marker = marker;
+            this.cluster = cluster;
+        }
+    }
+
+    private final Renderer<M> renderer;
+    private final Map<String, Entry<M>> entries = new HashMap<>();
+
+    /**
+     * @param renderer Draws the markers
+     */
+    public MarkerRegistry(@NonNull Renderer<M> renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Make the markers match the given clusters.
+     * @param clusters Clusters to show
+     */
+    public void show(@NonNull List<MoodClusterer.Cluster> clusters) {
+        Set<String> shown = new HashSet<>();
+        for (MoodClusterer.Cluster cluster : clusters) {
+            String key = cluster.getKey();
+            shown.add(key);
+            Entry<M> entry = entries.get(key);
+            if (entry == null) {
+                M marker = renderer.add(cluster);
+                if (marker != null) {
+                    entries.put(key, new Entry<>(marker, cluster));
+                }
+            } else if (!looksSame(entry.cluster, cluster)) {
+                renderer.update(entry.marker, cluster);
+                entry.cluster = cluster;
+            } else {
+                // Keep the newest mood events for the marker's tag and clicks
+                entry.cluster = cluster;
+            }
+        }
+
+        List<String> gone = new ArrayList<>();
+        for (Map.Entry<String, Entry<M>> entry : entries.entrySet()) {
+            if (!shown.contains(entry.getKey())) {
+                gone.add(entry.getKey());
+            }
+        }
+        for (String key : gone) {
+            renderer.remove(entries.remove(key).marker);
+        }
+    }
+
+    /**
+     * Remove every marker, e.g. when the filter changes.
+     */
+    public void clear() {
+        for (Entry<M> entry : entries.values()) {
+            renderer.remove(entry.marker);
+        }
+        entries.clear();
+    }
+
+    /**
+     * @return Number of markers on the map
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Clusters look the same if they are in the same place with the same emotions, and for a
+     * single mood event, by the same user.
+     */
+    static boolean looksSame(@NonNull MoodClusterer.Cluster a, @NonNull MoodClusterer.Cluster b) {
+        if (a.getLatitude() != b.getLatitude() || a.getLongitude() != b.getLongitude()
+                || a.getSize() != b.getSize()) {
+            return false;
+        }
+        for (Emotion emotion : Emotion.values()) {
+            if (a.getEmotionCount(emotion) != b.getEmotionCount(emotion)) {
+                return false;
+            }
+        }
+        MoodEvent moodA = a.getMood();
+        MoodEvent moodB = b.getMood();
+        return moodA == null || moodB == null
+                || Objects.equals(moodA.getUsername(), moodB.getUsername());
+    }
+}
@@ -9,29 +9,84 @@ import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
 import androidx.navigation.Navigation;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.kernelcrew.moodapp.R;
 import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.data.UserProvider;
+import com.kernelcrew.moodapp.data.UsernameResolver;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
+/**
+ * Shows a list of mood events, or a placeholder row when there are none.
+ * New lists are diffed against the current one on a background thread, so a feed update which
+ * changes one mood event only rebinds that one row.
+ */
 public class MoodAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     // Define view types for non-empty and empty states.
     private static final int VIEW_TYPE_EMPTY = 0;
     private static final int VIEW_TYPE_ITEM = 1;
 
-    private List<MoodEvent> moods = new ArrayList<>();
+    private final AsyncListDiffer<MoodEvent> differ;
     private OnMoodClickListener onMoodClickListener;
     private UserProvider userProvider;
 
+    /** Number of mood event rows the RecyclerView has been told about */
+    private int shownMoods = 0;
+
     public MoodAdapter() {
         this.userProvider = UserProvider.getInstance();
+        this.differ = new AsyncListDiffer<>(new EmptyRowUpdateCallback(),
+                new AsyncDifferConfig.Builder<>(ListDiffs.MOOD_EVENTS).build());
+        setHasStableIds(true);
+    }
+
+    /**
+     * Forwards list updates to the adapter, swapping the placeholder row in and out when the
+     * list becomes non-empty or empty.
+     */
+    private class EmptyRowUpdateCallback implements ListUpdateCallback {
+        @Override
+        public void onInserted(int position, int count) {
+            if (count == 0) {
+                return;
+            }
+            if (shownMoods == 0) {
+                notifyItemRemoved(0);
+            }
+            shownMoods += count;
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            if (count == 0) {
+                return;
+            }
+            shownMoods -= count;
+            notifyItemRangeRemoved(position, count);
+            if (shownMoods == 0) {
+                notifyItemInserted(0);
+            }
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
     }
 
     // Callback interface to handle clicks on the "View Details" button.
@@ -45,18 +100,30 @@ public class MoodAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     }
 
     public void setMoods(List<MoodEvent> moods) {
-        this.moods = (moods == null) ? new ArrayList<>() : moods;
-        notifyDataSetChanged();
+        differ.submitList(moods == null ? new ArrayList<>() : new ArrayList<>(moods));
+    }
+
+    /**
+     * @return The mood events currently shown
+     */
+    public List<MoodEvent> getMoods() {
+        return differ.getCurrentList();
     }
 
     @Override
     public int getItemViewType(int position) {
-        if (moods == null || moods.isEmpty()) {
+        if (differ.getCurrentList().isEmpty()) {
             return VIEW_TYPE_EMPTY;
         }
         return VIEW_TYPE_ITEM;
     }
 
+    @Override
+    public long getItemId(int position) {
+        List<MoodEvent> moods = differ.getCurrentList();
+        return moods.isEmpty() ? RecyclerView.NO_ID : ListDiffs.stableIdOf(moods.get(position).getId());
+    }
+
     @NonNull
     @Override
     public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -82,7 +149,7 @@ public class MoodAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         if (getItemViewType(position) == VIEW_TYPE_EMPTY) {
             return;
         }
-        MoodEvent mood = moods.get(position);
+        MoodEvent mood = differ.getCurrentList().get(position);
         MoodViewHolder viewHolder = (MoodViewHolder) holder;
 
         viewHolder.moodTypeTextView.setText(mood.getEmotion().toString());
@@ -94,22 +161,37 @@ public class MoodAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         int iconRes = MoodIconUtil.getMoodIconResource(mood.getEmotion().toString());
         viewHolder.moodImageView.setImageResource(iconRes);
 
-        UserProvider.getInstance().fetchUsername(mood.getUid())
-                .addOnSuccessListener(username -> {
-                    viewHolder.usernameText.setText("@" + username);
-
-                    // Replace requireView with v in the click callback
-                    viewHolder.usernameText.setOnClickListener(v -> {
-                        Bundle args = new Bundle();
-                        args.putString("uid", mood.getUid());
-                        // Use Navigation.findNavController(...) with the clicked view
-                        Navigation.findNavController(v)
-                                .navigate(R.id.otherUserProfile, args);
+        ThumbnailBinder.bind(viewHolder.photoThumbnail, mood);
+
+        viewHolder.usernameText.setOnClickListener(v -> {
+            Bundle args = new Bundle();
+            args.putString("uid", mood.getUid());
+            // Use Navigation.findNavController(...) with the clicked view
+            Navigation.findNavController(v)
+                    .navigate(R.id.otherUserProfile, args);
+        });
+
+        // Tag the row with its user, so a slow lookup can't paint a name into a recycled row
+        UsernameResolver resolver = UsernameResolver.getInstance();
+        String uid = mood.getUid();
+        viewHolder.usernameText.setTag(uid);
+        String cachedUsername = resolver.getCached(uid);
+        if (cachedUsername != null) {
+            viewHolder.usernameText.setText("@" + cachedUsername);
+        } else {
+            viewHolder.usernameText.setText("");
+            resolver.resolve(uid)
+                    .addOnSuccessListener(username -> {
+                        if (uid.equals(viewHolder.usernameText.getTag())) {
+                            viewHolder.usernameText.setText("@" + username);
+                        }
+                    })
+                    .addOnFailureListener(e -> {
+                        if (uid.equals(viewHolder.usernameText.getTag())) {
+                            viewHolder.usernameText.setText(R.string.error_loading_user);
+                        }
                     });
-                })
-                .addOnFailureListener(e -> {
-                    viewHolder.usernameText.setText(R.string.error_loading_user);
-                });
+        }
 
         viewHolder.viewDetailsButton.setOnClickListener(v -> {
             if (onMoodClickListener != null) {
@@ -136,7 +218,8 @@ public class MoodAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     @Override
     public int getItemCount() {
-        return (moods == null || moods.isEmpty()) ? 1 : moods.size();
+        List<MoodEvent> moods = differ.getCurrentList();
+        return moods.isEmpty() ? 1 : moods.size();
     }
 
     public static class MoodViewHolder extends RecyclerView.ViewHolder {
@@ -151,6 +234,7 @@ public class MoodAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         View commentLayout;
 
         ImageView visibilityIcon;
+        ImageView photoThumbnail;
 
         public MoodViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -163,6 +247,7 @@ public class MoodAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
             comments_bubble = itemView.findViewById(R.id.comments_bubble);
             commentLayout = itemView.findViewById(R.id.commentLayout);
             visibilityIcon = itemView.findViewById(R.id.visibility_icon);
+            photoThumbnail = itemView.findViewById(R.id.moodPhotoThumbnail);
         }
     }
 }
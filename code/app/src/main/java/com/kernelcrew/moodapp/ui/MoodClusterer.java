@@ -0,0 +1,332 @@
+package com.kernelcrew.moodapp.ui;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.MoodEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups mood events on the map into clusters, one per cell of a grid laid over the map at each
+ * zoom level, so a dense area shows a handful of cluster markers instead of thousands of
+ * overlapping pins.
+ * <p>
+ * Locations are projected to Web Mercator once, when the clusterer is created, and the clusters
+ * of each zoom level are computed once and kept. Both are meant to run off the main thread; only
+ * the clusters in view ({@link #visible}) need markers.
+ * </p>
+ */
+public class MoodClusterer {
+    /**
+     * Beyond this zoom level every mood event gets its own marker.
+     */
+    public static final int MAX_CLUSTER_ZOOM = 17;
+
+    /**
+     * Clusters this far (as a fraction of the view's size) outside the view still get markers,
+     * so small pans do not make markers pop in.
+     */
+    public static final double VIEWPORT_PADDING = 0.25;
+
+    /**
+     * Cells per axis at zoom 0 are 2^CELLS_SHIFT. Map tiles are 256 pixels, so each cell is
+     * 128 pixels across at every zoom level.
+     */
+    private static final int CELLS_SHIFT = 1;
+
+    /**
+     * Web Mercator does not reach the poles.
+     */
+    private static final double MAX_SIN_LATITUDE = Math.sin(Math.toRadians(85.05112878));
+
+    /**
+     * Mood events that are drawn together.
+     */
+    public static class Cluster {
+        private final int level;
+        private final long column;
+        private final long row;
+        private final List<MoodEvent> moods = new ArrayList<>();
+        private final int[] emotionCounts = new int[Emotion.values().length];
+        private double sumX;
+        private double sumY;
+        private double latitude;
+        private double longitude;
+        private double x;
+        private double y;
+
+        Cluster(int level, long column, long row) {
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        private void add(MoodEvent mood, double x, double y) {
+            moods.add(mood);
+            emotionCounts[mood.getEmotion().ordinal()]++;
+            sumX += x;
+            sumY += y;
+        }
+
+        /**
+         * Place the cluster at the mean position of its mood events.
+         */
+        private void finish() {
+            x = sumX / moods.size();
+            y = sumY / moods.size();
+            latitude = toLatitude(y);
+            longitude = toLongitude(x);
+        }
+
+        /**
+         * @return Identifies the cluster: the mood event ID for a single mood event, otherwise
+         *         its grid cell
+         */
+        @NonNull
+        public String getKey() {
+            if (moods.size() == 1) {
+                return moods.get(0).getId();
+            }
+            return level + "/" + column + "/" + row;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        /**
+         * @return Number of mood events in the cluster
+         */
+        public int getSize() {
+            return moods.size();
+        }
+
+        /**
+         * @return Mood events in the cluster, in the order they were given
+         */
+        @NonNull
+        public List<MoodEvent> getMoods() {
+            return Collections.unmodifiableList(moods);
+        }
+
+        /**
+         * @return The only mood event of a single mood event cluster, otherwise null
+         */
+        @Nullable
+        public MoodEvent getMood() {
+            return moods.size() == 1 ? moods.get(0) : null;
+        }
+
+        /**
+         * @param emotion Emotion to count
+         * @return Number of mood events in the cluster with that emotion
+         */
+        public int getEmotionCount(@NonNull Emotion emotion) {
+            return emotionCounts[emotion.ordinal()];
+        }
+
+        /**
+         * @return The most common emotion in the cluster, the first in declaration order on ties
+         */
+        @NonNull
+        public Emotion getDominantEmotion() {
+            Emotion[] emotions = Emotion.values();
+            int best = 0;
+            for (int i = 1; i < emotions.length; i++) {
+                if (emotionCounts[i] > emotionCounts[best]) {
+                    best = i;
+                }
+            }
+            return emotions[best];
+        }
+
+        /**
+         * @return The emotions in the cluster, most common first, e.g. "3 Happy, 1 Sad"
+         */
+        @NonNull
+        public String getBreakdown() {
+            List<Emotion> present = new ArrayList<>();
+            for (Emotion emotion : Emotion.values()) {
+                if (emotionCounts[emotion.ordinal()] > 0) {
+                    present.add(emotion);
+                }
+            }
+            // Stable, so ties stay in declaration order
+            Collections.sort(present, (a, b) -> emotionCounts[b.ordinal()] - emotionCounts[a.ordinal()]);
+            StringBuilder breakdown = new StringBuilder();
+            for (Emotion emotion : present) {
+                if (breakdown.length() > 0) {
+                    breakdown.append(", ");
+                }
+                breakdown.append(emotionCounts[emotion.ordinal()]).append(' ').append(emotion);
+            }
+            return breakdown.toString();
+        }
+    }
+
+    private final List<MoodEvent> moods;
+    private final double[] xs;
+    private final double[] ys;
+    private final Map<Integer, List<Cluster>> clustersByZoom = new HashMap<>();
+
+    /**
+     * @param moods Mood events to cluster; those without a location are left out
+     */
+    public MoodClusterer(@NonNull List<MoodEvent> moods) {
+        this.moods = new ArrayList<>(moods.size());
+        for (MoodEvent mood : moods) {
+            if (mood.hasLocation()) {
+                this.moods.add(mood);
+            }
+        }
+        xs = new double[this.moods.size()];
+        ys = new double[this.moods.size()];
+        for (int i = 0; i < this.moods.size(); i++) {
+            MoodEvent mood = this.moods.get(i);
+            xs[i] = toX(mood.getLongitude());
+            ys[i] = toY(mood.getLatitude());
+        }
+    }
+
+    /**
+     * @return Number of mood events being clustered
+     */
+    public int size() {
+        return moods.size();
+    }
+
+    /**
+     * Cluster the mood events for a zoom level. Results are kept, so returning to a zoom level
+     * is free.
+     * @param zoom Camera zoom level; fractional levels use the level below
+     * @return Clusters, in the order their first mood event was given
+     */
+    @NonNull
+    public synchronized List<Cluster> cluster(float zoom) {
+        int level = Math.max(0, (int) Math.floor(zoom));
+        if (level > MAX_CLUSTER_ZOOM) {
+            level = MAX_CLUSTER_ZOOM + 1;
+        }
+        List<Cluster> clusters = clustersByZoom.get(level);
+        if (clusters == null) {
+            clusters = level > MAX_CLUSTER_ZOOM ? singles() : grid(level);
+            clustersByZoom.put(level, clusters);
+        }
+        return clusters;
+    }
+
+    private List<Cluster> singles() {
+        List<Cluster> clusters = new ArrayList<>(moods.size());
+        for (int i = 0; i < moods.size(); i++) {
+            Cluster cluster = new Cluster(MAX_CLUSTER_ZOOM + 1, -1, -1);
+            cluster.add(moods.get(i), xs[i], ys[i]);
+            cluster.finish();
+            clusters.add(cluster);
+        }
+        return clusters;
+    }
+
+    private List<Cluster> grid(int level) {
+        long cells = 1L << (level + CELLS_SHIFT);
+        Map<Long, Cluster> byCell = new LinkedHashMap<>();
+        for (int i = 0; i < moods.size(); i++) {
+            long column = Math.min(cells - 1, (long) (xs[i] * cells));
+            long row = Math.min(cells - 1, (long) (ys[i] * cells));
+            Long cell = column * cells + row;
+            Cluster cluster = byCell.get(cell);
+            if (cluster == null) {
+                cluster = new Cluster(level, column, row);
+                byCell.put(cell, cluster);
+            }
+            cluster.add(moods.get(i), xs[i], ys[i]);
+        }
+
+        List<Cluster> clusters = new ArrayList<>(byCell.size());
+        for (Cluster cluster : byCell.values()) {
+            cluster.finish();
+            clusters.add(cluster);
+        }
+        return clusters;
+    }
+
+    /**
+     * Keep the clusters within a view, padded by {@link #VIEWPORT_PADDING}.
+     * @param clusters Clusters to cull
+     * @param south Southern edge of the view
+     * @param west Western edge of the view; east of the eastern edge when the view crosses the
+     *             anti-meridian
+     * @param north Northern edge of the view
+     * @param east Eastern edge of the view
+     * @return Clusters in view
+     */
+    @NonNull
+    public static List<Cluster> visible(@NonNull List<Cluster> clusters,
+                                        double south, double west, double north, double east) {
+        double minX = toX(west);
+        double maxX = toX(east);
+        if (maxX < minX) {
+            maxX += 1;
+        }
+        double minY = toY(north);
+        double maxY = toY(south);
+        double padX = (maxX - minX) * VIEWPORT_PADDING;
+        double padY = (maxY - minY) * VIEWPORT_PADDING;
+        minX -= padX;
+        maxX += padX;
+        minY -= padY;
+        maxY += padY;
+
+        List<Cluster> visible = new ArrayList<>();
+        if (maxX - minX >= 1) {
+            // The whole world is across
+            minX = 0;
+            maxX = 1;
+        }
+        for (Cluster cluster : clusters) {
+            if (cluster.y < minY || cluster.y > maxY) {
+                continue;
+            }
+            // Also try the cluster one world over, for views that wrap around
+            if ((cluster.x >= minX && cluster.x <= maxX)
+                    || (cluster.x + 1 >= minX && cluster.x + 1 <= maxX)
+                    || (cluster.x - 1 >= minX && cluster.x - 1 <= maxX)) {
+                visible.add(cluster);
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * @return Web Mercator x, from 0 at -180° to 1 at 180°
+     */
+    static double toX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    /**
+     * @return Web Mercator y, from 0 at the top of the map to 1 at the bottom
+     */
+    static double toY(double latitude) {
+        double sin = Math.max(-MAX_SIN_LATITUDE, Math.min(MAX_SIN_LATITUDE, Math.sin(Math.toRadians(latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    static double toLongitude(double x) {
+        return x * 360 - 180;
+    }
+
+    static double toLatitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+}
@@ -36,7 +36,7 @@ import com.google.firebase.firestore.FirebaseFirestore;
 import com.kernelcrew.moodapp.R;
 import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.data.MoodEventProvider;
-import com.kernelcrew.moodapp.data.UserProvider;
+import com.kernelcrew.moodapp.data.UsernameResolver;
 
 public class MoodDetails extends Fragment implements DeleteDialogFragment.DeleteDialogListener {
 
@@ -161,12 +161,18 @@ public class MoodDetails extends Fragment implements DeleteDialogFragment.Delete
         int moodImageRes = getMoodIconResource(moodEvent.getEmotion().toString());
         imageMoodIcon.setImageResource(moodImageRes);
 
-        // Conditionally display photo
-        Bitmap photo = moodEvent.getPhoto();
-        if (photo != null) {
-            ivMoodPhoto.setImageBitmap(photo);
+        // Conditionally display photo, fetching and decoding it off the main thread only once the
+        // card is shown
+        if (moodEvent.hasPhoto()) {
             tvPhotoLabel.setVisibility(View.VISIBLE);
             cardPhoto.setVisibility(View.VISIBLE);
+            provider.loadPhoto(moodEvent)
+                    .addOnSuccessListener(photo -> {
+                        if (photo != null && isAdded()) {
+                            ivMoodPhoto.setImageBitmap(photo);
+                        }
+                    })
+                    .addOnFailureListener(e -> Log.e("MoodDetails", "Failed to load mood photo", e));
         } else {
             tvPhotoLabel.setVisibility(View.GONE);
             cardPhoto.setVisibility(View.GONE);
@@ -190,9 +196,9 @@ public class MoodDetails extends Fragment implements DeleteDialogFragment.Delete
                 break;
         }
 
-        // Fetch username via UserProvider
+        // Fetch username via UsernameResolver
         if (userId != null && !userId.isEmpty()) {
-            UserProvider.getInstance().fetchUsername(userId)
+            UsernameResolver.getInstance().resolve(userId)
                     .addOnSuccessListener(username -> {
                         tvUsernameDisplay.setText("@" + username);
                         // Navigate to OtherUserProfile on click
@@ -223,7 +229,7 @@ public class MoodDetails extends Fragment implements DeleteDialogFragment.Delete
 
                     if (moodEvent.getLatitude() != null && moodEvent.getLongitude() != null) {
                         LatLng location = new LatLng(moodEvent.getLatitude(), moodEvent.getLongitude());
-                        BitmapDescriptor icon = EmotionIconUtils.getEmotionIcon(requireContext(), moodEvent.getEmotion().toString());
+                        BitmapDescriptor icon = EmotionIconUtils.getEmotionIcon(requireContext(), moodEvent.getEmotion());
                         googleMap.clear();
                         googleMap.addMarker(new MarkerOptions()
                                 .position(location)
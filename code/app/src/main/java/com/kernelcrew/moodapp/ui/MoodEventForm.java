@@ -26,6 +26,8 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 import java.util.Calendar;
 
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.android.material.button.MaterialButtonToggleGroup;
 import com.google.android.material.textfield.TextInputEditText;
 import com.kernelcrew.moodapp.R;
@@ -55,10 +57,15 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
     private Double currentLatitude = null;
     private Double currentLongitude = null;
     private Bitmap photo;
+    // Encodings of a newly picked photo and its thumbnail, started as soon as it is picked
+    private Task<byte[]> photoData;
+    private Task<byte[]> thumbnailData;
+    private boolean photoChanged = false;
     private ImageButton photoButton;
     private Button photoResetButton;
     private TextView photoButtonError;
     private MaterialButtonToggleGroup visibilityToggle;
+    private Button submitButton;
 
     private LocationFragment locationFragment;
 
@@ -74,6 +81,9 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
      */
     private void resetPhoto() {
         photo = null;
+        photoData = null;
+        thumbnailData = null;
+        photoChanged = true;
         photoButton.setImageResource(R.drawable.upload_splash);
 
         updateResetPhotoVisibility();
@@ -87,6 +97,10 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
     private void setImageFromBitmap(Bitmap bitmap) {
         Log.i("MoodEventForm", "here");
         photo = bitmap;
+        // Compress it off the main thread while the rest of the form is filled in
+        photoData = PhotoUtils.compressPhotoAsync(bitmap);
+        thumbnailData = PhotoUtils.createThumbnailAsync(bitmap);
+        photoChanged = true;
         photoButton.setImageBitmap(bitmap);
         updateResetPhotoVisibility();
     }
@@ -127,6 +141,19 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
         Double lat;
         Double lon;
         Bitmap photo;
+        /**
+         * WEBP encoding of a newly picked photo, or null if the photo was not changed.
+         */
+        byte[] photoData;
+        /**
+         * Thumbnail of a newly picked photo, or null if the photo was not changed.
+         */
+        byte[] thumbnailData;
+        /**
+         * Whether the user picked or removed the photo. When false, an edited mood event keeps
+         * its stored photo as is, even if it could not be loaded into the form.
+         */
+        boolean photoChanged;
         MoodEventVisibility visibility;
 
         Date timestamp;
@@ -168,7 +195,11 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
                     lon
             );
 
-            moodEvent.setPhoto(photo);
+            if (photo != null && photoData != null && thumbnailData != null) {
+                moodEvent.setPhoto(photo, photoData, thumbnailData);
+            } else {
+                moodEvent.setPhoto(photo);
+            }
             moodEvent.setVisibility(visibility);
             moodEvent.setCreated(timestamp);
 
@@ -198,6 +229,9 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
             photoButton.setImageBitmap(details.photo);
             updateResetPhotoVisibility();
         }
+        photoData = null;
+        thumbnailData = null;
+        photoChanged = false;
 
         visibilityToggle.clearChecked();
         switch (details.visibility) {
@@ -219,6 +253,14 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
         photoButtonError.setLayoutParams(layoutParams);
     }
 
+    private void showPhotoButtonError(String error) {
+        photoButtonError.setText(error);
+
+        ViewGroup.LayoutParams layoutParams = photoButtonError.getLayoutParams();
+        layoutParams.height = ViewGroup.LayoutParams.WRAP_CONTENT;
+        photoButtonError.setLayoutParams(layoutParams);
+    }
+
     private @Nullable MoodEventDetails validateFields() {
         MoodEventDetails details = new MoodEventDetails();
 
@@ -241,15 +283,7 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
         }
 
         details.photo = photo;
-        if (photo != null && PhotoUtils.compressPhoto(photo).size() > 65536) {
-            Log.i("MoodEventForm", "Image too large");
-            photoButtonError.setText("Image too large");
-
-            ViewGroup.LayoutParams layoutParams = photoButtonError.getLayoutParams();
-            layoutParams.height = ViewGroup.LayoutParams.WRAP_CONTENT;
-            photoButtonError.setLayoutParams(layoutParams);
-            return null;
-        }
+        details.photoChanged = photoChanged;
 
         int checkedButton = visibilityToggle.getCheckedButtonId();
         if (checkedButton == R.id.visible_public_button) {
@@ -273,7 +307,30 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
         }
         Log.d("MoodEventForm", "Submitting form with location: lat=" + details.lat + ", lon=" + details.lon);
 
-        callback.handleSubmit(details);
+        if (photoData == null) {
+            callback.handleSubmit(details);
+            return;
+        }
+
+        // Wait for the photo to finish compressing, which it usually has by now
+        Task<byte[]> pendingPhoto = photoData;
+        Task<byte[]> pendingThumbnail = thumbnailData;
+        submitButton.setEnabled(false);
+        Tasks.whenAll(pendingPhoto, pendingThumbnail).addOnCompleteListener(task -> {
+            submitButton.setEnabled(true);
+            if (pendingPhoto != photoData) {
+                // Replaced or removed in the meantime
+                return;
+            }
+            if (!task.isSuccessful()) {
+                Log.e("MoodEventForm", "Failed to compress photo", task.getException());
+                showPhotoButtonError("Image could not be processed");
+                return;
+            }
+            details.photoData = pendingPhoto.getResult();
+            details.thumbnailData = pendingThumbnail.getResult();
+            callback.handleSubmit(details);
+        });
     }
 
     public MoodEventForm() {
@@ -302,7 +359,7 @@ public class MoodEventForm extends Fragment implements LocationUpdateListener {
         super.onViewCreated(view, savedInstanceState);
 
 
-        Button submitButton = view.findViewById(R.id.submit_button);
+        submitButton = view.findViewById(R.id.submit_button);
         timestampInput = view.findViewById(R.id.timestamp_input);
         timestampInput.setText(formatDate(selectedDate));
         timestampInput.setOnClickListener(v -> openDateTimePicker());
@@ -0,0 +1,150 @@
+package com.kernelcrew.moodapp.ui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RadialGradient;
+import android.graphics.Shader;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.GeoHash;
+import com.kernelcrew.moodapp.data.MoodHeatmapCell;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Draws the mood heatmap as map tiles: a glow over each heatmap cell in the color of its most
+ * common emotion, stronger the more mood events it holds. Tiles are drawn on the map's own
+ * background threads from the last cells given to {@link #setCells}; clear the overlay's tile
+ * cache afterwards to redraw.
+ */
+public class MoodHeatmapTileProvider implements TileProvider {
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * Opacity of the busiest cell, out of 255.
+     */
+    private static final int MAX_ALPHA = 200;
+
+    /**
+     * The cells to draw, replaced as a whole so tiles never see half an update.
+     */
+    private static class Snapshot {
+        final List<MoodHeatmapCell> cells;
+        final Set<Emotion> emotions;
+        final long maxCount;
+
+        Snapshot(List<MoodHeatmapCell> cells, Set<Emotion> emotions) {
+            this.cells = cells;
+            this.emotions = emotions;
+            long max = 0;
+            for (MoodHeatmapCell cell : cells) {
+                max = Math.max(max, cell.count(emotions));
+            }
+            this.maxCount = max;
+        }
+    }
+
+    private final int[] colors = new int[Emotion.values().length];
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), Collections.emptySet());
+
+    /**
+     * @param context Context to resolve the emotion colors with
+     */
+    public MoodHeatmapTileProvider(@NonNull Context context) {
+        for (Emotion emotion : Emotion.values()) {
+            colors[emotion.ordinal()] = ContextCompat.getColor(context, emotion.getColorRes());
+        }
+    }
+
+    /**
+     * Set the cells to draw.
+     * @param cells Heatmap cells, all of one precision
+     * @param emotions Emotions to count, or all of them if empty
+     */
+    public void setCells(@NonNull List<MoodHeatmapCell> cells, @NonNull Set<Emotion> emotions) {
+        snapshot = new Snapshot(new ArrayList<>(cells), new HashSet<>(emotions));
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        Snapshot current = snapshot;
+        if (current.maxCount <= 0) {
+            return NO_TILE;
+        }
+
+        double worldSize = (double) TILE_SIZE * (1L << zoom);
+        double left = (double) x * TILE_SIZE;
+        double top = (double) y * TILE_SIZE;
+        Bitmap bitmap = null;
+        Canvas canvas = null;
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        for (MoodHeatmapCell cell : current.cells) {
+            long count = cell.count(current.emotions);
+            Emotion emotion = cell.dominantEmotion(current.emotions);
+            if (count <= 0 || emotion == null) {
+                continue;
+            }
+            double[] bounds = GeoHash.bounds(cell.getCell());
+            double cellLeft = MoodClusterer.toX(bounds[1]) * worldSize - left;
+            double cellRight = MoodClusterer.toX(bounds[3]) * worldSize - left;
+            double cellTop = MoodClusterer.toY(bounds[2]) * worldSize - top;
+            double cellBottom = MoodClusterer.toY(bounds[0]) * worldSize - top;
+            // The glow reaches a little past the cell so neighbouring cells blend
+            float radius = (float) Math.max(cellRight - cellLeft, cellBottom - cellTop) * 0.75f;
+            float centerX = (float) (cellLeft + cellRight) / 2;
+            float centerY = (float) (cellTop + cellBottom) / 2;
+            if (centerX + radius < 0 || centerX - radius > TILE_SIZE
+                    || centerY + radius < 0 || centerY - radius > TILE_SIZE) {
+                continue;
+            }
+
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+                canvas = new Canvas(bitmap);
+            }
+            int color = colors[emotion.ordinal()];
+            int alpha = Math.round(MAX_ALPHA * intensity(count, current.maxCount));
+            paint.setShader(new RadialGradient(centerX, centerY, Math.max(1f, radius),
+                    Color.argb(alpha, Color.red(color), Color.green(color), Color.blue(color)),
+                    Color.argb(0, Color.red(color), Color.green(color), Color.blue(color)),
+                    Shader.TileMode.CLAMP));
+            canvas.drawCircle(centerX, centerY, radius, paint);
+        }
+        if (bitmap == null) {
+            return NO_TILE;
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+        bitmap.recycle();
+        return new Tile(TILE_SIZE, TILE_SIZE, png.toByteArray());
+    }
+
+    /**
+     * How strongly to draw a cell, on a log scale so a few busy cities do not wash out
+     * everywhere else.
+     * @param count Mood events in the cell
+     * @param maxCount Mood events in the busiest cell
+     * @return Intensity from 0 to 1
+     */
+    static float intensity(long count, long maxCount) {
+        if (count <= 0 || maxCount <= 0) {
+            return 0;
+        }
+        // At least a quarter, so a single mood event is still visible
+        return 0.25f + 0.75f * (float) (Math.log1p(count) / Math.log1p(maxCount));
+    }
+}
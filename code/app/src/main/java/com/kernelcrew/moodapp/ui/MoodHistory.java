@@ -23,6 +23,7 @@ import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.kernelcrew.moodapp.R;
 import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.data.MoodEventPager;
 import com.kernelcrew.moodapp.data.MoodEventProvider;
 import com.kernelcrew.moodapp.ui.components.DefaultFilterBarFragment;
 import com.kernelcrew.moodapp.ui.components.FilterBarFragment;
@@ -49,8 +50,11 @@ public class MoodHistory extends DefaultFilterBarFragment implements MoodHistory
     /** Provider for accessing mood events data */
     private MoodEventProvider provider;
 
-    /** Firebase ListenerRegistration so we can remove it when needed */
-    private ListenerRegistration snapshotListener;
+    /** Mood events loaded per page */
+    private static final int PAGE_SIZE = 20;
+
+    /** Pager listening to the first page of mood events, so we can remove it when needed */
+    private MoodEventPager snapshotListener;
 
     /** Child fragment that handles search & filter UI */
     private FilterBarFragment searchNFilterFragment;
@@ -66,6 +70,22 @@ public class MoodHistory extends DefaultFilterBarFragment implements MoodHistory
 
         adapter = new MoodHistoryAdapter(new ArrayList<>(), this);
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new PaginationScrollListener() {
+            @Override
+            protected boolean isLoading() {
+                return snapshotListener == null || snapshotListener.isLoading();
+            }
+
+            @Override
+            protected boolean hasMore() {
+                return snapshotListener != null && snapshotListener.hasMore();
+            }
+
+            @Override
+            protected void loadMore() {
+                snapshotListener.loadNextPage();
+            }
+        });
 
         toolbar.setNavigationOnClickListener(v -> handleBackButton());
 
@@ -90,17 +110,23 @@ public class MoodHistory extends DefaultFilterBarFragment implements MoodHistory
                     snapshotListener = null;
                 }
 
-                snapshotListener = filter.buildQuery().addSnapshotListener((snapshots, error) -> {
+                // Show matches among the loaded mood events until the new query answers
+                List<MoodEvent> preview = searchNFilterFragment.getReasonPreview();
+                if (preview != null) {
+                    adapter.setMoods(preview);
+                }
+
+                snapshotListener = provider.paginate(filter, PAGE_SIZE, (documents, error) -> {
                     if (error != null) {
                         Log.w("MoodHistory", "Listen failed.", error);
                         return;
                     }
-                    if (snapshots == null) {
+                    if (documents == null) {
                         Log.w("MoodHistory", "No snapshot data received.");
                         return;
                     }
                     List<MoodEvent> moodList = new ArrayList<>();
-                    for (DocumentSnapshot doc : snapshots.getDocuments()) {
+                    for (DocumentSnapshot doc : documents) {
                         MoodEvent mood = doc.toObject(MoodEvent.class);
                         if (mood != null) {
                             mood.setId(doc.getId());
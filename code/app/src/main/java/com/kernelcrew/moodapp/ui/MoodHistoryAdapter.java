@@ -7,6 +7,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.kernelcrew.moodapp.data.MoodEvent;
@@ -14,7 +15,6 @@ import com.kernelcrew.moodapp.R;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
@@ -25,12 +25,11 @@ import java.util.Locale;
  * This adapter manages the display of mood events in a list format. It shows the date
  * and sequential numbering of each mood event. It also handles click events on items
  * through the {@link OnItemClickListener} interface.
+ * New lists are diffed against the current one on a background thread, so only the rows
+ * which changed are rebound.
  *
  */
-public class MoodHistoryAdapter extends RecyclerView.Adapter<MoodHistoryAdapter.MoodViewHolder> {
-    /** List of mood events to display */
-    private List<MoodEvent> moods;
-
+public class MoodHistoryAdapter extends ListAdapter<MoodEvent, MoodHistoryAdapter.MoodViewHolder> {
 
     /** Date formatter for displaying the mood event creation date */
     private SimpleDateFormat dateFormat = new SimpleDateFormat("MMM d, yyyy", Locale.ENGLISH);
@@ -55,22 +54,34 @@ public class MoodHistoryAdapter extends RecyclerView.Adapter<MoodHistoryAdapter.
      * @param listener Callback for item click events
      */
     public MoodHistoryAdapter(List<MoodEvent> moods, OnItemClickListener listener) {
-        this.moods = moods != null ? moods : new ArrayList<>();
+        super(ListDiffs.MOOD_EVENTS);
+        setHasStableIds(true);
         this.listener = listener;
+        submitList(moods != null ? new ArrayList<>(moods) : new ArrayList<>());
     }
 
     /**
      * Updates the adapter's data set with a new list of mood events.
      * <p>
-     * Replaces the existing list of mood events and notifies the adapter to
-     * refresh the RecyclerView.
+     * Replaces the existing list of mood events; only the rows which were added, removed,
+     * moved or changed are updated in the RecyclerView.
      * </p>
      *
      * @param moods New list of mood events to display
      */
     public void setMoods(List<MoodEvent> moods) {
-        this.moods = moods;
-        notifyDataSetChanged();
+        submitList(moods != null ? new ArrayList<>(moods) : new ArrayList<>());
+    }
+
+    /**
+     * Returns a stable id for the mood event at a position, derived from its id.
+     *
+     * @param position The position of the item in the data set
+     * @return The item id
+     */
+    @Override
+    public long getItemId(int position) {
+        return ListDiffs.stableIdOf(getItem(position).getId());
     }
 
 
@@ -95,8 +106,8 @@ public class MoodHistoryAdapter extends RecyclerView.Adapter<MoodHistoryAdapter.
     /**
      * Binds data to the ViewHolder at the specified position.
      * <p>
-     * Sets the date and event number text, and configures the click listener
-     * for the item view.
+     * Sets the date and event number text, shows the photo thumbnail if there is
+     * one, and configures the click listener for the item view.
      * </p>
      *
      * @param holder The ViewHolder to bind data to
@@ -104,7 +115,7 @@ public class MoodHistoryAdapter extends RecyclerView.Adapter<MoodHistoryAdapter.
      */
     @Override
     public void onBindViewHolder(@NonNull MoodViewHolder holder, int position) {
-        MoodEvent mood = moods.get(position);
+        MoodEvent mood = getItem(position);
 
         // Convert timestamp to formatted date
         String formattedDate = dateFormat.format(mood.getCreated());
@@ -114,6 +125,8 @@ public class MoodHistoryAdapter extends RecyclerView.Adapter<MoodHistoryAdapter.
         // Display the mood type (emotion) instead of a sequential number
         holder.textMoodEventNumber.setText(mood.getEmotion().toString());
 
+        ThumbnailBinder.bind(holder.photoThumbnail, mood);
+
         // Set click listener on the item view
         holder.itemView.setOnClickListener(v -> {
             if (listener != null) {
@@ -123,17 +136,6 @@ public class MoodHistoryAdapter extends RecyclerView.Adapter<MoodHistoryAdapter.
     }
 
 
-    /**
-     * Returns the total number of items in the data set.
-     *
-     * @return The number of mood events in the list
-     */
-    @Override
-    public int getItemCount() {
-        return moods.size();
-    }
-
-
     /**
      * Returns a copy of the current list of mood events.
      * <p>
@@ -143,7 +145,7 @@ public class MoodHistoryAdapter extends RecyclerView.Adapter<MoodHistoryAdapter.
      * @return A copy of the current list of mood events
      */
     public List<MoodEvent> getItems() {
-        return new ArrayList<>(moods);
+        return new ArrayList<>(getCurrentList());
     }
 
 
@@ -156,11 +158,13 @@ public class MoodHistoryAdapter extends RecyclerView.Adapter<MoodHistoryAdapter.
     public class MoodViewHolder extends RecyclerView.ViewHolder {
         public TextView textDate;
         public TextView textMoodEventNumber;
+        public ImageView photoThumbnail;
 
         public MoodViewHolder(@NonNull View itemView) {
             super(itemView);
             textDate = itemView.findViewById(R.id.textDate);
             textMoodEventNumber = itemView.findViewById(R.id.textMoodEventNumber);
+            photoThumbnail = itemView.findViewById(R.id.moodPhotoThumbnail);
         }
     }
 }
\ No newline at end of file
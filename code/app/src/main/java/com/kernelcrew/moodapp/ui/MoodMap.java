@@ -9,6 +9,7 @@ import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -26,6 +27,7 @@ import androidx.fragment.app.FragmentTransaction;
 import androidx.navigation.NavController;
 import androidx.navigation.Navigation;
 
+import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationRequest;
@@ -33,30 +35,75 @@ import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.MapsInitializer;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.Circle;
 import com.google.android.gms.maps.model.CircleOptions;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
 import com.google.android.material.navigation.NavigationBarView;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
 import com.kernelcrew.moodapp.R;
+import com.kernelcrew.moodapp.data.GeoHash;
 import com.kernelcrew.moodapp.data.LocationHandler;
 import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.data.MoodEventFilter;
+import com.kernelcrew.moodapp.data.MoodHeatmapCell;
+import com.kernelcrew.moodapp.data.MoodHeatmapWorker;
+import com.kernelcrew.moodapp.data.ViewportLoader;
 import com.kernelcrew.moodapp.ui.components.DefaultFilterBarFragment;
 import com.kernelcrew.moodapp.ui.components.FilterBarFragment;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class MoodMap extends Fragment implements OnMapReadyCallback, FilterBarFragment.OnFilterChangedListener {
+    /**
+     * Clustering runs here so that thousands of mood events never hold up the main thread. A
+     * single thread keeps the clusterer's work in order.
+     */
+    private static final Executor CLUSTER_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Keeps the user's own marker above the mood markers, which stay at the default of 0.
+     */
+    private static final float USER_MARKER_Z_INDEX = 1f;
+
+    /**
+     * Time the camera must rest before the view is loaded, in ms.
+     */
+    private static final long VIEWPORT_DEBOUNCE_MS = 300;
+
+    /**
+     * Most geohash cells (tiles) a view is loaded as; fewer means coarser cells.
+     */
+    private static final int MAX_VIEW_TILES = 12;
+
+    /**
+     * Views needing cells coarser than this (about 150 km across) are too zoomed out to load
+     * mood by mood, so they show the heatmap instead.
+     */
+    private static final int MIN_TILE_PRECISION = 3;
+
+    /**
+     * Most mood events read per tile when the filter has no limit of its own.
+     */
+    private static final int MAX_MOODS_PER_TILE = 500;
 
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
@@ -65,10 +112,23 @@ public class MoodMap extends Fragment implements OnMapReadyCallback, FilterBarFr
     private FilterBarFragment filterBarFragment;
     private MoodEventFilter currentFilter;
     private LatLng currentUserLocation;
-    private ListenerRegistration reg;
     private Marker userMarker;
     private CheckBox moodToggle;
 
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private MoodClusterer clusterer;
+    // Incremented for every clustering request, so results for an older one can be dropped
+    private int clusterGeneration = 0;
+    private MarkerRegistry<Marker> moodMarkers;
+    private Circle radiusCircle;
+    private ViewportLoader viewportLoader;
+    private final Runnable loadViewport = this::loadViewport;
+    private MoodHeatmapTileProvider heatmapTiles;
+    private TileOverlay heatmapOverlay;
+    private final List<ListenerRegistration> heatmapRegistrations = new ArrayList<>();
+    private List<String> heatmapViewCells = Collections.emptyList();
+    private boolean heatmapMode = false;
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
@@ -84,6 +144,11 @@ public class MoodMap extends Fragment implements OnMapReadyCallback, FilterBarFr
         super.onViewCreated(view, savedInstanceState);
         navBarController.bind(view);
 
+        // Draw the emotion icons while the map loads, rather than for its first markers
+        if (MapsInitializer.initialize(requireContext()) == ConnectionResult.SUCCESS) {
+            EmotionIconUtils.prewarm(requireContext());
+        }
+
         // Setup map fragment
         SupportMapFragment mapFragment = (SupportMapFragment) getChildFragmentManager().findFragmentById(R.id.map);
         if (mapFragment != null) {
@@ -118,19 +183,18 @@ public class MoodMap extends Fragment implements OnMapReadyCallback, FilterBarFr
                 if (moodMap != null) {
                     moodMap.animateCamera(CameraUpdateFactory.newLatLngZoom(currentUserLocation, 15f));
                     // Add marker for user's current location
-                    MarkerOptions options = new MarkerOptions()
-                            .position(currentUserLocation)
-                            .title("You are here")
-                            .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE));
-                    userMarker = moodMap.addMarker(options);
+                    if (userMarker == null) {
+                        MarkerOptions options = new MarkerOptions()
+                                .position(currentUserLocation)
+                                .title("You are here")
+                                .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE))
+                                .zIndex(USER_MARKER_Z_INDEX);
+                        userMarker = moodMap.addMarker(options);
+                    } else {
+                        userMarker.setPosition(currentUserLocation);
+                    }
                 }
-                // Update filter with current location (e.g., radius 5 km)
-                filterBarFragment.updateFilter(filter -> filter.setLocation(
-                        currentUserLocation.latitude,
-                        currentUserLocation.longitude,
-                        5.0));
-
-                loadMoodEventsOnMap();
+                // Moving the camera loads the mood events around the user
             }
 
             @Override
@@ -177,6 +241,14 @@ public class MoodMap extends Fragment implements OnMapReadyCallback, FilterBarFr
             @Override
             public boolean onMarkerClick(Marker marker) {
                 Object tag = marker.getTag();
+                if (tag instanceof MoodClusterer.Cluster) {
+                    // Zoom in until the cluster splits up
+                    MoodClusterer.Cluster cluster = (MoodClusterer.Cluster) tag;
+                    LatLng position = new LatLng(cluster.getLatitude(), cluster.getLongitude());
+                    moodMap.animateCamera(CameraUpdateFactory.newLatLngZoom(position,
+                            moodMap.getCameraPosition().zoom + 2));
+                    return true;
+                }
                 if (tag != null && tag instanceof String) {
                     String moodEventId = (String) tag;
                     Bundle args = new Bundle();
@@ -190,6 +262,32 @@ public class MoodMap extends Fragment implements OnMapReadyCallback, FilterBarFr
             }
         });
 
+        moodMap.setOnCameraIdleListener(this::onCameraIdle);
+        // Wait for the camera to come to rest again before loading
+        moodMap.setOnCameraMoveStartedListener(reason -> mainHandler.removeCallbacks(loadViewport));
+        viewportLoader = new ViewportLoader(this::listenToTile, this::showMoodEvents);
+        heatmapTiles = new MoodHeatmapTileProvider(requireContext());
+        heatmapOverlay = moodMap.addTileOverlay(new TileOverlayOptions()
+                .tileProvider(heatmapTiles)
+                .fadeIn(true)
+                .visible(false));
+        moodMarkers = new MarkerRegistry<>(new MarkerRegistry.Renderer<Marker>() {
+            @Override
+            public Marker add(@NonNull MoodClusterer.Cluster cluster) {
+                return addClusterMarker(cluster);
+            }
+
+            @Override
+            public void update(@NonNull Marker marker, @NonNull MoodClusterer.Cluster cluster) {
+                updateClusterMarker(marker, cluster);
+            }
+
+            @Override
+            public void remove(@NonNull Marker marker) {
+                marker.remove();
+            }
+        });
+
         if (currentUserLocation != null) {
             moodMap.animateCamera(CameraUpdateFactory.newLatLngZoom(currentUserLocation, 12f));
         }
@@ -200,71 +298,318 @@ public class MoodMap extends Fragment implements OnMapReadyCallback, FilterBarFr
         if (moodMap == null || currentFilter == null)
             return;
 
-        moodMap.clear();
+        // Drop the previous filter's mood events, including any clustering still running
+        moodMarkers.clear();
+        clusterer = null;
+        clusterGeneration++;
+        drawFilterRadius();
+        viewportLoader.setFilter(currentFilter);
+        if (heatmapMode) {
+            listenToHeatmap(heatmapViewCells);
+        }
+    }
 
+    /**
+     * Load the tiles of the map in view, once the camera rested for
+     * {@link #VIEWPORT_DEBOUNCE_MS}.
+     */
+    private void loadViewport() {
+        if (moodMap == null || viewportLoader == null || !isAdded()) {
+            return;
+        }
+        LatLngBounds bounds = moodMap.getProjection().getVisibleRegion().latLngBounds;
+        List<String> cells = GeoHash.cellsInBounds(bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude, MAX_VIEW_TILES);
+        if (cells.isEmpty()) {
+            return;
+        }
+        boolean zoomedOut = cells.get(0).length() < MIN_TILE_PRECISION;
+
+        // Cells outside a location filter hold nothing to show
         Double filterLat = currentFilter.getFilterLatitude();
         Double filterLon = currentFilter.getFilterLongitude();
         Double filterRadius = currentFilter.getFilterRadius();
         if (filterLat != null && filterLon != null && filterRadius != null) {
-            LatLng center = new LatLng(filterLat, filterLon);
-            CircleOptions circleOptions = new CircleOptions()
-                    .center(center)
-                    .radius(filterRadius * 1000)
-                    .strokeColor(Color.BLUE)
-                    .fillColor(0x220000FF);
-            moodMap.addCircle(circleOptions);
+            List<String> inRadius = new ArrayList<>();
+            for (String cell : cells) {
+                if (GeoHash.intersectsRadius(cell, filterLat, filterLon, filterRadius)) {
+                    inRadius.add(cell);
+                }
+            }
+            cells = inRadius;
         }
 
-        if (reg != null) {
-            reg.remove();
-            reg = null;
+        if (zoomedOut) {
+            showHeatmap(cells);
+        } else {
+            hideHeatmap();
+            viewportLoader.show(cells);
         }
+    }
+
+    /**
+     * Replace the mood markers with the heatmap of the cells in view.
+     */
+    private void showHeatmap(List<String> cells) {
+        if (!heatmapMode) {
+            heatmapMode = true;
+            // Drop the markers, including any clustering still running; they are loaded again
+            // once zoomed back in
+            viewportLoader.show(Collections.emptyList());
+            clusterGeneration++;
+            moodMarkers.clear();
+            heatmapOverlay.setVisible(true);
+        } else if (cells.equals(heatmapViewCells)) {
+            return;
+        }
+        listenToHeatmap(cells);
+    }
 
-        reg = currentFilter.buildQuery().addSnapshotListener((queryDocumentSnapshots, error) -> {
+    private void hideHeatmap() {
+        if (!heatmapMode) {
+            return;
+        }
+        heatmapMode = false;
+        removeHeatmapListeners();
+        heatmapViewCells = Collections.emptyList();
+        heatmapTiles.setCells(Collections.emptyList(), Collections.emptySet());
+        heatmapOverlay.setVisible(false);
+        heatmapOverlay.clearTileCache();
+    }
+
+    /**
+     * Listen to the heatmap cells one level finer than each cell in view, so a zoomed-out view
+     * reads a few dozen counts instead of every mood event in it.
+     */
+    private void listenToHeatmap(List<String> cells) {
+        removeHeatmapListeners();
+        heatmapViewCells = cells;
+        List<List<MoodHeatmapCell>> results = new ArrayList<>();
+        if (!currentFilter.hasOnlyEmotionAndLocationFilters()) {
+            // The counts cannot tell which mood events match the other filters
+            showHeatmapCells(results);
+            return;
+        }
+
+        for (String cell : cells) {
+            int precision = Math.max(MoodHeatmapWorker.MIN_PRECISION,
+                    Math.min(MoodHeatmapWorker.MAX_PRECISION, cell.length() + 1));
+            List<MoodHeatmapCell> cellResults = new ArrayList<>();
+            results.add(cellResults);
+            heatmapRegistrations.add(MoodHeatmapWorker.getInstance().cellsWithin(cell, precision)
+                    .addSnapshotListener((queryDocumentSnapshots, error) -> {
+                        if (error != null) {
+                            Log.e("MoodMap", "listenToHeatmap: ", error);
+                            return;
+                        }
+                        if (queryDocumentSnapshots == null) {
+                            return;
+                        }
+                        cellResults.clear();
+                        cellResults.addAll(queryDocumentSnapshots.toObjects(MoodHeatmapCell.class));
+                        showHeatmapCells(results);
+                    }));
+        }
+    }
+
+    private void showHeatmapCells(List<List<MoodHeatmapCell>> results) {
+        if (moodMap == null || !isAdded() || !heatmapMode) {
+            return;
+        }
+        Double filterLat = currentFilter.getFilterLatitude();
+        Double filterLon = currentFilter.getFilterLongitude();
+        Double filterRadius = currentFilter.getFilterRadius();
+        List<MoodHeatmapCell> cells = new ArrayList<>();
+        for (List<MoodHeatmapCell> cellResults : results) {
+            for (MoodHeatmapCell cell : cellResults) {
+                if (filterLat == null || filterLon == null || filterRadius == null
+                        || GeoHash.intersectsRadius(cell.getCell(), filterLat, filterLon, filterRadius)) {
+                    cells.add(cell);
+                }
+            }
+        }
+        heatmapTiles.setCells(cells, currentFilter.getEmotions());
+        heatmapOverlay.clearTileCache();
+    }
+
+    private void removeHeatmapListeners() {
+        for (ListenerRegistration registration : heatmapRegistrations) {
+            registration.remove();
+        }
+        heatmapRegistrations.clear();
+    }
+
+    /**
+     * Listen to the mood events of one tile, passing on only what changed in each snapshot.
+     */
+    @NonNull
+    private ListenerRegistration listenToTile(@NonNull MoodEventFilter filter, @NonNull String cell,
+                                              @NonNull ViewportLoader.TileListener listener) {
+        Query query = filter.buildQuery(new GeoHash.Range(cell, cell));
+        int limit = filter.getLimit() == null ? MAX_MOODS_PER_TILE : filter.getLimit();
+        if (filter.getLimit() == null) {
+            query = query.limit(MAX_MOODS_PER_TILE);
+        }
+        return query.addSnapshotListener((queryDocumentSnapshots, error) -> {
             if (error != null) {
-                Log.e("MoodMap", "loadMoodEventsOnMap: ", error);
+                Log.e("MoodMap", "listenToTile: ", error);
                 return;
             }
             if (queryDocumentSnapshots == null) {
                 Log.w("MoodMap", "No snapshot data received.");
                 return;
             }
-            List<MoodEvent> moodList = new ArrayList<>();
-            for (DocumentSnapshot doc : queryDocumentSnapshots.getDocuments()) {
-                MoodEvent mood = doc.toObject(MoodEvent.class);
-                if (mood != null && mood.getLatitude() != null && mood.getLongitude() != null) {
+            // Only deserialize what changed since the last snapshot
+            List<MoodEvent> changed = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            for (DocumentChange change : queryDocumentSnapshots.getDocumentChanges()) {
+                DocumentSnapshot doc = change.getDocument();
+                MoodEvent mood = change.getType() == DocumentChange.Type.REMOVED
+                        ? null : doc.toObject(MoodEvent.class);
+                if (mood != null && mood.hasLocation()) {
                     mood.setId(doc.getId());
-                    moodList.add(mood);
+                    changed.add(mood);
+                } else {
+                    removed.add(doc.getId());
                 }
             }
+            // A full tile may be missing mood events of the smaller cells within it
+            listener.onChanges(changed, removed, queryDocumentSnapshots.size() < limit);
+        });
+    }
 
-            moodList = filterBarFragment.applyLocalSearch(moodList);
-
-            float h = 1f;
-            for (MoodEvent moodEvent : moodList) {
-                LatLng position = new LatLng(moodEvent.getLatitude(), moodEvent.getLongitude());
-                MarkerOptions markerOptions = new MarkerOptions()
-                        .position(position)
-                        .title(moodEvent.getUsername())
-                        .snippet(moodEvent.getEmotion().toString())
-                        .icon(EmotionIconUtils.getEmotionIcon(requireContext(), moodEvent.getEmotion().toString()))
-                        .zIndex(h++);
-                Marker marker = moodMap.addMarker(markerOptions);
-                marker.setTag(moodEvent.getId());
-            }
+    /**
+     * Show the mood events of the tiles in view. The mood events are clustered in the
+     * background, then only the markers that changed are touched.
+     */
+    private void showMoodEvents(@NonNull List<MoodEvent> moods) {
+        if (moodMap == null || !isAdded() || heatmapMode) {
+            return;
+        }
 
-            if (currentUserLocation != null) {
-                MarkerOptions userOptions = new MarkerOptions()
-                        .position(currentUserLocation)
-                        .title("You are here")
-                        .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE))
-                        .zIndex(h);
-                userMarker = moodMap.addMarker(userOptions);
-                moodMap.animateCamera(CameraUpdateFactory.newLatLngZoom(currentUserLocation, 12f));
-            }
+        List<MoodEvent> moodList = filterBarFragment.applyLocalSearch(moods);
+
+        int generation = ++clusterGeneration;
+        float zoom = moodMap.getCameraPosition().zoom;
+        LatLngBounds bounds = moodMap.getProjection().getVisibleRegion().latLngBounds;
+        CLUSTER_EXECUTOR.execute(() -> {
+            MoodClusterer newClusterer = new MoodClusterer(moodList);
+            List<MoodClusterer.Cluster> visible = clustersInView(newClusterer, zoom, bounds);
+            mainHandler.post(() -> {
+                if (generation != clusterGeneration || moodMap == null || !isAdded()) {
+                    return;
+                }
+                clusterer = newClusterer;
+                moodMarkers.show(visible);
+            });
+        });
+    }
+
+    /**
+     * Recluster for the new zoom level and draw the clusters that came into view, then load
+     * any new tiles once the camera stays put.
+     */
+    private void onCameraIdle() {
+        if (moodMap == null) {
+            return;
+        }
+        mainHandler.removeCallbacks(loadViewport);
+        mainHandler.postDelayed(loadViewport, VIEWPORT_DEBOUNCE_MS);
+        if (clusterer == null || heatmapMode) {
+            return;
+        }
+        MoodClusterer current = clusterer;
+        int generation = ++clusterGeneration;
+        float zoom = moodMap.getCameraPosition().zoom;
+        LatLngBounds bounds = moodMap.getProjection().getVisibleRegion().latLngBounds;
+        CLUSTER_EXECUTOR.execute(() -> {
+            List<MoodClusterer.Cluster> visible = clustersInView(current, zoom, bounds);
+            mainHandler.post(() -> {
+                if (generation == clusterGeneration && moodMap != null && isAdded()) {
+                    moodMarkers.show(visible);
+                }
+            });
         });
     }
 
+    /**
+     * Runs on {@link #CLUSTER_EXECUTOR}.
+     */
+    private static List<MoodClusterer.Cluster> clustersInView(MoodClusterer clusterer, float zoom,
+                                                              LatLngBounds bounds) {
+        return MoodClusterer.visible(clusterer.cluster(zoom),
+                bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude);
+    }
+
+    /**
+     * Add the marker for a cluster in view. Single mood events keep their emotion icon and open
+     * their details; larger clusters show their size and emotion breakdown.
+     */
+    @Nullable
+    private Marker addClusterMarker(MoodClusterer.Cluster cluster) {
+        MoodEvent moodEvent = cluster.getMood();
+        MarkerOptions markerOptions = new MarkerOptions()
+                .position(new LatLng(cluster.getLatitude(), cluster.getLongitude()));
+        if (moodEvent != null) {
+            markerOptions.title(moodEvent.getUsername())
+                    .snippet(moodEvent.getEmotion().toString())
+                    .icon(EmotionIconUtils.getEmotionIcon(requireContext(), moodEvent.getEmotion()));
+        } else {
+            markerOptions.title(cluster.getSize() + " moods")
+                    .snippet(cluster.getBreakdown())
+                    .icon(EmotionIconUtils.getClusterIcon(requireContext(),
+                            cluster.getDominantEmotion(), cluster.getSize()));
+        }
+        Marker marker = moodMap.addMarker(markerOptions);
+        if (marker != null) {
+            marker.setTag(moodEvent != null ? moodEvent.getId() : cluster);
+        }
+        return marker;
+    }
+
+    /**
+     * Move and redraw the marker of a cluster that changed.
+     */
+    private void updateClusterMarker(Marker marker, MoodClusterer.Cluster cluster) {
+        MoodEvent moodEvent = cluster.getMood();
+        marker.setPosition(new LatLng(cluster.getLatitude(), cluster.getLongitude()));
+        if (moodEvent != null) {
+            marker.setTitle(moodEvent.getUsername());
+            marker.setSnippet(moodEvent.getEmotion().toString());
+            marker.setIcon(EmotionIconUtils.getEmotionIcon(requireContext(), moodEvent.getEmotion()));
+            marker.setTag(moodEvent.getId());
+        } else {
+            marker.setTitle(cluster.getSize() + " moods");
+            marker.setSnippet(cluster.getBreakdown());
+            marker.setIcon(EmotionIconUtils.getClusterIcon(requireContext(),
+                    cluster.getDominantEmotion(), cluster.getSize()));
+            marker.setTag(cluster);
+        }
+    }
+
+    /**
+     * Outline the location filter's radius, if there is one, replacing any previous outline.
+     */
+    private void drawFilterRadius() {
+        if (radiusCircle != null) {
+            radiusCircle.remove();
+            radiusCircle = null;
+        }
+        Double filterLat = currentFilter.getFilterLatitude();
+        Double filterLon = currentFilter.getFilterLongitude();
+        Double filterRadius = currentFilter.getFilterRadius();
+        if (filterLat != null && filterLon != null && filterRadius != null) {
+            LatLng center = new LatLng(filterLat, filterLon);
+            CircleOptions circleOptions = new CircleOptions()
+                    .center(center)
+                    .radius(filterRadius * 1000)
+                    .strokeColor(Color.BLUE)
+                    .fillColor(0x220000FF);
+            radiusCircle = moodMap.addCircle(circleOptions);
+        }
+    }
+
     @Override
     public void onFilterChanged(MoodEventFilter filter) {
         currentFilter = filter;
@@ -277,7 +622,8 @@ public class MoodMap extends Fragment implements OnMapReadyCallback, FilterBarFr
                 MarkerOptions options = new MarkerOptions()
                         .position(currentUserLocation)
                         .title("You are here")
-                        .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE));
+                        .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE))
+                        .zIndex(USER_MARKER_Z_INDEX);
                 userMarker = moodMap.addMarker(options);
                 moodMap.animateCamera(CameraUpdateFactory.newLatLngZoom(currentUserLocation, 12f));
             } else {
@@ -304,6 +650,18 @@ public class MoodMap extends Fragment implements OnMapReadyCallback, FilterBarFr
         fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mainHandler.removeCallbacks(loadViewport);
+        if (viewportLoader != null) {
+            viewportLoader.clear();
+        }
+        removeHeatmapListeners();
+        heatmapViewCells = Collections.emptyList();
+        heatmapMode = false;
+    }
+
     @Override
     public void onPause() {
         super.onPause();
@@ -21,10 +21,11 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
 import com.kernelcrew.moodapp.R;
 import com.kernelcrew.moodapp.data.FollowProvider;
 import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.data.MoodEventPager;
+import com.kernelcrew.moodapp.data.MoodEventProvider;
 import com.kernelcrew.moodapp.data.UserProvider;
 import com.kernelcrew.moodapp.utils.NotificationHelper;
 
@@ -43,6 +44,10 @@ public class OtherUserProfile extends Fragment {
     private Button followingButton;
     private RecyclerView publicMoodsRecyclerView;
 
+    /** Public mood events loaded per page */
+    private static final int PAGE_SIZE = 20;
+    private MoodEventPager publicMoodsPager;
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -167,6 +172,15 @@ public class OtherUserProfile extends Fragment {
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (publicMoodsPager != null) {
+            publicMoodsPager.remove();
+            publicMoodsPager = null;
+        }
+    }
+
     // Helper method for follow button logic.
     // (This is kept as a placeholder since the logic is already handled above.)
     private void setupFollowButtonLogic() {
@@ -179,43 +193,56 @@ public class OtherUserProfile extends Fragment {
         publicMoodsRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
         publicMoodsRecyclerView.setAdapter(moodAdapter);
 
-        if (uidToLoad != null) {
-            Query query = FirebaseFirestore.getInstance()
-                    .collection("moodEvents")
-                    .whereEqualTo("uid", uidToLoad)
-                    .whereEqualTo("visibility", "PUBLIC")
-                    .orderBy("created", Query.Direction.DESCENDING);
+        moodAdapter.setOnMoodClickListener(new MoodAdapter.OnMoodClickListener() {
+            @Override
+            public void onViewDetails(MoodEvent mood) {
+                Bundle args = new Bundle();
+                args.putString("moodEventId", mood.getId());
+                args.putString("sourceScreen", "otherUserProfile");
+                NavController navController = Navigation.findNavController(requireActivity(), R.id.nav_host_fragment);
+                navController.navigate(R.id.action_otherUserProfile_to_moodDetails, args);
+            }
+
+            @Override
+            public void onViewComments(MoodEvent mood) {
+                // Handle view comments action here if needed.
+            }
+        });
 
-            query.addSnapshotListener((snapshots, error) -> {
-                if (error != null) {
-                    Log.e(TAG, "Error loading public moods", error);
-                    return;
-                }
-                if (snapshots != null) {
-                    List<MoodEvent> moodList = new ArrayList<>();
-                    for (DocumentSnapshot doc : snapshots.getDocuments()) {
-                        MoodEvent mood = doc.toObject(MoodEvent.class);
-                        if (mood != null) {
-                            mood.setId(doc.getId());
-                            moodList.add(mood);
+        if (uidToLoad != null) {
+            publicMoodsPager = MoodEventProvider.getInstance().paginatePublicMoodEvents(uidToLoad, PAGE_SIZE,
+                    (documents, error) -> {
+                        if (error != null) {
+                            Log.e(TAG, "Error loading public moods", error);
+                            return;
                         }
-                    }
-                    moodAdapter.setMoods(moodList);
-                    moodAdapter.setOnMoodClickListener(new MoodAdapter.OnMoodClickListener() {
-                        @Override
-                        public void onViewDetails(MoodEvent mood) {
-                            Bundle args = new Bundle();
-                            args.putString("moodEventId", mood.getId());
-                            args.putString("sourceScreen", "otherUserProfile");
-                            NavController navController = Navigation.findNavController(requireActivity(), R.id.nav_host_fragment);
-                            navController.navigate(R.id.action_otherUserProfile_to_moodDetails, args);
-                        }
-
-                        @Override
-                        public void onViewComments(MoodEvent mood) {
-                            // Handle view comments action here if needed.
+                        if (documents != null) {
+                            List<MoodEvent> moodList = new ArrayList<>();
+                            for (DocumentSnapshot doc : documents) {
+                                MoodEvent mood = doc.toObject(MoodEvent.class);
+                                if (mood != null) {
+                                    mood.setId(doc.getId());
+                                    moodList.add(mood);
+                                }
+                            }
+                            moodAdapter.setMoods(moodList);
                         }
                     });
+
+            publicMoodsRecyclerView.addOnScrollListener(new PaginationScrollListener() {
+                @Override
+                protected boolean isLoading() {
+                    return publicMoodsPager.isLoading();
+                }
+
+                @Override
+                protected boolean hasMore() {
+                    return publicMoodsPager.hasMore();
+                }
+
+                @Override
+                protected void loadMore() {
+                    publicMoodsPager.loadNextPage();
                 }
             });
         }
@@ -0,0 +1,60 @@
+package com.kernelcrew.moodapp.ui;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Asks for the next page of a paginated list shortly before the user scrolls to its end, so the
+ * page is usually loaded by the time it is needed.
+ */
+public abstract class PaginationScrollListener extends RecyclerView.OnScrollListener {
+    /**
+     * Number of rows from the end of the list at which the next page is requested.
+     */
+    public static final int DEFAULT_PREFETCH_DISTANCE = 5;
+
+    private final int prefetchDistance;
+
+    public PaginationScrollListener() {
+        this(DEFAULT_PREFETCH_DISTANCE);
+    }
+
+    /**
+     * @param prefetchDistance Number of rows from the end of the list at which to load more
+     */
+    public PaginationScrollListener(int prefetchDistance) {
+        this.prefetchDistance = prefetchDistance;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy <= 0 || isLoading() || !hasMore()) {
+            return;
+        }
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (!(layoutManager instanceof LinearLayoutManager)) {
+            return;
+        }
+
+        int lastVisible = ((LinearLayoutManager) layoutManager).findLastVisibleItemPosition();
+        if (lastVisible >= layoutManager.getItemCount() - prefetchDistance) {
+            loadMore();
+        }
+    }
+
+    /**
+     * @return True while a page is being loaded
+     */
+    protected abstract boolean isLoading();
+
+    /**
+     * @return True if there are more pages to load
+     */
+    protected abstract boolean hasMore();
+
+    /**
+     * Load the next page.
+     */
+    protected abstract void loadMore();
+}
@@ -0,0 +1,51 @@
+package com.kernelcrew.moodapp.ui;
+
+import android.graphics.Bitmap;
+import android.view.View;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.utils.PhotoCache;
+
+/**
+ * Shows the inline photo thumbnail of a mood event in a list row.
+ * Thumbnails are decoded off the main thread and kept in the {@link PhotoCache}.
+ */
+public class ThumbnailBinder {
+    private ThumbnailBinder() { }
+
+    /**
+     * Bind a mood event's thumbnail to an ImageView, hiding the view if there is none.
+     * Safe to call from onBindViewHolder: a decode finishing after the row was recycled for
+     * another mood event is ignored.
+     * @param view Thumbnail view of the row
+     * @param mood Mood event bound to the row
+     */
+    public static void bind(@NonNull ImageView view, @NonNull MoodEvent mood) {
+        if (mood.getThumbnail() == null) {
+            view.setTag(null);
+            view.setImageDrawable(null);
+            view.setVisibility(View.GONE);
+            return;
+        }
+
+        view.setVisibility(View.VISIBLE);
+        String key = PhotoCache.keyOf(mood);
+        String cacheKey = key == null ? null : key + ":thumbnail";
+        Bitmap cached = PhotoCache.getInstance().get(cacheKey);
+        view.setTag(mood.getId());
+        view.setImageBitmap(cached);
+        if (cached != null) {
+            return;
+        }
+
+        mood.loadThumbnail().addOnSuccessListener(thumbnail -> {
+            PhotoCache.getInstance().put(cacheKey, thumbnail);
+            if (thumbnail != null && mood.getId() != null && mood.getId().equals(view.getTag())) {
+                view.setImageBitmap(thumbnail);
+            }
+        });
+    }
+}
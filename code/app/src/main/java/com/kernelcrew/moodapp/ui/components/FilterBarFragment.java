@@ -4,7 +4,6 @@ import android.content.Context;
 import android.graphics.Color;
 import android.location.Location;
 import android.os.Bundle;
-import android.os.Handler;
 import android.text.Editable;
 import android.text.SpannableString;
 import android.text.TextWatcher;
@@ -23,7 +22,9 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
+import com.google.android.gms.tasks.CancellationToken;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
@@ -31,12 +32,14 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.Query;
 import com.kernelcrew.moodapp.R;
 import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.LocalReasonIndex;
 import com.kernelcrew.moodapp.data.LocationHandler;
 import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.data.MoodEventFilter;
 import com.kernelcrew.moodapp.data.MoodEventProvider;
 import com.kernelcrew.moodapp.data.User;
 import com.kernelcrew.moodapp.data.UserProvider;
+import com.kernelcrew.moodapp.data.UsernameIndex;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -64,14 +67,23 @@ public abstract class FilterBarFragment extends Fragment {
     private MaterialButton searchUser;
     private MaterialButton searchReason;
 
-    // Handler for delaying user search queries.
-    private final Handler userSearchHandler = new Handler();
-    private Runnable userSearchRunnable;
+    // Search pipelines: debounced, cancellable and latest-query-wins
+    private static final long DEFAULT_SEARCH_DEBOUNCE_MS = 200;
+    private static final int USER_SEARCH_CACHE_SIZE = 20;
+    private final SearchPipeline<List<User>> userSearchPipeline = new SearchPipeline<>(
+            DEFAULT_SEARCH_DEBOUNCE_MS, USER_SEARCH_CACHE_SIZE, this::searchUsers, new UserSearchResults());
+    // Reason search filters locally, so there is nothing worth caching
+    private final SearchPipeline<String> reasonSearchPipeline = new SearchPipeline<>(
+            DEFAULT_SEARCH_DEBOUNCE_MS, 0, (query, token) -> Tasks.forResult(query), new ReasonSearchResults());
 
     // Current filters in use
     private MoodEventFilter moodEventFilter;
     private final Set<Emotion> selectedEmotions = new HashSet<>();
 
+    // Reason index over the mood events loaded under the current non-reason filters
+    private final LocalReasonIndex localReasonIndex = new LocalReasonIndex();
+    private boolean reasonPreviewAvailable = false;
+
     // Listener for public interface
     private OnFilterChangedListener listener;
     private OnUserSearchListener userSearchListener;
@@ -80,6 +92,15 @@ public abstract class FilterBarFragment extends Fragment {
         this.allowUserSearch = allowUserSearch;
     }
 
+    /**
+     * Set how long to wait after the last keystroke before searching.
+     * @param debounceMs Delay in ms
+     */
+    public void setSearchDebounceMs(long debounceMs) {
+        userSearchPipeline.setDebounceMs(debounceMs);
+        reasonSearchPipeline.setDebounceMs(debounceMs);
+    }
+
     /**
      * Interface to notify when filters are changed.
      */
@@ -184,6 +205,10 @@ public abstract class FilterBarFragment extends Fragment {
         searchEditText.addTextChangedListener(new TextWatcher() {
             @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
             @Override public void onTextChanged(CharSequence s, int start, int before, int count) {
+                if (userSearchActive) {
+                    // Local results don't need debouncing; only the server search does
+                    showLocalUserResults(s.toString().trim());
+                }
                 scheduleSearch(s.toString());
             }
             @Override public void afterTextChanged(Editable s) {
@@ -356,6 +381,7 @@ public abstract class FilterBarFragment extends Fragment {
             PopupMenu popup = new PopupMenu(requireContext(), filterLocation);
             popup.getMenu().add("Within 5 km");
             popup.getMenu().add("Within 10 km");
+            popup.getMenu().add(getMoodEventFilter().isSortByDistance() ? "Sort by Date" : "Sort by Distance");
             MenuItem clearLocationItem = popup.getMenu().add("Clear Location Filter");
             SpannableString redTitle = new SpannableString("Clear Location Filter");
             redTitle.setSpan(new ForegroundColorSpan(Color.RED), 0, redTitle.length(), 0);
@@ -382,8 +408,17 @@ public abstract class FilterBarFragment extends Fragment {
                         }
                         break;
                     }
+                    case "Sort by Distance": {
+                        getMoodEventFilter().setSortByDistance(true);
+                        break;
+                    }
+                    case "Sort by Date": {
+                        getMoodEventFilter().setSortByDistance(false);
+                        break;
+                    }
                     case "Clear Location Filter": {
                         getMoodEventFilter().setLocation(null, null, 0);
+                        getMoodEventFilter().setSortByDistance(false);
                         break;
                     }
                 }
@@ -409,6 +444,13 @@ public abstract class FilterBarFragment extends Fragment {
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        userSearchPipeline.cancel();
+        reasonSearchPipeline.cancel();
+    }
+
     /**
      * Updates the search logic whenever a toggle changes.
      * If "Search User" is active, we remove reasonQuery from the filter and do user search.
@@ -421,33 +463,96 @@ public abstract class FilterBarFragment extends Fragment {
         }
         if (userSearchActive) {
             // Perform user search with whatever is typed
-            performUserSearch(searchEditText.getText().toString().trim());
+            reasonSearchPipeline.cancel();
+            userSearchPipeline.submitNow(searchEditText.getText().toString());
         } else {
             // Clear reason query so local searching doesn't filter everything out
+            userSearchPipeline.cancel();
             getMoodEventFilter().setReasonQuery(null);
             notifyFilterChanged();
         }
     }
 
     /**
-     * Executes a Firestore search for users based on the typed query.
+     * Search the usernames already known to this device, to answer while the server search runs.
+     * @return Known users whose username starts with the query, or an empty list if the query
+     *         is empty
      */
-    private void performUserSearch(String query) {
-        Task<List<User>> q = UserProvider.getInstance().searchUsers(
+    private List<User> searchLocalUsers(String query) {
+        if (query.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return UsernameIndex.getInstance().searchPrefix(
                 query,
+                UserProvider.SEARCH_LIMIT,
                 Objects.requireNonNull(FirebaseAuth.getInstance().getCurrentUser()).getUid()
         );
-        q.addOnSuccessListener(users -> {
+    }
+
+    /**
+     * Show local user search results right away, if there are any.
+     */
+    private void showLocalUserResults(String query) {
+        List<User> local = searchLocalUsers(query);
+        if (!local.isEmpty() && userSearchListener != null) {
+            userSearchListener.onUserSearchResults(local);
+        }
+    }
+
+    /**
+     * Executes a Firestore search for users based on the typed query, merged with the local
+     * results for the same query.
+     */
+    private Task<List<User>> searchUsers(String query, CancellationToken cancellationToken) {
+        List<User> local = searchLocalUsers(query);
+        return UserProvider.getInstance().searchUsers(
+                query,
+                Objects.requireNonNull(FirebaseAuth.getInstance().getCurrentUser()).getUid(),
+                cancellationToken
+        ).onSuccessTask(users ->
+                Tasks.forResult(UsernameIndex.merge(local, users, query, UserProvider.SEARCH_LIMIT)));
+    }
+
+    /**
+     * Delivers the results of the latest user search.
+     */
+    private class UserSearchResults implements SearchPipeline.Listener<List<User>> {
+        @Override
+        public void onResults(@NonNull String query, List<User> users) {
             if (userSearchListener != null) {
                 userSearchListener.onUserSearchResults(users);
             }
-        }).addOnFailureListener(e -> {
+        }
+
+        @Override
+        public void onError(@NonNull String query, @NonNull Exception e) {
             Log.e("FilterBarFragment", "User search failed!", e);
             Toast.makeText(getContext(), "Search failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
             if (userSearchListener != null) {
-                userSearchListener.onUserSearchResults(new ArrayList<>());
+                userSearchListener.onUserSearchResults(searchLocalUsers(query));
             }
-        });
+        }
+    }
+
+    /**
+     * Applies the latest reason search to the filter.
+     */
+    private class ReasonSearchResults implements SearchPipeline.Listener<String> {
+        @Override
+        public void onResults(@NonNull String query, String reason) {
+            String reasonQuery = reason.isEmpty() ? null : reason;
+            // Don't refresh the feed if only whitespace or case changed
+            if (!Objects.equals(reasonQuery, getMoodEventFilter().getReasonQuery())) {
+                getMoodEventFilter().setReasonQuery(reasonQuery);
+                // Only the reason changed, so the loaded mood events can preview the results
+                notifyFilterChanged(reasonQuery != null);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull String query, @NonNull Exception e) {
+            Log.e("FilterBarFragment", "Reason search failed!", e);
+        }
     }
 
     /**
@@ -476,6 +581,19 @@ public abstract class FilterBarFragment extends Fragment {
      * Notifies the listener that the filter has changed.
      */
     private void notifyFilterChanged() {
+        notifyFilterChanged(false);
+    }
+
+    /**
+     * Notifies the listener that the filter has changed.
+     * @param reasonOnly True if only the reason query changed. Otherwise the loaded mood events
+     *                   no longer match the filter, so they are dropped from the local index.
+     */
+    private void notifyFilterChanged(boolean reasonOnly) {
+        reasonPreviewAvailable = reasonOnly;
+        if (!reasonOnly) {
+            localReasonIndex.clear();
+        }
         // Always sort by "created" desc by default
         getMoodEventFilter().setSortField("created", Query.Direction.DESCENDING);
         filterCountAndEdit.setText(String.valueOf(getMoodEventFilter().count()));
@@ -488,23 +606,36 @@ public abstract class FilterBarFragment extends Fragment {
 
     /**
      * Filters a list of MoodEvents locally based on the user’s current reasonSearchActive state.
+     * The local reason index, for {@link #getReasonPreview()}, is synced to the events, so
+     * events which are no longer loaded drop out of it.
+     * Events outside the location filter's radius, which its geohash ranges let through, are
+     * dropped first.
      */
     public List<MoodEvent> applyLocalSearch(List<MoodEvent> allMoods) {
+        allMoods = getMoodEventFilter().applyLocationFilter(allMoods);
         String reasonQ = getMoodEventFilter().getReasonQuery();
         boolean hasQuery = (reasonQ != null && !reasonQ.trim().isEmpty());
+        localReasonIndex.sync(allMoods);
         if (!reasonSearchActive || !hasQuery) {
             // If we aren't using reason search or there's no text, we just return them all
             return allMoods;
         }
-        String lowerQuery = reasonQ.trim().toLowerCase();
-        List<MoodEvent> filtered = new ArrayList<>();
-        for (MoodEvent event : allMoods) {
-            String reason = event.getReason();
-            if (reason != null && reason.toLowerCase().contains(lowerQuery)) {
-                filtered.add(event);
-            }
+        // The server only matched the query's longest word, so check all of them
+        return localReasonIndex.filter(allMoods, reasonQ);
+    }
+
+    /**
+     * Results of the current reason search among the mood events already loaded, to show while
+     * the new query runs.
+     * @return Matching loaded mood events, newest first, or null if there is no preview because
+     *         more than the reason query changed
+     */
+    @Nullable
+    public List<MoodEvent> getReasonPreview() {
+        if (!reasonPreviewAvailable || !reasonSearchActive) {
+            return null;
         }
-        return filtered;
+        return localReasonIndex.search(getMoodEventFilter().getReasonQuery());
     }
 
     /**
@@ -518,26 +649,24 @@ public abstract class FilterBarFragment extends Fragment {
     }
 
     /**
-     * Delay frequent invocations of user searching
+     * Search for typed text once the user stops typing, given which toggle is active.
      */
     private void scheduleSearch(String text) {
-        if (userSearchRunnable != null) {
-            userSearchHandler.removeCallbacks(userSearchRunnable);
+        if (userSearchActive) {
+            userSearchPipeline.submit(text);
+        } else if (reasonSearchActive) {
+            reasonSearchPipeline.submit(text);
         }
-        userSearchRunnable = () -> handleSearchText(text);
-        userSearchHandler.postDelayed(userSearchRunnable, 200);
     }
 
     /**
-     * Decide how to handle typed text given which toggle is active.
+     * Search for typed text right away, given which toggle is active.
      */
     private void handleSearchText(String text) {
-        String typed = text.trim();
         if (userSearchActive) {
-            performUserSearch(typed);
+            userSearchPipeline.submitNow(text);
         } else if (reasonSearchActive) {
-            getMoodEventFilter().setReasonQuery(typed.isEmpty() ? null : typed);
-            notifyFilterChanged();
+            reasonSearchPipeline.submitNow(text);
         }
     }
 }
@@ -0,0 +1,176 @@
+package com.kernelcrew.moodapp.ui.components;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.CancellationTokenSource;
+import com.google.android.gms.tasks.Task;
+import com.kernelcrew.moodapp.data.UserSearchIndex;
+
+/**
+ * Runs searches as the user types: queries are debounced, a new query cancels the search in
+ * flight, only the latest query's results are delivered, and recent results are cached by
+ * normalized query.
+ * <p>
+ * All methods must be called on the main thread, and results are delivered there.
+ * </p>
+ * @param <T> Type of the search results
+ */
+public class SearchPipeline<T> {
+    /**
+     * Performs one search.
+     * @param <T> Type of the search results
+     */
+    public interface Searcher<T> {
+        /**
+         * @param query Normalized query
+         * @param cancellationToken Cancelled once the results are no longer wanted
+         * @return Task resolving to the results
+         */
+        Task<T> search(@NonNull String query, @NonNull CancellationToken cancellationToken);
+    }
+
+    /**
+     * Receives the results of the latest query.
+     * @param <T> Type of the search results
+     */
+    public interface Listener<T> {
+        void onResults(@NonNull String query, T results);
+
+        void onError(@NonNull String query, @NonNull Exception e);
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Searcher<T> searcher;
+    private final Listener<T> listener;
+    @Nullable
+    private final LruCache<String, T> cache;
+    private long debounceMs;
+
+    private Runnable pending;
+    private CancellationTokenSource inFlight;
+    // Incremented for every query, so late results of an older query can be recognised
+    private long sequence = 0;
+
+    /**
+     * @param debounceMs Time to wait after the last keystroke before searching, in ms
+     * @param cacheSize Number of queries whose results are cached, or 0 to disable the cache
+     * @param searcher Performs the searches
+     * @param listener Receives the results
+     */
+    public SearchPipeline(long debounceMs, int cacheSize,
+                          @NonNull Searcher<T> searcher, @NonNull Listener<T> listener) {
+        this.debounceMs = debounceMs;
+        this.cache = cacheSize > 0 ? new LruCache<>(cacheSize) : null;
+        this.searcher = searcher;
+        this.listener = listener;
+    }
+
+    /**
+     * @param debounceMs Time to wait after the last keystroke before searching, in ms
+     */
+    public void setDebounceMs(long debounceMs) {
+        this.debounceMs = debounceMs;
+    }
+
+    /**
+     * Search for a query once the user stops typing. Any earlier query is cancelled.
+     * @param query Raw query text
+     */
+    public void submit(@Nullable String query) {
+        String normalized = startQuery(query);
+        if (normalized == null) {
+            return;
+        }
+        long current = sequence;
+        pending = () -> {
+            pending = null;
+            run(normalized, current);
+        };
+        handler.postDelayed(pending, debounceMs);
+    }
+
+    /**
+     * Search for a query right away, e.g. when the user presses enter.
+     * @param query Raw query text
+     */
+    public void submitNow(@Nullable String query) {
+        String normalized = startQuery(query);
+        if (normalized != null) {
+            run(normalized, sequence);
+        }
+    }
+
+    /**
+     * Cancel the pending and in-flight searches, e.g. when the view is destroyed.
+     */
+    public void cancel() {
+        sequence++;
+        if (pending != null) {
+            handler.removeCallbacks(pending);
+            pending = null;
+        }
+        if (inFlight != null) {
+            inFlight.cancel();
+            inFlight = null;
+        }
+    }
+
+    /**
+     * Drop all cached results, e.g. after the searched data changed.
+     */
+    public void clearCache() {
+        if (cache != null) {
+            cache.evictAll();
+        }
+    }
+
+    /**
+     * Supersede the current query with a new one.
+     * @return The normalized query, or null if it was answered from the cache
+     */
+    @Nullable
+    private String startQuery(@Nullable String query) {
+        cancel();
+        String normalized = UserSearchIndex.normalize(query);
+        T cached = cache != null ? cache.get(normalized) : null;
+        if (cached != null) {
+            listener.onResults(normalized, cached);
+            return null;
+        }
+        return normalized;
+    }
+
+    private void run(@NonNull String normalized, long querySequence) {
+        if (querySequence != sequence) {
+            return;
+        }
+        CancellationTokenSource source = new CancellationTokenSource();
+        inFlight = source;
+        searcher.search(normalized, source.getToken()).addOnCompleteListener(task -> {
+            // Latest query wins: drop results of anything superseded or cancelled
+            if (querySequence != sequence || source.getToken().isCancellationRequested()) {
+                return;
+            }
+            inFlight = null;
+            if (task.isCanceled()) {
+                return;
+            }
+            if (task.isSuccessful()) {
+                T results = task.getResult();
+                if (cache != null && results != null) {
+                    cache.put(normalized, results);
+                }
+                listener.onResults(normalized, results);
+            } else {
+                Exception e = task.getException();
+                listener.onError(normalized, e != null ? e : new Exception("Search failed"));
+            }
+        });
+    }
+}
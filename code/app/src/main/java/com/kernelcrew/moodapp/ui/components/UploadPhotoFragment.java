@@ -2,9 +2,9 @@ package com.kernelcrew.moodapp.ui.components;
 
 import static android.app.Activity.RESULT_OK;
 
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
@@ -24,6 +24,7 @@ import androidx.core.content.FileProvider;
 import com.google.android.material.bottomsheet.BottomSheetDialogFragment;
 import com.google.android.material.button.MaterialButton;
 import com.kernelcrew.moodapp.R;
+import com.kernelcrew.moodapp.utils.PhotoImporter;
 
 import java.io.File;
 import java.io.IOException;
@@ -80,12 +81,8 @@ public class UploadPhotoFragment extends BottomSheetDialogFragment {
                 if (result.getResultCode() == RESULT_OK) {
                     Intent data = result.getData();
                     Log.i("UploadPhotoListener", "got Data");
-                    if (data != null) {
-                        Bitmap image = loadBitmapFromUri(data.getData());
-                        Log.i(getTag(), "Got Image");
-                        if (image != null && uploadPhotoListener != null) {
-                            uploadPhotoListener.onUpload(image);
-                        }
+                    if (data != null && data.getData() != null) {
+                        importPhoto(data.getData());
                     }
                 }
 
@@ -93,19 +90,28 @@ public class UploadPhotoFragment extends BottomSheetDialogFragment {
             });
 
     /**
-     * Load a Bitmap from a URI.
-     * Returns null if we cannot load the bitmap.
+     * Decode a picked or captured image off the main thread and hand it to the listener.
+     * The image is downsampled while decoding, so even very large camera images are safe to load.
      * @param imageUri URI of image to load
      */
-    private @Nullable Bitmap loadBitmapFromUri(Uri imageUri) {
-        try {
-            return MediaStore.Images.Media.getBitmap(requireActivity().getContentResolver(), imageUri);
-        } catch (IOException e) {
-            Toast.makeText(requireContext(), "Failed to upload image", Toast.LENGTH_SHORT).show();
-            Log.e("MoodEventForm", e.toString());
-        }
-
-        return null;
+    private void importPhoto(Uri imageUri) {
+        // The sheet is dismissed before decoding finishes, so capture what we need now
+        UploadPhotoListener listener = uploadPhotoListener;
+        Context appContext = requireContext().getApplicationContext();
+
+        PhotoImporter.importPhoto(appContext.getContentResolver(), imageUri)
+                .addOnSuccessListener(image -> {
+                    Log.i("UploadPhotoFragment", "Got Image");
+                    if (image != null && listener != null) {
+                        listener.onUpload(image);
+                    } else if (image == null) {
+                        Log.e("UploadPhotoFragment", "Bitmap could not be loaded.");
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Toast.makeText(appContext, "Failed to upload image", Toast.LENGTH_SHORT).show();
+                    Log.e("UploadPhotoFragment", e.toString());
+                });
     }
 
     /**
@@ -128,14 +134,7 @@ public class UploadPhotoFragment extends BottomSheetDialogFragment {
             registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
                 if (result.getResultCode() == RESULT_OK) {
                     // Try to load the image from the file path
-                    Bitmap bitmap = BitmapFactory.decodeFile(currentPhotoPath);
-                    if (bitmap != null) {
-                        if (uploadPhotoListener != null) {
-                            uploadPhotoListener.onUpload(bitmap);
-                        }
-                    } else {
-                        Log.e("Error", "Bitmap could not be loaded.");
-                    }
+                    importPhoto(Uri.fromFile(new File(currentPhotoPath)));
                 }
 
                 dismiss();
@@ -0,0 +1,159 @@
+package com.kernelcrew.moodapp.utils;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.kernelcrew.moodapp.data.MoodEvent;
+
+/**
+ * Process-wide cache of decoded mood photos.
+ * Entries are keyed by mood event id and photo hash, so editing a photo never serves the old one.
+ * The cache is bounded by the bytes held by its Bitmaps, sized as a fraction of the app's memory
+ * class.
+ */
+public class PhotoCache {
+    /**
+     * Fraction of the per-app memory class the cache may use.
+     */
+    private static final int MEMORY_CLASS_FRACTION = 8;
+
+    private static PhotoCache instance;
+
+    private final LruCache<String, Bitmap> cache;
+
+    /**
+     * Create a standalone cache. The app should use {@link #getInstance()} instead.
+     * @param maxKilobytes Maximum Bitmap memory to hold, in kilobytes
+     */
+    @VisibleForTesting
+    public PhotoCache(int maxKilobytes) {
+        cache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(@NonNull String key, @NonNull Bitmap bitmap) {
+                return Math.max(1, bitmap.getAllocationByteCount() / 1024);
+            }
+        };
+    }
+
+    /**
+     * Create the singleton cache sized from the device's memory class. Has no effect if the
+     * cache already exists.
+     * @param context Any context
+     */
+    public static synchronized void init(@NonNull Context context) {
+        if (instance != null) {
+            return;
+        }
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClassKilobytes = activityManager.getMemoryClass() * 1024;
+        instance = new PhotoCache(memoryClassKilobytes / MEMORY_CLASS_FRACTION);
+    }
+
+    /**
+     * Get the singleton instance of the PhotoCache.
+     * Falls back to sizing from the VM heap limit if {@link #init(Context)} was never called.
+     * @return Singleton instance
+     */
+    public static synchronized PhotoCache getInstance() {
+        if (instance == null) {
+            int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024);
+            instance = new PhotoCache(maxKilobytes / MEMORY_CLASS_FRACTION);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Compute the cache key of a mood event's photo.
+     * @param moodEvent Mood event with a photo
+     * @return Cache key, or null if the photo cannot be identified (no id or no photo)
+     */
+    @Nullable
+    public static String keyOf(@NonNull MoodEvent moodEvent) {
+        if (moodEvent.getId() == null || !moodEvent.hasPhoto()) {
+            return null;
+        }
+
+        String hash = moodEvent.getPhotoHash();
+        if (hash == null) {
+            return null;
+        }
+        return moodEvent.getId() + ":" + hash;
+    }
+
+    /**
+     * Look up a decoded photo.
+     * @param key Key from {@link #keyOf(MoodEvent)}
+     * @return The cached photo, or null on a miss
+     */
+    @Nullable
+    public Bitmap get(@Nullable String key) {
+        if (key == null) {
+            return null;
+        }
+        return cache.get(key);
+    }
+
+    /**
+     * Store a decoded photo.
+     * @param key Key from {@link #keyOf(MoodEvent)}
+     * @param photo Decoded photo
+     */
+    public void put(@Nullable String key, @Nullable Bitmap photo) {
+        if (key == null || photo == null) {
+            return;
+        }
+        cache.put(key, photo);
+    }
+
+    /**
+     * Release memory in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * @param level Trim level passed to onTrimMemory
+     */
+    public void trim(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * @return Number of lookups which returned a cached photo
+     */
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    /**
+     * @return Number of lookups which missed the cache
+     */
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+    /**
+     * @return Number of photos evicted to stay within the size limit or on trim
+     */
+    public int getEvictionCount() {
+        return cache.evictionCount();
+    }
+
+    /**
+     * @return Kilobytes of Bitmap memory currently held
+     */
+    public int getSizeKilobytes() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,186 @@
+package com.kernelcrew.moodapp.utils;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Imports photos picked from the gallery or captured by the camera as bounded-size Bitmaps.
+ * Camera images are often 12-50 MP, so they are never decoded at full resolution: the image is
+ * downsampled while decoding, on a background thread, and rotated according to its EXIF data.
+ */
+public class PhotoImporter {
+    /**
+     * Longest edge of an imported photo. Mood photos are shown at most screen-width and must
+     * compress to a few dozen KB, so anything larger is wasted memory.
+     */
+    public static final int MAX_DIMENSION = 1024;
+
+    private static final Executor IMPORT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Decode the image at a URI on a background thread, with its longest edge at most
+     * {@link #MAX_DIMENSION}.
+     * @param resolver Content resolver to open the URI with
+     * @param uri content:// or file:// URI of the image
+     * @return Task resolving to the decoded image (null if the image could not be decoded)
+     */
+    public static Task<Bitmap> importPhoto(@NonNull ContentResolver resolver, @NonNull Uri uri) {
+        return importPhoto(resolver, uri, MAX_DIMENSION);
+    }
+
+    /**
+     * Decode the image at a URI on a background thread, with its longest edge at most
+     * maxDimension.
+     * @param resolver Content resolver to open the URI with
+     * @param uri content:// or file:// URI of the image
+     * @param maxDimension Maximum width and height of the result
+     * @return Task resolving to the decoded image (null if the image could not be decoded)
+     */
+    public static Task<Bitmap> importPhoto(@NonNull ContentResolver resolver, @NonNull Uri uri,
+                                           int maxDimension) {
+        return Tasks.call(IMPORT_EXECUTOR, () -> decode(resolver, uri, maxDimension));
+    }
+
+    @Nullable
+    private static Bitmap decode(ContentResolver resolver, Uri uri, int maxDimension) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            // ImageDecoder samples while decoding and applies the EXIF orientation itself
+            ImageDecoder.Source source = ImageDecoder.createSource(resolver, uri);
+            return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+                int[] target = targetSize(info.getSize().getWidth(), info.getSize().getHeight(), maxDimension);
+                decoder.setTargetSize(target[0], target[1]);
+                // Hardware bitmaps cannot be compressed or read back for upload
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+            });
+        }
+
+        // Read only the image bounds first
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, maxDimension);
+        Bitmap sampled;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            sampled = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (sampled == null) {
+            return null;
+        }
+
+        int orientation;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            orientation = in == null
+                    ? ExifInterface.ORIENTATION_NORMAL
+                    : new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                            ExifInterface.ORIENTATION_NORMAL);
+        }
+
+        return scaleAndRotate(sampled, maxDimension, orientation);
+    }
+
+    /**
+     * Power of two inSampleSize keeping the decoded image at least as large as maxDimension
+     * would require (the rest of the downscale is done by a final exact resize).
+     * @param width Full image width
+     * @param height Full image height
+     * @param maxDimension Maximum width and height of the result
+     * @return Sample size to decode with
+     */
+    public static int calculateInSampleSize(int width, int height, int maxDimension) {
+        int longest = Math.max(width, height);
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scale an image size down (never up) so its longest edge fits in maxDimension, keeping the
+     * aspect ratio.
+     * @param width Image width
+     * @param height Image height
+     * @param maxDimension Maximum width and height of the result
+     * @return The target {width, height}
+     */
+    public static int[] targetSize(int width, int height, int maxDimension) {
+        int longest = Math.max(width, height);
+        if (longest <= maxDimension) {
+            return new int[] { width, height };
+        }
+
+        float scale = (float) maxDimension / longest;
+        return new int[] {
+                Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale))
+        };
+    }
+
+    private static Bitmap scaleAndRotate(Bitmap bitmap, int maxDimension, int orientation) {
+        int[] target = targetSize(bitmap.getWidth(), bitmap.getHeight(), maxDimension);
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) target[0] / bitmap.getWidth(), (float) target[1] / bitmap.getHeight());
+
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(270);
+                break;
+            default:
+                break;
+        }
+
+        if (matrix.isIdentity()) {
+            return bitmap;
+        }
+
+        Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (transformed != bitmap) {
+            bitmap.recycle();
+        }
+        return transformed;
+    }
+}
@@ -2,46 +2,244 @@ package com.kernelcrew.moodapp.utils;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 
 import androidx.annotation.NonNull;
 
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
 import java.io.ByteArrayOutputStream;
-import java.util.ArrayList;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class PhotoUtils {
     /**
-     * Compress a Bitmap photo into a WEBP encoded byte array.
-     * The byte array is returned as a List&lt;Integer&gt; to be compatible with Firestore
-     * serialization.
+     * Shared background executor for photo decoding and encoding so that neither runs on the
+     * main thread.
+     */
+    private static final Executor DECODE_EXECUTOR = Executors.newFixedThreadPool(2);
+
+    /**
+     * Largest encoded photo we store. Keeps a mood event photo document far below Firestore's
+     * 1 MiB document limit.
+     */
+    public static final int MAX_PHOTO_BYTES = 65536;
+
+    /**
+     * Longest edge of a stored photo.
+     */
+    public static final int MAX_PHOTO_DIMENSION = 1024;
+
+    /**
+     * Byte budget of a thumbnail, small enough to be stored on every mood event document.
+     */
+    public static final int THUMBNAIL_MAX_BYTES = 512;
+
+    /**
+     * Longest edge of a thumbnail.
+     */
+    public static final int THUMBNAIL_DIMENSION = 96;
+
+    /**
+     * Photos are never shrunk below maxDimension / MIN_DIMENSION_DIVISOR while trying to meet a
+     * byte budget: 64 pixels for stored photos, 6 for thumbnails.
+     */
+    private static final int MIN_DIMENSION_DIVISOR = 16;
+
+    /**
+     * One reusable encode buffer per thread, so repeated encodes during the quality search do not
+     * each grow a fresh buffer.
+     */
+    private static final ThreadLocal<ByteArrayOutputStream> ENCODE_BUFFER =
+            ThreadLocal.withInitial(() -> new ByteArrayOutputStream(MAX_PHOTO_BYTES));
+
+    /**
+     * Compress a Bitmap photo into a WEBP encoded byte array of at most {@link #MAX_PHOTO_BYTES}.
+     * The result can be stored in Firestore directly as a Blob.
      * @param photo Photo to complete
      * @return Encoded byte array
      */
-    public static List<Integer> compressPhoto(@NonNull Bitmap photo) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        photo.compress(Bitmap.CompressFormat.WEBP, 0, byteArrayOutputStream);
-        byte[] byteArray = byteArrayOutputStream.toByteArray();
+    public static byte[] compressPhoto(@NonNull Bitmap photo) {
+        return compressPhoto(photo, MAX_PHOTO_BYTES, MAX_PHOTO_DIMENSION);
+    }
+
+    /**
+     * Compress a Bitmap photo into lossy WEBP at the highest quality which fits in maxBytes.
+     * The photo is first scaled down so its longest edge is at most maxDimension; if even the
+     * lowest quality does not fit, it is halved again until it does, or until halving would take
+     * it below 1/16 of maxDimension.
+     * @param photo Photo to compress
+     * @param maxBytes Byte budget of the encoded photo
+     * @param maxDimension Maximum width and height of the encoded photo
+     * @return Encoded byte array, which only exceeds maxBytes for pathological inputs
+     */
+    public static byte[] compressPhoto(@NonNull Bitmap photo, int maxBytes, int maxDimension) {
+        int minDimension = Math.max(1, maxDimension / MIN_DIMENSION_DIVISOR);
+        Bitmap scaled = scaleToFit(photo, maxDimension);
+        try {
+            while (true) {
+                byte[] encoded = compressToBudget(scaled, maxBytes);
+                int longest = Math.max(scaled.getWidth(), scaled.getHeight());
+                if (encoded.length <= maxBytes || longest / 2 < minDimension) {
+                    return encoded;
+                }
+
+                Bitmap smaller = scaleToFit(scaled, longest / 2);
+                if (scaled != photo) {
+                    scaled.recycle();
+                }
+                scaled = smaller;
+            }
+        } finally {
+            if (scaled != photo) {
+                scaled.recycle();
+            }
+        }
+    }
+
+    /**
+     * Compress a photo as {@link #compressPhoto(Bitmap)} does, on a background thread.
+     * @param photo Photo to compress
+     * @return Task resolving to the encoded byte array
+     */
+    public static Task<byte[]> compressPhotoAsync(@NonNull Bitmap photo) {
+        return Tasks.call(DECODE_EXECUTOR, () -> compressPhoto(photo));
+    }
+
+    /**
+     * Create a tiny WEBP preview of a photo, to be shown in list rows without fetching the photo.
+     * @param photo Photo to preview
+     * @return Encoded thumbnail, a few hundred bytes
+     */
+    public static byte[] createThumbnail(@NonNull Bitmap photo) {
+        return compressPhoto(photo, THUMBNAIL_MAX_BYTES, THUMBNAIL_DIMENSION);
+    }
+
+    /**
+     * Create a thumbnail as {@link #createThumbnail(Bitmap)} does, on a background thread.
+     * @param photo Photo to preview
+     * @return Task resolving to the encoded thumbnail
+     */
+    public static Task<byte[]> createThumbnailAsync(@NonNull Bitmap photo) {
+        return Tasks.call(DECODE_EXECUTOR, () -> createThumbnail(photo));
+    }
+
+    /**
+     * Binary search the highest quality whose encoding fits in maxBytes.
+     * @return The best fitting encoding, or the quality 0 encoding if nothing fits
+     */
+    private static byte[] compressToBudget(Bitmap photo, int maxBytes) {
+        ByteArrayOutputStream buffer = ENCODE_BUFFER.get();
+        byte[] best = null;
+        int low = 0;
+        int high = 100;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            buffer.reset();
+            photo.compress(webpFormat(), quality, buffer);
+
+            if (buffer.size() <= maxBytes) {
+                best = buffer.toByteArray();
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
 
-        ArrayList<Integer> byteList = new ArrayList<>();
-        byteList.ensureCapacity(byteArray.length);
-        for (byte b : byteArray) {
-            byteList.add((int)b);
+        if (best == null) {
+            buffer.reset();
+            photo.compress(webpFormat(), 0, buffer);
+            best = buffer.toByteArray();
         }
-        return byteList;
+        return best;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat webpFormat() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            return Bitmap.CompressFormat.WEBP_LOSSY;
+        }
+        // Lossy below quality 100 on older versions
+        return Bitmap.CompressFormat.WEBP;
+    }
+
+    private static Bitmap scaleToFit(Bitmap photo, int maxDimension) {
+        int longest = Math.max(photo.getWidth(), photo.getHeight());
+        if (longest <= maxDimension) {
+            return photo;
+        }
+
+        float scale = (float) maxDimension / longest;
+        return Bitmap.createScaledBitmap(photo,
+                Math.max(1, Math.round(photo.getWidth() * scale)),
+                Math.max(1, Math.round(photo.getHeight() * scale)),
+                true);
     }
 
     /**
      * Decode a WEBP-encoded image into a bitmap.
-     * Takes the byte list as a List&lt;Integer&gt; to be compatible with Firestore.
+     * @param bytes Bytes encoding the WEBP image
+     * @return Decoded image as a Bitmap
+     */
+    public static Bitmap decodePhoto(@NonNull byte[] bytes) {
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decode a WEBP-encoded image into a bitmap on a background thread.
+     * @param bytes Bytes encoding the WEBP image
+     * @return Task resolving to the decoded image
+     */
+    public static Task<Bitmap> decodePhotoAsync(@NonNull byte[] bytes) {
+        return Tasks.call(DECODE_EXECUTOR, () -> decodePhoto(bytes));
+    }
+
+    /**
+     * Decode a WEBP-encoded image stored in the legacy List&lt;Integer&gt; format (one boxed
+     * integer per byte) into a bitmap.
      * @param byteList List of bytes encoding the WEBP image
      * @return Decoded image as a Bitmap
      */
     public static Bitmap decodePhoto(@NonNull List<Integer> byteList) {
+        return decodePhoto(toByteArray(byteList));
+    }
+
+    /**
+     * Unbox a legacy photo byte list into a byte array.
+     * Accepts any Number since raw Firestore reads return the elements as Longs.
+     * @param byteList List of bytes, one element per byte
+     * @return The same bytes as a primitive array
+     */
+    public static byte[] toByteArray(@NonNull List<? extends Number> byteList) {
         byte[] byteArray = new byte[byteList.size()];
         for (int i = 0; i < byteList.size(); i++) {
             byteArray[i] = byteList.get(i).byteValue();
         }
+        return byteArray;
+    }
 
-        return BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length);
+    /**
+     * Compute a short content hash of an encoded photo.
+     * @param bytes Encoded photo
+     * @return First 64 bits of the SHA-1 digest as lowercase hex
+     */
+    public static String hashPhoto(@NonNull byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+
+        byte[] hash = digest.digest(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            sb.append(String.format("%02x", hash[i]));
+        }
+        return sb.toString();
     }
 }
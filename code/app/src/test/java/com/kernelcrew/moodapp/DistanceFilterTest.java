@@ -0,0 +1,184 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.kernelcrew.moodapp.data.DistanceFilter;
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.GeoHash;
+import com.kernelcrew.moodapp.data.MoodEvent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link DistanceFilter}.
+ */
+public class DistanceFilterTest {
+    private static MoodEvent mood(String id, Double latitude, Double longitude) {
+        MoodEvent mood = new MoodEvent("uid", "user", Emotion.HAPPINESS, "Alone", "", latitude, longitude);
+        mood.setId(id);
+        return mood;
+    }
+
+    private static List<String> ids(List<MoodEvent> moods) {
+        List<String> ids = new ArrayList<>();
+        for (MoodEvent mood : moods) {
+            ids.add(mood.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testDropsEventsOutsideTheCircle() {
+        // (0.04, 0.07) from the center is inside the old bounding box but 6.4 km away
+        List<MoodEvent> moods = Arrays.asList(
+                mood("near", 53.53, -113.53),
+                mood("corner", 53.5632, -113.4563),
+                mood("unknown", null, null),
+                mood("far", 51.05, -114.07));
+
+        DistanceFilter filter = new DistanceFilter(53.5232, -113.5263, 5);
+        assertEquals(Collections.singletonList("near"), ids(filter.apply(moods, false)));
+        assertEquals(Arrays.asList("near", "corner"), ids(new DistanceFilter(53.5232, -113.5263, 7).apply(moods, false)));
+    }
+
+    @Test
+    public void testSortsNearestFirst() {
+        List<MoodEvent> moods = Arrays.asList(
+                mood("3km", 0.027, 0.0),
+                mood("1km", 0.009, 0.0),
+                mood("2km", 0.0, 0.018),
+                mood("also1km", -0.009, 0.0));
+
+        DistanceFilter filter = new DistanceFilter(0, 0, 5);
+        assertEquals(Arrays.asList("3km", "1km", "2km", "also1km"), ids(filter.apply(moods, false)));
+        // Equal distances keep their order
+        assertEquals(Arrays.asList("1km", "also1km", "2km", "3km"), ids(filter.apply(moods, true)));
+    }
+
+    @Test
+    public void testAcrossTheAntiMeridianAndPoles() {
+        List<MoodEvent> moods = Arrays.asList(
+                mood("west", 0.0, -179.99),
+                mood("east", 0.0, 179.99),
+                mood("away", 0.0, 179.0));
+        assertEquals(Arrays.asList("west", "east"), ids(new DistanceFilter(0, 180, 5).apply(moods, false)));
+
+        List<MoodEvent> polar = Arrays.asList(
+                mood("overThePole", 89.9, 180.0),
+                mood("sameSide", 89.5, 0.0));
+        assertEquals(Collections.singletonList("overThePole"), ids(new DistanceFilter(89.95, 0, 20).apply(polar, false)));
+    }
+
+    @Test
+    public void testAgreesWithHaversineDistance() {
+        Random random = new Random(20);
+        int size = 10_000;
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = random.nextDouble() * 180 - 90;
+            longitudes[i] = random.nextDouble() * 360 - 180;
+        }
+        DistanceFilter.Points points = new DistanceFilter.Points(latitudes, longitudes, size);
+        DistanceFilter filter = new DistanceFilter(40, -100, 3000);
+
+        double[] haversines = new double[size];
+        int[] matches = new int[size];
+        int count = filter.select(points, matches, haversines);
+        int expected = 0;
+        for (int i = 0; i < size; i++) {
+            double distance = GeoHash.distanceKm(40, -100, latitudes[i], longitudes[i]);
+            assertEquals(distance, DistanceFilter.toKm(haversines[i]), 1e-6);
+            if (distance <= 3000) {
+                assertEquals(i, matches[expected++]);
+            }
+        }
+        assertEquals(expected, count);
+        assertTrue(count > 0);
+    }
+
+    @Test
+    public void benchmarkHundredThousandPoints() {
+        assumeTrue(Boolean.getBoolean("benchmarks"));
+        int size = 100_000;
+        int warmup = 5;
+        int iterations = 20;
+        double centerLat = 53.5232, centerLon = -113.5263, radiusKm = 10;
+        Random random = new Random(20);
+        List<MoodEvent> moods = new ArrayList<>(size);
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = centerLat + (random.nextDouble() - 0.5) * 0.4;
+            longitudes[i] = centerLon + (random.nextDouble() - 0.5) * 0.6;
+            moods.add(mood("m" + i, latitudes[i], longitudes[i]));
+        }
+        DistanceFilter filter = new DistanceFilter(centerLat, centerLon, radiusKm);
+
+        // The straightforward loop: boxed Doubles and the full haversine formula per event
+        long boxedNanos = 0;
+        int boxed = 0;
+        for (int run = 0; run < warmup + iterations; run++) {
+            long start = System.nanoTime();
+            List<MoodEvent> kept = new ArrayList<>();
+            for (MoodEvent mood : moods) {
+                if (mood.hasLocation() && GeoHash.distanceKm(centerLat, centerLon,
+                        mood.getLatitude(), mood.getLongitude()) <= radiusKm) {
+                    kept.add(mood);
+                }
+            }
+            if (run >= warmup) {
+                boxedNanos += System.nanoTime() - start;
+                boxed = kept.size();
+            }
+        }
+
+        // Filtering a delivered list, including copying it into arrays
+        long applyNanos = 0;
+        long sortedNanos = 0;
+        int applied = 0;
+        for (int run = 0; run < warmup + iterations; run++) {
+            long start = System.nanoTime();
+            applied = filter.apply(moods, false).size();
+            long middle = System.nanoTime();
+            filter.apply(moods, true);
+            if (run >= warmup) {
+                applyNanos += middle - start;
+                sortedNanos += System.nanoTime() - middle;
+            }
+        }
+
+        // The inner loop alone, on points already in arrays
+        DistanceFilter.Points points = new DistanceFilter.Points(latitudes, longitudes, size);
+        int[] matches = new int[size];
+        double[] haversines = new double[size];
+        long selectNanos = 0;
+        int selected = 0;
+        for (int run = 0; run < warmup + iterations; run++) {
+            long start = System.nanoTime();
+            selected = filter.select(points, matches, haversines);
+            if (run >= warmup) {
+                selectNanos += System.nanoTime() - start;
+            }
+        }
+
+        double perPoint = (double) iterations * size;
+        System.out.printf(Locale.ROOT,
+                "DistanceFilter: %d points, %d within %.0f km; ns/point: boxed haversine %.1f, "
+                        + "apply %.1f, apply sorted %.1f, select on arrays %.1f%n",
+                size, selected, radiusKm, boxedNanos / perPoint, applyNanos / perPoint,
+                sortedNanos / perPoint, selectNanos / perPoint);
+        assertEquals(boxed, applied);
+        assertEquals(boxed, selected);
+        assertTrue(selected > 0);
+    }
+}
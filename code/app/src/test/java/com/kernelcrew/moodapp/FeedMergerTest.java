@@ -0,0 +1,223 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.kernelcrew.moodapp.data.FeedMerger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link FeedMerger}.
+ */
+public class FeedMergerTest {
+    /**
+     * Minimal stand-in for a mood event document.
+     */
+    private static class Item {
+        final String id;
+        final String owner;
+        final long created;
+
+        Item(String id, String owner, long created) {
+            this.id = id;
+            this.owner = owner;
+            this.created = created;
+        }
+    }
+
+    private static final FeedMerger.Keys<Item> KEYS = new FeedMerger.Keys<Item>() {
+        @Override
+        public String getId(Item item) {
+            return item.id;
+        }
+
+        @Override
+        public long getCreated(Item item) {
+            return item.created;
+        }
+
+        @Override
+        public String getOwner(Item item) {
+            return item.owner;
+        }
+    };
+
+    private FeedMerger<Item> merger;
+
+    @Before
+    public void setUp() {
+        merger = new FeedMerger<>(KEYS);
+    }
+
+    private static FeedMerger.Change<Item> upsert(Item item) {
+        return new FeedMerger.Change<>(FeedMerger.Change.Type.UPSERT, item);
+    }
+
+    private static FeedMerger.Change<Item> remove(Item item) {
+        return new FeedMerger.Change<>(FeedMerger.Change.Type.REMOVE, item);
+    }
+
+    private List<String> ids() {
+        List<String> ids = new ArrayList<>();
+        for (Item item : merger.getItems()) {
+            ids.add(item.id);
+        }
+        return ids;
+    }
+
+    /**
+     * Replay diffs onto a copy of the previous list, as an adapter would.
+     */
+    private static List<Item> replay(List<Item> before, List<FeedMerger.Diff<Item>> diffs) {
+        List<Item> after = new ArrayList<>(before);
+        for (FeedMerger.Diff<Item> diff : diffs) {
+            switch (diff.type) {
+                case INSERT:
+                    after.add(diff.position, diff.item);
+                    break;
+                case REMOVE:
+                    after.remove(diff.position);
+                    break;
+                case CHANGE:
+                    after.set(diff.position, diff.item);
+                    break;
+            }
+        }
+        return after;
+    }
+
+    @Test
+    public void testMergesSourcesNewestFirst() {
+        merger.apply(0, Arrays.asList(upsert(new Item("a", "me", 10)), upsert(new Item("c", "me", 30))));
+        merger.apply(1, Collections.singletonList(upsert(new Item("b", "friend", 20))));
+
+        assertEquals(Arrays.asList("c", "b", "a"), ids());
+    }
+
+    @Test
+    public void testDiffsArePositional() {
+        List<FeedMerger.Diff<Item>> diffs = merger.apply(0, Arrays.asList(
+                upsert(new Item("a", "me", 10)),
+                upsert(new Item("b", "me", 20))));
+        assertEquals("[INSERT@0, INSERT@0]", diffs.toString());
+
+        diffs = merger.apply(0, Collections.singletonList(remove(new Item("a", "me", 10))));
+        assertEquals("[REMOVE@1]", diffs.toString());
+
+        // Editing without changing the timestamp stays in place
+        diffs = merger.apply(0, Collections.singletonList(upsert(new Item("b", "me", 20))));
+        assertEquals("[CHANGE@0]", diffs.toString());
+    }
+
+    @Test
+    public void testModifiedTimestampMovesItem() {
+        merger.apply(0, Arrays.asList(upsert(new Item("a", "me", 10)), upsert(new Item("b", "me", 20))));
+        merger.apply(0, Collections.singletonList(upsert(new Item("a", "me", 30))));
+
+        assertEquals(Arrays.asList("a", "b"), ids());
+    }
+
+    @Test
+    public void testOwnerCapShowsNewest() {
+        merger.addSource(1, 2);
+        merger.apply(1, Arrays.asList(
+                upsert(new Item("old", "friend", 10)),
+                upsert(new Item("mid", "friend", 20)),
+                upsert(new Item("new", "friend", 30)),
+                upsert(new Item("other", "other", 5))));
+        assertEquals(Arrays.asList("new", "mid", "other"), ids());
+
+        // Removing a visible item reveals the next newest one
+        merger.apply(1, Collections.singletonList(remove(new Item("new", "friend", 30))));
+        assertEquals(Arrays.asList("mid", "old", "other"), ids());
+    }
+
+    @Test
+    public void testClearSource() {
+        merger.apply(0, Collections.singletonList(upsert(new Item("a", "me", 10))));
+        merger.apply(1, Collections.singletonList(upsert(new Item("b", "friend", 20))));
+
+        List<FeedMerger.Diff<Item>> diffs = merger.clear(1);
+        assertEquals("[REMOVE@0]", diffs.toString());
+        assertEquals(Collections.singletonList("a"), ids());
+    }
+
+    @Test
+    public void testRandomStreamMatchesFullSort() {
+        Random random = new Random(301);
+        merger.addSource(1, 3);
+        merger.addSource(2, 3);
+
+        List<Item> expectedItems = new ArrayList<>();
+        List<Item> shown = new ArrayList<>();
+        for (int step = 0; step < 2000; step++) {
+            int source = random.nextInt(3);
+            Item item = new Item("s" + source + "-" + random.nextInt(200),
+                    "u" + source + "-" + random.nextInt(10),
+                    random.nextInt(1000));
+            List<FeedMerger.Diff<Item>> diffs = merger.apply(source,
+                    Collections.singletonList(random.nextInt(4) == 0 ? remove(item) : upsert(item)));
+
+            shown = replay(shown, diffs);
+            expectedItems = merger.getItems();
+            assertEquals(expectedItems.size(), shown.size());
+            for (int i = 0; i < shown.size(); i++) {
+                assertEquals(expectedItems.get(i).id, shown.get(i).id);
+            }
+        }
+
+        // The maintained order is the same as a full sort
+        for (int i = 1; i < expectedItems.size(); i++) {
+            assertTrue(expectedItems.get(i - 1).created >= expectedItems.get(i).created);
+        }
+    }
+
+    /**
+     * Not a correctness test: compares applying a single-document update incrementally against
+     * the old approach of rebuilding and re-sorting the whole combined list.
+     */
+    @Test
+    public void benchmarkSingleUpdates() {
+        assumeTrue(Boolean.getBoolean("benchmarks"));
+        int feedSize = 5000;
+        int updates = 2000;
+        Random random = new Random(301);
+
+        List<FeedMerger.Change<Item>> initial = new ArrayList<>();
+        List<Item> all = new ArrayList<>();
+        for (int i = 0; i < feedSize; i++) {
+            Item item = new Item("id" + i, "u" + (i % 300), random.nextInt(1_000_000));
+            initial.add(upsert(item));
+            all.add(item);
+        }
+        merger.apply(0, initial);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            Item item = new Item("id" + random.nextInt(feedSize), "u" + (i % 300), random.nextInt(1_000_000));
+            merger.apply(0, Collections.singletonList(upsert(item)));
+        }
+        long incrementalNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            all.set(random.nextInt(feedSize), new Item("id" + i, "u", random.nextInt(1_000_000)));
+            List<Item> combined = new ArrayList<>(all);
+            combined.sort((a, b) -> Long.compare(b.created, a.created));
+        }
+        long resortNanos = System.nanoTime() - start;
+
+        System.out.printf("FeedMerger: %d updates on %d items: incremental %d ms, full re-sort %d ms%n",
+                updates, feedSize, incrementalNanos / 1_000_000, resortNanos / 1_000_000);
+        assertEquals(feedSize, merger.size());
+    }
+}
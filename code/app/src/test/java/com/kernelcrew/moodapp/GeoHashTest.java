@@ -0,0 +1,258 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.kernelcrew.moodapp.data.GeoHash;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link GeoHash}.
+ */
+public class GeoHashTest {
+    private static boolean covered(List<GeoHash.Range> ranges, double latitude, double longitude) {
+        String geohash = GeoHash.encode(latitude, longitude, GeoHash.STORED_PRECISION);
+        for (GeoHash.Range range : ranges) {
+            if (range.contains(geohash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The location reached by travelling distanceKm from a start along a bearing.
+     * @return Latitude and longitude, the longitude wrapped to [-180, 180)
+     */
+    private static double[] destination(double latitude, double longitude, double distanceKm, double bearing) {
+        double angle = distanceKm / GeoHash.EARTH_RADIUS_KM;
+        double lat1 = Math.toRadians(latitude);
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(angle)
+                + Math.cos(lat1) * Math.sin(angle) * Math.cos(bearing));
+        double lon2 = Math.toRadians(longitude) + Math.atan2(Math.sin(bearing) * Math.sin(angle) * Math.cos(lat1),
+                Math.cos(angle) - Math.sin(lat1) * Math.sin(lat2));
+        double lon = (Math.toDegrees(lon2) + 540) % 360 - 180;
+        return new double[] {Math.toDegrees(lat2), lon};
+    }
+
+    /**
+     * Check that every sampled location within the radius is covered, for several range budgets.
+     */
+    private static void assertCovers(double latitude, double longitude, double radiusKm) {
+        Random random = new Random(19);
+        for (int maxRanges : new int[] {1, 4, 8}) {
+            List<GeoHash.Range> ranges = GeoHash.coveringRanges(latitude, longitude, radiusKm, maxRanges);
+            assertTrue(ranges.size() <= maxRanges);
+            for (int i = 0; i < 5_000; i++) {
+                double[] point = destination(latitude, longitude,
+                        radiusKm * Math.sqrt(random.nextDouble()), random.nextDouble() * 2 * Math.PI);
+                if (GeoHash.distanceKm(latitude, longitude, point[0], point[1]) <= radiusKm) {
+                    assertTrue(String.format(Locale.ROOT, "(%f, %f) not in %s", point[0], point[1], ranges),
+                            covered(ranges, point[0], point[1]));
+                }
+            }
+            // The edge of the radius too
+            for (int bearing = 0; bearing < 360; bearing += 5) {
+                double[] point = destination(latitude, longitude, radiusKm * 0.999999, Math.toRadians(bearing));
+                assertTrue(covered(ranges, point[0], point[1]));
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeKnownLocations() {
+        assertEquals("ezs42", GeoHash.encode(42.605, -5.603, 5));
+        assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+        assertEquals("c3x22", GeoHash.encode(53.5232, -113.5263, 5));
+        // The bounds of the world fall in its edge cells
+        assertEquals("zzzzz", GeoHash.encode(90, 180, 5));
+        assertEquals("00000", GeoHash.encode(-90, -180, 5));
+    }
+
+    @Test
+    public void testDistance() {
+        assertEquals(0, GeoHash.distanceKm(53.5, -113.5, 53.5, -113.5), 1e-9);
+        // One degree of latitude
+        assertEquals(111.19, GeoHash.distanceKm(0, 0, 1, 0), 0.01);
+        // Across the anti-meridian the short way round
+        assertEquals(22.24, GeoHash.distanceKm(0, 179.9, 0, -179.9), 0.01);
+        // Over the pole
+        assertEquals(22.24, GeoHash.distanceKm(89.9, 0, 89.9, 180), 0.01);
+    }
+
+    @Test
+    public void testNearbyRadiusNeedsFewFineRanges() {
+        List<GeoHash.Range> ranges = GeoHash.coveringRanges(53.5232, -113.5263, 5, 8);
+        assertTrue(ranges.size() <= 8);
+        for (GeoHash.Range range : ranges) {
+            assertTrue(range.start.startsWith("c3x"));
+            assertTrue(range.start.length() >= 4);
+        }
+        assertCovers(53.5232, -113.5263, 5);
+        assertCovers(53.5232, -113.5263, 10);
+    }
+
+    @Test
+    public void testCoversAcrossTheAntiMeridian() {
+        assertCovers(0, 179.98, 5);
+        assertCovers(60, -179.99, 10);
+        assertCovers(-45, 180, 100);
+
+        // Both sides of the anti-meridian are queried
+        List<GeoHash.Range> ranges = GeoHash.coveringRanges(0, 179.98, 5, 8);
+        assertTrue(covered(ranges, 0, -179.99));
+        assertTrue(covered(ranges, 0, 179.99));
+    }
+
+    @Test
+    public void testCoversAroundThePoles() {
+        assertCovers(89.95, 0, 30);
+        assertCovers(-89.99, 170, 5);
+        assertCovers(85, 30, 500);
+
+        // Across the pole, on the opposite meridian
+        List<GeoHash.Range> ranges = GeoHash.coveringRanges(89.95, 0, 30, 8);
+        assertTrue(covered(ranges, 89.9, 180));
+        assertTrue(covered(ranges, 89.9, -90));
+    }
+
+    @Test
+    public void testHugeAndTinyRadii() {
+        assertCovers(10, 10, 3000);
+        assertCovers(0, 0, 0.01);
+        assertEquals(Arrays.asList(new GeoHash.Range("0", "z")), GeoHash.coveringRanges(0, 0, 30_000, 1));
+    }
+
+    @Test
+    public void testCellsInBounds() {
+        // A city view takes a few cells around it
+        List<String> cells = GeoHash.cellsInBounds(53.45, -113.65, 53.60, -113.40, 12);
+        assertTrue(cells.size() <= 12);
+        assertTrue(cells.get(0).length() >= 4);
+        for (double[] point : new double[][] {{53.45, -113.65}, {53.5232, -113.5263}, {53.60, -113.40}}) {
+            assertTrue(cells.contains(GeoHash.encode(point[0], point[1], cells.get(0).length())));
+        }
+
+        // Across the anti-meridian, both sides are covered
+        cells = GeoHash.cellsInBounds(-1, 179, 1, -179, 12);
+        assertTrue(cells.size() <= 12);
+        assertTrue(cells.contains(GeoHash.encode(0, 179.5, cells.get(0).length())));
+        assertTrue(cells.contains(GeoHash.encode(0, -179.5, cells.get(0).length())));
+
+        // The whole world is every top level cell
+        assertEquals(32, GeoHash.cellsInBounds(-90, -180, 90, 180, 12).size());
+        assertEquals(1, GeoHash.cellsInBounds(53.5232, -113.5263, 53.5232, -113.5263, 1).size());
+    }
+
+    @Test
+    public void testIntersectsRadius() {
+        String cell = GeoHash.encode(53.5232, -113.5263, 5);
+        assertTrue(GeoHash.intersectsRadius(cell, 53.5232, -113.5263, 0.1));
+        // Calgary is about 250 km away
+        assertTrue(!GeoHash.intersectsRadius(cell, 51.05, -114.07, 200));
+        assertTrue(GeoHash.intersectsRadius(cell, 51.05, -114.07, 300));
+        // A cell next to the center but not containing it
+        String neighbour = GeoHash.encode(53.5232, -113.5263 + 0.05, 5);
+        assertTrue(GeoHash.intersectsRadius(neighbour, 53.5232, -113.5263, 5));
+        assertTrue(!GeoHash.intersectsRadius("0", 53.5232, -113.5263, 1000));
+    }
+
+    @Test
+    public void benchmarkDocumentsReadPerQuery() {
+        assumeTrue(Boolean.getBoolean("benchmarks"));
+        // Mood events around a city, about 60 km across
+        int events = 200_000;
+        int queries = 200;
+        double minLat = 53.3, minLon = -113.8, span = 0.5;
+        Random random = new Random(19);
+        double[] lats = new double[events];
+        double[] lons = new double[events];
+        String[] hashes = new String[events];
+        for (int i = 0; i < events; i++) {
+            lats[i] = minLat + random.nextDouble() * span;
+            lons[i] = minLon + random.nextDouble() * span;
+            hashes[i] = GeoHash.encode(lats[i], lons[i], GeoHash.STORED_PRECISION);
+        }
+        String[] sorted = hashes.clone();
+        Arrays.sort(sorted);
+
+        for (double radiusKm : new double[] {5, 10}) {
+            long matches = 0;
+            long boxReads = 0;
+            long boxScans = 0;
+            int[] budgets = {1, 4, 8};
+            long[] rangeReads = new long[budgets.length];
+            long[] rangeCount = new long[budgets.length];
+            long planNanos = 0;
+            for (int q = 0; q < queries; q++) {
+                double lat = minLat + span * (0.25 + random.nextDouble() / 2);
+                double lon = minLon + span * (0.25 + random.nextDouble() / 2);
+
+                // The previous latitude / longitude bounding box. Its index is ordered by latitude
+                // first, so the whole latitude band is scanned to find the box.
+                double latDelta = Math.toDegrees(radiusKm / GeoHash.EARTH_RADIUS_KM);
+                double lonDelta = Math.toDegrees(radiusKm / (GeoHash.EARTH_RADIUS_KM * Math.cos(Math.toRadians(lat))));
+                for (int i = 0; i < events; i++) {
+                    if (Math.abs(lats[i] - lat) > latDelta) {
+                        continue;
+                    }
+                    boxScans++;
+                    if (Math.abs(lons[i] - lon) <= lonDelta) {
+                        boxReads++;
+                        if (GeoHash.distanceKm(lat, lon, lats[i], lons[i]) <= radiusKm) {
+                            matches++;
+                        }
+                    }
+                }
+
+                for (int b = 0; b < budgets.length; b++) {
+                    long start = System.nanoTime();
+                    List<GeoHash.Range> ranges = GeoHash.coveringRanges(lat, lon, radiusKm, budgets[b]);
+                    planNanos += System.nanoTime() - start;
+                    rangeCount[b] += ranges.size();
+                    for (GeoHash.Range range : ranges) {
+                        int from = lowerBound(sorted, range.start);
+                        int to = lowerBound(sorted, range.getUpperBound());
+                        rangeReads[b] += to - from;
+                    }
+                }
+            }
+
+            StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                    "GeoHash %.0f km: %d events, %.1f matches/query, bounding box reads %.1f/query "
+                            + "(%.1f index entries scanned)",
+                    radiusKm, events, (double) matches / queries, (double) boxReads / queries,
+                    (double) boxScans / queries));
+            for (int b = 0; b < budgets.length; b++) {
+                report.append(String.format(Locale.ROOT, "; <= %d ranges (%.1f used) reads %.1f/query",
+                        budgets[b], (double) rangeCount[b] / queries, (double) rangeReads[b] / queries));
+                // Every match is read
+                assertTrue(rangeReads[b] >= matches);
+            }
+            report.append(String.format(Locale.ROOT, "; planning %.3f ms/query",
+                    planNanos / 1_000_000.0 / (queries * budgets.length)));
+            System.out.println(report);
+            // Geohash ranges scan only what they read
+            assertTrue(rangeReads[budgets.length - 1] <= rangeReads[0]);
+            assertTrue(rangeReads[budgets.length - 1] < boxScans);
+        }
+    }
+
+    private static int lowerBound(String[] sorted, String key) {
+        int index = Arrays.binarySearch(sorted, key);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index > 0 && sorted[index - 1].equals(key)) {
+            index--;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,167 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.LocalReasonIndex;
+import com.kernelcrew.moodapp.data.MoodEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link LocalReasonIndex}.
+ */
+public class LocalReasonIndexTest {
+    private LocalReasonIndex index;
+
+    @Before
+    public void setUp() {
+        index = new LocalReasonIndex();
+    }
+
+    private static MoodEvent mood(String id, String reason, long created) {
+        MoodEvent mood = new MoodEvent("uid", "user", Emotion.HAPPINESS, "Alone", reason, null, null);
+        mood.setId(id);
+        mood.setCreated(new Date(created));
+        return mood;
+    }
+
+    private static List<String> ids(List<MoodEvent> moods) {
+        List<String> ids = new ArrayList<>();
+        for (MoodEvent mood : moods) {
+            ids.add(mood.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testFilterKeepsOrderOfMatches() {
+        List<MoodEvent> moods = Arrays.asList(
+                mood("m1", "Great day at the park", 30),
+                mood("m2", "Bad day at work", 20),
+                mood("m3", "Parked the car", 10));
+
+        assertEquals(Arrays.asList("m1", "m3"), ids(index.filter(moods, "PARK")));
+        assertEquals(Collections.singletonList("m2"), ids(index.filter(moods, "day work")));
+        assertEquals(moods, index.filter(moods, "  "));
+    }
+
+    @Test
+    public void testLongQueryWordsAreCheckedInFull() {
+        List<MoodEvent> moods = Arrays.asList(
+                mood("m1", "overwhelmingly busy", 20),
+                mood("m2", "overwhelmed", 10));
+
+        assertEquals(Collections.singletonList("m1"), ids(index.filter(moods, "overwhelmingly")));
+    }
+
+    @Test
+    public void testUpdatedReasonIsReindexed() {
+        index.update(Collections.singletonList(mood("m1", "sunny", 10)));
+        index.update(Collections.singletonList(mood("m1", "rainy", 10)));
+
+        assertTrue(index.matchingIds("sunny").isEmpty());
+        assertEquals(Collections.singleton("m1"), index.matchingIds("rain"));
+        assertNull(index.matchingIds(""));
+
+        index.remove("m1");
+        assertTrue(index.matchingIds("rain").isEmpty());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testSyncForgetsUnloadedEvents() {
+        index.update(Arrays.asList(mood("m1", "sunny", 10), mood("m2", "sunny walk", 20)));
+
+        // m1 was deleted
+        index.sync(Collections.singletonList(mood("m2", "sunny walk", 20)));
+        assertEquals(1, index.size());
+        assertEquals(Collections.singleton("m2"), index.matchingIds("sunny"));
+        assertEquals(Collections.singletonList("m2"), ids(index.search("sun")));
+    }
+
+    @Test
+    public void testSearchReturnsNewestFirst() {
+        index.update(Arrays.asList(mood("old", "gym", 10), mood("new", "gym again", 30), mood("x", "nap", 20)));
+        assertEquals(Arrays.asList("new", "old"), ids(index.search("gym")));
+    }
+
+    @Test
+    public void benchmarkTenThousandEvents() {
+        assumeTrue(Boolean.getBoolean("benchmarks"));
+        int events = 10_000;
+        int queries = 500;
+        String[] vocabulary = {"work", "family", "friends", "exam", "gym", "weather", "sleep", "coffee",
+                "music", "walk", "dinner", "movie", "rain", "sun", "traffic", "deadline", "party", "game",
+                "project", "holiday", "school", "bus", "dog", "cat", "lunch", "book", "run", "call"};
+        Random random = new Random(18);
+
+        List<MoodEvent> moods = new ArrayList<>();
+        for (int i = 0; i < events; i++) {
+            StringBuilder reason = new StringBuilder();
+            int words = 3 + random.nextInt(8);
+            for (int w = 0; w < words; w++) {
+                reason.append(vocabulary[random.nextInt(vocabulary.length)]).append(w % 3 == 2 ? ". " : " ");
+            }
+            moods.add(mood("m" + i, reason.toString(), i));
+        }
+        String[] searches = new String[queries];
+        for (int i = 0; i < queries; i++) {
+            String word = vocabulary[random.nextInt(vocabulary.length)];
+            searches[i] = word.substring(0, 2 + random.nextInt(word.length() - 1));
+        }
+
+        long start = System.nanoTime();
+        index.update(moods);
+        long buildNanos = System.nanoTime() - start;
+
+        // The previous approach: lower case every reason and scan it, on every search
+        int scanned = 0;
+        start = System.nanoTime();
+        for (String query : searches) {
+            for (MoodEvent mood : moods) {
+                if (mood.getReason().toLowerCase().contains(query)) {
+                    scanned++;
+                }
+            }
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        // Lookups in the index alone, as used for the preview of loaded mood events
+        int looked = 0;
+        start = System.nanoTime();
+        for (String query : searches) {
+            looked += index.matchingIds(query).size();
+        }
+        long lookupNanos = System.nanoTime() - start;
+
+        // Filtering a freshly delivered list: resync the index, then keep the list's order
+        int indexed = 0;
+        start = System.nanoTime();
+        for (String query : searches) {
+            indexed += index.filter(moods, query).size();
+        }
+        long filterNanos = System.nanoTime() - start;
+
+        System.out.printf(Locale.ROOT,
+                "LocalReasonIndex: %d events, build %d ms; %d searches: scan %d ms (%d hits), "
+                        + "index lookup %.2f ms (%d hits), index filter %d ms (%d hits)%n",
+                events, buildNanos / 1_000_000, queries, scanNanos / 1_000_000, scanned,
+                lookupNanos / 1_000_000.0, looked, filterNanos / 1_000_000, indexed);
+        assertEquals(events, index.size());
+        assertEquals(looked, indexed);
+        assertTrue(indexed > 0);
+    }
+}
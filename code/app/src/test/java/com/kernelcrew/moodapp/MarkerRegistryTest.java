@@ -0,0 +1,141 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.annotation.NonNull;
+
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.ui.MarkerRegistry;
+import com.kernelcrew.moodapp.ui.MoodClusterer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link MarkerRegistry}.
+ */
+public class MarkerRegistryTest {
+    /**
+     * Records what was drawn. Markers are the cluster keys they were added for.
+     */
+    private static class RecordingRenderer implements MarkerRegistry.Renderer<String> {
+        final List<String> added = new ArrayList<>();
+        final List<String> updated = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+
+        @Override
+        public String add(@NonNull MoodClusterer.Cluster cluster) {
+            added.add(cluster.getKey());
+            return cluster.getKey();
+        }
+
+        @Override
+        public void update(@NonNull String marker, @NonNull MoodClusterer.Cluster cluster) {
+            updated.add(marker);
+        }
+
+        @Override
+        public void remove(@NonNull String marker) {
+            removed.add(marker);
+        }
+
+        void reset() {
+            added.clear();
+            updated.clear();
+            removed.clear();
+        }
+    }
+
+    private RecordingRenderer renderer;
+    private MarkerRegistry<String> registry;
+
+    @Before
+    public void setUp() {
+        renderer = new RecordingRenderer();
+        registry = new MarkerRegistry<>(renderer);
+    }
+
+    private static MoodEvent mood(String id, Emotion emotion, double latitude, double longitude) {
+        MoodEvent mood = new MoodEvent("uid", "user", emotion, "Alone", "", latitude, longitude);
+        mood.setId(id);
+        return mood;
+    }
+
+    private static List<MoodClusterer.Cluster> clusters(float zoom, MoodEvent... moods) {
+        return new MoodClusterer(Arrays.asList(moods)).cluster(zoom);
+    }
+
+    @Test
+    public void testOneChangedMoodTouchesOneMarker() {
+        MoodEvent a = mood("a", Emotion.HAPPINESS, 53.52, -113.52);
+        MoodEvent b = mood("b", Emotion.SADNESS, 53.53, -113.53);
+        MoodEvent c = mood("c", Emotion.ANGER, 53.54, -113.54);
+        registry.show(clusters(20, a, b, c));
+        assertEquals(Arrays.asList("a", "b", "c"), renderer.added);
+        assertEquals(3, registry.size());
+
+        // The same mood events again, e.g. from another query's snapshot
+        renderer.reset();
+        registry.show(clusters(20, a, b, c));
+        assertEquals(0, renderer.added.size() + renderer.updated.size() + renderer.removed.size());
+
+        // One mood event moved
+        renderer.reset();
+        registry.show(clusters(20, a, mood("b", Emotion.SADNESS, 53.535, -113.53), c));
+        assertEquals(Collections.singletonList("b"), renderer.updated);
+        assertEquals(0, renderer.added.size() + renderer.removed.size());
+
+        // One mood event changed emotion
+        renderer.reset();
+        registry.show(clusters(20, mood("a", Emotion.FEAR, 53.52, -113.52),
+                mood("b", Emotion.SADNESS, 53.535, -113.53), c));
+        assertEquals(Collections.singletonList("a"), renderer.updated);
+
+        // One mood event deleted
+        renderer.reset();
+        registry.show(clusters(20, mood("a", Emotion.FEAR, 53.52, -113.52), c));
+        assertEquals(Collections.singletonList("b"), renderer.removed);
+        assertEquals(0, renderer.added.size() + renderer.updated.size());
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testClusterChangesUpdateTheClusterMarker() {
+        MoodEvent a = mood("a", Emotion.HAPPINESS, 53.5232, -113.5263);
+        MoodEvent b = mood("b", Emotion.HAPPINESS, 53.5240, -113.5270);
+        MoodEvent far = mood("far", Emotion.ANGER, 51.05, -114.07);
+        registry.show(clusters(10, a, b, far));
+        assertEquals(2, renderer.added.size());
+
+        // A mood event joining the city's cluster redraws that cluster only
+        renderer.reset();
+        registry.show(clusters(10, a, b, mood("c", Emotion.SADNESS, 53.5250, -113.5250), far));
+        assertEquals(1, renderer.updated.size());
+        assertEquals(0, renderer.added.size() + renderer.removed.size());
+    }
+
+    @Test
+    public void testClearRemovesEveryMarker() {
+        registry.show(clusters(20, mood("a", Emotion.HAPPINESS, 1, 1), mood("b", Emotion.HAPPINESS, 2, 2)));
+        registry.clear();
+        assertEquals(Arrays.asList("a", "b"), sorted(renderer.removed));
+        assertEquals(0, registry.size());
+
+        // Everything is added again afterwards
+        renderer.reset();
+        registry.show(clusters(20, mood("a", Emotion.HAPPINESS, 1, 1)));
+        assertEquals(Collections.singletonList("a"), renderer.added);
+    }
+
+    private static List<String> sorted(List<String> list) {
+        List<String> sorted = new ArrayList<>(list);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,158 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.ui.MoodClusterer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link MoodClusterer}.
+ */
+public class MoodClustererTest {
+    private static MoodEvent mood(String id, Emotion emotion, Double latitude, Double longitude) {
+        MoodEvent mood = new MoodEvent("uid", "user", emotion, "Alone", "", latitude, longitude);
+        mood.setId(id);
+        return mood;
+    }
+
+    private static Set<String> keys(List<MoodClusterer.Cluster> clusters) {
+        Set<String> keys = new HashSet<>();
+        for (MoodClusterer.Cluster cluster : clusters) {
+            keys.add(cluster.getKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testNearbyMoodsClusterUntilZoomedIn() {
+        List<MoodEvent> moods = Arrays.asList(
+                mood("a", Emotion.HAPPINESS, 53.5232, -113.5263),
+                mood("b", Emotion.SADNESS, 53.5240, -113.5270),
+                mood("c", Emotion.HAPPINESS, 53.5250, -113.5250),
+                mood("far", Emotion.ANGER, 51.05, -114.07),
+                mood("unknown", Emotion.FEAR, null, null));
+        MoodClusterer clusterer = new MoodClusterer(moods);
+        assertEquals(4, clusterer.size());
+
+        List<MoodClusterer.Cluster> clusters = clusterer.cluster(10);
+        assertEquals(2, clusters.size());
+        MoodClusterer.Cluster city = clusters.get(0);
+        assertEquals(3, city.getSize());
+        assertNull(city.getMood());
+        assertEquals(Emotion.HAPPINESS, city.getDominantEmotion());
+        assertEquals(2, city.getEmotionCount(Emotion.HAPPINESS));
+        assertEquals("2 Happy, 1 Sad", city.getBreakdown());
+        assertEquals(53.524, city.getLatitude(), 0.001);
+        assertEquals(-113.526, city.getLongitude(), 0.001);
+
+        // A single mood event is keyed by its ID
+        assertEquals("far", clusters.get(1).getKey());
+        assertSame(moods.get(3), clusters.get(1).getMood());
+
+        // Fully zoomed in, every mood event stands alone
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", "far")), keys(clusterer.cluster(20.5f)));
+        // Clusters of a zoom level are kept
+        assertSame(clusters, clusterer.cluster(10.7f));
+    }
+
+    @Test
+    public void testVisibleCullsToTheView() {
+        List<MoodEvent> moods = Arrays.asList(
+                mood("in", Emotion.HAPPINESS, 10.0, 10.0),
+                mood("edge", Emotion.HAPPINESS, 10.0, 11.2),
+                mood("out", Emotion.HAPPINESS, 10.0, 14.0),
+                mood("below", Emotion.HAPPINESS, 5.0, 10.0));
+        List<MoodClusterer.Cluster> clusters = new MoodClusterer(moods).cluster(20);
+
+        // The padding keeps markers just outside the view
+        assertEquals(new HashSet<>(Arrays.asList("in", "edge")),
+                keys(MoodClusterer.visible(clusters, 9, 9, 11, 11)));
+        assertEquals(4, MoodClusterer.visible(clusters, -80, -180, 80, 180).size());
+    }
+
+    @Test
+    public void testVisibleAcrossTheAntiMeridian() {
+        List<MoodEvent> moods = Arrays.asList(
+                mood("west", Emotion.HAPPINESS, 0.0, -179.5),
+                mood("east", Emotion.HAPPINESS, 0.0, 179.5),
+                mood("away", Emotion.HAPPINESS, 0.0, 0.0));
+        List<MoodClusterer.Cluster> clusters = new MoodClusterer(moods).cluster(20);
+
+        assertEquals(new HashSet<>(Arrays.asList("west", "east")),
+                keys(MoodClusterer.visible(clusters, -1, 179, 1, -179)));
+    }
+
+    @Test
+    public void benchmarkTenThousandEvents() {
+        assumeTrue(Boolean.getBoolean("benchmarks"));
+        int events = 10_000;
+        int frames = 50;
+        // A city about 40 km across, seen on a phone at each zoom level
+        double centerLat = 53.5232, centerLon = -113.5263;
+        Random random = new Random(21);
+        Emotion[] emotions = Emotion.values();
+        List<MoodEvent> moods = new ArrayList<>(events);
+        for (int i = 0; i < events; i++) {
+            moods.add(mood("m" + i, emotions[random.nextInt(emotions.length)],
+                    centerLat + random.nextGaussian() * 0.08, centerLon + random.nextGaussian() * 0.12));
+        }
+
+        long start = System.nanoTime();
+        MoodClusterer clusterer = new MoodClusterer(moods);
+        long projectNanos = System.nanoTime() - start;
+
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "MoodClusterer: %d events, projection %.2f ms", events, projectNanos / 1e6));
+        for (int zoom : new int[] {8, 11, 13, 15, 18}) {
+            // The view is about 1080 x 1920 pixels, 4 x 7.5 tiles at its zoom level
+            double tiles = Math.pow(2, zoom);
+            double halfWidth = 360 / tiles * 2;
+            double halfHeight = halfWidth * 1.875 * Math.cos(Math.toRadians(centerLat));
+
+            start = System.nanoTime();
+            List<MoodClusterer.Cluster> clusters = clusterer.cluster(zoom);
+            long firstNanos = System.nanoTime() - start;
+
+            // Panning around at the same zoom level: only culling runs again
+            List<MoodClusterer.Cluster> visible = null;
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                double lat = centerLat + (random.nextDouble() - 0.5) * 0.1;
+                double lon = centerLon + (random.nextDouble() - 0.5) * 0.1;
+                visible = MoodClusterer.visible(clusterer.cluster(zoom),
+                        lat - halfHeight, lon - halfWidth, lat + halfHeight, lon + halfWidth);
+            }
+            long panNanos = System.nanoTime() - start;
+
+            int clustered = 0;
+            for (MoodClusterer.Cluster cluster : clusters) {
+                clustered += cluster.getSize();
+            }
+            assertEquals(events, clustered);
+            report.append(String.format(Locale.ROOT,
+                    "; zoom %d: %d clusters in %.2f ms, %d markers in view, %.3f ms/frame panning",
+                    zoom, clusters.size(), firstNanos / 1e6, visible.size(), panNanos / 1e6 / frames));
+            if (zoom <= MoodClusterer.MAX_CLUSTER_ZOOM) {
+                // At most one marker per 128 pixel cell of the padded view, 12 x 22.5 cells,
+                // however many mood events are in it
+                assertTrue(visible.size() <= 13 * 24);
+            }
+        }
+        System.out.println(report);
+    }
+}
@@ -1,12 +1,15 @@
 package com.kernelcrew.moodapp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -14,8 +17,12 @@ import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.Filter;
 import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.GeoHash;
+import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.data.MoodEventFilter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -287,4 +294,134 @@ public class MoodEventFilterTest {
         ));
         assertEquals(mockQuery, builtQuery);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDisjunctionCount() {
+        MoodEventFilter filter = new MoodEventFilter(mockCollectionReference);
+        assertEquals(1, filter.disjunctionCount());
+        assertEquals(30, filter.whereInBatchSize(1));
+
+        filter.addEmotion(Emotion.ANGER).addEmotion(Emotion.FEAR)
+                .addSocialSituation("Alone").addSocialSituation("With a crowd").addSocialSituation("With one other person");
+        assertEquals(6, filter.disjunctionCount());
+        assertEquals(5, filter.whereInBatchSize(1));
+        // The OR on visibility in getAll() doubles every disjunction
+        assertEquals(2, filter.whereInBatchSize(2));
+    }
+
+    @Test
+    public void testWhereInBatchSizeIsAtLeastOne() {
+        MoodEventFilter filter = new MoodEventFilter(mockCollectionReference);
+        for (Emotion emotion : Emotion.values()) {
+            filter.addEmotion(emotion);
+        }
+        filter.addSocialSituation("Alone").addSocialSituation("With a crowd").addSocialSituation("With one other person");
+
+        assertEquals(1, filter.whereInBatchSize(2));
+    }
+
+    @Test
+    public void testBuildQueryOnOtherBase() {
+        Query base = mock(Query.class);
+        when(base.whereIn(anyString(), anyList())).thenReturn(mockQuery);
+
+        MoodEventFilter filter = new MoodEventFilter(mockCollectionReference)
+                .addEmotion(Emotion.ANGER);
+
+        assertEquals(mockQuery, filter.buildQuery(base));
+        verify(base).whereIn(eq("emotion"), anyList());
+    }
+
+    @Test
+    public void testReasonQueryUsesTokenIndex() {
+        when(mockCollectionReference.whereArrayContains(anyString(), any())).thenReturn(mockQuery);
+
+        MoodEventFilter filter = new MoodEventFilter(mockCollectionReference)
+                .setReasonQuery("  Bad DAYS ");
+
+        // Only the most selective word is looked up, the others are checked on the device
+        assertEquals(mockQuery, filter.buildQuery());
+        verify(mockCollectionReference).whereArrayContains(eq("reasonTokens"), eq("days"));
+        assertEquals(1, filter.disjunctionCount());
+    }
+
+    @Test
+    public void testReasonQueryLeavesDisjunctionBudget() {
+        MoodEventFilter filter = new MoodEventFilter(mockCollectionReference)
+                .setReasonQuery("one two three four five six seven eight nine ten eleven twelve thirteen fourteen fifteen sixteen");
+        filter.addEmotion(Emotion.ANGER).addEmotion(Emotion.FEAR);
+
+        assertEquals(2, filter.disjunctionCount());
+        assertEquals(15, filter.whereInBatchSize(1));
+        assertEquals("thirteen", filter.getReasonTerm());
+        assertNull(new MoodEventFilter(mockCollectionReference).getReasonTerm());
+    }
+
+    @Test
+    public void testLocationQueriesGeohashRanges() {
+        when(mockQuery.whereLessThan(anyString(), any())).thenReturn(mockQuery);
+
+        MoodEventFilter filter = new MoodEventFilter(mockCollectionReference)
+                .setLocation(53.5232, -113.5263, 5);
+        List<GeoHash.Range> ranges = filter.getGeohashRanges(MoodEventFilter.MAX_GEOHASH_RANGES);
+        List<Query> queries = filter.buildQueries();
+
+        assertTrue(ranges.size() > 1);
+        assertEquals(ranges.size(), queries.size());
+        for (GeoHash.Range range : ranges) {
+            verify(mockCollectionReference).whereGreaterThanOrEqualTo(eq("geohash"), eq(range.start));
+            verify(mockQuery).whereLessThan(eq("geohash"), eq(range.getUpperBound()));
+        }
+        // No more ranges on both coordinates
+        verify(mockCollectionReference, never()).whereGreaterThanOrEqualTo(eq("latitude"), any());
+        verify(mockQuery, never()).whereGreaterThanOrEqualTo(eq("longitude"), any());
+    }
+
+    @Test
+    public void testSingleQueryUsesOneGeohashRange() {
+        when(mockQuery.whereLessThan(anyString(), any())).thenReturn(mockQuery);
+
+        MoodEventFilter filter = new MoodEventFilter(mockCollectionReference)
+                .setLocation(53.5232, -113.5263, 5);
+        GeoHash.Range range = filter.getGeohashRanges(1).get(0);
+
+        assertEquals(mockQuery, filter.buildQuery());
+        verify(mockCollectionReference).whereGreaterThanOrEqualTo(eq("geohash"), eq(range.start));
+        verify(mockQuery).whereLessThan(eq("geohash"), eq(range.getUpperBound()));
+        assertEquals(Collections.singletonList(mockQuery), new MoodEventFilter(mockCollectionReference).buildQueries());
+    }
+
+    @Test
+    public void testApplyLocationFilterUsesExactDistance() {
+        MoodEvent near = new MoodEvent("uid", "user", Emotion.HAPPINESS, "Alone", "", 53.53, -113.53);
+        // Inside the old bounding box, in its corner
+        MoodEvent corner = new MoodEvent("uid", "user", Emotion.HAPPINESS, "Alone", "", 53.5232 + 0.04, -113.5263 + 0.07);
+        MoodEvent nowhere = new MoodEvent("uid", "user", Emotion.HAPPINESS, "Alone", "", null, null);
+        List<MoodEvent> events = Arrays.asList(near, corner, nowhere);
+
+        MoodEventFilter filter = new MoodEventFilter(mockCollectionReference);
+        assertEquals(events, filter.applyLocationFilter(events));
+
+        filter.setLocation(53.5232, -113.5263, 5);
+        assertEquals(Collections.singletonList(near), filter.applyLocationFilter(events));
+    }
+
+    @Test
+    public void testQueryKeyIgnoresLocationAndOrder() {
+        MoodEventFilter a = new MoodEventFilter(mockCollectionReference)
+                .addEmotion(Emotion.HAPPINESS)
+                .addEmotion(Emotion.SADNESS)
+                .setLocation(53.5232, -113.5263, 5);
+        MoodEventFilter b = new MoodEventFilter(mockCollectionReference)
+                .addEmotion(Emotion.SADNESS)
+                .addEmotion(Emotion.HAPPINESS);
+        assertEquals(a.getQueryKey(), b.getQueryKey());
+
+        b.setLimit(10);
+        assertTrue(!a.getQueryKey().equals(b.getQueryKey()));
+        a.setLimit(10);
+        assertEquals(a.getQueryKey(), b.getQueryKey());
+        a.setDateRange(new Date(1000L), null);
+        assertTrue(!a.getQueryKey().equals(b.getQueryKey()));
+    }
+}
@@ -0,0 +1,269 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.kernelcrew.moodapp.data.CombinedListener;
+import com.kernelcrew.moodapp.data.FeedMerger;
+import com.kernelcrew.moodapp.data.MoodEventPager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Unit tests for {@link MoodEventPager}.
+ */
+public class MoodEventPagerTest {
+    private static final int PAGE_SIZE = 2;
+
+    private Query query;
+    private Query firstPageQuery;
+    private EventListener<QuerySnapshot> firstPageListener;
+    private List<String> shown;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        query = mock(Query.class);
+        firstPageQuery = mock(Query.class);
+        when(query.limit(PAGE_SIZE)).thenReturn(firstPageQuery);
+        when(firstPageQuery.addSnapshotListener(any(EventListener.class)))
+                .thenReturn(mock(ListenerRegistration.class));
+        shown = new ArrayList<>();
+    }
+
+    @SuppressWarnings("unchecked")
+    private MoodEventPager startPager() {
+        MoodEventPager pager = new MoodEventPager(query, PAGE_SIZE, (documents, error) -> {
+            shown.clear();
+            for (DocumentSnapshot doc : documents) {
+                shown.add(doc.getId());
+            }
+        }).start();
+
+        ArgumentCaptor<EventListener<QuerySnapshot>> captor = ArgumentCaptor.forClass(EventListener.class);
+        verify(firstPageQuery).addSnapshotListener(captor.capture());
+        firstPageListener = captor.getValue();
+        return pager;
+    }
+
+    private static QueryDocumentSnapshot doc(String id, long created) {
+        QueryDocumentSnapshot doc = mock(QueryDocumentSnapshot.class);
+        when(doc.getId()).thenReturn(id);
+        when(doc.getDate("created")).thenReturn(new Date(created));
+        return doc;
+    }
+
+    private static QuerySnapshot snapshot(List<? extends DocumentSnapshot> docs, DocumentSnapshot... removed) {
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocuments()).thenReturn(new ArrayList<>(docs));
+        List<DocumentChange> changes = new ArrayList<>();
+        for (DocumentSnapshot doc : removed) {
+            DocumentChange change = mock(DocumentChange.class);
+            when(change.getType()).thenReturn(DocumentChange.Type.REMOVED);
+            when(change.getDocument()).thenReturn((QueryDocumentSnapshot) doc);
+            changes.add(change);
+        }
+        when(snapshot.getDocumentChanges()).thenReturn(changes);
+        return snapshot;
+    }
+
+    /**
+     * Stub the query for the page after a document, completing immediately with the given page.
+     */
+    private void stubNextPage(DocumentSnapshot after, List<? extends DocumentSnapshot> page) {
+        stubNextPage(query, after, page);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubNextPage(Query query, DocumentSnapshot after, List<? extends DocumentSnapshot> page) {
+        Query afterQuery = mock(Query.class);
+        Query limitedQuery = mock(Query.class);
+        Task<QuerySnapshot> task = mock(Task.class);
+        QuerySnapshot result = snapshot(page);
+
+        when(query.startAfter(after)).thenReturn(afterQuery);
+        when(afterQuery.limit(anyLong())).thenReturn(limitedQuery);
+        when(limitedQuery.get()).thenReturn(task);
+        when(task.addOnSuccessListener(any(OnSuccessListener.class))).thenAnswer(invocation -> {
+            ((OnSuccessListener<QuerySnapshot>) invocation.getArgument(0)).onSuccess(result);
+            return task;
+        });
+        when(task.addOnFailureListener(any())).thenReturn(task);
+    }
+
+    @Test
+    public void testLoadsOlderPagesAfterLastDocument() {
+        QueryDocumentSnapshot d4 = doc("d4", 40), d3 = doc("d3", 30), d2 = doc("d2", 20), d1 = doc("d1", 10);
+        MoodEventPager pager = startPager();
+
+        firstPageListener.onEvent(snapshot(Arrays.asList(d4, d3)), null);
+        assertEquals(Arrays.asList("d4", "d3"), shown);
+        assertTrue(pager.hasMore());
+
+        stubNextPage(d3, Arrays.asList(d2, d1));
+        pager.loadNextPage();
+        assertEquals(Arrays.asList("d4", "d3", "d2", "d1"), shown);
+        assertTrue(pager.hasMore());
+
+        stubNextPage(d1, Collections.emptyList());
+        pager.loadNextPage();
+        assertFalse(pager.hasMore());
+    }
+
+    @Test
+    public void testShortFirstPageHasNoMore() {
+        MoodEventPager pager = startPager();
+        firstPageListener.onEvent(snapshot(Collections.singletonList(doc("d1", 10))), null);
+
+        assertFalse(pager.hasMore());
+        pager.loadNextPage();
+        verify(query, never()).startAfter(any(DocumentSnapshot.class));
+    }
+
+    @Test
+    public void testDocumentPushedOffFirstPageIsKept() {
+        QueryDocumentSnapshot d4 = doc("d4", 40), d3 = doc("d3", 30), d2 = doc("d2", 20);
+        MoodEventPager pager = startPager();
+        firstPageListener.onEvent(snapshot(Arrays.asList(d4, d3)), null);
+        stubNextPage(d3, Collections.singletonList(d2));
+        pager.loadNextPage();
+
+        // A new mood event pushes d3 off the live first page
+        firstPageListener.onEvent(snapshot(Arrays.asList(doc("d5", 50), d4), d3), null);
+        assertEquals(Arrays.asList("d5", "d4", "d3", "d2"), shown);
+    }
+
+    @Test
+    public void testDeletionPullsOlderDocumentUp() {
+        QueryDocumentSnapshot d4 = doc("d4", 40), d3 = doc("d3", 30), d2 = doc("d2", 20), d1 = doc("d1", 10);
+        MoodEventPager pager = startPager();
+        firstPageListener.onEvent(snapshot(Arrays.asList(d4, d3)), null);
+        stubNextPage(d3, Arrays.asList(d2, d1));
+        pager.loadNextPage();
+
+        // Deleting d4 pulls d2 onto the first page; it must not be shown twice
+        firstPageListener.onEvent(snapshot(Arrays.asList(d3, d2), d4), null);
+        assertEquals(Arrays.asList("d3", "d2", "d1"), shown);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMergesQueriesWithoutSkippingAhead() {
+        Query otherQuery = mock(Query.class);
+        Query otherFirstPageQuery = mock(Query.class);
+        when(otherQuery.limit(PAGE_SIZE)).thenReturn(otherFirstPageQuery);
+        when(otherFirstPageQuery.addSnapshotListener(any(EventListener.class)))
+                .thenReturn(mock(ListenerRegistration.class));
+        MoodEventPager pager = new MoodEventPager(Arrays.asList(query, otherQuery), PAGE_SIZE, (documents, error) -> {
+            shown.clear();
+            for (DocumentSnapshot doc : documents) {
+                shown.add(doc.getId());
+            }
+        }).start();
+        ArgumentCaptor<EventListener<QuerySnapshot>> captor = ArgumentCaptor.forClass(EventListener.class);
+        verify(firstPageQuery).addSnapshotListener(captor.capture());
+        EventListener<QuerySnapshot> first = captor.getValue();
+        verify(otherFirstPageQuery).addSnapshotListener(captor.capture());
+        EventListener<QuerySnapshot> other = captor.getValue();
+
+        QueryDocumentSnapshot a9 = doc("a9", 90), a5 = doc("a5", 50);
+        QueryDocumentSnapshot b8 = doc("b8", 80), b7 = doc("b7", 70), b6 = doc("b6", 60);
+        first.onEvent(snapshot(Arrays.asList(a9, a5)), null);
+        assertTrue(shown.isEmpty());
+
+        // The other query may still hold mood events between b7 and a5
+        other.onEvent(snapshot(Arrays.asList(b8, b7)), null);
+        assertEquals(Arrays.asList("a9", "b8", "b7"), shown);
+
+        // So its next page is read first
+        stubNextPage(otherQuery, b7, Collections.singletonList(b6));
+        pager.loadNextPage();
+        verify(query, never()).startAfter(any(DocumentSnapshot.class));
+        assertEquals(Arrays.asList("a9", "b8", "b7", "b6", "a5"), shown);
+        assertTrue(pager.hasMore());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReportsOnlyNewMoodEventsOfEachPage() {
+        QueryDocumentSnapshot d4 = doc("d4", 40), d3 = doc("d3", 30), d2 = doc("d2", 20);
+        QueryDocumentSnapshot other = doc("other", 25);
+        FeedMerger<DocumentSnapshot> merger = new FeedMerger<>(new FeedMerger.Keys<DocumentSnapshot>() {
+            @Override
+            public String getId(DocumentSnapshot doc) {
+                return doc.getId();
+            }
+
+            @Override
+            public long getCreated(DocumentSnapshot doc) {
+                return doc.getDate("created").getTime();
+            }
+
+            @Override
+            public String getOwner(DocumentSnapshot doc) {
+                return null;
+            }
+        });
+        // A live listener sharing the merger, e.g. of followed users
+        merger.apply(1, Collections.singletonList(new FeedMerger.Change<>(FeedMerger.Change.Type.UPSERT, other)));
+        ListenerRegistration otherRegistration = mock(ListenerRegistration.class);
+        List<FeedMerger.Diff<DocumentSnapshot>> reported = new ArrayList<>();
+        MoodEventPager pager = new MoodEventPager(Collections.singletonList(query), PAGE_SIZE, merger, 0,
+                new CombinedListener() {
+                    @Override
+                    public void onEvent(List<DocumentSnapshot> documents, FirebaseFirestoreException error) {
+                    }
+
+                    @Override
+                    public void onChanges(List<DocumentSnapshot> documents,
+                                          List<FeedMerger.Diff<DocumentSnapshot>> diffs) {
+                        shown.clear();
+                        for (DocumentSnapshot doc : documents) {
+                            shown.add(doc.getId());
+                        }
+                        reported.clear();
+                        reported.addAll(diffs);
+                    }
+                }).removeWith(otherRegistration).start();
+        ArgumentCaptor<EventListener<QuerySnapshot>> captor = ArgumentCaptor.forClass(EventListener.class);
+        verify(firstPageQuery).addSnapshotListener(captor.capture());
+        captor.getValue().onEvent(snapshot(Arrays.asList(d4, d3)), null);
+        assertEquals(Arrays.asList("d4", "d3", "other"), shown);
+
+        // The older page only inserts its own mood events
+        stubNextPage(d3, Collections.singletonList(d2));
+        pager.loadNextPage();
+        assertEquals(Arrays.asList("d4", "d3", "other", "d2"), shown);
+        assertEquals(1, reported.size());
+        assertEquals(FeedMerger.Diff.Type.INSERT, reported.get(0).type);
+        assertEquals(3, reported.get(0).position);
+
+        pager.remove();
+        verify(otherRegistration).remove();
+    }
+}
@@ -2,12 +2,15 @@ package com.kernelcrew.moodapp;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 
 import android.graphics.Bitmap;
 
+import com.google.firebase.firestore.Blob;
 import com.kernelcrew.moodapp.data.MoodEvent;
 import com.kernelcrew.moodapp.utils.PhotoUtils;
 
@@ -24,6 +27,7 @@ public class MoodEventTest {
     @Mock
     Bitmap bitmap = Mockito.mock(Bitmap.class);
 
+    byte[] fakeBytes = new byte[] { 42 };
     List<Integer> fakeByteList = List.of(42);
     MockedStatic<PhotoUtils> photoUtilsMockedStatic;
 
@@ -31,8 +35,9 @@ public class MoodEventTest {
     public void before() {
         photoUtilsMockedStatic = Mockito.mockStatic(PhotoUtils.class, "");
 
-        photoUtilsMockedStatic.when(() -> PhotoUtils.compressPhoto(bitmap)).thenReturn(fakeByteList);
-        photoUtilsMockedStatic.when(() -> PhotoUtils.decodePhoto(fakeByteList)).thenReturn(bitmap);
+        photoUtilsMockedStatic.when(() -> PhotoUtils.compressPhoto(bitmap)).thenReturn(fakeBytes);
+        photoUtilsMockedStatic.when(() -> PhotoUtils.decodePhoto(Mockito.aryEq(fakeBytes))).thenReturn(bitmap);
+        photoUtilsMockedStatic.when(() -> PhotoUtils.toByteArray(fakeByteList)).thenReturn(fakeBytes);
     }
 
     @After
@@ -45,9 +50,9 @@ public class MoodEventTest {
         MoodEvent moodEvent = new MoodEvent();
         moodEvent.setPhoto(bitmap);
 
-        List<Integer> photoBytes = moodEvent.getPhotoBytes();
-        assertNotNull(photoBytes);
-        assertArrayEquals(fakeByteList.toArray(), photoBytes.toArray());
+        Blob photoBlob = moodEvent.getPhotoBlob();
+        assertNotNull(photoBlob);
+        assertArrayEquals(fakeBytes, photoBlob.toBytes());
 
         // Check that compression was called
         photoUtilsMockedStatic.verify(() -> PhotoUtils.compressPhoto(bitmap));
@@ -55,19 +60,119 @@ public class MoodEventTest {
 
     @Test
     public void testDecodeImage() {
+        MoodEvent moodEvent = new MoodEvent();
+        moodEvent.setPhotoBlob(Blob.fromBytes(fakeBytes));
+
+        // Decoding is deferred until the photo is actually requested
+        assertTrue(moodEvent.hasPhoto());
+        photoUtilsMockedStatic.verify(() -> PhotoUtils.decodePhoto(Mockito.any(byte[].class)), Mockito.never());
+
+        assertEquals(bitmap, moodEvent.getPhoto());
+        assertEquals(bitmap, moodEvent.getPhoto());
+
+        // ...and then only happens once
+        photoUtilsMockedStatic.verify(() -> PhotoUtils.decodePhoto(Mockito.aryEq(fakeBytes)));
+    }
+
+    @Test
+    public void testEncodedBytesAreReused() {
+        MoodEvent moodEvent = new MoodEvent();
+        moodEvent.setPhotoBlob(Blob.fromBytes(fakeBytes));
+
+        Blob photoBlob = moodEvent.getPhotoBlob();
+        assertNotNull(photoBlob);
+        assertArrayEquals(fakeBytes, photoBlob.toBytes());
+
+        // Re-serializing a fetched mood event must not decode and re-encode the photo
+        photoUtilsMockedStatic.verify(() -> PhotoUtils.compressPhoto(Mockito.any()), Mockito.never());
+    }
+
+    @Test
+    public void testDecodeLegacyImage() {
         MoodEvent moodEvent = new MoodEvent();
         moodEvent.setPhotoBytes(fakeByteList);
 
         assertEquals(bitmap, moodEvent.getPhoto());
 
-        photoUtilsMockedStatic.verify(() -> PhotoUtils.decodePhoto(fakeByteList));
+        photoUtilsMockedStatic.verify(() -> PhotoUtils.decodePhoto(Mockito.aryEq(fakeBytes)));
     }
 
     @Test
     public void testGetNoImage() {
         MoodEvent moodEvent = new MoodEvent();
-        assertNull(moodEvent.getPhotoBytes());
+        assertNull(moodEvent.getPhotoBlob());
+        assertFalse(moodEvent.hasPhoto());
+    }
+
+    @Test
+    public void testPhotoStoredSeparately() {
+        // Mood events read from the moodEvents collection only carry the hasPhoto flag
+        MoodEvent moodEvent = new MoodEvent();
+        moodEvent.setHasPhoto(true);
+
+        assertTrue(moodEvent.hasPhoto());
+        assertFalse(moodEvent.isPhotoLoaded());
+        assertNull(moodEvent.getPhotoBlob());
+
+        moodEvent.setPhotoBlob(Blob.fromBytes(fakeBytes));
+        assertTrue(moodEvent.isPhotoLoaded());
+
+        // Removing the photo clears the flag too
+        moodEvent.setPhoto(null);
+        assertFalse(moodEvent.getHasPhoto());
+    }
+
+    @Test
+    public void testReplacingPhotoDropsThumbnail() {
+        MoodEvent moodEvent = new MoodEvent();
+        moodEvent.setPhotoBlob(Blob.fromBytes(fakeBytes));
+        moodEvent.setThumbnail(Blob.fromBytes(fakeBytes));
+        assertNotNull(moodEvent.getThumbnail());
+
+        // A stale thumbnail must not outlive the photo it previews
+        moodEvent.setPhoto(bitmap);
+        assertNull(moodEvent.getThumbnail());
+    }
+
+    @Test
+    public void testPreEncodedPhotoIsNotCompressedAgain() {
+        MoodEvent moodEvent = new MoodEvent();
+        byte[] thumbnail = new byte[] { 7 };
+        moodEvent.setPhoto(bitmap, fakeBytes, thumbnail);
+
+        assertTrue(moodEvent.isPhotoLoaded());
+        assertArrayEquals(fakeBytes, moodEvent.getPhotoBlob().toBytes());
+        assertArrayEquals(thumbnail, moodEvent.getThumbnail().toBytes());
+        photoUtilsMockedStatic.verify(() -> PhotoUtils.compressPhoto(Mockito.any()), Mockito.never());
+        photoUtilsMockedStatic.verify(() -> PhotoUtils.createThumbnail(Mockito.any()), Mockito.never());
+    }
+
+    @Test
+    public void testKeepStoredPhoto() {
+        MoodEvent stored = new MoodEvent();
+        stored.setPhotoBlob(Blob.fromBytes(fakeBytes));
+        stored.setPhotoHash("hash");
+        stored.setThumbnail(Blob.fromBytes(fakeBytes));
+
+        // An edit which didn't touch the photo starts from the decoded copy shown in the form
+        MoodEvent edited = new MoodEvent();
+        edited.setPhoto(bitmap);
+        edited.keepStoredPhoto(stored);
+
+        assertTrue(edited.hasPhoto());
+        assertEquals("hash", edited.getPhotoHash());
+        assertNotNull(edited.getThumbnail());
+        // The stored photo is left as is rather than re-encoded
+        assertFalse(edited.isPhotoLoaded());
+        assertNull(edited.getPhotoBlob());
+        photoUtilsMockedStatic.verify(() -> PhotoUtils.compressPhoto(Mockito.any()), Mockito.never());
+
+        // Even if the photo was never loaded
+        MoodEvent unloaded = new MoodEvent();
+        unloaded.setHasPhoto(true);
+        unloaded.setPhotoHash("hash");
+        edited.keepStoredPhoto(unloaded);
+        assertTrue(edited.getHasPhoto());
+        assertEquals("hash", edited.getPhotoHash());
     }
-    
-    
 }
@@ -0,0 +1,95 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.data.MoodEventVisibility;
+import com.kernelcrew.moodapp.data.MoodHeatmapCell;
+import com.kernelcrew.moodapp.data.MoodHeatmapWorker;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Unit tests for the heatmap counting of {@link MoodHeatmapWorker} and {@link MoodHeatmapCell}.
+ */
+public class MoodHeatmapWorkerTest {
+    private static MoodEvent mood(Emotion emotion, Double latitude, Double longitude) {
+        return new MoodEvent("uid", "user", emotion, "Alone", "", latitude, longitude);
+    }
+
+    @Test
+    public void testCellsOf() {
+        assertEquals(Arrays.asList("c3", "c3x"), MoodHeatmapWorker.cellsOf(mood(Emotion.HAPPINESS, 53.5232, -113.5263)));
+        assertTrue(MoodHeatmapWorker.cellsOf(mood(Emotion.HAPPINESS, null, null)).isEmpty());
+
+        MoodEvent hidden = mood(Emotion.HAPPINESS, 53.5232, -113.5263);
+        hidden.setVisibility(MoodEventVisibility.PRIVATE);
+        assertTrue(MoodHeatmapWorker.cellsOf(hidden).isEmpty());
+    }
+
+    @Test
+    public void testInsertAndDeleteDeltas() {
+        MoodEvent mood = mood(Emotion.SADNESS, 53.5232, -113.5263);
+        Map<String, MoodHeatmapCell> inserted = MoodHeatmapWorker.deltas(null, mood);
+        assertEquals(new HashSet<>(Arrays.asList("c3", "c3x")), inserted.keySet());
+        assertEquals(1, inserted.get("c3x").getTotal());
+        assertEquals(1, inserted.get("c3x").count(Emotion.SADNESS));
+        assertEquals(3, inserted.get("c3x").getPrecision());
+
+        Map<String, MoodHeatmapCell> deleted = MoodHeatmapWorker.deltas(mood, null);
+        assertEquals(-1, deleted.get("c3").getTotal());
+        assertEquals(-1, deleted.get("c3").count(Emotion.SADNESS));
+    }
+
+    @Test
+    public void testEditsOnlyTouchChangedCounts() {
+        MoodEvent before = mood(Emotion.SADNESS, 53.5232, -113.5263);
+
+        // Only the reason changed
+        MoodEvent reason = mood(Emotion.SADNESS, 53.5232, -113.5263);
+        reason.setReason("new reason");
+        assertTrue(MoodHeatmapWorker.deltas(before, reason).isEmpty());
+
+        // The emotion changed, so both cells move a count from one emotion to the other
+        Map<String, MoodHeatmapCell> emotion = MoodHeatmapWorker.deltas(before, mood(Emotion.FEAR, 53.5232, -113.5263));
+        assertEquals(2, emotion.size());
+        assertEquals(0, emotion.get("c3x").getTotal());
+        assertEquals(-1, emotion.get("c3x").count(Emotion.SADNESS));
+        assertEquals(1, emotion.get("c3x").count(Emotion.FEAR));
+
+        // Moved to Calgary, which shares the larger cell only
+        Map<String, MoodHeatmapCell> moved = MoodHeatmapWorker.deltas(before, mood(Emotion.SADNESS, 51.05, -114.07));
+        assertEquals(new HashSet<>(Arrays.asList("c3x", "c3n")), moved.keySet());
+        assertEquals(-1, moved.get("c3x").getTotal());
+        assertEquals(1, moved.get("c3n").getTotal());
+
+        // Made private
+        MoodEvent hidden = mood(Emotion.SADNESS, 53.5232, -113.5263);
+        hidden.setVisibility(MoodEventVisibility.PRIVATE);
+        assertEquals(-1, MoodHeatmapWorker.deltas(before, hidden).get("c3").getTotal());
+    }
+
+    @Test
+    public void testCellCountsByEmotion() {
+        MoodHeatmapCell cell = new MoodHeatmapCell("c3x");
+        cell.add(Emotion.HAPPINESS, 3);
+        cell.add(Emotion.SADNESS, 2);
+        cell.add(Emotion.FEAR, 2);
+
+        assertEquals(7, cell.count(Collections.emptySet()));
+        assertEquals(4, cell.count(EnumSet.of(Emotion.SADNESS, Emotion.FEAR)));
+        assertEquals(Emotion.HAPPINESS, cell.dominantEmotion(Collections.emptySet()));
+        // Ties go to the first in declaration order
+        assertEquals(Emotion.FEAR, cell.dominantEmotion(EnumSet.of(Emotion.SADNESS, Emotion.FEAR)));
+        assertNull(cell.dominantEmotion(EnumSet.of(Emotion.ANGER)));
+    }
+}
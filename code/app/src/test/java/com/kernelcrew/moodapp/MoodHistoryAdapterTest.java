@@ -14,12 +14,16 @@ import com.kernelcrew.moodapp.ui.MoodHistoryAdapter;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
-import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -29,9 +33,12 @@ import java.util.*;
  * This class contains unit tests to verify the behavior of the {@link MoodHistoryAdapter},
  * including setting moods, binding data to views, and handling null list initialization.
  */
-@RunWith(MockitoJUnitRunner.class)
+@RunWith(RobolectricTestRunner.class)
 public class MoodHistoryAdapterTest {
 
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
     @Mock
     private MoodHistoryAdapter.OnItemClickListener mockListener;
 
@@ -97,4 +104,31 @@ public class MoodHistoryAdapterTest {
         MoodHistoryAdapter nullAdapter = new MoodHistoryAdapter(null, mockListener);
         assertEquals(0, nullAdapter.getItemCount());
     }
+
+    /**
+     * Tests that a new list is diffed against the current one, keeping the stable id of each
+     * mood event.
+     */
+    @Test
+    public void testSetMoodsDiffsAndKeepsStableIds() throws InterruptedException {
+        long firstId = adapter.getItemId(0);
+
+        List<MoodEvent> updated = createTestMoodEvents();
+        MoodEvent mood3 = new MoodEvent();
+        mood3.setId("mood3_id");
+        mood3.setCreated(new Date());
+        updated.add(0, mood3);
+        adapter.setMoods(updated);
+
+        // The diff runs on a background thread and is applied on the main thread
+        for (int i = 0; i < 100 && adapter.getItemCount() != 3; i++) {
+            Thread.sleep(10);
+            ShadowLooper.idleMainLooper();
+        }
+
+        assertEquals(3, adapter.getItemCount());
+        assertEquals("mood3_id", adapter.getItems().get(0).getId());
+        assertEquals(firstId, adapter.getItemId(1));
+        assertTrue(adapter.hasStableIds());
+    }
 }
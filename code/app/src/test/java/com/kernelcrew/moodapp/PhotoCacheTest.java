@@ -0,0 +1,81 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.utils.PhotoCache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Unit tests for {@link PhotoCache}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PhotoCacheTest {
+    // 64x64 ARGB_8888 = 16KB
+    private static Bitmap photo() {
+        return Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+    }
+
+    @Test
+    public void testHitAndMissCounters() {
+        PhotoCache cache = new PhotoCache(1024);
+        Bitmap bitmap = photo();
+
+        assertNull(cache.get("mood:abc"));
+        cache.put("mood:abc", bitmap);
+        assertSame(bitmap, cache.get("mood:abc"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        // Room for two 16KB photos
+        PhotoCache cache = new PhotoCache(40);
+        cache.put("a", photo());
+        cache.put("b", photo());
+        cache.get("a");
+        cache.put("c", photo());
+
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testTrimMemory() {
+        PhotoCache cache = new PhotoCache(1024);
+        cache.put("a", photo());
+        cache.put("b", photo());
+
+        cache.trim(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(32, cache.getSizeKilobytes());
+
+        cache.trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, cache.getSizeKilobytes());
+    }
+
+    @Test
+    public void testKeyChangesWithPhoto() {
+        MoodEvent moodEvent = new MoodEvent();
+        moodEvent.setId("mood");
+        assertNull(PhotoCache.keyOf(moodEvent));
+
+        moodEvent.setHasPhoto(true);
+        moodEvent.setPhotoHash("abc");
+        String before = PhotoCache.keyOf(moodEvent);
+        moodEvent.setPhotoHash("def");
+
+        assertEquals("mood:abc", before);
+        assertNotEquals(before, PhotoCache.keyOf(moodEvent));
+    }
+}
@@ -0,0 +1,38 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.kernelcrew.moodapp.utils.PhotoImporter;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the sizing math in {@link PhotoImporter}.
+ */
+public class PhotoImporterTest {
+    @Test
+    public void testSmallImageIsNotSampled() {
+        assertEquals(1, PhotoImporter.calculateInSampleSize(800, 600, 1024));
+        assertArrayEquals(new int[] { 800, 600 }, PhotoImporter.targetSize(800, 600, 1024));
+    }
+
+    @Test
+    public void testCameraImageIsSampled() {
+        // 12 MP camera image
+        int sampleSize = PhotoImporter.calculateInSampleSize(4000, 3000, 1024);
+        assertEquals(2, sampleSize);
+        // Sampling never goes below the requested size
+        assertTrue(4000 / sampleSize >= 1024);
+
+        // 50 MP camera image
+        assertEquals(8, PhotoImporter.calculateInSampleSize(8160, 6120, 1024));
+    }
+
+    @Test
+    public void testTargetSizeKeepsAspectRatio() {
+        assertArrayEquals(new int[] { 1024, 768 }, PhotoImporter.targetSize(4000, 3000, 1024));
+        assertArrayEquals(new int[] { 768, 1024 }, PhotoImporter.targetSize(3000, 4000, 1024));
+    }
+}
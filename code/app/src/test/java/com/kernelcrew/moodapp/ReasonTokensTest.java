@@ -0,0 +1,59 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.kernelcrew.moodapp.data.ReasonTokens;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ReasonTokens}.
+ */
+public class ReasonTokensTest {
+    @Test
+    public void testNormalizeRemovesCaseAndAccents() {
+        assertEquals("cafe creme", ReasonTokens.normalize("Café CRÈME"));
+        assertEquals("", ReasonTokens.normalize(null));
+    }
+
+    @Test
+    public void testWordsSplitOnPunctuation() {
+        assertEquals(Arrays.asList("bad", "day", "at", "work", "2"),
+                ReasonTokens.words("Bad day... at WORK, day 2!"));
+    }
+
+    @Test
+    public void testTokensArePrefixesOfWords() {
+        List<String> tokens = ReasonTokens.tokensFor("Sad cat");
+        assertEquals(Arrays.asList("s", "sa", "sad", "c", "ca", "cat"), tokens);
+
+        for (String token : ReasonTokens.tokensFor("unbelievably overwhelming")) {
+            assertTrue(token.length() <= ReasonTokens.MAX_PREFIX_LENGTH);
+        }
+    }
+
+    @Test
+    public void testQueryTermsLongestFirstAndCapped() {
+        assertEquals(Arrays.asList("exams", "bad"), ReasonTokens.queryTerms("bad EXAMS bad", 10));
+        assertEquals(Collections.singletonList("exams"), ReasonTokens.queryTerms("bad exams", 1));
+        assertEquals(Collections.singletonList("unbelievably"), ReasonTokens.queryTerms("unbelievablyyyy", 10));
+        assertTrue(ReasonTokens.queryTerms("  ...  ", 10).isEmpty());
+    }
+
+    @Test
+    public void testMatchesEveryWordAsPrefix() {
+        assertTrue(ReasonTokens.matches("Had a great day at the park", "gre par"));
+        assertTrue(ReasonTokens.matches("Café with friends", "cafe"));
+        assertTrue(ReasonTokens.matches("anything", ""));
+        assertFalse(ReasonTokens.matches("Had a great day", "great night"));
+        // Stemming-free: words must start with the query, not merely contain it
+        assertFalse(ReasonTokens.matches("Unhappy", "happy"));
+        assertFalse(ReasonTokens.matches(null, "happy"));
+    }
+}
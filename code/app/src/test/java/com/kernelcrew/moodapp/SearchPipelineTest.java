@@ -0,0 +1,122 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.CancellationToken;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.kernelcrew.moodapp.ui.components.SearchPipeline;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link SearchPipeline}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SearchPipelineTest {
+    private static final long DEBOUNCE_MS = 200;
+
+    private final List<String> searched = new ArrayList<>();
+    private final List<TaskCompletionSource<String>> searches = new ArrayList<>();
+    private final List<CancellationToken> tokens = new ArrayList<>();
+    private final List<String> delivered = new ArrayList<>();
+    private SearchPipeline<String> pipeline;
+
+    @Before
+    public void setUp() {
+        pipeline = new SearchPipeline<>(DEBOUNCE_MS, 10, (query, token) -> {
+            searched.add(query);
+            tokens.add(token);
+            TaskCompletionSource<String> search = new TaskCompletionSource<>();
+            searches.add(search);
+            return search.getTask();
+        }, new SearchPipeline.Listener<String>() {
+            @Override
+            public void onResults(@NonNull String query, String results) {
+                delivered.add(results);
+            }
+
+            @Override
+            public void onError(@NonNull String query, @NonNull Exception e) {
+                delivered.add("error");
+            }
+        });
+    }
+
+    private void complete(int search, String results) {
+        searches.get(search).setResult(results);
+        ShadowLooper.idleMainLooper();
+    }
+
+    @Test
+    public void testDebounceSearchesOnlyLastQuery() {
+        pipeline.submit("a");
+        pipeline.submit("al");
+        pipeline.submit("Alice ");
+        assertTrue(searched.isEmpty());
+
+        ShadowLooper.idleMainLooper(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        assertEquals(Collections.singletonList("alice"), searched);
+    }
+
+    @Test
+    public void testLatestQueryWins() {
+        pipeline.submitNow("a");
+        pipeline.submitNow("alice");
+        assertTrue(tokens.get(0).isCancellationRequested());
+        assertFalse(tokens.get(1).isCancellationRequested());
+
+        complete(1, "results for alice");
+        // The slow response for "a" arrives last and must not overwrite "alice"
+        complete(0, "results for a");
+        assertEquals(Collections.singletonList("results for alice"), delivered);
+    }
+
+    @Test
+    public void testCachedResultsSkipTheSearch() {
+        pipeline.submitNow("Bob");
+        complete(0, "results for bob");
+
+        pipeline.submit(" bob");
+        assertEquals(Arrays.asList("results for bob", "results for bob"), delivered);
+        ShadowLooper.idleMainLooper(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        assertEquals(1, searched.size());
+
+        pipeline.clearCache();
+        pipeline.submitNow("bob");
+        assertEquals(2, searched.size());
+    }
+
+    @Test
+    public void testCancelDropsPendingAndInFlightSearches() {
+        pipeline.submitNow("a");
+        pipeline.submit("ab");
+        pipeline.cancel();
+
+        ShadowLooper.idleMainLooper(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        complete(0, "results for a");
+        assertEquals(1, searched.size());
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void testErrorsAreDelivered() {
+        pipeline.submitNow("a");
+        searches.get(0).setException(new Exception("offline"));
+        ShadowLooper.idleMainLooper();
+        assertEquals(Collections.singletonList("error"), delivered);
+    }
+}
@@ -0,0 +1,66 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.kernelcrew.moodapp.data.UserSearchIndex;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link UserSearchIndex}.
+ */
+public class UserSearchIndexTest {
+    @Test
+    public void testNormalize() {
+        assertEquals("alice", UserSearchIndex.normalize("  AlIcE "));
+        assertEquals("", UserSearchIndex.normalize(null));
+    }
+
+    @Test
+    public void testTokensContainEverySubstring() {
+        List<String> tokens = UserSearchIndex.tokensFor("Anna");
+
+        // a, an, ann, anna, n, nn, nna, na (distinct)
+        assertEquals(8, tokens.size());
+        assertEquals(tokens.size(), new HashSet<>(tokens).size());
+        for (String expected : new String[] {"a", "an", "ann", "anna", "n", "nn", "nna", "na"}) {
+            assertTrue(expected, tokens.contains(expected));
+        }
+    }
+
+    @Test
+    public void testTokensAreCappedInLength() {
+        String username = "averyveryverylongusername";
+        for (String token : UserSearchIndex.tokensFor(username)) {
+            assertTrue(token.length() <= UserSearchIndex.MAX_TOKEN_LENGTH);
+        }
+        assertTrue(UserSearchIndex.tokensFor(username).contains("username"));
+        assertFalse(UserSearchIndex.tokensFor(username).contains(username));
+    }
+
+    @Test
+    public void testQueryToken() {
+        assertEquals("bob", UserSearchIndex.queryToken(" Bob"));
+        assertEquals("averyver", UserSearchIndex.queryToken("AVeryVeryLongQuery"));
+    }
+
+    @Test
+    public void testMatches() {
+        assertTrue(UserSearchIndex.matches("Test_Username", "user"));
+        assertTrue(UserSearchIndex.matches("Test_Username", ""));
+        assertFalse(UserSearchIndex.matches("Test_Username", "alice"));
+    }
+
+    @Test
+    public void testFieldsFor() {
+        Map<String, Object> fields = UserSearchIndex.fieldsFor("Bob");
+        assertEquals("bob", fields.get(UserSearchIndex.USERNAME_LOWER_FIELD));
+        assertEquals(UserSearchIndex.tokensFor("Bob"), fields.get(UserSearchIndex.SEARCH_TOKENS_FIELD));
+    }
+}
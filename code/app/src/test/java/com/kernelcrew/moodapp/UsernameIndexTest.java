@@ -0,0 +1,127 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.kernelcrew.moodapp.data.User;
+import com.kernelcrew.moodapp.data.UsernameIndex;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link UsernameIndex}.
+ */
+public class UsernameIndexTest {
+    private UsernameIndex index;
+
+    @Before
+    public void setUp() {
+        index = new UsernameIndex();
+    }
+
+    private static List<String> names(List<User> users) {
+        List<String> names = new ArrayList<>();
+        for (User user : users) {
+            names.add(user.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testPrefixSearchIsCaseInsensitiveAndSorted() {
+        index.put("u1", "bob");
+        index.put("u2", "Alice");
+        index.put("u3", "alfred");
+        index.put("u4", "Malcolm");
+
+        assertEquals(Arrays.asList("alfred", "Alice"), names(index.searchPrefix("AL", 10, null)));
+        assertEquals(Collections.singletonList("bob"), names(index.searchPrefix("b", 10, null)));
+        assertTrue(index.searchPrefix("z", 10, null).isEmpty());
+    }
+
+    @Test
+    public void testLimitAndExclude() {
+        for (int i = 0; i < 10; i++) {
+            index.put("u" + i, "user" + i);
+        }
+        assertEquals(3, index.searchPrefix("user", 3, null).size());
+        assertEquals("user1", index.searchPrefix("user", 1, "u0").get(0).getName());
+    }
+
+    @Test
+    public void testRenameAndRemove() {
+        index.put("u1", "alice");
+        index.searchPrefix("a", 10, null);
+
+        index.put("u1", "zoe");
+        assertTrue(index.searchPrefix("a", 10, null).isEmpty());
+        assertEquals(1, index.searchPrefix("z", 10, null).size());
+
+        index.remove("u1");
+        assertTrue(index.searchPrefix("z", 10, null).isEmpty());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testPutAllSkipsUsersWithoutUsername() {
+        index.putAll(Arrays.asList(new User("u1", "alice", true), new User("u2", "u2", false),
+                new User("u3", null, false)));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testMergeDropsDuplicatesAndRanks() {
+        List<User> local = Arrays.asList(new User("u1", "anna", false), new User("u2", "annie", false));
+        List<User> server = Arrays.asList(new User("u3", "joanna", false), new User("u1", "anna", false));
+
+        List<User> merged = UsernameIndex.merge(local, server, "ann", 10);
+        assertEquals(Arrays.asList("anna", "annie", "joanna"), names(merged));
+        assertEquals(2, UsernameIndex.merge(local, server, "ann", 2).size());
+    }
+
+    @Test
+    public void benchmarkTenThousandUsernames() {
+        assumeTrue(Boolean.getBoolean("benchmarks"));
+        int users = 10_000;
+        int queries = 10_000;
+        Random random = new Random(16);
+        String[] usernames = new String[users];
+        for (int i = 0; i < users; i++) {
+            StringBuilder name = new StringBuilder();
+            int length = 4 + random.nextInt(8);
+            for (int c = 0; c < length; c++) {
+                name.append((char) ('a' + random.nextInt(26)));
+            }
+            usernames[i] = name.toString();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            index.put("u" + i, usernames[i]);
+        }
+        index.rebuildIfDirty();
+        long buildNanos = System.nanoTime() - start;
+
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            String name = usernames[random.nextInt(users)];
+            found += index.searchPrefix(name.substring(0, 1 + random.nextInt(3)), 20, null).size();
+        }
+        long queryNanos = System.nanoTime() - start;
+
+        System.out.printf(Locale.ROOT, "UsernameIndex: build %d entries %d ms, %d prefix queries %.2f us each%n",
+                users, buildNanos / 1_000_000, queries, queryNanos / 1_000.0 / queries);
+        assertEquals(users, index.size());
+        assertTrue(found >= queries);
+    }
+}
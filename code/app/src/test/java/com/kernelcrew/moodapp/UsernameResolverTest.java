@@ -0,0 +1,126 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.kernelcrew.moodapp.data.UsernameResolver;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link UsernameResolver}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class UsernameResolverTest {
+    private final List<List<String>> batches = new ArrayList<>();
+    private final List<TaskCompletionSource<Map<String, String>>> fetches = new ArrayList<>();
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private UsernameResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = new UsernameResolver(uids -> {
+            batches.add(new ArrayList<>(uids));
+            TaskCompletionSource<Map<String, String>> fetch = new TaskCompletionSource<>();
+            fetches.add(fetch);
+            return fetch.getTask();
+        }, scheduled::add);
+    }
+
+    private void runScheduled() {
+        List<Runnable> toRun = new ArrayList<>(scheduled);
+        scheduled.clear();
+        toRun.forEach(Runnable::run);
+    }
+
+    @Test
+    public void testConcurrentLookupsShareOneFetch() {
+        Task<String> first = resolver.resolve("u1");
+        Task<String> second = resolver.resolve("u1");
+        assertSame(first, second);
+
+        runScheduled();
+        assertEquals(1, batches.size());
+
+        Map<String, String> result = new HashMap<>();
+        result.put("u1", "alice");
+        fetches.get(0).setResult(result);
+
+        assertEquals("alice", first.getResult());
+        assertEquals("alice", resolver.getCached("u1"));
+
+        // Cached now, so no further fetch
+        assertEquals("alice", resolver.resolve("u1").getResult());
+        runScheduled();
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testLookupsAreBatched() {
+        for (int i = 0; i < 45; i++) {
+            resolver.resolve("u" + i);
+        }
+        runScheduled();
+
+        // A full batch is fetched immediately, the rest once the frame's lookups are done
+        assertEquals(2, batches.size());
+        assertEquals(UsernameResolver.MAX_BATCH_SIZE, batches.get(0).size());
+        assertEquals(15, batches.get(1).size());
+    }
+
+    @Test
+    public void testMissingUserFails() {
+        Task<String> lookup = resolver.resolve("ghost");
+        runScheduled();
+        fetches.get(0).setResult(new HashMap<>());
+
+        assertFalse(lookup.isSuccessful());
+        assertNull(resolver.getCached("ghost"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        resolver.put("u1", "alice");
+        assertTrue(resolver.resolve("u1").isSuccessful());
+
+        resolver.invalidate("u1");
+        assertNull(resolver.getCached("u1"));
+    }
+
+    @Test
+    public void testCachedNamesExpire() {
+        long[] now = {0};
+        UsernameResolver clocked = new UsernameResolver(uids -> {
+            batches.add(new ArrayList<>(uids));
+            TaskCompletionSource<Map<String, String>> fetch = new TaskCompletionSource<>();
+            fetches.add(fetch);
+            return fetch.getTask();
+        }, scheduled::add, () -> now[0]);
+        clocked.put("u1", "alice");
+        assertEquals("alice", clocked.getCached("u1"));
+
+        // A day later the name may be stale, so it is fetched again
+        now[0] += 25 * 60 * 60 * 1000L;
+        assertNull(clocked.getCached("u1"));
+        Task<String> lookup = clocked.resolve("u1");
+        runScheduled();
+        assertEquals(1, batches.size());
+        Map<String, String> result = new HashMap<>();
+        result.put("u1", "alicia");
+        fetches.get(0).setResult(result);
+        assertEquals("alicia", lookup.getResult());
+    }
+}
@@ -0,0 +1,178 @@
+package com.kernelcrew.moodapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.kernelcrew.moodapp.data.Emotion;
+import com.kernelcrew.moodapp.data.MoodEvent;
+import com.kernelcrew.moodapp.data.MoodEventFilter;
+import com.kernelcrew.moodapp.data.ViewportLoader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link ViewportLoader}.
+ */
+public class ViewportLoaderTest {
+    /**
+     * Records the tiles listened to, so tests can push changes to them.
+     */
+    private static class FakeTileSource implements ViewportLoader.TileSource {
+        final Map<String, ViewportLoader.TileListener> listeners = new LinkedHashMap<>();
+        final Map<String, ListenerRegistration> registrations = new LinkedHashMap<>();
+        final List<String> fetched = new ArrayList<>();
+
+        @NonNull
+        @Override
+        public ListenerRegistration listen(@NonNull MoodEventFilter filter, @NonNull String cell,
+                                           @NonNull ViewportLoader.TileListener listener) {
+            String key = filter.getQueryKey() + "|" + cell;
+            fetched.add(cell);
+            listeners.put(key, listener);
+            ListenerRegistration registration = mock(ListenerRegistration.class);
+            registrations.put(key, registration);
+            return registration;
+        }
+    }
+
+    private FakeTileSource source;
+    private List<MoodEvent> delivered;
+    private ViewportLoader loader;
+    private MoodEventFilter filter;
+
+    @Before
+    public void setUp() {
+        source = new FakeTileSource();
+        loader = new ViewportLoader(source, moods -> delivered = moods);
+        filter = new MoodEventFilter(mock(CollectionReference.class));
+        loader.setFilter(filter);
+    }
+
+    private static MoodEvent mood(String id) {
+        MoodEvent mood = new MoodEvent("uid", "user", Emotion.HAPPINESS, "Alone", "", 53.52, -113.52);
+        mood.setId(id);
+        return mood;
+    }
+
+    private void push(String cell, MoodEvent... moods) {
+        source.listeners.get(filter.getQueryKey() + "|" + cell)
+                .onChanges(Arrays.asList(moods), Collections.emptyList(), true);
+    }
+
+    @Test
+    public void testOnlyMissingCellsAreFetched() {
+        loader.show(Arrays.asList("c3x2", "c3x3"));
+        assertEquals(Arrays.asList("c3x2", "c3x3"), source.fetched);
+
+        // Panning one cell over fetches one cell
+        loader.show(Arrays.asList("c3x3", "c3x6"));
+        assertEquals(Arrays.asList("c3x2", "c3x3", "c3x6"), source.fetched);
+
+        // Panning back fetches nothing
+        loader.show(Arrays.asList("c3x2", "c3x3"));
+        assertEquals(3, loader.getFetchCount());
+        assertEquals(3, loader.getCachedTileCount());
+    }
+
+    @Test
+    public void testZoomingInReusesTheLargerCell() {
+        loader.show(Collections.singletonList("c3x"));
+        push("c3x", mood("a"));
+        loader.show(Arrays.asList("c3x2", "c3x3"));
+        assertEquals(1, loader.getFetchCount());
+        assertEquals(1, delivered.size());
+    }
+
+    @Test
+    public void testZoomingIntoAFullCellFetchesTheSmallerCells() {
+        loader.show(Collections.singletonList("c3x"));
+        // Not loaded yet, so it is not known to hold everything
+        loader.show(Collections.singletonList("c3x2"));
+        assertEquals(Arrays.asList("c3x", "c3x2"), source.fetched);
+
+        // The larger cell stopped at its limit
+        loader.show(Collections.singletonList("c3x"));
+        source.listeners.get(filter.getQueryKey() + "|c3x")
+                .onChanges(Collections.singletonList(mood("a")), Collections.emptyList(), false);
+        loader.show(Collections.singletonList("c3x3"));
+        assertEquals(Arrays.asList("c3x", "c3x2", "c3x3"), source.fetched);
+
+        // Once it has room to spare again it serves the cells within it
+        push("c3x", mood("a"));
+        loader.show(Collections.singletonList("c3x6"));
+        assertEquals(3, loader.getFetchCount());
+    }
+
+    @Test
+    public void testCellsRefetchWhenTheLargerCellFillsUp() {
+        loader.show(Collections.singletonList("c3x"));
+        push("c3x", mood("a"));
+        loader.show(Collections.singletonList("c3x2"));
+        assertEquals(1, loader.getFetchCount());
+
+        source.listeners.get(filter.getQueryKey() + "|c3x")
+                .onChanges(Collections.singletonList(mood("b")), Collections.emptyList(), false);
+        assertEquals(Arrays.asList("c3x", "c3x2"), source.fetched);
+    }
+
+    @Test
+    public void testChangesInViewAreDelivered() {
+        loader.show(Arrays.asList("c3x2", "c3x3"));
+        push("c3x2", mood("a"), mood("b"));
+        push("c3x3", mood("c"));
+        assertEquals(3, delivered.size());
+
+        source.listeners.get(filter.getQueryKey() + "|c3x2")
+                .onChanges(Collections.emptyList(), Collections.singletonList("a"), true);
+        assertEquals(2, delivered.size());
+
+        // A tile out of view changing does not redraw the map
+        loader.show(Collections.singletonList("c3x3"));
+        delivered = null;
+        push("c3x2", mood("d"));
+        assertNull(delivered);
+    }
+
+    @Test
+    public void testFilterChangesRefetchAndSwitchingBackIsCached() {
+        loader.show(Collections.singletonList("c3x2"));
+        MoodEventFilter happy = new MoodEventFilter(mock(CollectionReference.class)).addEmotion(Emotion.HAPPINESS);
+        loader.setFilter(happy);
+        assertEquals(2, loader.getFetchCount());
+
+        // Only the location changed, so the tiles are the same
+        loader.setFilter(new MoodEventFilter(mock(CollectionReference.class)).setLocation(53.5, -113.5, 5));
+        assertEquals(2, loader.getFetchCount());
+    }
+
+    @Test
+    public void testEvictionStopsListening() {
+        // Cells of one length, so none is within another
+        for (int i = 0; i < ViewportLoader.MAX_CACHED_TILES + 1; i++) {
+            loader.show(Collections.singletonList(String.format(Locale.ROOT, "c3x%02d", i)));
+        }
+        assertEquals(ViewportLoader.MAX_CACHED_TILES, loader.getCachedTileCount());
+        verify(source.registrations.get(filter.getQueryKey() + "|c3x00")).remove();
+        verify(source.registrations.get(filter.getQueryKey() + "|c3x01"), never()).remove();
+
+        loader.clear();
+        assertEquals(0, loader.getCachedTileCount());
+        verify(source.registrations.get(filter.getQueryKey() + "|c3x01")).remove();
+    }
+}